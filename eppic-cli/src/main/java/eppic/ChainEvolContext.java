@@ -107,6 +107,12 @@ public class ChainEvolContext implements Serializable {
 	
 	private Compound compound;
 	
+	/**
+	 * The number of threads to use for the external programs (blast, blastclust, clustalo)
+	 * run for the homologs of this chain. If not positive, {@link EppicParams#getNumThreads()} is used
+	 */
+	private int numThreads;
+	
 
 	/**
 	 * Construct a ChainEvolContext from a Sequence. 
@@ -156,6 +162,21 @@ public class ChainEvolContext implements Serializable {
 		return isProtein;
 	}
 	
+	/**
+	 * Sets the number of threads to be used by the external programs (blast, blastclust, clustalo) 
+	 * run for the homologs of this chain, overriding {@link EppicParams#getNumThreads()}. 
+	 * Used when several chains are processed concurrently.
+	 * @param numThreads the number of threads, if not positive the value in EppicParams is used
+	 */
+	public void setNumThreads(int numThreads) {
+		this.numThreads = numThreads;
+	}
+	
+	private int getNumThreads(EppicParams params) {
+		if (numThreads>0) return numThreads;
+		return params.getNumThreads();
+	}
+	
 	public Compound getCompound() { 
 		return compound;
 	}
@@ -505,7 +526,7 @@ public class ChainEvolContext implements Serializable {
 		File blastPlusBlastp = params.getBlastpBin();
 		String blastDbDir = params.getBlastDbDir();
 		String blastDb = params.getBlastDb();
-		int blastNumThreads = params.getNumThreads(); 
+		int blastNumThreads = getNumThreads(params); 
 		int maxNumSeqs = params.getMaxNumSeqs();
 		HomologsSearchMode searchMode = params.getHomologsSearchMode();
 		boolean useUniparc = params.isUseUniparc();			
@@ -612,7 +633,7 @@ public class ChainEvolContext implements Serializable {
 					String.format("%4.2f",queryCovCutoff)+" query coverage cutoff and before redundancy elimination"
 					+" (chain "+getRepresentativeChainCode()+")");
 			
-			homologs.reduceRedundancy(maxNumSeqs, params.getBlastclustBin(), params.getBlastDataDir(), params.getNumThreads());
+			homologs.reduceRedundancy(maxNumSeqs, params.getBlastclustBin(), params.getBlastDataDir(), getNumThreads(params));
 
 			this.idCutoff = currentIdCutoff;
 			
@@ -629,7 +650,7 @@ public class ChainEvolContext implements Serializable {
 
 	public void align(EppicParams params) throws IOException, InterruptedException { 
 		File clustaloBin = params.getClustaloBin();
-		int nThreads = params.getNumThreads();
+		int nThreads = getNumThreads(params);
 		
 		// 3) alignment of the protein sequences
 		File alnCacheFile = null;
@@ -707,6 +728,27 @@ public class ChainEvolContext implements Serializable {
 		return totalScore/totalWeight;
 	}
 	
+	/**
+	 * Returns the conservation scores of the given residues, in the same order.
+	 * Residues that don't have a mapping to the reference UniProt get NaN.
+	 * @param residues
+	 * @return
+	 * @see #calcScoreForResidueSet(List)
+	 */
+	public double[] getConservationScores(List<Group> residues) {
+		double[] scores = new double[residues.size()];
+		List<Double> conservScores = getConservationScores();
+		for (int i=0;i<residues.size();i++) {
+			int queryPos = pdbToUniProtMapper.getUniProtIndexForPdbGroup(residues.get(i), !isSearchWithFullUniprot());
+			if (queryPos!=-1) {
+				scores[i] = conservScores.get(queryPos-1);
+			} else {
+				scores[i] = Double.NaN;
+			}
+		}
+		return scores;
+	}
+	
 	/**
 	 * Set the b-factors of the given pdb chain to conservation score values.
 	 * @param chain
@@ -3,9 +3,14 @@ package eppic;
 import java.io.IOException;
 import java.io.Serializable;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.biojava.nbio.structure.Compound;
 import org.biojava.nbio.structure.Structure;
@@ -28,6 +33,8 @@ public class ChainEvolContextList implements Serializable {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(ChainEvolContextList.class);
 	
+	private static final String ALIGN_PROGRAM = "clustalo";
+	
 	private Structure pdb;
 	
 	/**
@@ -245,6 +252,105 @@ public class ChainEvolContextList implements Serializable {
 
 	}
 	
+	/**
+	 * Finds homologs, retrieves their data, applies the identity cutoffs (with redundancy reduction), 
+	 * aligns and computes entropies for all chains, running the whole procedure for each chain as 
+	 * an independent concurrent task. This is equivalent to calling {@link #retrieveHomologs(EppicParams)}, 
+	 * {@link #align(EppicParams)} and {@link #computeEntropies(EppicParams)} in sequence.
+	 * <p>
+	 * The number of threads given by {@link EppicParams#getNumThreads()} is split between the 
+	 * chains running concurrently and the external programs (blast, blastclust, clustalo) of each chain.
+	 * If more than one chain fails, the error of the first failing chain (in chain order) is reported.
+	 * @param params
+	 * @throws EppicException
+	 */
+	public void retrieveHomologsAndAlignConcurrently(EppicParams params) throws EppicException {
+		
+		setCutoffs(params);
+		
+		List<ChainEvolContext> toProcess = new ArrayList<ChainEvolContext>();
+		for (ChainEvolContext chainEvCont:cecs.values()) {
+			if (!chainEvCont.hasQueryMatch()) {
+				// no query uniprot match, we do nothing with this sequence
+				continue;
+			}
+			toProcess.add(chainEvCont);
+		}
+		
+		int numConcurrentChains = Math.max(1, Math.min(toProcess.size(), params.getNumThreads()));
+		int numThreadsPerChain = Math.max(1, params.getNumThreads()/numConcurrentChains);
+		
+		LOGGER.info("Running evolutionary analysis of {} chains concurrently: {} chains at a time, using {} threads per chain", 
+				toProcess.size(), numConcurrentChains, numThreadsPerChain);
+		
+		params.getProgressLog().println("Blasting for homologs, reducing redundancy and aligning protein sequences with clustalo");
+		params.getProgressLog().print("chains: ");
+		
+		ExecutorService executor = Executors.newFixedThreadPool(numConcurrentChains);
+		
+		List<Future<Void>> futures = new ArrayList<Future<Void>>();
+		
+		for (final ChainEvolContext chainEvCont:toProcess) {
+			chainEvCont.setNumThreads(numThreadsPerChain);
+			
+			futures.add(executor.submit(() -> {
+				processChain(chainEvCont, params);
+				return null;
+			}));
+		}
+		
+		try {
+			// we wait for the tasks in chain order, so that output and errors are deterministic
+			for (int i=0;i<toProcess.size();i++) {
+				try {
+					futures.get(i).get();
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof EppicException) {
+						throw (EppicException) e.getCause();
+					}
+					if (e.getCause() instanceof RuntimeException) {
+						throw (RuntimeException) e.getCause();
+					}
+					throw new EppicException(e, "Unexpected error while running evolutionary analysis of chain "+
+							toProcess.get(i).getRepresentativeChainCode()+": "+e.getCause().getMessage(), true);
+				} catch (InterruptedException e) {
+					throw new EppicException(e, "Thread interrupted while running evolutionary analysis of chains concurrently: "+e.getMessage(), true);
+				}
+				params.getProgressLog().print(toProcess.get(i).getRepresentativeChainCode()+" ");
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		params.getProgressLog().println();
+		
+		// now that we have all data we don't need the connections anymore
+		closeConnections();
+	}
+	
+	/**
+	 * Runs the full evolutionary analysis for a single chain: same steps as in {@link #retrieveHomologs(EppicParams)},
+	 * {@link #align(EppicParams)} and {@link #computeEntropies(EppicParams)} 
+	 * @param chainEvCont
+	 * @param params
+	 * @throws EppicException
+	 */
+	private void processChain(ChainEvolContext chainEvCont, EppicParams params) throws EppicException {
+		
+		blastForHomologs(chainEvCont, params);
+		
+		chainEvCont.removeIdenticalToQuery(params.getMinQueryCovForIdenticalsRemoval());
+		
+		retrieveHomologsData(chainEvCont, params);
+		
+		applyIdentityCutoff(chainEvCont, params);
+		
+		if (params.isFilterByDomain()) chainEvCont.filterToSameDomainOfLife();
+		
+		align(chainEvCont, params, ALIGN_PROGRAM);
+		
+		chainEvCont.computeEntropies(params.getAlphabet());
+	}
+	
 	private void blastForHomologs(EppicParams params) throws EppicException {
 		params.getProgressLog().println("Blasting for homologs");
 		params.getProgressLog().print("chains: ");
@@ -255,21 +361,25 @@ public class ChainEvolContextList implements Serializable {
 			}
 			params.getProgressLog().print(chainEvCont.getRepresentativeChainCode()+" ");
 						
-			try {
-				chainEvCont.blastForHomologs(params);
-
-			} catch (BlastException e) {
-				throw new EppicException(e,"Couldn't run blast to retrieve homologs: "+e.getMessage() ,true);
-			} catch (IOException e) {
-				throw new EppicException(e,"Problem while blasting for sequence homologs: "+e.getMessage(),true);
-			} catch (InterruptedException e) {
-				throw new EppicException(e,"Thread interrupted while blasting for sequence homologs: "+e.getMessage(),true);
-			}
+			blastForHomologs(chainEvCont, params);
 
 		}
 		params.getProgressLog().println();
 	}
 	
+	private void blastForHomologs(ChainEvolContext chainEvCont, EppicParams params) throws EppicException {
+		try {
+			chainEvCont.blastForHomologs(params);
+
+		} catch (BlastException e) {
+			throw new EppicException(e,"Couldn't run blast to retrieve homologs: "+e.getMessage() ,true);
+		} catch (IOException e) {
+			throw new EppicException(e,"Problem while blasting for sequence homologs: "+e.getMessage(),true);
+		} catch (InterruptedException e) {
+			throw new EppicException(e,"Thread interrupted while blasting for sequence homologs: "+e.getMessage(),true);
+		}
+	}
+	
 	private void retrieveHomologsData(EppicParams params) throws EppicException {
 		params.getProgressLog().println("Retrieving UniProtKB data");
 		params.getProgressLog().print("chains: ");
@@ -281,38 +391,53 @@ public class ChainEvolContextList implements Serializable {
 			
 			params.getProgressLog().print(chainEvCont.getRepresentativeChainCode()+" ");
 			
-			// we first apply the hard identity cutoff because that's the maximum list we can ever have after applying filters, i.e. that's all data we need
-			chainEvCont.applyHardIdentityCutoff(params.getHomHardIdCutoff(), params.getQueryCoverageCutoff());
-			
-			try {
-				chainEvCont.retrieveHomologsData();
-			} catch (IOException e) {
-				throw new EppicException(e, "Problems while retrieving homologs data: "+e.getMessage(),true);
-			} catch (SQLException e) {
-				throw new EppicException(e, "Problems while retrieving homologs data from UniProt local database: "+e.getMessage(), true);
-			} catch (ServiceException e) {
-				throw new EppicException(e, "Problems while retrieving homologs data from UniProt JAPI: "+e.getMessage(), true);
-			} catch (Exception e) { // for any kind of exceptions thrown while connecting through uniprot JAPI
-				String msg = null;
-				if (useLocalUniprot) {
-					msg = "Problems while retrieving homologs data from UniProt local database. Error "+e.getMessage();
-				} else {
-					msg = "Problems while retrieving homologs data through UniProt JAPI. Are UniProt servers down?. Error: "+e.getMessage();
-				}
-				throw new EppicException(e, msg, true);
-			}
+			retrieveHomologsData(chainEvCont, params);
 
 		}		
 		params.getProgressLog().println();
 	}
 	
-	private void applyIdentityCutoff(EppicParams params) throws EppicException {
+	/**
+	 * Retrieves the UniProtKB data for the homologs of the given chain. 
+	 * Synchronized because the UniProt connections are shared by all chains and are not thread-safe.
+	 * @param chainEvCont
+	 * @param params
+	 * @throws EppicException
+	 */
+	private synchronized void retrieveHomologsData(ChainEvolContext chainEvCont, EppicParams params) throws EppicException {
+		// we first apply the hard identity cutoff because that's the maximum list we can ever have after applying filters, i.e. that's all data we need
+		chainEvCont.applyHardIdentityCutoff(params.getHomHardIdCutoff(), params.getQueryCoverageCutoff());
 		
+		try {
+			chainEvCont.retrieveHomologsData();
+		} catch (IOException e) {
+			throw new EppicException(e, "Problems while retrieving homologs data: "+e.getMessage(),true);
+		} catch (SQLException e) {
+			throw new EppicException(e, "Problems while retrieving homologs data from UniProt local database: "+e.getMessage(), true);
+		} catch (ServiceException e) {
+			throw new EppicException(e, "Problems while retrieving homologs data from UniProt JAPI: "+e.getMessage(), true);
+		} catch (Exception e) { // for any kind of exceptions thrown while connecting through uniprot JAPI
+			String msg = null;
+			if (useLocalUniprot) {
+				msg = "Problems while retrieving homologs data from UniProt local database. Error "+e.getMessage();
+			} else {
+				msg = "Problems while retrieving homologs data through UniProt JAPI. Are UniProt servers down?. Error: "+e.getMessage();
+			}
+			throw new EppicException(e, msg, true);
+		}
+	}
+	
+	private void setCutoffs(EppicParams params) {
 		this.minNumSeqs = params.getMinNumSeqs();
 		this.maxNumSeqs = params.getMaxNumSeqs();
 		this.queryCovCutoff = params.getQueryCoverageCutoff();
 		this.homSoftIdCutoff = params.getHomSoftIdCutoff();
 		this.homHardIdCutoff = params.getHomHardIdCutoff();
+	}
+	
+	private void applyIdentityCutoff(EppicParams params) throws EppicException {
+		
+		setCutoffs(params);
 		
 		for (ChainEvolContext chainEvCont:cecs.values()) {
 			if (!chainEvCont.hasQueryMatch()) {
@@ -320,21 +445,24 @@ public class ChainEvolContextList implements Serializable {
 				continue;
 			}
 
-			try {
-				
-				// applies the identity cutoffs iteratively and performs the redundancy reduction procedure 
-				chainEvCont.applyIdentityCutoff(params);
+			applyIdentityCutoff(chainEvCont, params);
+			
+		}
+	}
+	
+	private void applyIdentityCutoff(ChainEvolContext chainEvCont, EppicParams params) throws EppicException {
+		try {
+			
+			// applies the identity cutoffs iteratively and performs the redundancy reduction procedure 
+			chainEvCont.applyIdentityCutoff(params);
 
 
-			} catch (IOException e) {
-				throw new EppicException(e, "Problems while running blastclust for redundancy reduction of homologs: "+e.getMessage(), true);
-			} catch (InterruptedException e) {
-				throw new EppicException(e, "Problems while running blastclust for redundancy reduction of homologs: "+e.getMessage(), true);
-			} catch (BlastException e) {
-				throw new EppicException(e, "Problems while running blastclust for redundancy reduction of homologs: "+e.getMessage(), true);
-			}
-
-			
+		} catch (IOException e) {
+			throw new EppicException(e, "Problems while running blastclust for redundancy reduction of homologs: "+e.getMessage(), true);
+		} catch (InterruptedException e) {
+			throw new EppicException(e, "Problems while running blastclust for redundancy reduction of homologs: "+e.getMessage(), true);
+		} catch (BlastException e) {
+			throw new EppicException(e, "Problems while running blastclust for redundancy reduction of homologs: "+e.getMessage(), true);
 		}
 	}
 	
@@ -363,7 +491,7 @@ public class ChainEvolContextList implements Serializable {
 	
 	public void align(EppicParams params) throws EppicException {
 		
-		String alignProgram = "clustalo"; 
+		String alignProgram = ALIGN_PROGRAM; 
 		params.getProgressLog().println("Aligning protein sequences with "+ alignProgram);
 		params.getProgressLog().print("chains: ");
 		for (ChainEvolContext chainEvCont:cecs.values()) {
@@ -373,18 +501,22 @@ public class ChainEvolContextList implements Serializable {
 			}
 			
 			params.getProgressLog().print(chainEvCont.getRepresentativeChainCode()+" ");
-			try {
-				chainEvCont.align(params);
-			} catch (IOException e) {
-				throw new EppicException(e, "Problems while running "+alignProgram+" to align protein sequences: "+e.getMessage(),true);
-			} catch (InterruptedException e) {
-				throw new EppicException(e, "Thread interrupted while running "+alignProgram+" to align protein sequences: "+e.getMessage(),true);
-			} 
+			align(chainEvCont, params, alignProgram);
 
 		}
 		params.getProgressLog().println();
 	}
 	
+	private void align(ChainEvolContext chainEvCont, EppicParams params, String alignProgram) throws EppicException {
+		try {
+			chainEvCont.align(params);
+		} catch (IOException e) {
+			throw new EppicException(e, "Problems while running "+alignProgram+" to align protein sequences: "+e.getMessage(),true);
+		} catch (InterruptedException e) {
+			throw new EppicException(e, "Thread interrupted while running "+alignProgram+" to align protein sequences: "+e.getMessage(),true);
+		} 
+	}
+	
 	public void computeEntropies(EppicParams params) {
 		for (ChainEvolContext chainEvCont:cecs.values()) {
 			if (!chainEvCont.hasQueryMatch()) {
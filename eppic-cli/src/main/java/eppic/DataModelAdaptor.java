@@ -47,7 +47,6 @@ import eppic.assembly.AssemblyDescription;
 import eppic.assembly.CrystalAssemblies;
 import eppic.assembly.GraphUtils;
 import eppic.commons.sequence.Homolog;
-import eppic.commons.util.Goodies;
 import eppic.model.AssemblyContentDB;
 import eppic.model.AssemblyDB;
 import eppic.model.AssemblyScoreDB;
@@ -1121,7 +1120,7 @@ public class DataModelAdaptor {
 	
 	public void writeSerializedModelFile(File file) throws EppicException {
 		try {
-			Goodies.serialize(file,pdbInfo);
+			DataModelSerializer.write(file,pdbInfo);
 		} catch (IOException e) {
 			throw new EppicException(e, e.getMessage(), true);
 		}
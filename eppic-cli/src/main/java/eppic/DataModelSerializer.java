@@ -0,0 +1,1213 @@
+package eppic;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import eppic.model.AssemblyContentDB;
+import eppic.model.AssemblyDB;
+import eppic.model.AssemblyScoreDB;
+import eppic.model.ChainClusterDB;
+import eppic.model.ContactDB;
+import eppic.model.HomologDB;
+import eppic.model.InterfaceClusterDB;
+import eppic.model.InterfaceClusterScoreDB;
+import eppic.model.InterfaceDB;
+import eppic.model.InterfaceScoreDB;
+import eppic.model.InterfaceWarningDB;
+import eppic.model.JobDB;
+import eppic.model.PdbInfoDB;
+import eppic.model.ResidueBurialDB;
+import eppic.model.ResidueInfoDB;
+import eppic.model.RunParametersDB;
+import eppic.model.SeqClusterDB;
+import eppic.model.UniProtRefWarningDB;
+
+/**
+ * Reads and writes the PdbInfoDB tree (the serialized model file, .webui.dat)
+ * in a compact, versioned binary format that does not depend on Java serialization.
+ *
+ * The file starts with the {@link #MAGIC} bytes, the format version (int) and a flags byte
+ * (bit 0 set if the rest of the file is deflate-compressed). The tree is then written depth first,
+ * field by field, with collections prefixed by their size (-1 for null). Strings are written once
+ * and then referenced by their index in a table of previously written strings. The references
+ * between objects that are not parent-children (assemblies to interface clusters and residue burials
+ * to residue infos) are written as indices in the lists of the tree, and back references to parents
+ * are restored when reading.
+ *
+ * Files in the legacy format (Java serialization of the PdbInfoDB object) are detected and still read.
+ */
+public class DataModelSerializer {
+
+	/**
+	 * The first bytes of a file in this format
+	 */
+	public static final byte[] MAGIC = {'E','P','P','I','C','D','A','T'};
+
+	/**
+	 * The current version of the format. Readers can read all versions up to this one.
+	 */
+	public static final int VERSION = 1;
+
+	private static final int FLAG_COMPRESSED = 1;
+
+	/**
+	 * The first 2 bytes of a Java serialization stream
+	 */
+	private static final int LEGACY_STREAM_MAGIC = 0xACED;
+
+	private static final int NULL_REF = -1;
+	private static final int NEW_STRING = -2;
+
+	private static final int BUFFER_SIZE = 64*1024;
+
+	/**
+	 * Writes the given PdbInfoDB to file, uncompressed: compression reduces the size to less than half
+	 * but makes writing several times slower
+	 * @param file
+	 * @param pdbInfo
+	 * @throws IOException
+	 */
+	public static void write(File file, PdbInfoDB pdbInfo) throws IOException {
+		write(file, pdbInfo, false);
+	}
+
+	/**
+	 * Writes the given PdbInfoDB to file
+	 * @param file
+	 * @param pdbInfo
+	 * @param compress whether to deflate-compress the data
+	 * @throws IOException
+	 */
+	public static void write(File file, PdbInfoDB pdbInfo, boolean compress) throws IOException {
+		try (OutputStream os = new FileOutputStream(file)) {
+			write(os, pdbInfo, compress);
+		}
+	}
+
+	/**
+	 * Writes the given PdbInfoDB to the given stream. The stream is not closed.
+	 * @param os
+	 * @param pdbInfo
+	 * @param compress whether to deflate-compress the data
+	 * @throws IOException
+	 */
+	public static void write(OutputStream os, PdbInfoDB pdbInfo, boolean compress) throws IOException {
+		DataOutputStream header = new DataOutputStream(os);
+		header.write(MAGIC);
+		header.writeInt(VERSION);
+		header.writeByte(compress ? FLAG_COMPRESSED : 0);
+		header.flush();
+
+		Deflater deflater = null;
+		DeflaterOutputStream deflaterStream = null;
+		OutputStream payload = os;
+		if (compress) {
+			deflater = new Deflater(Deflater.BEST_SPEED);
+			deflaterStream = new DeflaterOutputStream(os, deflater, BUFFER_SIZE);
+			payload = deflaterStream;
+		}
+
+		try {
+			Output out = new Output(payload);
+			new Writer(out).writePdbInfo(pdbInfo);
+			out.flush();
+			if (deflaterStream!=null) deflaterStream.finish();
+		} finally {
+			if (deflater!=null) deflater.end();
+		}
+	}
+
+	/**
+	 * Reads a PdbInfoDB from the given file, either in this format or in the legacy
+	 * Java serialization format.
+	 * @param file
+	 * @return
+	 * @throws IOException if the file can't be read or it is in an unknown format or version
+	 */
+	public static PdbInfoDB read(File file) throws IOException {
+		try (InputStream is = new FileInputStream(file)) {
+			return read(is);
+		}
+	}
+
+	/**
+	 * Reads a PdbInfoDB from the given stream, either in this format or in the legacy
+	 * Java serialization format. The stream is not closed.
+	 * @param is
+	 * @return
+	 * @throws IOException if the stream can't be read or it is in an unknown format or version
+	 */
+	public static PdbInfoDB read(InputStream is) throws IOException {
+		BufferedInputStream bis = new BufferedInputStream(is, BUFFER_SIZE);
+
+		bis.mark(MAGIC.length);
+		byte[] magic = new byte[MAGIC.length];
+		int numRead = 0;
+		while (numRead<magic.length) {
+			int n = bis.read(magic, numRead, magic.length-numRead);
+			if (n==-1) break;
+			numRead += n;
+		}
+
+		if (numRead<magic.length || !Arrays.equals(magic, MAGIC)) {
+			bis.reset();
+			if (numRead>=2 && (((magic[0] & 0xff) << 8) | (magic[1] & 0xff)) == LEGACY_STREAM_MAGIC) {
+				return readLegacy(bis);
+			}
+			throw new IOException("Unknown format of serialized model data");
+		}
+
+		DataInputStream header = new DataInputStream(bis);
+		int version = header.readInt();
+		if (version<1 || version>VERSION) {
+			throw new IOException("Unsupported version "+version+" of serialized model data. Max supported version is "+VERSION);
+		}
+		int flags = header.readByte();
+
+		if ((flags & FLAG_COMPRESSED) != 0) {
+			Inflater inflater = new Inflater();
+			try {
+				return new Reader(new Input(new InflaterInputStream(bis, inflater, BUFFER_SIZE)), version).readPdbInfo();
+			} finally {
+				inflater.end();
+			}
+		} else {
+			return new Reader(new Input(bis), version).readPdbInfo();
+		}
+	}
+
+	/**
+	 * Returns true if the given file is in the legacy Java serialization format
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public static boolean isLegacyFormat(File file) throws IOException {
+		try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+			return in.readUnsignedShort() == LEGACY_STREAM_MAGIC;
+		}
+	}
+
+	private static PdbInfoDB readLegacy(InputStream is) throws IOException {
+		ObjectInputStream in = new ObjectInputStream(is);
+		try {
+			return (PdbInfoDB) in.readObject();
+		} catch (ClassNotFoundException|ClassCastException e) {
+			throw new IOException("Could not read legacy serialized model data: "+e.getMessage(), e);
+		}
+	}
+
+
+	private static class Writer {
+
+		private final Output out;
+
+		private final Map<String,Integer> strings;
+
+		private final Map<ResidueInfoDB,Integer> residueInfoIndices;
+		private final Map<InterfaceClusterDB,Integer> interfaceClusterIndices;
+		private final Map<AssemblyDB,Integer> assemblyIndices;
+
+		public Writer(Output out) {
+			this.out = out;
+			this.strings = new HashMap<>();
+			this.residueInfoIndices = new IdentityHashMap<>();
+			this.interfaceClusterIndices = new IdentityHashMap<>();
+			this.assemblyIndices = new IdentityHashMap<>();
+		}
+
+		public void writePdbInfo(PdbInfoDB p) throws IOException {
+			out.writeInt(p.getUid());
+			writeString(p.getTitle());
+			writeDate(p.getReleaseDate());
+			writeString(p.getSpaceGroup());
+			out.writeDouble(p.getResolution());
+			out.writeDouble(p.getRfreeValue());
+			writeString(p.getExpMethod());
+			writeString(p.getPdbCode());
+			out.writeInt(p.getNumChainClusters());
+			out.writeBoolean(p.isNcsOpsPresent());
+			out.writeDouble(p.getCellA());
+			out.writeDouble(p.getCellB());
+			out.writeDouble(p.getCellC());
+			out.writeDouble(p.getCellAlpha());
+			out.writeDouble(p.getCellBeta());
+			out.writeDouble(p.getCellGamma());
+			out.writeInt(p.getCrystalFormId());
+			out.writeBoolean(p.isNonStandardSg());
+			out.writeBoolean(p.isNonStandardCoordFrameConvention());
+			out.writeBoolean(p.isExhaustiveAssemblyEnumeration());
+
+			writeRunParameters(p.getRunParameters());
+			writeJob(p.getJob());
+
+			// the index of all residue infos (in order of chain clusters), referenced by the residue burials
+			if (p.getChainClusters()!=null) {
+				for (ChainClusterDB cc:p.getChainClusters()) {
+					if (cc.getResidueInfos()==null) continue;
+					for (ResidueInfoDB ri:cc.getResidueInfos()) {
+						residueInfoIndices.put(ri, residueInfoIndices.size());
+					}
+				}
+			}
+
+			if (writeSize(p.getChainClusters())) {
+				for (ChainClusterDB cc:p.getChainClusters()) writeChainCluster(cc);
+			}
+
+			if (writeSize(p.getInterfaceClusters())) {
+				for (InterfaceClusterDB ic:p.getInterfaceClusters()) {
+					interfaceClusterIndices.put(ic, interfaceClusterIndices.size());
+					writeInterfaceCluster(ic);
+				}
+			}
+
+			if (writeSize(p.getAssemblies())) {
+				for (AssemblyDB a:p.getAssemblies()) {
+					assemblyIndices.put(a, assemblyIndices.size());
+					writeAssembly(a);
+				}
+			}
+
+			// the assemblies of each interface cluster can only be written once all assemblies are indexed
+			if (p.getInterfaceClusters()!=null) {
+				for (InterfaceClusterDB ic:p.getInterfaceClusters()) {
+					writeReferences(ic.getAssemblies(), assemblyIndices, "assembly");
+				}
+			}
+		}
+
+		private void writeRunParameters(RunParametersDB r) throws IOException {
+			out.writeBoolean(r!=null);
+			if (r==null) return;
+			out.writeInt(r.getUid());
+			out.writeDouble(r.getHomSoftIdCutoff());
+			out.writeDouble(r.getHomHardIdCutoff());
+			out.writeDouble(r.getQueryCovCutoff());
+			out.writeInt(r.getMinNumSeqsCutoff());
+			out.writeInt(r.getMaxNumSeqsCutoff());
+			writeString(r.getAlphabet());
+			out.writeDouble(r.getCaCutoffForGeom());
+			out.writeDouble(r.getCaCutoffForCoreRim());
+			out.writeDouble(r.getCaCutoffForCoreSurface());
+			out.writeInt(r.getGeomCallCutoff());
+			out.writeDouble(r.getCrCallCutoff());
+			out.writeDouble(r.getCsCallCutoff());
+			writeString(r.getSearchMode());
+			writeString(r.getUniProtVersion());
+			writeString(r.getEppicVersion());
+			writeString(r.getEppicBuild());
+		}
+
+		private void writeJob(JobDB j) throws IOException {
+			// note that the user sessions of the job are not written
+			out.writeBoolean(j!=null);
+			if (j==null) return;
+			out.writeBoolean(j.getUid()!=null);
+			if (j.getUid()!=null) out.writeLong(j.getUid());
+			writeString(j.getJobId());
+			writeString(j.getStatus());
+			writeString(j.getEmail());
+			writeString(j.getIp());
+			writeString(j.getInputName());
+			out.writeInt(j.getInputType());
+			writeDate(j.getSubmissionDate());
+			writeString(j.getSubmissionId());
+		}
+
+		private void writeChainCluster(ChainClusterDB cc) throws IOException {
+			out.writeInt(cc.getUid());
+			writeString(cc.getRepChain());
+			writeString(cc.getMemberChains());
+			out.writeInt(cc.getNumMembers());
+			out.writeBoolean(cc.isProtein());
+			writeString(cc.getRefUniProtId());
+			out.writeInt(cc.getRefUniProtStart());
+			out.writeInt(cc.getRefUniProtEnd());
+			out.writeInt(cc.getPdbStart());
+			out.writeInt(cc.getPdbEnd());
+			writeString(cc.getPdbAlignedSeq());
+			writeString(cc.getRefAlignedSeq());
+			out.writeBoolean(cc.isHasUniProtRef());
+			out.writeInt(cc.getNumHomologs());
+			writeString(cc.getMsaAlignedSeq());
+			out.writeDouble(cc.getSeqIdCutoff());
+			out.writeDouble(cc.getClusteringSeqId());
+			writeString(cc.getFirstTaxon());
+			writeString(cc.getLastTaxon());
+			writeString(cc.getPdbCode());
+
+			if (writeSize(cc.getUniProtRefWarnings())) {
+				for (UniProtRefWarningDB w:cc.getUniProtRefWarnings()) {
+					out.writeInt(w.getUid());
+					writeString(w.getText());
+				}
+			}
+
+			if (writeSize(cc.getHomologs())) {
+				for (HomologDB h:cc.getHomologs()) {
+					out.writeInt(h.getUid());
+					writeString(h.getUniProtId());
+					out.writeDouble(h.getSeqId());
+					out.writeDouble(h.getQueryCoverage());
+					writeString(h.getFirstTaxon());
+					writeString(h.getLastTaxon());
+					out.writeInt(h.getQueryStart());
+					out.writeInt(h.getQueryEnd());
+					out.writeInt(h.getSubjectStart());
+					out.writeInt(h.getSubjectEnd());
+					writeString(h.getAlignedSeq());
+				}
+			}
+
+			SeqClusterDB sc = cc.getSeqCluster();
+			out.writeBoolean(sc!=null);
+			if (sc!=null) {
+				out.writeInt(sc.getUid());
+				writeString(sc.getPdbCode());
+				writeString(sc.getRepChain());
+				out.writeInt(sc.getC100());
+				out.writeInt(sc.getC95());
+				out.writeInt(sc.getC90());
+				out.writeInt(sc.getC80());
+				out.writeInt(sc.getC70());
+				out.writeInt(sc.getC60());
+				out.writeInt(sc.getC50());
+				out.writeInt(sc.getC40());
+				out.writeInt(sc.getC30());
+			}
+
+			if (writeSize(cc.getResidueInfos())) {
+				for (ResidueInfoDB ri:cc.getResidueInfos()) {
+					out.writeInt(ri.getUid());
+					writeString(ri.getPdbCode());
+					writeString(ri.getRepChain());
+					out.writeInt(ri.getResidueNumber());
+					writeString(ri.getPdbResidueNumber());
+					writeString(ri.getResidueType());
+					out.writeInt(ri.getUniProtNumber());
+					out.writeBoolean(ri.isMismatchToRef());
+					out.writeDouble(ri.getEntropyScore());
+				}
+			}
+		}
+
+		private void writeInterfaceCluster(InterfaceClusterDB ic) throws IOException {
+			out.writeInt(ic.getUid());
+			out.writeInt(ic.getClusterId());
+			writeString(ic.getPdbCode());
+			out.writeDouble(ic.getAvgArea());
+			out.writeDouble(ic.getAvgContactOverlapScore());
+			out.writeBoolean(ic.isInfinite());
+			out.writeBoolean(ic.isIsologous());
+			out.writeInt(ic.getNumMembers());
+			out.writeInt(ic.getGlobalInterfClusterId());
+
+			if (writeSize(ic.getInterfaceClusterScores())) {
+				for (InterfaceClusterScoreDB s:ic.getInterfaceClusterScores()) {
+					out.writeInt(s.getUid());
+					writeString(s.getPdbCode());
+					out.writeInt(s.getClusterId());
+					writeString(s.getCallName());
+					writeString(s.getCallReason());
+					out.writeDouble(s.getScore());
+					out.writeDouble(s.getConfidence());
+					out.writeDouble(s.getScore1());
+					out.writeDouble(s.getScore2());
+					writeString(s.getMethod());
+				}
+			}
+
+			if (writeSize(ic.getInterfaces())) {
+				for (InterfaceDB i:ic.getInterfaces()) writeInterface(i);
+			}
+		}
+
+		private void writeInterface(InterfaceDB i) throws IOException {
+			out.writeInt(i.getUid());
+			writeString(i.getPdbCode());
+			out.writeInt(i.getInterfaceId());
+			out.writeInt(i.getClusterId());
+			out.writeDouble(i.getArea());
+			writeString(i.getChain1());
+			writeString(i.getChain2());
+			writeString(i.getOperator());
+			writeString(i.getOperatorType());
+			out.writeBoolean(i.isInfinite());
+			out.writeBoolean(i.isIsologous());
+			out.writeDouble(i.getSelfContactOverlapScore());
+			out.writeBoolean(i.isProt1());
+			out.writeBoolean(i.isProt2());
+			out.writeInt(i.getOperatorId());
+			out.writeInt(i.getXtalTrans_x());
+			out.writeInt(i.getXtalTrans_y());
+			out.writeInt(i.getXtalTrans_z());
+			out.writeInt(i.getGlobalInterfClusterId());
+
+			if (writeSize(i.getInterfaceWarnings())) {
+				for (InterfaceWarningDB w:i.getInterfaceWarnings()) {
+					out.writeInt(w.getUid());
+					writeString(w.getText());
+				}
+			}
+
+			if (writeSize(i.getInterfaceScores())) {
+				for (InterfaceScoreDB s:i.getInterfaceScores()) {
+					out.writeInt(s.getUid());
+					writeString(s.getPdbCode());
+					writeString(s.getMethod());
+					out.writeInt(s.getInterfaceId());
+					out.writeDouble(s.getScore1());
+					out.writeDouble(s.getScore2());
+					out.writeDouble(s.getScore());
+					out.writeDouble(s.getConfidence());
+					writeString(s.getCallName());
+					writeString(s.getCallReason());
+				}
+			}
+
+			if (writeSize(i.getResidueBurials())) {
+				for (ResidueBurialDB rb:i.getResidueBurials()) {
+					out.writeInt(rb.getUid());
+					out.writeBoolean(rb.getSide());
+					out.writeDouble(rb.getAsa());
+					out.writeDouble(rb.getBsa());
+					out.writeShort(rb.getRegion());
+					writeReference(rb.getResidueInfo(), residueInfoIndices, "residue info");
+				}
+			}
+
+			if (writeSize(i.getContacts())) {
+				for (ContactDB c:i.getContacts()) {
+					out.writeInt(c.getUid());
+					out.writeInt(c.getFirstResNumber());
+					out.writeInt(c.getSecondResNumber());
+					writeString(c.getFirstResType());
+					writeString(c.getSecondResType());
+					out.writeDouble(c.getFirstBurial());
+					out.writeDouble(c.getSecondBurial());
+					out.writeDouble(c.getMinDistance());
+					out.writeInt(c.getNumAtoms());
+					out.writeBoolean(c.isClash());
+					out.writeInt(c.getNumHBonds());
+					out.writeBoolean(c.isDisulfide());
+					out.writeInt(c.getInterfaceId());
+					writeString(c.getPdbCode());
+				}
+			}
+		}
+
+		private void writeAssembly(AssemblyDB a) throws IOException {
+			out.writeInt(a.getUid());
+			out.writeInt(a.getId());
+			writeString(a.getPdbCode());
+			out.writeBoolean(a.isTopologicallyValid());
+			writeString(a.getInterfaceClusterIds());
+
+			writeReferences(a.getInterfaceClusters(), interfaceClusterIndices, "interface cluster");
+
+			if (writeSize(a.getAssemblyScores())) {
+				for (AssemblyScoreDB s:a.getAssemblyScores()) {
+					out.writeInt(s.getUid());
+					writeString(s.getMethod());
+					out.writeDouble(s.getScore());
+					out.writeDouble(s.getConfidence());
+					writeString(s.getCallName());
+					writeString(s.getCallReason());
+					writeString(s.getPdbCode());
+				}
+			}
+
+			if (writeSize(a.getAssemblyContents())) {
+				for (AssemblyContentDB c:a.getAssemblyContents()) {
+					out.writeInt(c.getUid());
+					writeString(c.getPdbCode());
+					out.writeInt(c.getMmSize());
+					writeString(c.getSymmetry());
+					writeString(c.getStoichiometry());
+					writeString(c.getComposition());
+					writeString(c.getCompositionRepChainIds());
+					writeString(c.getChainIds());
+				}
+			}
+		}
+
+		/**
+		 * Writes the size of the collection or -1 if it is null
+		 * @param c
+		 * @return true if the collection is not null
+		 * @throws IOException
+		 */
+		private boolean writeSize(Collection<?> c) throws IOException {
+			out.writeInt(c==null ? NULL_REF : c.size());
+			return c!=null;
+		}
+
+		private <T> void writeReferences(Collection<T> objects, Map<T,Integer> indices, String name) throws IOException {
+			if (writeSize(objects)) {
+				for (T o:objects) writeReference(o, indices, name);
+			}
+		}
+
+		private <T> void writeReference(T o, Map<T,Integer> indices, String name) throws IOException {
+			if (o==null) {
+				out.writeInt(NULL_REF);
+				return;
+			}
+			Integer index = indices.get(o);
+			if (index==null)
+				throw new IOException("Referenced "+name+" is not part of the PdbInfoDB tree, can't write it");
+			out.writeInt(index);
+		}
+
+		private void writeDate(Date d) throws IOException {
+			out.writeBoolean(d!=null);
+			if (d!=null) out.writeLong(d.getTime());
+		}
+
+		private void writeString(String s) throws IOException {
+			if (s==null) {
+				out.writeInt(NULL_REF);
+				return;
+			}
+			Integer index = strings.get(s);
+			if (index!=null) {
+				out.writeInt(index);
+				return;
+			}
+			strings.put(s, strings.size());
+			byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+			out.writeInt(NEW_STRING);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+	}
+
+	private static class Reader {
+
+		private final Input in;
+
+		/**
+		 * The version of the data being read, for future versions to be able to read old ones
+		 */
+		@SuppressWarnings("unused")
+		private final int version;
+
+		private final List<String> strings;
+
+		private final List<ResidueInfoDB> residueInfos;
+		private final List<InterfaceClusterDB> interfaceClusters;
+		private final List<AssemblyDB> assemblies;
+
+		public Reader(Input in, int version) {
+			this.in = in;
+			this.version = version;
+			this.strings = new ArrayList<>();
+			this.residueInfos = new ArrayList<>();
+			this.interfaceClusters = new ArrayList<>();
+			this.assemblies = new ArrayList<>();
+		}
+
+		public PdbInfoDB readPdbInfo() throws IOException {
+			PdbInfoDB p = new PdbInfoDB();
+			p.setUid(in.readInt());
+			p.setTitle(readString());
+			p.setReleaseDate(readDate());
+			p.setSpaceGroup(readString());
+			p.setResolution(in.readDouble());
+			p.setRfreeValue(in.readDouble());
+			p.setExpMethod(readString());
+			p.setPdbCode(readString());
+			p.setNumChainClusters(in.readInt());
+			p.setNcsOpsPresent(in.readBoolean());
+			p.setCellA(in.readDouble());
+			p.setCellB(in.readDouble());
+			p.setCellC(in.readDouble());
+			p.setCellAlpha(in.readDouble());
+			p.setCellBeta(in.readDouble());
+			p.setCellGamma(in.readDouble());
+			p.setCrystalFormId(in.readInt());
+			p.setNonStandardSg(in.readBoolean());
+			p.setNonStandardCoordFrameConvention(in.readBoolean());
+			p.setExhaustiveAssemblyEnumeration(in.readBoolean());
+
+			p.setRunParameters(readRunParameters(p));
+			p.setJob(readJob(p));
+
+			List<ChainClusterDB> chainClusters = readListSize();
+			if (chainClusters!=null) {
+				for (int i=0;i<chainClusters.size();i++) chainClusters.set(i, readChainCluster(p));
+			}
+			p.setChainClusters(chainClusters);
+
+			List<InterfaceClusterDB> ics = readListSize();
+			if (ics!=null) {
+				for (int i=0;i<ics.size();i++) {
+					InterfaceClusterDB ic = readInterfaceCluster(p);
+					ics.set(i, ic);
+					interfaceClusters.add(ic);
+				}
+			}
+			p.setInterfaceClusters(ics);
+
+			List<AssemblyDB> as = readListSize();
+			if (as!=null) {
+				for (int i=0;i<as.size();i++) {
+					AssemblyDB a = readAssembly(p);
+					as.set(i, a);
+					assemblies.add(a);
+				}
+			}
+			p.setAssemblies(as);
+
+			for (InterfaceClusterDB ic:interfaceClusters) {
+				ic.setAssemblies(readReferences(assemblies));
+			}
+
+			return p;
+		}
+
+		private RunParametersDB readRunParameters(PdbInfoDB p) throws IOException {
+			if (!in.readBoolean()) return null;
+			RunParametersDB r = new RunParametersDB();
+			r.setUid(in.readInt());
+			r.setHomSoftIdCutoff(in.readDouble());
+			r.setHomHardIdCutoff(in.readDouble());
+			r.setQueryCovCutoff(in.readDouble());
+			r.setMinNumSeqsCutoff(in.readInt());
+			r.setMaxNumSeqsCutoff(in.readInt());
+			r.setAlphabet(readString());
+			r.setCaCutoffForGeom(in.readDouble());
+			r.setCaCutoffForCoreRim(in.readDouble());
+			r.setCaCutoffForCoreSurface(in.readDouble());
+			r.setGeomCallCutoff(in.readInt());
+			r.setCrCallCutoff(in.readDouble());
+			r.setCsCallCutoff(in.readDouble());
+			r.setSearchMode(readString());
+			r.setUniProtVersion(readString());
+			r.setEppicVersion(readString());
+			r.setEppicBuild(readString());
+			r.setPdbInfo(p);
+			return r;
+		}
+
+		private JobDB readJob(PdbInfoDB p) throws IOException {
+			if (!in.readBoolean()) return null;
+			JobDB j = new JobDB();
+			if (in.readBoolean()) j.setUid(in.readLong());
+			j.setJobId(readString());
+			j.setStatus(readString());
+			j.setEmail(readString());
+			j.setIp(readString());
+			j.setInputName(readString());
+			j.setInputType(in.readInt());
+			j.setSubmissionDate(readDate());
+			j.setSubmissionId(readString());
+			j.setPdbInfo(p);
+			return j;
+		}
+
+		private ChainClusterDB readChainCluster(PdbInfoDB p) throws IOException {
+			ChainClusterDB cc = new ChainClusterDB();
+			cc.setUid(in.readInt());
+			cc.setRepChain(readString());
+			cc.setMemberChains(readString());
+			cc.setNumMembers(in.readInt());
+			cc.setProtein(in.readBoolean());
+			cc.setRefUniProtId(readString());
+			cc.setRefUniProtStart(in.readInt());
+			cc.setRefUniProtEnd(in.readInt());
+			cc.setPdbStart(in.readInt());
+			cc.setPdbEnd(in.readInt());
+			cc.setPdbAlignedSeq(readString());
+			cc.setRefAlignedSeq(readString());
+			cc.setHasUniProtRef(in.readBoolean());
+			cc.setNumHomologs(in.readInt());
+			cc.setMsaAlignedSeq(readString());
+			cc.setSeqIdCutoff(in.readDouble());
+			cc.setClusteringSeqId(in.readDouble());
+			cc.setFirstTaxon(readString());
+			cc.setLastTaxon(readString());
+			cc.setPdbCode(readString());
+			cc.setPdbInfo(p);
+
+			List<UniProtRefWarningDB> warnings = readListSize();
+			if (warnings!=null) {
+				for (int i=0;i<warnings.size();i++) {
+					UniProtRefWarningDB w = new UniProtRefWarningDB();
+					w.setUid(in.readInt());
+					w.setText(readString());
+					w.setChainCluster(cc);
+					warnings.set(i, w);
+				}
+			}
+			cc.setUniProtRefWarnings(warnings);
+
+			List<HomologDB> homologs = readListSize();
+			if (homologs!=null) {
+				for (int i=0;i<homologs.size();i++) {
+					HomologDB h = new HomologDB();
+					h.setUid(in.readInt());
+					h.setUniProtId(readString());
+					h.setSeqId(in.readDouble());
+					h.setQueryCoverage(in.readDouble());
+					h.setFirstTaxon(readString());
+					h.setLastTaxon(readString());
+					h.setQueryStart(in.readInt());
+					h.setQueryEnd(in.readInt());
+					h.setSubjectStart(in.readInt());
+					h.setSubjectEnd(in.readInt());
+					h.setAlignedSeq(readString());
+					h.setChainCluster(cc);
+					homologs.set(i, h);
+				}
+			}
+			cc.setHomologs(homologs);
+
+			if (in.readBoolean()) {
+				SeqClusterDB sc = new SeqClusterDB();
+				sc.setUid(in.readInt());
+				sc.setPdbCode(readString());
+				sc.setRepChain(readString());
+				sc.setC100(in.readInt());
+				sc.setC95(in.readInt());
+				sc.setC90(in.readInt());
+				sc.setC80(in.readInt());
+				sc.setC70(in.readInt());
+				sc.setC60(in.readInt());
+				sc.setC50(in.readInt());
+				sc.setC40(in.readInt());
+				sc.setC30(in.readInt());
+				sc.setChainCluster(cc);
+				cc.setSeqCluster(sc);
+			}
+
+			List<ResidueInfoDB> ris = readListSize();
+			if (ris!=null) {
+				for (int i=0;i<ris.size();i++) {
+					ResidueInfoDB ri = new ResidueInfoDB();
+					ri.setUid(in.readInt());
+					ri.setPdbCode(readString());
+					ri.setRepChain(readString());
+					ri.setResidueNumber(in.readInt());
+					ri.setPdbResidueNumber(readString());
+					ri.setResidueType(readString());
+					ri.setUniProtNumber(in.readInt());
+					ri.setMismatchToRef(in.readBoolean());
+					ri.setEntropyScore(in.readDouble());
+					ri.setChainCluster(cc);
+					ris.set(i, ri);
+					residueInfos.add(ri);
+				}
+			}
+			cc.setResidueInfos(ris);
+
+			return cc;
+		}
+
+		private InterfaceClusterDB readInterfaceCluster(PdbInfoDB p) throws IOException {
+			InterfaceClusterDB ic = new InterfaceClusterDB();
+			ic.setUid(in.readInt());
+			ic.setClusterId(in.readInt());
+			ic.setPdbCode(readString());
+			ic.setAvgArea(in.readDouble());
+			ic.setAvgContactOverlapScore(in.readDouble());
+			ic.setInfinite(in.readBoolean());
+			ic.setIsologous(in.readBoolean());
+			ic.setNumMembers(in.readInt());
+			ic.setGlobalInterfClusterId(in.readInt());
+			ic.setPdbInfo(p);
+
+			List<InterfaceClusterScoreDB> scores = readListSize();
+			if (scores!=null) {
+				for (int i=0;i<scores.size();i++) {
+					InterfaceClusterScoreDB s = new InterfaceClusterScoreDB();
+					s.setUid(in.readInt());
+					s.setPdbCode(readString());
+					s.setClusterId(in.readInt());
+					s.setCallName(readString());
+					s.setCallReason(readString());
+					s.setScore(in.readDouble());
+					s.setConfidence(in.readDouble());
+					s.setScore1(in.readDouble());
+					s.setScore2(in.readDouble());
+					s.setMethod(readString());
+					s.setInterfaceCluster(ic);
+					scores.set(i, s);
+				}
+			}
+			ic.setInterfaceClusterScores(scores);
+
+			List<InterfaceDB> interfaces = readListSize();
+			if (interfaces!=null) {
+				for (int i=0;i<interfaces.size();i++) interfaces.set(i, readInterface(ic));
+			}
+			ic.setInterfaces(interfaces);
+
+			return ic;
+		}
+
+		private InterfaceDB readInterface(InterfaceClusterDB ic) throws IOException {
+			InterfaceDB i = new InterfaceDB();
+			i.setUid(in.readInt());
+			i.setPdbCode(readString());
+			i.setInterfaceId(in.readInt());
+			i.setClusterId(in.readInt());
+			i.setArea(in.readDouble());
+			i.setChain1(readString());
+			i.setChain2(readString());
+			i.setOperator(readString());
+			i.setOperatorType(readString());
+			i.setInfinite(in.readBoolean());
+			i.setIsologous(in.readBoolean());
+			i.setSelfContactOverlapScore(in.readDouble());
+			i.setProt1(in.readBoolean());
+			i.setProt2(in.readBoolean());
+			i.setOperatorId(in.readInt());
+			i.setXtalTrans_x(in.readInt());
+			i.setXtalTrans_y(in.readInt());
+			i.setXtalTrans_z(in.readInt());
+			i.setGlobalInterfClusterId(in.readInt());
+			i.setInterfaceCluster(ic);
+
+			List<InterfaceWarningDB> warnings = readListSize();
+			if (warnings!=null) {
+				for (int j=0;j<warnings.size();j++) {
+					InterfaceWarningDB w = new InterfaceWarningDB();
+					w.setUid(in.readInt());
+					w.setText(readString());
+					w.setInterfaceItem(i);
+					warnings.set(j, w);
+				}
+			}
+			i.setInterfaceWarnings(warnings);
+
+			List<InterfaceScoreDB> scores = readListSize();
+			if (scores!=null) {
+				for (int j=0;j<scores.size();j++) {
+					InterfaceScoreDB s = new InterfaceScoreDB();
+					s.setUid(in.readInt());
+					s.setPdbCode(readString());
+					s.setMethod(readString());
+					s.setInterfaceId(in.readInt());
+					s.setScore1(in.readDouble());
+					s.setScore2(in.readDouble());
+					s.setScore(in.readDouble());
+					s.setConfidence(in.readDouble());
+					s.setCallName(readString());
+					s.setCallReason(readString());
+					s.setInterfaceItem(i);
+					scores.set(j, s);
+				}
+			}
+			i.setInterfaceScores(scores);
+
+			List<ResidueBurialDB> burials = readListSize();
+			if (burials!=null) {
+				for (int j=0;j<burials.size();j++) {
+					ResidueBurialDB rb = new ResidueBurialDB();
+					rb.setUid(in.readInt());
+					rb.setSide(in.readBoolean());
+					rb.setAsa(in.readDouble());
+					rb.setBsa(in.readDouble());
+					rb.setRegion(in.readShort());
+					rb.setResidueInfo(readReference(residueInfos));
+					rb.setInterfaceItem(i);
+					burials.set(j, rb);
+				}
+			}
+			i.setResidueBurials(burials);
+
+			List<ContactDB> contacts = readListSize();
+			if (contacts!=null) {
+				for (int j=0;j<contacts.size();j++) {
+					ContactDB c = new ContactDB();
+					c.setUid(in.readInt());
+					c.setFirstResNumber(in.readInt());
+					c.setSecondResNumber(in.readInt());
+					c.setFirstResType(readString());
+					c.setSecondResType(readString());
+					c.setFirstBurial(in.readDouble());
+					c.setSecondBurial(in.readDouble());
+					c.setMinDistance(in.readDouble());
+					c.setNumAtoms(in.readInt());
+					c.setClash(in.readBoolean());
+					c.setNumHBonds(in.readInt());
+					c.setDisulfide(in.readBoolean());
+					c.setInterfaceId(in.readInt());
+					c.setPdbCode(readString());
+					c.setInterfaceItem(i);
+					contacts.set(j, c);
+				}
+			}
+			i.setContacts(contacts);
+
+			return i;
+		}
+
+		private AssemblyDB readAssembly(PdbInfoDB p) throws IOException {
+			AssemblyDB a = new AssemblyDB();
+			a.setUid(in.readInt());
+			a.setId(in.readInt());
+			a.setPdbCode(readString());
+			a.setTopologicallyValid(in.readBoolean());
+			a.setInterfaceClusterIds(readString());
+			a.setPdbInfo(p);
+
+			a.setInterfaceClusters(readReferences(interfaceClusters));
+
+			List<AssemblyScoreDB> scores = readListSize();
+			if (scores!=null) {
+				for (int i=0;i<scores.size();i++) {
+					AssemblyScoreDB s = new AssemblyScoreDB();
+					s.setUid(in.readInt());
+					s.setMethod(readString());
+					s.setScore(in.readDouble());
+					s.setConfidence(in.readDouble());
+					s.setCallName(readString());
+					s.setCallReason(readString());
+					s.setPdbCode(readString());
+					s.setAssembly(a);
+					scores.set(i, s);
+				}
+			}
+			a.setAssemblyScores(scores);
+
+			List<AssemblyContentDB> contents = readListSize();
+			if (contents!=null) {
+				for (int i=0;i<contents.size();i++) {
+					AssemblyContentDB c = new AssemblyContentDB();
+					c.setUid(in.readInt());
+					c.setPdbCode(readString());
+					c.setMmSize(in.readInt());
+					c.setSymmetry(readString());
+					c.setStoichiometry(readString());
+					c.setComposition(readString());
+					c.setCompositionRepChainIds(readString());
+					c.setChainIds(readString());
+					c.setAssembly(a);
+					contents.set(i, c);
+				}
+			}
+			a.setAssemblyContents(contents);
+
+			return a;
+		}
+
+		/**
+		 * Reads a collection size and returns a list of that size filled with nulls,
+		 * to be set by the caller, or null if the size was -1
+		 * @return
+		 * @throws IOException
+		 */
+		private <T> List<T> readListSize() throws IOException {
+			int size = in.readInt();
+			if (size==NULL_REF) return null;
+			if (size<0) throw new IOException("Invalid collection size "+size+" in serialized model data");
+			return new ArrayList<T>(Collections.nCopies(size, (T)null));
+		}
+
+		private <T> Set<T> readReferences(List<T> objects) throws IOException {
+			int size = in.readInt();
+			if (size==NULL_REF) return null;
+			Set<T> set = new HashSet<T>();
+			for (int i=0;i<size;i++) {
+				T o = readReference(objects);
+				if (o!=null) set.add(o);
+			}
+			return set;
+		}
+
+		private <T> T readReference(List<T> objects) throws IOException {
+			int index = in.readInt();
+			if (index==NULL_REF) return null;
+			if (index<0 || index>=objects.size())
+				throw new IOException("Invalid reference "+index+" in serialized model data");
+			return objects.get(index);
+		}
+
+		private Date readDate() throws IOException {
+			if (!in.readBoolean()) return null;
+			return new Date(in.readLong());
+		}
+
+		private String readString() throws IOException {
+			int code = in.readInt();
+			if (code==NULL_REF) return null;
+			if (code==NEW_STRING) {
+				byte[] bytes = new byte[in.readInt()];
+				in.readFully(bytes);
+				String s = new String(bytes, StandardCharsets.UTF_8);
+				strings.add(s);
+				return s;
+			}
+			if (code<0 || code>=strings.size())
+				throw new IOException("Invalid string reference "+code+" in serialized model data");
+			return strings.get(code);
+		}
+	}
+
+	/**
+	 * A buffered big-endian writer of primitives, as DataOutputStream but without
+	 * the per-byte synchronized writes to the underlying stream
+	 */
+	private static class Output {
+
+		private final OutputStream os;
+		private final byte[] buf;
+		private int pos;
+
+		public Output(OutputStream os) {
+			this.os = os;
+			this.buf = new byte[BUFFER_SIZE];
+			this.pos = 0;
+		}
+
+		private void ensure(int n) throws IOException {
+			if (pos + n > buf.length) flush();
+		}
+
+		public void writeBoolean(boolean v) throws IOException {
+			ensure(1);
+			buf[pos++] = (byte) (v ? 1 : 0);
+		}
+
+		public void writeShort(int v) throws IOException {
+			ensure(2);
+			buf[pos++] = (byte) (v >>> 8);
+			buf[pos++] = (byte) v;
+		}
+
+		public void writeInt(int v) throws IOException {
+			ensure(4);
+			buf[pos++] = (byte) (v >>> 24);
+			buf[pos++] = (byte) (v >>> 16);
+			buf[pos++] = (byte) (v >>> 8);
+			buf[pos++] = (byte) v;
+		}
+
+		public void writeLong(long v) throws IOException {
+			writeInt((int) (v >>> 32));
+			writeInt((int) v);
+		}
+
+		public void writeDouble(double v) throws IOException {
+			writeLong(Double.doubleToLongBits(v));
+		}
+
+		public void write(byte[] bytes) throws IOException {
+			if (bytes.length > buf.length) {
+				flush();
+				os.write(bytes);
+				return;
+			}
+			ensure(bytes.length);
+			System.arraycopy(bytes, 0, buf, pos, bytes.length);
+			pos += bytes.length;
+		}
+
+		public void flush() throws IOException {
+			os.write(buf, 0, pos);
+			pos = 0;
+		}
+	}
+
+	/**
+	 * A buffered big-endian reader of primitives, as DataInputStream but reading
+	 * from an internal buffer
+	 */
+	private static class Input {
+
+		private final InputStream is;
+		private final byte[] buf;
+		private int pos;
+		private int limit;
+
+		public Input(InputStream is) {
+			this.is = is;
+			this.buf = new byte[BUFFER_SIZE];
+			this.pos = 0;
+			this.limit = 0;
+		}
+
+		/**
+		 * Makes sure that at least n bytes (n not larger than the buffer size) are available in the buffer
+		 * @param n
+		 * @throws IOException
+		 */
+		private void require(int n) throws IOException {
+			if (limit - pos >= n) return;
+			System.arraycopy(buf, pos, buf, 0, limit - pos);
+			limit -= pos;
+			pos = 0;
+			while (limit < n) {
+				int read = is.read(buf, limit, buf.length - limit);
+				if (read == -1) throw new EOFException("Unexpected end of serialized model data");
+				limit += read;
+			}
+		}
+
+		public boolean readBoolean() throws IOException {
+			require(1);
+			return buf[pos++] != 0;
+		}
+
+		public short readShort() throws IOException {
+			require(2);
+			int v = ((buf[pos] & 0xff) << 8) | (buf[pos+1] & 0xff);
+			pos += 2;
+			return (short) v;
+		}
+
+		public int readInt() throws IOException {
+			require(4);
+			int v = ((buf[pos] & 0xff) << 24) | ((buf[pos+1] & 0xff) << 16) | ((buf[pos+2] & 0xff) << 8) | (buf[pos+3] & 0xff);
+			pos += 4;
+			return v;
+		}
+
+		public long readLong() throws IOException {
+			return ((long) readInt() << 32) | (readInt() & 0xffffffffL);
+		}
+
+		public double readDouble() throws IOException {
+			return Double.longBitsToDouble(readLong());
+		}
+
+		public void readFully(byte[] bytes) throws IOException {
+			int copied = Math.min(limit - pos, bytes.length);
+			System.arraycopy(buf, pos, bytes, 0, copied);
+			pos += copied;
+			while (copied < bytes.length) {
+				int read = is.read(bytes, copied, bytes.length - copied);
+				if (read == -1) throw new EOFException("Unexpected end of serialized model data");
+				copied += read;
+			}
+		}
+	}
+}
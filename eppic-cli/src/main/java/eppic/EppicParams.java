@@ -207,6 +207,12 @@ public class EppicParams {
 	// default use pdb res serials for output
 	public static final boolean   DEF_USE_PDB_RES_SER = true;
 	
+	// default for running the evolutionary context of each chain (blast, blastclust, clustalo) concurrently
+	private static final boolean  DEF_CONCURRENT_EVOL_CONTEXT = false;
+	
+	// default for checking the validity of candidate assemblies in parallel during assembly enumeration
+	private static final boolean  DEF_PARALLEL_ASSEMBLY_ENUMERATION = false;
+	
 	// Logistic regression model for interface classification
 	/** Intersection of the logistic regression classifier */
 	public static final double LOGIT_INTERSECT = -3.9;
@@ -333,6 +339,10 @@ public class EppicParams {
 	
 	private boolean  usePdbResSer;
 	
+	private boolean  concurrentEvolContext;
+	
+	private boolean  parallelAssemblyEnumeration;
+	
 	
 	// and finally the ones with no defaults
 	private String   blastDbDir; // no default
@@ -981,6 +991,10 @@ public class EppicParams {
 			
 			usePdbResSer	 = Boolean.parseBoolean(p.getProperty("USE_PDB_RES_SER",new Boolean(DEF_USE_PDB_RES_SER).toString()));
 			
+			concurrentEvolContext = Boolean.parseBoolean(p.getProperty("CONCURRENT_EVOL_CONTEXT",new Boolean(DEF_CONCURRENT_EVOL_CONTEXT).toString()));
+			
+			parallelAssemblyEnumeration = Boolean.parseBoolean(p.getProperty("PARALLEL_ASSEMBLY_ENUMERATION",new Boolean(DEF_PARALLEL_ASSEMBLY_ENUMERATION).toString()));
+			
 			alphabet = new AAAlphabet(p.getProperty("CUSTOM_ALPHABET", DEF_ENTROPY_ALPHABET.toString()));
 			
 			
@@ -1091,6 +1105,22 @@ public class EppicParams {
 		return usePdbResSer;
 	}
 	
+	public boolean isConcurrentEvolContext() {
+		return concurrentEvolContext;
+	}
+	
+	public void setConcurrentEvolContext(boolean concurrentEvolContext) {
+		this.concurrentEvolContext = concurrentEvolContext;
+	}
+	
+	public boolean isParallelAssemblyEnumeration() {
+		return parallelAssemblyEnumeration;
+	}
+	
+	public void setParallelAssemblyEnumeration(boolean parallelAssemblyEnumeration) {
+		this.parallelAssemblyEnumeration = parallelAssemblyEnumeration;
+	}
+	
 	public AAAlphabet getAlphabet() {
 		return alphabet;
 	}
@@ -0,0 +1,69 @@
+package eppic;
+
+import java.io.BufferedReader;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.util.Arrays;
+
+/**
+ * A resident EPPIC process that runs jobs one after the other, so that the JVM start up,
+ * class loading and JIT warm up are paid only once for many jobs.
+ * <p>
+ * Jobs are read from standard input, one per line, with tab-separated fields: the file to
+ * redirect standard output to, the file to redirect standard error to and then the EPPIC
+ * command line arguments. After each job a line {@value #JOB_DONE} is written to standard output.
+ * If a job exits the JVM (EPPIC exits on fatal errors) no line is written and the caller
+ * has to start a new worker.
+ */
+public class EppicWorker {
+
+	public static final String FIELD_SEPARATOR = "\t";
+
+	public static final String JOB_DONE = "DONE";
+
+	public static void main(String[] args) throws IOException {
+
+		PrintStream protocolOut = System.out;
+		PrintStream defaultErr = System.err;
+
+		BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+
+		String line;
+		while ((line = in.readLine())!=null) {
+			if (line.isEmpty()) continue;
+
+			String[] fields = line.split(FIELD_SEPARATOR);
+			if (fields.length<2) {
+				defaultErr.println("Wrong job line, it must contain at least the output and error files: "+line);
+				protocolOut.println(JOB_DONE);
+				protocolOut.flush();
+				continue;
+			}
+
+			try (PrintStream out = new PrintStream(new FileOutputStream(fields[0], true), true);
+				 PrintStream err = new PrintStream(new FileOutputStream(fields[1], true), true)) {
+
+				System.setOut(out);
+				System.setErr(err);
+
+				try {
+					Main eppicMain = new Main();
+					eppicMain.run(Arrays.copyOfRange(fields, 2, fields.length));
+				} catch (Throwable e) {
+					e.printStackTrace();
+				}
+
+			} catch (IOException e) {
+				defaultErr.println("Could not redirect job output: "+e.getMessage());
+			} finally {
+				System.setOut(protocolOut);
+				System.setErr(defaultErr);
+			}
+
+			protocolOut.println(JOB_DONE);
+			protocolOut.flush();
+		}
+	}
+}
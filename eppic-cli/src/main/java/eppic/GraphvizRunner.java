@@ -4,7 +4,9 @@ import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 
@@ -12,6 +14,12 @@ import eppic.assembly.gui.LatticeGUIMustache;
 
 
 public class GraphvizRunner {	
+	
+	/**
+	 * The time in seconds a diagram can take to render before its Graphviz process is killed
+	 */
+	public static final long DIAGRAM_TIMEOUT = 10;
+	
 	private File graphvizExec;
 	
 	public GraphvizRunner(File graphvizExec) {
@@ -79,7 +87,7 @@ public class GraphvizRunner {
 			gui.execute(writer);
 		}
 		
-		boolean done = process.waitFor(10,TimeUnit.SECONDS);
+		boolean done = process.waitFor(DIAGRAM_TIMEOUT,TimeUnit.SECONDS);
 		
 		if (!done) {
 			throw new IOException("Graphviz execution timed out.");
@@ -88,4 +96,35 @@ public class GraphvizRunner {
 			throw new IOException("Graphviz exited with error status "+process.exitValue());
 		}
 	}
-}
\ No newline at end of file
+	
+	/**
+	 * Returns the job running graphviz on the output of executing the specified GUI, 
+	 * to be run concurrently with a {@link RenderingScheduler}.
+	 * 
+	 * The GUI is executed straight away, so that it can be modified once this returns. 
+	 * 
+	 * @param gui the GUI producing dot output
+	 * @param outfile output filename
+	 * @param format output format (png, svg, etc.)
+	 * @param description the name of the job
+	 * @return
+	 */
+	public RenderingScheduler.Job getDotJob(LatticeGUIMustache gui, File outfile, String format, String description) {
+		List<String> command = new ArrayList<String>();
+		command.add(graphvizExec.getAbsolutePath());
+		command.add("-Kneato");
+		command.add("-n2");
+		command.add("-T");
+		command.add(format);
+		command.add("-o");
+		command.add(outfile.toString());
+		
+		StringWriter dot = new StringWriter();
+		try( PrintWriter writer = new PrintWriter(dot) ){
+			gui.execute(writer);
+		}
+		
+		return new RenderingScheduler.Job(description, command, dot.toString(), 
+				Collections.singletonList(outfile), DIAGRAM_TIMEOUT);
+	}
+}
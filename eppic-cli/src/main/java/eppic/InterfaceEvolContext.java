@@ -3,8 +3,8 @@ package eppic;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 
-import org.apache.commons.math.random.RandomDataImpl;
 import org.biojava.nbio.structure.Atom;
 import org.biojava.nbio.structure.Chain;
 import org.biojava.nbio.structure.Group;
@@ -184,24 +184,38 @@ public class InterfaceEvolContext implements Serializable {
 	public double[] getSurfaceScoreDist(int molecId, int numSamples, int sampleSize, double minAsaForSurface) {
 		if (sampleSize==0) return new double[0];
 
-		double[] dist = new double[numSamples];
-		
+		return getSurfaceScoreSampler(molecId, minAsaForSurface).sample(numSamples, sampleSize);
+	}
+	
+	/**
+	 * Returns a sampler of the evolutionary scores of the residues in the surface for given molecId.
+	 * The scores of the surface residues are resolved when calling this method. 
+	 * @param molecId the molecule id: either {@link #FIRST} or {@link #SECOND}
+	 * @param minAsaForSurface the minimum ASA for a residue to be considered surface
+	 * @return
+	 */
+	public SurfaceScoreSampler getSurfaceScoreSampler(int molecId, double minAsaForSurface) {
+		return new SurfaceScoreSampler(getSurfaceScores(molecId, minAsaForSurface), new Random());
+	}
+	
+	/**
+	 * Returns a sampler of the evolutionary scores of the residues in the surface for given molecId,
+	 * seeded so that the samples are reproducible.
+	 * @param molecId the molecule id: either {@link #FIRST} or {@link #SECOND}
+	 * @param minAsaForSurface the minimum ASA for a residue to be considered surface
+	 * @param seed the seed of the random generator
+	 * @return
+	 */
+	public SurfaceScoreSampler getSurfaceScoreSampler(int molecId, double minAsaForSurface, long seed) {
+		return new SurfaceScoreSampler(getSurfaceScores(molecId, minAsaForSurface), seed);
+	}
+	
+	private double[] getSurfaceScores(int molecId, double minAsaForSurface) {
 		List<Group> surfResidues = null;
 		if (molecId==FIRST) surfResidues = interf.getSurfaceResidues(minAsaForSurface).getFirst();
 		if (molecId==SECOND) surfResidues = interf.getSurfaceResidues(minAsaForSurface).getSecond();
 		
-		RandomDataImpl rd = new RandomDataImpl();
-		for (int i=0;i<numSamples;i++) {
-			Object[] sample = rd.nextSample(surfResidues, sampleSize);
-			List<Group> residues = new ArrayList<Group>(sample.length);
-			for (int j=0;j<sample.length;j++){
-				residues.add((Group)sample[j]);
-			}
-			ChainEvolContext cec = this.parent.getChainEvolContext(getChainId(molecId));
-			dist[i] = cec.calcScoreForResidueSet(residues);
-		}		
-
-		return dist;
+		return getChainEvolContext(molecId).getConservationScores(surfResidues);
 	}
 	
 	/**
@@ -6,6 +6,9 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
 
 import org.biojava.nbio.structure.contact.StructureInterface;
 import org.biojava.nbio.structure.contact.StructureInterfaceCluster;
@@ -109,6 +112,19 @@ public class InterfaceEvolContextList implements Iterable<InterfaceEvolContext>,
 	}
 	
 	public void scoreCoreSurface() {
+		scoreCoreSurface(1);
+	}
+	
+	/**
+	 * Calculates the core-surface scores of all interfaces. If numThreads is larger than 1
+	 * the surfaces of all interface sides are sampled in parallel in a fork-join pool of numThreads threads,
+	 * the rest of the scoring (and the resolution of the surface scores to sample from) is done serially.
+	 * @param numThreads
+	 */
+	public void scoreCoreSurface(int numThreads) {
+		if (numThreads>1) {
+			sampleSurfacesParallel(numThreads);
+		}
 		for (int i=0;i<list.size();i++) {
 			list.get(i).getEvolCoreSurfacePredictor().computeScores();
 		}
@@ -117,6 +133,33 @@ public class InterfaceEvolContextList implements Iterable<InterfaceEvolContext>,
 		}
 	}
 	
+	private void sampleSurfacesParallel(int numThreads) {
+		for (int i=0;i<list.size();i++) {
+			list.get(i).getEvolCoreSurfacePredictor().prepareSurfaceSampling();
+		}
+		
+		LOGGER.info("Sampling surfaces of {} interfaces for core-surface scores with {} threads", list.size(), numThreads);
+		
+		ForkJoinPool pool = new ForkJoinPool(numThreads);
+		try {
+			// one task per interface side
+			pool.submit(() -> 
+				IntStream.range(0, list.size()*2).parallel().forEach(i -> 
+					list.get(i/2).getEvolCoreSurfacePredictor().sampleSurfaceScores(i%2)
+				)
+			).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while sampling surfaces for core-surface scores", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+			if (e.getCause() instanceof Error) throw (Error) e.getCause();
+			throw new RuntimeException(e.getCause());
+		} finally {
+			pool.shutdown();
+		}
+	}
+	
 	public void setCoreRimScoreCutoff(double coreRimScoreCutoff) {
 		for (int i=0;i<list.size();i++) {
 			list.get(i).getEvolCoreRimPredictor().setCallCutoff(coreRimScoreCutoff);	
@@ -16,6 +16,7 @@ import java.net.UnknownHostException;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.zip.GZIPOutputStream;
@@ -363,7 +364,8 @@ public class Main {
 	public void doFindAssemblies() throws StructureException { 
 		
 		params.getProgressLog().println("Calculating possible assemblies...");
-		validAssemblies = new CrystalAssemblies(pdb, interfaces, params.isForceContractedAssemblyEnumeration()); 
+		int numThreads = params.isParallelAssemblyEnumeration() ? params.getNumThreads() : 1;
+		validAssemblies = new CrystalAssemblies(pdb, interfaces, params.isForceContractedAssemblyEnumeration(), numThreads); 
 
 		StringBuilder sb = new StringBuilder();
 		for (Assembly a: validAssemblies) {
@@ -560,6 +562,9 @@ public class Main {
 		writeStep("Generating assembly diagram Thumbnails");
 		LOGGER.info("Generating Assembly Diagram files");
 
+		// the diagrams are rendered concurrently while the json files are written
+		RenderingScheduler scheduler = new RenderingScheduler(params.getNumThreads());
+		
 		try {
 			LatticeGraph3D latticeGraph = new LatticeGraph3D(validAssemblies.getLatticeGraph());
 			GraphvizRunner runner = new GraphvizRunner(params.getGraphvizExe());
@@ -598,8 +603,8 @@ public class Main {
 				//}
 				//runner.generateFromDot(dotFile, pngFile, fileFormat);
 
-				// Generate thumbs via pipe
-				runner.generateFromDot(guiThumb, pngFile, fileFormat);
+				// Generate thumbs via pipe (the dot output is generated now, before the lattice graph is filtered again)
+				scheduler.submit(runner.getDotJob(guiThumb, pngFile, fileFormat, "diagram of assembly "+a.getId()));
 				
 				
 				// 2. Generate the json file for the dynamic js graph in the wui
@@ -658,8 +663,12 @@ public class Main {
 			pw.println(json);
 			pw.close();
 			
+			logRenderingFailures(scheduler.awaitCompletion());
+			
 		} catch( IOException|StructureException|InterruptedException e) {
 			throw new EppicException(e, "Couldn't write assembly diagrams. " + e.getMessage(), true);
+		} finally {
+			scheduler.cancel();
 		}
 	}
 
@@ -712,30 +721,54 @@ public class Main {
 
 		PymolRunner pr = new PymolRunner(params.getPymolExe());
 
-		try {
-			for (StructureInterface interf:interfaces) {
-				File cifFile = params.getOutputFile(EppicParams.INTERFACES_COORD_FILES_SUFFIX+"."+interf.getId()+ EppicParams.MMCIF_FILE_EXTENSION);
-				pr.generateInterfacePng(interf, 
-						cifFile, 
-						params.getBaseName()+EppicParams.INTERFACES_COORD_FILES_SUFFIX+"."+interf.getId()	);
-				LOGGER.info("Generated PyMOL files for interface "+interf.getId());
-				
-			}
+		List<PymolRunner.Thumbnail> thumbnails = new ArrayList<PymolRunner.Thumbnail>();
+		
+		for (StructureInterface interf:interfaces) {
+			File cifFile = params.getOutputFile(EppicParams.INTERFACES_COORD_FILES_SUFFIX+"."+interf.getId()+ EppicParams.MMCIF_FILE_EXTENSION);
+			thumbnails.add(pr.getInterfaceThumbnail(interf, 
+					cifFile, 
+					params.getBaseName()+EppicParams.INTERFACES_COORD_FILES_SUFFIX+"."+interf.getId()	));
+		}
 
-			for (Assembly a:validAssemblies) {
-				File cifFile = params.getOutputFile(EppicParams.ASSEMBLIES_COORD_FILES_SUFFIX+"."+a.getId()+ EppicParams.MMCIF_FILE_EXTENSION);
+		for (Assembly a:validAssemblies) {
+			File cifFile = params.getOutputFile(EppicParams.ASSEMBLIES_COORD_FILES_SUFFIX+"."+a.getId()+ EppicParams.MMCIF_FILE_EXTENSION);
 
-				pr.generateAssemblyPng(a, cifFile,  
-						params.getBaseName()+EppicParams.ASSEMBLIES_COORD_FILES_SUFFIX+"."+a.getId());
+			thumbnails.add(pr.getAssemblyThumbnail(a, cifFile,  
+					params.getBaseName()+EppicParams.ASSEMBLIES_COORD_FILES_SUFFIX+"."+a.getId()));
+		}
+		
+		List<RenderingScheduler.Job> jobs = pr.getThumbnailJobs(thumbnails, params.getNumThreads());
+		
+		LOGGER.info("Rendering {} thumbnails with {} PyMOL processes, {} at a time", 
+				thumbnails.size(), jobs.size(), params.getNumThreads());
+		
+		RenderingScheduler scheduler = new RenderingScheduler(params.getNumThreads());
+		
+		try {
+			for (RenderingScheduler.Job job:jobs) {
+				scheduler.submit(job);
 			}
 			
-		} catch (IOException e) {
-			throw new EppicException(e, "Couldn't write thumbnails, PyMOL pse/pml files. "+e.getMessage(),true);
+			logRenderingFailures(scheduler.awaitCompletion());
+			
 		} catch (InterruptedException e) {
 			throw new EppicException(e, "Couldn't generate thumbnails, PyMOL pse/pml files, PyMOL thread interrupted: "+e.getMessage(),true);
+		} finally {
+			scheduler.cancel();
 		}
 
 	}
+	
+	/**
+	 * Logs a warning for each image that could not be rendered: images are not essential, 
+	 * we carry on without them
+	 * @param failures
+	 */
+	private void logRenderingFailures(Map<File, String> failures) {
+		for (Map.Entry<File, String> failure:failures.entrySet()) {
+			LOGGER.warn("Could not generate image {}: {}", failure.getKey().getName(), failure.getValue());
+		}
+	}
 
 	public void doWriteFinalFiles() throws EppicException {
 		
@@ -786,6 +819,12 @@ public class Main {
 		cecs.retrieveQueryData(params);
 		modelAdaptor.setUniProtVersion(cecs.getUniprotVer());
 		
+		if (params.isConcurrentEvolContext()) {
+			// b), c) and d) below for every chain as concurrent tasks
+			cecs.retrieveHomologsAndAlignConcurrently(params);
+			return;
+		}
+		
 		// b) getting the homologs and sequence data and filtering it
 		cecs.retrieveHomologs(params);
 
@@ -818,7 +857,7 @@ public class Main {
 
 			// core-surface
 			iecList.setCoreSurfacePredBsaToAsaCutoff(params.getCAcutoffForZscore(), params.getMinAsaForSurface()); // calls calcRimAndCores as well
-			iecList.scoreCoreSurface();
+			iecList.scoreCoreSurface(params.getNumThreads());
 
 			// note this adds also the entropies to the residue details
 			modelAdaptor.setEvolScores(iecList);
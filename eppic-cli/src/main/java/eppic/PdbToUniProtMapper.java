@@ -1,6 +1,8 @@
 package eppic;
 
 import java.io.Serializable;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
@@ -44,6 +46,31 @@ public class PdbToUniProtMapper implements Serializable {
 	 */
 	private Map<String, SequencePair<ProteinSequence,AminoAcidCompound>> alignments;
 	
+	/**
+	 * The lookup tables of positions in the PDB and UniProt sequences for each of the {@link #alignments}
+	 */
+	private Map<String, AlignmentIndex> alignmentIndices;
+	
+	/**
+	 * The maximum number of copies of the member chains (e.g. the symmetry partners in interfaces) 
+	 * for which the serials of the ATOM groups are kept, see {@link #copyGroupSerials}
+	 */
+	private static final int MAX_CACHED_CHAIN_COPIES = 16;
+	
+	/**
+	 * If {@link #sequenceFromAtom}: the 1-based serials of the amino acid groups in each member chain's
+	 * ATOM sequence, keyed by chain identity. 
+	 */
+	private transient Map<Chain, Map<Group,Integer>> memberGroupSerials;
+	
+	/**
+	 * If {@link #sequenceFromAtom}: as {@link #memberGroupSerials} for the copies of the member chains the 
+	 * mapper is queried with. Only the most recently queried are kept: the cached groups 
+	 * reference their chains, which would otherwise be kept in memory for as long as the mapper.
+	 * Chains don't override equals, so this is keyed by chain identity too.
+	 */
+	private transient Map<Chain, Map<Group,Integer>> copyGroupSerials;
+	
 	private Compound compound;
 	private Map<String, String> sequences;
 	private UnirefEntry uniProtReference;
@@ -79,6 +106,8 @@ public class PdbToUniProtMapper implements Serializable {
 		initAlignments();
 		
 		initMatchingInterval();
+		
+		initResidueIndices();
 
 	}
 	
@@ -131,11 +160,14 @@ public class PdbToUniProtMapper implements Serializable {
 		}		
 		
 		
+		this.alignmentIndices = new TreeMap<String, AlignmentIndex>();
+		
 		for (String chainId: sequences.keySet()) {
 			
 			SequencePair<ProteinSequence,AminoAcidCompound> alignment = getAlignment(chainId, uniProtReference.getSequence());
 			
 			alignments.put(chainId, alignment);
+			alignmentIndices.put(chainId, new AlignmentIndex(alignment));
 			
 			
 			LOGGER.info("Chain "+chainId+" PDB "+(sequenceFromAtom?"ATOM":"SEQRES")+" to UniProt alignmnent:\n"+getAlignmentString(alignment));
@@ -146,6 +178,23 @@ public class PdbToUniProtMapper implements Serializable {
 		
 	}
 
+	/**
+	 * Initialises the residue to PDB sequence serial indices of the member chains, so that 
+	 * subsequent lookups (see {@link #getSeqresSerial(Group)}) don't need to scan the chains 
+	 * and can be done concurrently.
+	 */
+	private void initResidueIndices() {
+		for (Chain c:compound.getChains()) {
+			if (sequenceFromAtom) {
+				// the serials of all member chains are calculated on first use
+				getAtomGroupSerials(c);
+			} else if (!c.getAtomGroups().isEmpty()) {
+				// the Compound builds its residue number to SEQRES serial map of the chain on first use
+				compound.getAlignedResIndex(c.getAtomGroup(0), c);
+			}
+		}
+	}
+	
 	private SequencePair<ProteinSequence,AminoAcidCompound> getAlignment(String chainId, String upSequence) throws CompoundNotFoundException {
 
 		String pdbSequence = sequences.get(chainId);
@@ -463,19 +512,7 @@ public class PdbToUniProtMapper implements Serializable {
 	 */
 	public boolean isPdbGroupMatchingUniProt(Group g) {
 		
-		Chain c = g.getChain();
-		
-		SequencePair<ProteinSequence,AminoAcidCompound>  alignment = null;
-		if (sequenceFromAtom) {
-			// we get the corresponding alignment for the chain
-			alignment = alignments.get(c.getChainID());
-		} else {
-			// we should have just the one alignment for the SEQRES sequence
-			alignment = alignments.values().iterator().next();
-			if (compound.getChains().size()>1 && alignments.size()>1) 
-				LOGGER.warn("More than 1 alignment for entity {} contained in pdb-to-uniprot mapper, expected only 1: something is wrong!",
-						compound.getMolId());
-		}
+		AlignmentIndex alignmentIndex = getAlignmentIndex(g.getChain().getChainID());
 		
 		int resser = getSeqresSerial(g);
 		
@@ -485,15 +522,7 @@ public class PdbToUniProtMapper implements Serializable {
 			return false;
 		}
 		
-		int alnIdx = alignment.getQuery().getAlignmentIndexAt(resser);
-		AminoAcidCompound cmpnd1 = alignment.getCompoundInQueryAt(alnIdx);
-		AminoAcidCompound cmpnd2 = alignment.getCompoundInTargetAt(alnIdx);
-		// a gap-to-gap matching is in principle impossible
-		if (cmpnd1.getShortName().equals("-") && cmpnd2.getShortName().equals("-")) {
-			LOGGER.error("Alignment position {} maps to gaps in both PDB and UniProt reference sequences, this is most likely a bug!",
-					alnIdx);
-		}
-		return cmpnd1.equals(cmpnd2);
+		return alignmentIndex.isQueryMatching(resser);
 	}
 	
 	/**
@@ -510,19 +539,7 @@ public class PdbToUniProtMapper implements Serializable {
 	 */
 	public int getUniProtIndexForPdbGroup(Group g, boolean positionWithinSubinterval) {
 
-		Chain c = g.getChain();
-
-		SequencePair<ProteinSequence,AminoAcidCompound>  alignment = null;
-		if (sequenceFromAtom) {
-			// we get the corresponding alignment for the chain
-			alignment = alignments.get(c.getChainID());
-		} else {
-			// we should have just the one alignment for the SEQRES sequence
-			alignment = alignments.values().iterator().next();
-			if (compound.getChains().size()>1 && alignments.size()>1) 
-				LOGGER.warn("More than 1 alignment for entity {} contained in pdb-to-uniprot mapper, expected only 1: something is wrong!",
-						compound.getMolId());
-		}
+		AlignmentIndex alignmentIndex = getAlignmentIndex(g.getChain().getChainID());
 
 		int resser = getSeqresSerial(g);
 
@@ -533,13 +550,12 @@ public class PdbToUniProtMapper implements Serializable {
 			return -1;
 		}
 		
-		int alnIdx = alignment.getQuery().getAlignmentIndexAt(resser);
-		if (alignment.hasGap(alnIdx)) {
+		// the position in uniprot sequence with indices starting at 1
+		int uniprotPos = alignmentIndex.getTargetIndex(resser);
+		if (uniprotPos==-1) {
 			// maps to gap in target (UniProt)
 			return -1;
 		}
-		// this gets the position in uniprot sequence with indices starting at 1
-		int uniprotPos = alignment.getIndexInTargetAt(alnIdx);
 
 		if (!positionWithinSubinterval) {
 			return uniprotPos;
@@ -567,25 +583,11 @@ public class PdbToUniProtMapper implements Serializable {
 	 */
 	public Group getPdbGroupFromUniProtIndex(int uniProtIndex, String chainId) {
 		
-		SequencePair<ProteinSequence,AminoAcidCompound>  alignment = null;
-		if (sequenceFromAtom) {
-			// we get the corresponding alignment for the chain
-			alignment = alignments.get(chainId);
-		} else {
-			// we should have just the one alignment for the SEQRES sequence
-			alignment = alignments.values().iterator().next();
-			if (compound.getChains().size()>1 && alignments.size()>1) 
-				LOGGER.warn("More than 1 alignment for entity {} contained in pdb-to-uniprot mapper, expected only 1: something is wrong!",
-						compound.getMolId());
-		}
-		
-		int alnIdx = alignment.getTarget().getAlignmentIndexAt(uniProtIndex);		
-		if (alignment.hasGap(alnIdx)) {
+		int resser = getAlignmentIndex(chainId).getQueryIndex(uniProtIndex);
+		if (resser==-1) {
 			return null;
 		}
 		
-		int resser = alignment.getIndexInQueryAt(alnIdx);
-		
 		// getting the relevant chain
 		Chain chain = null;
 		for (Chain c:compound.getChains()) {
@@ -637,16 +639,10 @@ public class PdbToUniProtMapper implements Serializable {
 
 			// TODO we could do a better job in identifying non-standard aminoacids if we used chem comps 
 
-			List<Group> groups = g.getChain().getAtomGroups(GroupType.AMINOACID);
-			
-			for (int i=0;i<groups.size();i++) {
-				
-				Group group = groups.get(i);
-				
-				if (g == group) 
-					return i+1; 
-			}
-			return -1;
+			Integer serial = getAtomGroupSerials(g.getChain()).get(g);
+			if (serial == null) 
+				return -1;
+			return serial;
 		} 
 		
 		else { 
@@ -656,6 +652,69 @@ public class PdbToUniProtMapper implements Serializable {
 		}
 	}
 	
+	/**
+	 * Returns the 1-based serials of the amino acid groups of the given chain in its ATOM sequence, 
+	 * as initialised in {@link #getAtomSequence(Chain)}
+	 * @param c
+	 * @return
+	 */
+	private synchronized Map<Group,Integer> getAtomGroupSerials(Chain c) {
+		if (memberGroupSerials == null) {
+			memberGroupSerials = new IdentityHashMap<Chain, Map<Group,Integer>>();
+			for (Chain member:compound.getChains()) {
+				memberGroupSerials.put(member, calcAtomGroupSerials(member));
+			}
+		}
+		Map<Group,Integer> serials = memberGroupSerials.get(c);
+		if (serials != null) return serials;
+		
+		if (copyGroupSerials == null) {
+			copyGroupSerials = new LinkedHashMap<Chain, Map<Group,Integer>>(MAX_CACHED_CHAIN_COPIES, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<Chain, Map<Group,Integer>> eldest) {
+					return size() > MAX_CACHED_CHAIN_COPIES;
+				}
+			};
+		}
+		serials = copyGroupSerials.get(c);
+		if (serials == null) {
+			serials = calcAtomGroupSerials(c);
+			copyGroupSerials.put(c, serials);
+		}
+		return serials;
+	}
+	
+	private static Map<Group,Integer> calcAtomGroupSerials(Chain c) {
+		List<Group> groups = c.getAtomGroups(GroupType.AMINOACID);
+		Map<Group,Integer> serials = new IdentityHashMap<Group,Integer>(groups.size());
+		for (int i=0;i<groups.size();i++) {
+			// as with a linear scan, the first occurrence of a group gives its serial
+			if (!serials.containsKey(groups.get(i))) 
+				serials.put(groups.get(i), i+1);
+		}
+		return serials;
+	}
+	
+	/**
+	 * Returns the lookup tables of the alignment to be used for the given chain: the chain's own 
+	 * if sequences are from ATOM or the one of the SEQRES sequence otherwise
+	 * @param chainId
+	 * @return
+	 */
+	private AlignmentIndex getAlignmentIndex(String chainId) {
+		if (sequenceFromAtom) {
+			// we get the corresponding alignment for the chain
+			return alignmentIndices.get(chainId);
+		} 
+		
+		// we should have just the one alignment for the SEQRES sequence
+		if (compound.getChains().size()>1 && alignmentIndices.size()>1) 
+			LOGGER.warn("More than 1 alignment for entity {} contained in pdb-to-uniprot mapper, expected only 1: something is wrong!",
+					compound.getMolId());
+		return alignmentIndices.values().iterator().next();
+	}
+	
 	/**
 	 * Returns the the given alignment as a nicely formatted
 	 * alignment string in several lines with a middle line of matching characters,
@@ -714,4 +773,80 @@ public class PdbToUniProtMapper implements Serializable {
 		}
 		return -1;		
 	}
+	
+	/**
+	 * Lookup tables of the positions of a PDB-to-UniProt alignment, 
+	 * built walking once through the alignment's columns.
+	 * All positions are 1-based, as in the alignment's sequences.
+	 */
+	static class AlignmentIndex implements Serializable {
+		
+		private static final long serialVersionUID = 1L;
+		
+		/**
+		 * For each query (PDB) position the target (UniProt) position it is aligned to, -1 if a gap
+		 */
+		private final int[] queryToTarget;
+		/**
+		 * For each target (UniProt) position the query (PDB) position it is aligned to, -1 if a gap
+		 */
+		private final int[] targetToQuery;
+		/**
+		 * For each query (PDB) position whether it is aligned to an identical target (UniProt) compound 
+		 */
+		private final boolean[] queryMatching;
+		
+		public AlignmentIndex(SequencePair<ProteinSequence,AminoAcidCompound> alignment) {
+			int queryLength = alignment.getQuery().getOriginalSequence().getLength();
+			int targetLength = alignment.getTarget().getOriginalSequence().getLength();
+			
+			queryToTarget = new int[queryLength+1];
+			targetToQuery = new int[targetLength+1];
+			queryMatching = new boolean[queryLength+1];
+			
+			int queryPos = 0;
+			int targetPos = 0;
+			for (int i=1;i<=alignment.getLength();i++) {
+				boolean gap1 = alignment.getQuery().isGap(i);
+				boolean gap2 = alignment.getTarget().isGap(i);
+				if (!gap1) queryPos++;
+				if (!gap2) targetPos++;
+				
+				if (!gap1) {
+					queryToTarget[queryPos] = gap2 ? -1 : targetPos;
+					queryMatching[queryPos] = alignment.getCompoundInQueryAt(i).equals(alignment.getCompoundInTargetAt(i));
+				}
+				if (!gap2) {
+					targetToQuery[targetPos] = gap1 ? -1 : queryPos;
+				}
+			}
+		}
+		
+		/**
+		 * @param queryIndex
+		 * @return the target position aligned to the given query position or -1 if a gap or out of the query
+		 */
+		public int getTargetIndex(int queryIndex) {
+			if (queryIndex<1 || queryIndex>=queryToTarget.length) return -1;
+			return queryToTarget[queryIndex];
+		}
+		
+		/**
+		 * @param targetIndex
+		 * @return the query position aligned to the given target position or -1 if a gap or out of the target
+		 */
+		public int getQueryIndex(int targetIndex) {
+			if (targetIndex<1 || targetIndex>=targetToQuery.length) return -1;
+			return targetToQuery[targetIndex];
+		}
+		
+		/**
+		 * @param queryIndex
+		 * @return true if the given query position is aligned to an identical compound in the target
+		 */
+		public boolean isQueryMatching(int queryIndex) {
+			if (queryIndex<1 || queryIndex>=queryMatching.length) return false;
+			return queryMatching[queryIndex];
+		}
+	}
 }
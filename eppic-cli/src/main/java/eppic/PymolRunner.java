@@ -5,6 +5,8 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Set;
 
@@ -33,6 +35,50 @@ public class PymolRunner {
 		{"green", "tv_green", "chartreuse", "splitpea", "smudge", "palegreen", "limegreen", "lime", "limon", "forest"};
 
 	
+	/**
+	 * The maximum number of thumbnails rendered by a single PyMOL process
+	 */
+	public static final int MAX_THUMBNAILS_PER_BATCH = 10;
+	
+	/**
+	 * The time in seconds a thumbnail can take to render before its PyMOL process is killed
+	 */
+	public static final long THUMBNAIL_TIMEOUT = 300;
+	
+	/**
+	 * The script rendering a thumbnail and the png files it writes
+	 */
+	public static class Thumbnail {
+		
+		private final String description;
+		private final String script;
+		private final File[] pngFiles;
+		
+		/**
+		 * 
+		 * @param description
+		 * @param script the PyMOL commands, separated by semicolons
+		 * @param pngFiles the png files written by the script
+		 */
+		public Thumbnail(String description, String script, File[] pngFiles) {
+			this.description = description;
+			this.script = script;
+			this.pngFiles = pngFiles;
+		}
+		
+		public String getDescription() {
+			return description;
+		}
+		
+		public String getScript() {
+			return script;
+		}
+		
+		public File[] getPngFiles() {
+			return pngFiles;
+		}
+	}
+	
 	private File pymolExec;
 	
 	public PymolRunner(File pymolExec) {
@@ -54,6 +100,24 @@ public class PymolRunner {
 	public void generateInterfacePng(StructureInterface interf, File mmcifFile, String base) 
 	throws IOException, InterruptedException {
 		
+		runPymol(getInterfaceThumbnail(interf, mmcifFile, base).getScript());
+	}
+
+	public void generateAssemblyPng(Assembly a, File mmcifFile, String base) throws IOException, InterruptedException {
+
+		runPymol(getAssemblyThumbnail(a, mmcifFile, base).getScript());
+	}
+
+	/**
+	 * Returns the thumbnail png files of given interface, as written by {@link #generateInterfacePng(StructureInterface, File, String)},
+	 * to be rendered with {@link #getThumbnailJobs(List, int)}
+	 * @param interf
+	 * @param mmcifFile
+	 * @param base
+	 * @return
+	 */
+	public Thumbnail getInterfaceThumbnail(StructureInterface interf, File mmcifFile, String base) {
+		
 		String molecName = getPymolMolecName(mmcifFile);
 
 		File[] pngFiles = new File[DEF_TN_HEIGHTS.length];
@@ -72,12 +136,6 @@ public class PymolRunner {
 		String color1 = MolViewersHelper.getHexChainColor(chain1, false);
 		String color2 = MolViewersHelper.getHexChainColor(chain2, false);
 		
-		List<String> command = new ArrayList<String>();
-		command.add(pymolExec.getAbsolutePath());
-		command.add("-q");
-		command.add("-c");
-
-
 		// NOTE we used to pass all commands in one string after -d (with the pymolScriptBuilder StringBuffer.
 		//      But pymol 1.3 and 1.4 seem to have problems with very long strings (causing segfaults)
 		//      Because of that now we write most commands to pml file (which we were doing anyway so that users can 
@@ -129,23 +187,18 @@ public class PymolRunner {
 			pymolScriptBuilder.append("png "+pngFiles[i].getAbsolutePath() + ";");
 		}
 		
-		pymolScriptBuilder.append("quit;");
-		
-		command.add("-d");
-		
-		//System.out.println(pymolScriptBuilder.toString());
-		
-		command.add(pymolScriptBuilder.toString());
-
-		
-		Process pymolProcess = new ProcessBuilder(command).start();
-		int exit = pymolProcess.waitFor();
-		if (exit!=0) {
-			throw new IOException("Pymol exited with error status "+exit);
-		}
+		return new Thumbnail("interface "+interf.getId()+" thumbnail", pymolScriptBuilder.toString(), pngFiles);
 	}
 
-	public void generateAssemblyPng(Assembly a, File mmcifFile, String base) throws IOException, InterruptedException {
+	/**
+	 * Returns the thumbnail png files of given assembly, as written by {@link #generateAssemblyPng(Assembly, File, String)},
+	 * to be rendered with {@link #getThumbnailJobs(List, int)}
+	 * @param a
+	 * @param mmcifFile
+	 * @param base
+	 * @return
+	 */
+	public Thumbnail getAssemblyThumbnail(Assembly a, File mmcifFile, String base) {
 
 		String molecName = getPymolMolecName(mmcifFile);
 
@@ -170,12 +223,6 @@ public class PymolRunner {
 			}
 		}
 
-		List<String> command = new ArrayList<String>();
-		command.add(pymolExec.getAbsolutePath());
-		command.add("-q");
-		command.add("-c");
-
-
 		// NOTE we used to pass all commands in one string after -d (with the pymolScriptBuilder StringBuffer.
 		//      But pymol 1.3 and 1.4 seem to have problems with very long strings (causing segfaults)
 		//      Because of that now we write most commands to pml file (which we were doing anyway so that users can 
@@ -225,20 +272,48 @@ public class PymolRunner {
 			pymolScriptBuilder.append("png "+pngFiles[j].getAbsolutePath() + ";");
 		}
 
-		pymolScriptBuilder.append("quit;");
-
-		command.add("-d");
-
-		command.add(pymolScriptBuilder.toString());
-
+		return new Thumbnail("assembly "+a.getId()+" thumbnail", pymolScriptBuilder.toString(), pngFiles);
+	}
 
-		Process pymolProcess = new ProcessBuilder(command).start();
-		int exit = pymolProcess.waitFor();
-		if (exit!=0) {
-			throw new IOException("Pymol exited with error status "+exit);
+	/**
+	 * Returns the jobs rendering the given thumbnails, to be run concurrently with a {@link RenderingScheduler}.
+	 * The thumbnails are batched so that each PyMOL process renders several of them (saving the PyMOL
+	 * start up time), with enough batches to keep numThreads processes busy and at most 
+	 * {@link #MAX_THUMBNAILS_PER_BATCH} thumbnails per batch.
+	 * @param thumbnails
+	 * @param numThreads
+	 * @return
+	 */
+	public List<RenderingScheduler.Job> getThumbnailJobs(List<Thumbnail> thumbnails, int numThreads) {
+		
+		int batchSize = (thumbnails.size() + numThreads - 1) / Math.max(1, numThreads);
+		batchSize = Math.max(1, Math.min(MAX_THUMBNAILS_PER_BATCH, batchSize));
+		
+		List<RenderingScheduler.Job> jobs = new ArrayList<RenderingScheduler.Job>();
+		
+		for (int from=0;from<thumbnails.size();from+=batchSize) {
+			List<Thumbnail> batch = thumbnails.subList(from, Math.min(from+batchSize, thumbnails.size()));
+			
+			List<RenderingScheduler.Job> parts = new ArrayList<RenderingScheduler.Job>();
+			List<String> scripts = new ArrayList<String>();
+			for (Thumbnail thumbnail:batch) {
+				parts.add(new RenderingScheduler.Job(thumbnail.getDescription(), 
+						getCommand(Collections.singletonList(thumbnail.getScript())), null, 
+						Arrays.asList(thumbnail.getPngFiles()), THUMBNAIL_TIMEOUT));
+				scripts.add(thumbnail.getScript());
+			}
+			
+			if (parts.size()==1) {
+				jobs.add(parts.get(0));
+			} else {
+				jobs.add(new RenderingScheduler.Job("thumbnails batch "+(jobs.size()+1), 
+						getCommand(scripts), null, THUMBNAIL_TIMEOUT*parts.size(), parts));
+			}
 		}
+		
+		return jobs;
 	}
-	
+
 	public void generateInterfacesPse(File asuPdbFile, Set<String> chains, 
 			File pmlFile, File pseFile, File[] interfacePdbFiles, 
 			StructureInterfaceList interfaces) 
@@ -547,6 +622,38 @@ public class PymolRunner {
 	
 	
 	
+	/**
+	 * Returns the PyMOL command line running the given scripts one after the other, 
+	 * each passed as a separate -d argument (PyMOL has problems with very long strings) 
+	 * and starting from a clean session 
+	 * @param scripts
+	 * @return
+	 */
+	private List<String> getCommand(List<String> scripts) {
+		List<String> command = new ArrayList<String>();
+		command.add(pymolExec.getAbsolutePath());
+		command.add("-q");
+		command.add("-c");
+		
+		for (int i=0;i<scripts.size();i++) {
+			command.add("-d");
+			String script = scripts.get(i);
+			if (i>0) script = "reinitialize;" + script;
+			if (i==scripts.size()-1) script = script + "quit;";
+			command.add(script);
+		}
+		return command;
+	}
+	
+	private void runPymol(String script) throws IOException, InterruptedException {
+		
+		Process pymolProcess = new ProcessBuilder(getCommand(Collections.singletonList(script))).start();
+		int exit = pymolProcess.waitFor();
+		if (exit!=0) {
+			throw new IOException("Pymol exited with error status "+exit);
+		}
+	}
+	
 	private void selectRimCore(PrintStream pml, List<Group> cores, List<Group> rims, String molecName, String suffix) {
 		String cmd = "select core"+suffix+", "+molecName+" and resi "+getResiSelString(cores);
 		writeCommand(cmd, pml);
@@ -0,0 +1,267 @@
+package eppic;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the external processes that render images (PyMOL thumbnails, Graphviz diagrams)
+ * concurrently, with at most numThreads processes running at a time.
+ * <p>
+ * Each job is killed if it does not finish within its timeout. A failed job does not stop
+ * the others: the failures are collected per output file and returned by {@link #awaitCompletion()}.
+ * A batch job (several images rendered by a single process) that does not produce all its
+ * output files is retried image by image for the missing ones, so that a bad image only loses itself.
+ * <p>
+ * A scheduler is used once: submit all the jobs and then wait for them with {@link #awaitCompletion()}.
+ */
+public class RenderingScheduler {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(RenderingScheduler.class);
+
+	/**
+	 * An external process producing one or more image files.
+	 */
+	public static class Job {
+
+		private final String description;
+		private final List<String> command;
+		private final String input;
+		private final List<File> outputFiles;
+		private final long timeout;
+		private final List<Job> parts;
+
+		/**
+		 *
+		 * @param description the name of the job used in the logs and failure messages
+		 * @param command the command line of the process
+		 * @param input the text to pipe to the standard input of the process, or null
+		 * @param outputFiles the files the process must write
+		 * @param timeout the time in seconds after which the process is killed
+		 */
+		public Job(String description, List<String> command, String input, List<File> outputFiles, long timeout) {
+			this(description, command, input, outputFiles, timeout, Collections.<Job>emptyList());
+		}
+
+		/**
+		 * A batch job: a single process producing the outputs of all the given parts.
+		 * The parts are only run for the outputs that the batch did not produce.
+		 * @param description
+		 * @param command
+		 * @param input
+		 * @param timeout
+		 * @param parts the single jobs this job replaces
+		 */
+		public Job(String description, List<String> command, String input, long timeout, List<Job> parts) {
+			this(description, command, input, getOutputFiles(parts), timeout, parts);
+		}
+
+		private Job(String description, List<String> command, String input, List<File> outputFiles, long timeout, List<Job> parts) {
+			this.description = description;
+			this.command = command;
+			this.input = input;
+			this.outputFiles = outputFiles;
+			this.timeout = timeout;
+			this.parts = parts;
+		}
+
+		public String getDescription() {
+			return description;
+		}
+
+		public List<String> getCommand() {
+			return command;
+		}
+
+		public List<File> getOutputFiles() {
+			return outputFiles;
+		}
+
+		public long getTimeout() {
+			return timeout;
+		}
+
+		public List<Job> getParts() {
+			return parts;
+		}
+
+		private static List<File> getOutputFiles(List<Job> parts) {
+			List<File> outputFiles = new ArrayList<File>();
+			for (Job part : parts) {
+				outputFiles.addAll(part.getOutputFiles());
+			}
+			return outputFiles;
+		}
+	}
+
+	private final ExecutorService executor;
+
+	private final List<Future<?>> futures;
+
+	private final Map<File, String> failures;
+
+	/**
+	 *
+	 * @param numThreads the maximum number of processes to run at the same time
+	 */
+	public RenderingScheduler(int numThreads) {
+		this.executor = Executors.newFixedThreadPool(Math.max(1, numThreads));
+		this.futures = new ArrayList<Future<?>>();
+		this.failures = new ConcurrentHashMap<File, String>();
+	}
+
+	/**
+	 * Queues the given job to be run as soon as a thread is free
+	 * @param job
+	 */
+	public void submit(final Job job) {
+		futures.add(executor.submit(() -> run(job)));
+	}
+
+	/**
+	 * Waits for all the submitted jobs to finish and returns the output files that could not be
+	 * generated, with the reason of the failure.
+	 * @return the failed output files and their failure messages, sorted by file, empty if all jobs succeeded
+	 * @throws InterruptedException if interrupted while waiting, the running processes are then killed
+	 */
+	public Map<File, String> awaitCompletion() throws InterruptedException {
+		executor.shutdown();
+		try {
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			if (e.getCause() instanceof Error) {
+				throw (Error) e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+		return new TreeMap<File, String>(failures);
+	}
+
+	/**
+	 * Cancels the jobs not yet finished, killing their processes. 
+	 * To be called if the submitted jobs are not to be waited for, e.g. after an error
+	 */
+	public void cancel() {
+		executor.shutdownNow();
+	}
+
+	private void run(Job job) {
+		String error = execute(job);
+
+		List<File> missing = new ArrayList<File>();
+		for (File file : job.getOutputFiles()) {
+			if (!file.exists()) missing.add(file);
+		}
+
+		if (error == null && missing.isEmpty()) {
+			LOGGER.debug("Rendered {}", job.getDescription());
+			return;
+		}
+
+		if (!job.getParts().isEmpty() && !Thread.currentThread().isInterrupted()) {
+			LOGGER.info("Batch {} failed ({}), rendering its missing images one by one",
+					job.getDescription(), error == null ? "missing output files" : error);
+			for (Job part : job.getParts()) {
+				if (!Collections.disjoint(part.getOutputFiles(), missing)) {
+					run(part);
+				}
+			}
+			return;
+		}
+
+		// if the process failed we don't trust any of its outputs
+		for (File file : (error == null ? missing : job.getOutputFiles())) {
+			failures.put(file, job.getDescription() + ": " + (error == null ? "output file was not written" : error));
+		}
+	}
+
+	/**
+	 * Runs the process of the given job
+	 * @param job
+	 * @return the error message if the process failed, null if it succeeded
+	 */
+	private String execute(Job job) {
+		File inFile = null;
+		File logFile = null;
+		Process process = null;
+		try {
+			// removing previous outputs, so that we know what the process writes
+			for (File file : job.getOutputFiles()) {
+				Files.deleteIfExists(file.toPath());
+			}
+
+			logFile = File.createTempFile("eppic_render", ".log");
+			ProcessBuilder pb = new ProcessBuilder(job.getCommand());
+			pb.redirectErrorStream(true);
+			pb.redirectOutput(logFile);
+
+			// the input goes through a file so that a process not reading it can't block us
+			if (job.input != null) {
+				inFile = File.createTempFile("eppic_render", ".in");
+				try (PrintWriter pw = new PrintWriter(inFile, StandardCharsets.UTF_8.name())) {
+					pw.print(job.input);
+				}
+				pb.redirectInput(inFile);
+			}
+
+			process = pb.start();
+			if (job.input == null) {
+				process.getOutputStream().close();
+			}
+
+			if (!process.waitFor(job.getTimeout(), TimeUnit.SECONDS)) {
+				process.destroyForcibly();
+				return "timed out after " + job.getTimeout() + "s";
+			}
+			if (process.exitValue() != 0) {
+				return "exited with error status " + process.exitValue() + getLastLine(logFile);
+			}
+			return null;
+
+		} catch (IOException e) {
+			return "could not run " + job.getCommand().get(0) + ": " + e.getMessage();
+		} catch (InterruptedException e) {
+			if (process != null) process.destroyForcibly();
+			Thread.currentThread().interrupt();
+			return "interrupted";
+		} finally {
+			if (inFile != null) inFile.delete();
+			if (logFile != null) logFile.delete();
+		}
+	}
+
+	private static String getLastLine(File logFile) {
+		try {
+			List<String> lines = Files.readAllLines(logFile.toPath(), StandardCharsets.ISO_8859_1);
+			for (int i = lines.size() - 1; i >= 0; i--) {
+				if (!lines.get(i).trim().isEmpty()) return ". Last output: " + lines.get(i).trim();
+			}
+		} catch (IOException e) {
+			LOGGER.debug("Could not read the output of rendering process from {}", logFile);
+		}
+		return "";
+	}
+}
@@ -0,0 +1,126 @@
+package eppic;
+
+import java.util.Random;
+
+/**
+ * Samples random subsets of the surface residues of a molecule and computes the average
+ * conservation score of each subset, to obtain the background distribution of the core-surface score.
+ * <p>
+ * The conservation scores of the surface residues are resolved once (see
+ * {@link InterfaceEvolContext#getSurfaceScoreSampler(int, double)}), so that drawing a sample
+ * is only a partial Fisher-Yates shuffle of an index buffer, reused across samples.
+ * <p>
+ * The shuffle and the mapping of random doubles to indices are the same as in commons-math's
+ * RandomDataImpl.nextSample, so that with the same seed the same samples are drawn.
+ * Instances are not thread-safe: use one per thread.
+ */
+public class SurfaceScoreSampler {
+
+	private final double[] scores;
+
+	private final int[] indices;
+
+	private final Random random;
+
+	/**
+	 *
+	 * @param scores the conservation scores of the surface residues, NaN for residues
+	 * without a mapping to the reference UniProt (ignored in the averages)
+	 * @param random the random generator to draw the samples with
+	 */
+	public SurfaceScoreSampler(double[] scores, Random random) {
+		this.scores = scores;
+		this.random = random;
+		this.indices = new int[scores.length];
+		for (int i=0;i<indices.length;i++) {
+			indices[i] = i;
+		}
+	}
+
+	/**
+	 *
+	 * @param scores the conservation scores of the surface residues, NaN for residues
+	 * without a mapping to the reference UniProt (ignored in the averages)
+	 * @param seed the seed for the random generator
+	 */
+	public SurfaceScoreSampler(double[] scores, long seed) {
+		this(scores, new Random(seed));
+	}
+
+	/**
+	 * Returns the number of residues sampled from
+	 * @return
+	 */
+	public int getNumResidues() {
+		return scores.length;
+	}
+
+	/**
+	 * Returns the average scores of numSamples random subsets of sampleSize residues
+	 * @param numSamples
+	 * @param sampleSize
+	 * @return
+	 * @throws IllegalArgumentException if sampleSize is not positive or larger than the number of residues
+	 */
+	public double[] sample(int numSamples, int sampleSize) {
+		if (sampleSize<=0 || sampleSize>scores.length)
+			throw new IllegalArgumentException("Sample size "+sampleSize+" must be positive and at most the number of residues ("+scores.length+")");
+
+		double[] dist = new double[numSamples];
+		int[] swaps = new int[sampleSize];
+		for (int i=0;i<numSamples;i++) {
+			dist[i] = nextSampleScore(sampleSize, swaps);
+		}
+		return dist;
+	}
+
+	/**
+	 * Draws a sample of k residues from the end of the index buffer (partial Fisher-Yates shuffle)
+	 * and returns its average score. The buffer is restored to the identity afterwards,
+	 * undoing the k swaps, so that the next sample is drawn exactly as a new permutation would be.
+	 * @param k
+	 * @param swaps buffer of size k to keep the swaps in
+	 * @return
+	 */
+	private double nextSampleScore(int k, int[] swaps) {
+		int n = indices.length;
+		double totalScore = 0.0;
+		double totalWeight = 0.0;
+
+		for (int s=0;s<k;s++) {
+			int i = n - 1 - s;
+			int j = (i==0) ? 0 : nextInt(i);
+			swap(i, j);
+			swaps[s] = j;
+
+			// position i is final once swapped: residues are summed in the order they are drawn
+			double score = scores[indices[i]];
+			if (!Double.isNaN(score)) {
+				totalScore += score;
+				totalWeight += 1.0;
+			}
+		}
+
+		for (int s=k-1;s>=0;s--) {
+			swap(n - 1 - s, swaps[s]);
+		}
+
+		return totalScore/totalWeight;
+	}
+
+	/**
+	 * Returns a random int in [0,upper], mapped from a random double the same way as commons-math does
+	 * @param upper
+	 * @return
+	 */
+	private int nextInt(int upper) {
+		double r = random.nextDouble();
+		return (int) (r * upper + r);
+	}
+
+	private void swap(int i, int j) {
+		int tmp = indices[i];
+		indices[i] = indices[j];
+		indices[j] = tmp;
+	}
+}
@@ -23,12 +23,12 @@ import org.biojava.nbio.structure.xtal.CrystalBuilder;
 import org.xml.sax.SAXException;
 
 import eppic.DataModelAdaptor;
+import eppic.DataModelSerializer;
 import eppic.EppicParams;
 import eppic.commons.pisa.PisaAsmSetList;
 import eppic.commons.pisa.PisaAssembliesXMLParser;
 import eppic.commons.pisa.PisaInterfaceList;
 import eppic.commons.pisa.PisaInterfaceXMLParser;
-import eppic.commons.util.Goodies;
 import eppic.model.PdbInfoDB;
 import gnu.getopt.Getopt;
 
@@ -122,7 +122,7 @@ public class MatchPisaToEppic {
 		String midIndex = pdbCode.substring(1,3);
 		File subdir = new File(serializedFilesDir,"divided"+File.separator+midIndex+File.separator+pdbCode);
 		File webuidatFile = new File(subdir,pdbCode+".webui.dat");
-		return (PdbInfoDB)Goodies.readFromFile(webuidatFile);
+		return DataModelSerializer.read(webuidatFile);
 	}
 
 	public void printData(PrintStream out, PrintStream err){
@@ -186,17 +186,12 @@ public class Assembly {
 	/**
 	 * Gets all children in assembly tree of this assembly, not adding those that are also
 	 * children of other invalidParents
-	 * @param invalidParents
+	 * @param invalidParents the index of the engaged sets of the invalid parents
 	 * @return
 	 */
-	public List<Assembly> getChildren(List<Assembly> invalidParents) {
-
-		List<PowerSet> powersetInvalidParents = new ArrayList<PowerSet>();
-		for (Assembly ia:invalidParents) {
-			powersetInvalidParents.add(ia.engagedSet);
-		}
+	public List<Assembly> getChildren(PowerSetIndex invalidParents) {
 		
-		List<PowerSet> powersetChildren = this.engagedSet.getChildren(powersetInvalidParents);
+		List<PowerSet> powersetChildren = this.engagedSet.getChildren(invalidParents);
 		
 		List<Assembly> children = new ArrayList<Assembly>();		
 		
@@ -1076,11 +1071,10 @@ public class Assembly {
 			}
 		}
 		
-		for (PowerSet ps : reducedSet.getOnPowerSet(1)) {
+		int numSubAssemblies = this.getAssemblyGraph().getSubAssemblies().size();
+		for (PowerSet ps : reducedSet.getOnSubsets(1)) {
 			// Equivalent means that they have the same number of subassemblies
-			Assembly pa = new Assembly(crystalAssemblies, ps);
-			if (pa.getAssemblyGraph().getSubAssemblies().size() == 
-					this.getAssemblyGraph().getSubAssemblies().size())
+			if (crystalAssemblies.getNumSubAssemblies(ps) == numSubAssemblies)
 				pss.add(ps);
 		}
 		pss.add(reducedSet);
@@ -6,11 +6,15 @@ import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
 
 import org.biojava.nbio.structure.Chain;
 import org.biojava.nbio.structure.Compound;
@@ -72,6 +76,18 @@ public class CrystalAssemblies implements Iterable<Assembly> {
 	 * heuristically contracting heteromeric edges.
 	 */
 	private boolean exhaustiveEnumeration;
+	
+	/**
+	 * The number of threads used to check the validity of the candidate assemblies of 
+	 * each level of the enumeration tree. If 1 the enumeration is done serially.
+	 */
+	private int numThreads;
+	
+	/**
+	 * Cache of the number of sub-assemblies (connected components) of the assemblies of
+	 * given engaged sets, used when scoring assemblies: see {@link #getNumSubAssemblies(PowerSet)}
+	 */
+	private Map<PowerSet,Integer> numSubAssembliesCache;
 		
 	/**
 	 * 
@@ -80,7 +96,7 @@ public class CrystalAssemblies implements Iterable<Assembly> {
 	 * @throws StructureException
 	 */
 	public CrystalAssemblies(Structure structure, StructureInterfaceList interfaces) throws StructureException {
-		init(structure, interfaces, false);
+		init(structure, interfaces, false, 1);
 	}
 	
 	/**
@@ -91,12 +107,30 @@ public class CrystalAssemblies implements Iterable<Assembly> {
 	 * @throws StructureException
 	 */
 	public CrystalAssemblies(Structure structure, StructureInterfaceList interfaces, boolean forceContracted) throws StructureException {
-		init(structure, interfaces, forceContracted);
+		init(structure, interfaces, forceContracted, 1);
 	}
 	
-	private void init(Structure structure, StructureInterfaceList interfaces, boolean forceContracted) throws StructureException {
+	/**
+	 * 
+	 * @param structure
+	 * @param interfaces
+	 * @param forceContracted
+	 * @param numThreads the number of threads to use for checking the validity of the candidate 
+	 * assemblies of each level of the enumeration tree, if 1 the enumeration is done serially. 
+	 * The enumerated assemblies are the same regardless of the number of threads.
+	 * @throws StructureException
+	 */
+	public CrystalAssemblies(Structure structure, StructureInterfaceList interfaces, boolean forceContracted, int numThreads) throws StructureException {
+		init(structure, interfaces, forceContracted, numThreads);
+	}
+	
+	private void init(Structure structure, StructureInterfaceList interfaces, boolean forceContracted, int numThreads) throws StructureException {
 		this.largeNumAssemblies = false;
 		
+		this.numThreads = Math.max(1, numThreads);
+		
+		this.numSubAssembliesCache = new HashMap<PowerSet,Integer>();
+		
 		// for most cases we'll do the exhaustive enumeration, below we set to false when not
 		this.exhaustiveEnumeration = true;
 		
@@ -161,17 +195,24 @@ public class CrystalAssemblies implements Iterable<Assembly> {
 	 * As the tree is traversed, if a node is found to be an invalid assembly, then all of its children
 	 * are pruned off and not tried. Thus the number of combinations reduces very quickly with a few
 	 * pruned top nodes.
+	 * If numThreads is larger than 1 the candidates of each level are checked in parallel, 
+	 * see {@link #findValidAssembliesParallel()}
 	 * @return
 	 */
 	private void findValidAssemblies() {
+		
+		if (numThreads>1) {
+			findValidAssembliesParallel();
+			return;
+		}
 				
 		Set<Assembly> validAssemblies = new HashSet<Assembly>();
 		
 		// in contracted case this will find the distinct interfaces for the contracted graph
 		int numInterfaceClusters = GraphUtils.getNumDistinctInterfaces(latticeGraph.getGraph());
 		
-		// the list of nodes in the tree found to be invalid: all of their children will also be invalid
-		List<Assembly> invalidNodes = new ArrayList<Assembly>();		
+		// the index of nodes in the tree found to be invalid: all of their children will also be invalid
+		PowerSetIndex invalidNodes = new PowerSetIndex();
 		
 		Assembly emptyAssembly = new Assembly(this, new PowerSet(numInterfaceClusters));
 		
@@ -194,7 +235,7 @@ public class CrystalAssemblies implements Iterable<Assembly> {
 
 					if (!c.isValid()) {
 						logger.debug("Node {} is invalid, will prune off all of its children",c.toString());
-						invalidNodes.add(c);
+						invalidNodes.add(c.getEngagedSet());
 					} else {
 						// we only add a child for next level if we know it's valid, if it wasn't valid 
 						// then it's not added and thus the whole branch is pruned
@@ -219,6 +260,94 @@ public class CrystalAssemblies implements Iterable<Assembly> {
 		
 
 	}
+	
+	/**
+	 * Same enumeration as {@link #findValidAssemblies()} but checking the validity of all the
+	 * candidates of a level of the tree in parallel in a fork-join pool of numThreads threads.
+	 * The candidates of a level are collected serially (pruning children of invalid nodes of previous levels)
+	 * and the results of the validity checks are then merged serially in the order of the candidates,
+	 * so that the enumerated assemblies are the same as with the serial enumeration.
+	 */
+	private void findValidAssembliesParallel() {
+		
+		Set<Assembly> validAssemblies = new HashSet<Assembly>();
+		
+		// in contracted case this will find the distinct interfaces for the contracted graph
+		int numInterfaceClusters = GraphUtils.getNumDistinctInterfaces(latticeGraph.getGraph());
+		
+		// the index of nodes in the tree found to be invalid: all of their children will also be invalid
+		PowerSetIndex invalidNodes = new PowerSetIndex();
+		
+		Assembly emptyAssembly = new Assembly(this, new PowerSet(numInterfaceClusters));
+		
+		validAssemblies.add(emptyAssembly); // the empty assembly (no engaged interfaces) is always a valid assembly
+		
+		Set<Assembly> prevLevel = new HashSet<Assembly>();
+		prevLevel.add(emptyAssembly);
+
+		ForkJoinPool pool = new ForkJoinPool(numThreads);
+		
+		try {
+			for (int k = 1; k<=numInterfaceClusters; k++) {
+
+				// the distinct candidates of this level, in the order they would be visited by the serial enumeration
+				Set<PowerSet> candidateSet = new LinkedHashSet<PowerSet>();
+				for (Assembly p:prevLevel) {
+					candidateSet.addAll(p.getEngagedSet().getChildren(invalidNodes));
+				}
+				List<PowerSet> candidates = new ArrayList<PowerSet>(candidateSet);
+
+				logger.debug("Traversing level {} of tree: {} parent nodes, {} candidates checked with {} threads",
+						k, prevLevel.size(), candidates.size(), numThreads);
+
+				Assembly[] children = new Assembly[candidates.size()];
+				boolean[] valid = new boolean[candidates.size()];
+
+				try {
+					pool.submit(() -> 
+						IntStream.range(0, children.length).parallel().forEach(i -> {
+							children[i] = new Assembly(this, candidates.get(i));
+							valid[i] = children[i].isValid();
+						})
+					).get();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new RuntimeException("Interrupted while checking validity of assemblies", e);
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+					if (e.getCause() instanceof Error) throw (Error) e.getCause();
+					throw new RuntimeException(e.getCause());
+				}
+
+				Set<Assembly> nextLevel = new HashSet<Assembly>();
+
+				for (int i=0;i<children.length;i++) {
+					Assembly c = children[i];
+
+					if (!valid[i]) {
+						logger.debug("Node {} is invalid, will prune off all of its children",c.toString());
+						invalidNodes.add(c.getEngagedSet());
+					} else {
+						nextLevel.add(c);
+						validAssemblies.add(c);
+
+						if (validAssemblies.size() > MAX_ALLOWED_ASSEMBLIES) {
+							logger.warn("Exceeded the default max number of allowed assemblies ({}). Will do assembly enumeration from heteromeric-contracted graph", MAX_ALLOWED_ASSEMBLIES);
+							largeNumAssemblies = true;
+							all = new HashSet<Assembly>();
+							return;
+						}
+					}
+				}
+				// copied as in the serial enumeration, so that the parents are iterated in the same order
+				prevLevel = new HashSet<Assembly>(nextLevel);
+			}
+		} finally {
+			pool.shutdown();
+		}
+
+		this.all = validAssemblies;
+	}
 
 	private void initGroups() {
 		this.groups = new TreeMap<Integer, AssemblyGroup>();
@@ -352,7 +481,7 @@ public class CrystalAssemblies implements Iterable<Assembly> {
 			// this is because GraphContractor.getContractedInterfClusterIds() does not keep track of interfaces that disappear indirectly during the contraction.
 			// It only tracks the main heteromeric interfaces that we contract.
 			PowerSet ps = aInFull.getEngagedSet();
-			List<PowerSet> children = ps.getChildren(null);
+			List<PowerSet> children = ps.getChildren();
 			Set<Integer> inducedInterfClusterIds = new TreeSet<>();
 			for (PowerSet child : children) {
 				// if engaging an interface doesn't change the stoichiometry, then the interface is induced							
@@ -472,6 +601,24 @@ public class CrystalAssemblies implements Iterable<Assembly> {
 		return latticeGraph;
 	}
 	
+	/**
+	 * Gets the number of sub-assemblies (connected components of the assembly graph) 
+	 * of the assembly with the given engaged set. The values are cached, so that each 
+	 * assembly graph is only built once for all the scored assemblies.
+	 * @param engagedSet
+	 * @return
+	 * @see Assembly#calcScore()
+	 */
+	public int getNumSubAssemblies(PowerSet engagedSet) {
+		Integer numSubAssemblies = numSubAssembliesCache.get(engagedSet);
+		if (numSubAssemblies == null) {
+			PowerSet key = new PowerSet(engagedSet);
+			numSubAssemblies = new Assembly(this, key).getAssemblyGraph().getSubAssemblies().size();
+			numSubAssembliesCache.put(key, numSubAssemblies);
+		}
+		return numSubAssemblies;
+	}
+	
 	/**
 	 * Returns the list of unique valid assemblies in the crystal, that is the representatives 
 	 * of each of the assembly clusters. The representatives are chosen to be those assemblies that
@@ -1,10 +1,10 @@
 package eppic.assembly;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -81,6 +81,7 @@ public class LatticeGraph<V extends ChainVertex,E extends InterfaceEdge> {
 
 	private boolean globalReferencePoint;
 	private Map<String,Matrix4d[]> unitCellOperators = new HashMap<>(); // In crystal coordinates
+	private Map<String,Map<OperatorKey,List<Integer>>> unitCellOperatorIndices = new HashMap<>(); // Chain ID -> operator ids by key
 	private Map<String,Point3d> referencePoints = new HashMap<>(); // Chain ID -> centroid coordinate
 
 	/**
@@ -345,13 +346,26 @@ public class LatticeGraph<V extends ChainVertex,E extends InterfaceEdge> {
 	}
 
 	/**
-	 * Given an operator, returns the operator id of the matching generator
+	 * Given an operator, returns the operator id of the matching generator.
+	 * The candidate generators are looked up by the key of the operator (see {@link OperatorKey}), 
+	 * falling back to a scan of all generators if none of the candidates match.
 	 * @param m
 	 * @return
 	 * @throws StructureException 
 	 */
 	private int getEndAuCell(Matrix4d m, String chainId) throws StructureException {
 		Matrix4d[] ops = getUnitCellTransformationsCrystal(chainId);
+		
+		List<Integer> candidates = getUnitCellOperatorIndex(chainId).get(new OperatorKey(m));
+		if (candidates!=null) {
+			for (int j:candidates) {
+				if (epsilonEqualsModulusXtal(ops[j], m)) {
+					return j;
+				}
+			}
+		}
+		
+		// the key could differ for matrices that are equal within the tolerance but round differently
 		for (int j=0;j<ops.length;j++) {
 			Matrix4d Tj = ops[j];
 
@@ -363,6 +377,27 @@ public class LatticeGraph<V extends ChainVertex,E extends InterfaceEdge> {
 		logger.warn("No matching generator found for operator:\n {}", m.toString());
 		return -1;
 	}
+	
+	/**
+	 * Returns the ids of the unit cell operators of the given chain, indexed by their {@link OperatorKey}
+	 * @param chainId
+	 * @return
+	 * @throws StructureException
+	 */
+	private Map<OperatorKey,List<Integer>> getUnitCellOperatorIndex(String chainId) throws StructureException {
+		Matrix4d[] ops = getUnitCellTransformationsCrystal(chainId);
+		synchronized(unitCellOperatorIndices) {
+			Map<OperatorKey,List<Integer>> index = unitCellOperatorIndices.get(chainId);
+			if (index == null) {
+				index = new HashMap<>();
+				for (int j=0;j<ops.length;j++) {
+					index.computeIfAbsent(new OperatorKey(ops[j]), k -> new ArrayList<>(1)).add(j);
+				}
+				unitCellOperatorIndices.put(chainId, index);
+			}
+			return index;
+		}
+	}
 
 	/**
 	 * Test whether two matrices have the same rotational component and an
@@ -402,52 +437,40 @@ public class LatticeGraph<V extends ChainVertex,E extends InterfaceEdge> {
 
 	/**
 	 * For any 2 vertices in the graph that contain 2 or more edges with the same 
-	 * interface id, remove all but first edges. 
+	 * interface id, remove all but first edges (in order of addition to the graph). 
 	 */
 	public void removeDuplicateEdges() {
 
 		Set<E> toRemove = new HashSet<E>();
+		
+		// source vertex -> target vertex -> interface id -> number of edges found so far, with both directions stored
+		Map<V,Map<V,Map<Integer,Integer>>> seen = new HashMap<>();
 
-		int i = -1;
-		for (V iVertex:graph.vertexSet()) {
-			i++;
-			int j = -1;
-			for (V jVertex:graph.vertexSet()) {
-				j++;
-				if (j<i) continue; // i.e. we include i==j (to remove loop edges)
-
-				Set<E> edges = graph.getAllEdges(iVertex, jVertex);
-				Map<Integer,Set<E>> groups = groupIntoTypes(edges);
-
-				for (int interfaceId:groups.keySet()){
-					Set<E> group = groups.get(interfaceId);
-
-					if (group.size()==0) {
-						continue;
-					} else if (group.size()==1) {
-						continue;
-					} else if (group.size()>2) {
-						// we warn for more than 2 edges, that should not occur
-						logger.warn("More than 2 edges with interface id {} between vertices {},{}",
-								interfaceId,iVertex.toString(),jVertex.toString()); 
-					}
-					// now we are in case 2 or more edges 
-					// we keep first and remove the rest
-					Iterator<E> it = group.iterator();
-					it.next(); // first edge: we keep it
-					while (it.hasNext()) {						
-						E edge = it.next();
-						toRemove.add(edge);
-						logger.info("Removed edge with interface id {} between vertices {},{} ", 
-								interfaceId,iVertex.toString(),jVertex.toString());
-					}
-
-				}
-
-
+		for (E edge:graph.edgeSet()) {
+			V sVertex = graph.getEdgeSource(edge);
+			V tVertex = graph.getEdgeTarget(edge);
+			int interfaceId = edge.getInterfaceId();
+			
+			Map<Integer,Integer> counts = seen.computeIfAbsent(sVertex, v -> new HashMap<>()).computeIfAbsent(tVertex, v -> new HashMap<>());
+			if (!sVertex.equals(tVertex)) {
+				seen.computeIfAbsent(tVertex, v -> new HashMap<>()).putIfAbsent(sVertex, counts);
 			}
-
+			int count = counts.merge(interfaceId, 1, Integer::sum);
+			
+			if (count==1) {
+				// first edge: we keep it
+				continue;
+			} else if (count==3) {
+				// we warn for more than 2 edges, that should not occur
+				logger.warn("More than 2 edges with interface id {} between vertices {},{}",
+						interfaceId,sVertex.toString(),tVertex.toString()); 
+			}
+			
+			toRemove.add(edge);
+			logger.info("Removed edge with interface id {} between vertices {},{} ", 
+					interfaceId,sVertex.toString(),tVertex.toString());
 		}
+		
 		// now we do the removal
 		for (E edge:toRemove) {
 			graph.removeEdge(edge);
@@ -472,28 +495,6 @@ public class LatticeGraph<V extends ChainVertex,E extends InterfaceEdge> {
 
 	}
 
-	/**
-	 * Given a set of edges groups them into interface id groups
-	 * @param edges
-	 * @return a map of interface ids to sets of edges with the corresponding interface id
-	 */
-	private Map<Integer,Set<E>> groupIntoTypes(Set<E> edges) {
-		Map<Integer,Set<E>> map = new HashMap<Integer,Set<E>>();
-
-		for (E edge:edges) {
-			Set<E> set = null;
-			if (!map.containsKey(edge.getInterfaceId())) {
-				set = new HashSet<E>();
-				map.put(edge.getInterfaceId(), set);
-			} else {
-				set = map.get(edge.getInterfaceId());
-			}
-			set.add(edge);
-
-		}
-		return map;
-	}
-
 	/**
 	 * @return True if the centroid of the whole structure will be used,
 	 *  or false if the chain centroids should be used individually
@@ -512,6 +513,10 @@ public class LatticeGraph<V extends ChainVertex,E extends InterfaceEdge> {
 		if(this.globalReferencePoint != globalReferencePoint) {
 			referencePoints = new HashMap<String, Point3d>();
 			unitCellOperators = new HashMap<String, Matrix4d[]>();
+			// cleared rather than replaced, as it is also the lock of getUnitCellOperatorIndex
+			synchronized(unitCellOperatorIndices) {
+				unitCellOperatorIndices.clear();
+			}
 			this.globalReferencePoint = globalReferencePoint;
 		}
 	}
@@ -694,4 +699,49 @@ public class LatticeGraph<V extends ChainVertex,E extends InterfaceEdge> {
 		
 		return sg;
 	}
+	
+	/**
+	 * Hash key of an operator in crystal coordinates: its rotation and its translation modulo 
+	 * the lattice (the fractional part), both rounded to {@link #RESOLUTION}. Operators equal 
+	 * according to {@link LatticeGraph#epsilonEqualsModulusXtal(Matrix4d, Matrix4d)} have the same key,
+	 * except for elements that fall close to a rounding boundary.
+	 */
+	private static class OperatorKey {
+		
+		private static final double RESOLUTION = 1000;
+		
+		private final long[] elements;
+		private final int hashCode;
+		
+		public OperatorKey(Matrix4d m) {
+			elements = new long[12];
+			int k = 0;
+			for (int i=0;i<3;i++) {
+				for (int j=0;j<3;j++) {
+					elements[k++] = Math.round(m.getElement(i, j)*RESOLUTION);
+				}
+			}
+			long modulus = (long) RESOLUTION;
+			for (int i=0;i<3;i++) {
+				long t = Math.round(m.getElement(i, 3)*RESOLUTION);
+				// a value within rounding of an integer is mapped to 0 too
+				elements[k++] = ((t % modulus) + modulus) % modulus;
+			}
+			hashCode = Arrays.hashCode(elements);
+		}
+		
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+		
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) 
+				return true;
+			if (!(obj instanceof OperatorKey)) 
+				return false;
+			return Arrays.equals(elements, ((OperatorKey) obj).elements);
+		}
+	}
 }
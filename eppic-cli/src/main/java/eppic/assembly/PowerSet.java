@@ -3,13 +3,16 @@ package eppic.assembly;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
 
 
 /**
- * Class to encapsulate a power set representation as a boolean array
+ * Class to encapsulate a power set representation as a bit set, stored in an array of longs
+ * (a single long for sets of up to 64 elements), so that subset tests are done 64 elements at a time.
  * 
  * See:
  * http://en.wikipedia.org/wiki/Combination
@@ -20,14 +23,28 @@ import java.util.Set;
  */
 public class PowerSet {
 
-	private boolean[] set;
+	private static final int BITS_PER_WORD = 64;
+	
+	/**
+	 * The bits of the set, bit i of the set is bit (i%64) of word (i/64)
+	 */
+	private long[] words;
+	
+	/**
+	 * The number of elements of the set
+	 */
+	private int size;
 
 	public PowerSet(int size) {
-		this.set = new boolean[size];
+		this.size = size;
+		this.words = new long[(size + BITS_PER_WORD - 1) / BITS_PER_WORD];
 	}
 	
 	public PowerSet(boolean[] set) {
-		this.set = set;
+		this(set.length);
+		for (int i=0;i<set.length;i++) {
+			if (set[i]) switchOn(i);
+		}
 	}
 	
 	/**
@@ -35,23 +52,31 @@ public class PowerSet {
 	 * @param powerSet
 	 */
 	public PowerSet(PowerSet powerSet) {
-		this.set = powerSet.set.clone();
+		this.size = powerSet.size;
+		this.words = powerSet.words.clone();
 	}
 	
 	public void switchOn(int i) {
-		this.set[i] = true;
+		checkIndex(i);
+		this.words[i / BITS_PER_WORD] |= (1L << i);
 	}
 	
 	public void switchOff(int i) {
-		this.set[i] = false;
+		checkIndex(i);
+		this.words[i / BITS_PER_WORD] &= ~(1L << i);
 	}
 	
 	public boolean isOn(int i) {
-		return set[i];
+		checkIndex(i);
+		return (words[i / BITS_PER_WORD] & (1L << i)) != 0;
 	}
 	
 	public boolean isOff(int i) {
-		return !set[i];
+		return !isOn(i);
+	}
+	
+	private void checkIndex(int i) {
+		if (i<0 || i>=size) throw new ArrayIndexOutOfBoundsException(i);
 	}
 	
 	/**
@@ -68,17 +93,16 @@ public class PowerSet {
 	}
 	
 	/**
-	 * Returns true if this set is child of the given potentialParent
+	 * Returns true if this set is child of the given potentialParent, i.e. if all 
+	 * elements on in potentialParent are also on in this set
 	 * 
 	 * @param potentialParent
 	 * @return true if is a child false if not
 	 */
 	public boolean isChild(PowerSet potentialParent) {
 		
-		for (int i=0;i<set.length;i++) {
-			if (potentialParent.set[i]) {
-				if (!set[i]) return false;
-			}
+		for (int w=0;w<words.length;w++) {
+			if ((potentialParent.words[w] & ~words[w]) != 0) return false;
 		}
 		return true;
 	}
@@ -93,9 +117,9 @@ public class PowerSet {
 		
 		List<PowerSet> children = new ArrayList<PowerSet>();
 
-		for (int i=0;i<this.set.length;i++) {
+		for (int i=0;i<this.size;i++) {
 
-			if (!this.set[i]) {
+			if (this.isOff(i)) {
 				PowerSet a = new PowerSet(this);
 				a.switchOn(i);
 				// first we need to check that this is not a child of one of the invalidParents
@@ -108,8 +132,42 @@ public class PowerSet {
 		return children;
 	}
 	
+	/**
+	 * Gets all sets that are children of this set
+	 * @return
+	 */
+	public List<PowerSet> getChildren() {
+		return getChildren((PowerSetIndex) null);
+	}
+	
+	/**
+	 * Gets all sets that are children of this set, not adding those that are also
+	 * children of any of the sets in invalidParents. 
+	 * Equivalent to {@link #getChildren(List)} but using an index for the invalid parents lookup.
+	 * @param invalidParents the index of invalid parents, if null all children will be added
+	 * @return
+	 */
+	public List<PowerSet> getChildren(PowerSetIndex invalidParents) {
+		
+		List<PowerSet> children = new ArrayList<PowerSet>();
+
+		for (int i=0;i<this.size;i++) {
+
+			if (this.isOff(i)) {
+				PowerSet a = new PowerSet(this);
+				a.switchOn(i);
+				// first we need to check that this is not a child of one of the invalidParents
+				if (invalidParents!=null && invalidParents.containsParentOf(a)) continue;
+				
+				children.add(a);
+			}
+		}
+
+		return children;
+	}
+	
 	public int size() {
-		return this.set.length;
+		return this.size;
 	}
 	
 	@Override
@@ -118,18 +176,34 @@ public class PowerSet {
 		
 		PowerSet o = (PowerSet) other;
 		
-		return Arrays.equals(this.set, o.set);
+		return this.size == o.size && Arrays.equals(this.words, o.words);
 		
 	}
 	
+	/**
+	 * The hash code is the same as Arrays.hashCode of the equivalent boolean array, 
+	 * so that the iteration order of hashed collections of PowerSets (and thus of Assemblies) 
+	 * is the same as it was with the boolean array representation.
+	 */
 	@Override
 	public int hashCode() {
-		return Arrays.hashCode(this.set);
+		int result = 1;
+		for (int i=0;i<size;i++) {
+			result = 31 * result + (isOn(i) ? 1231 : 1237);
+		}
+		return result;
 	}
 	
 	@Override
 	public String toString() {
-		return Arrays.toString(this.set);
+		StringBuilder sb = new StringBuilder();
+		sb.append('[');
+		for (int i=0;i<size;i++) {
+			if (i>0) sb.append(", ");
+			sb.append(isOn(i));
+		}
+		sb.append(']');
+		return sb.toString();
 	}
 	
 	/**
@@ -138,24 +212,101 @@ public class PowerSet {
 	 * Equivalent to generating the parents? - Aleix
 	 * @param minOn minimum number of On values in the set
 	 * @return Set of PowerSet
+	 * @see #getOnSubsets(int)
 	 */
 	public Set<PowerSet> getOnPowerSet(int minOn) {
 		
 		Set<PowerSet> sets = new HashSet<PowerSet>();
-        if (sizeOn() <= minOn) {
-            return sets;
-        }
-        
-        // Generate all sets at distance 1 and continue recursively
-        for (int p=0; p<set.length; p++){
-        	if (set[p]){
-        		PowerSet cs = new PowerSet(this);
-        		cs.switchOff(p);
-        		sets.add(cs);
-        		sets.addAll(cs.getOnPowerSet(minOn));
-        	}
-        }
-        return sets;
+		for (PowerSet ps : getOnSubsets(minOn)) {
+			sets.add(ps);
+		}
+		return sets;
+	}
+	
+	/**
+	 * Iterate over all PowerSets with a proper subset of the true positions of this PowerSet,
+	 * with a minimum number of true values. The subsets are generated in Gray code order
+	 * (each subset differs from the previous one in a single position), without recursion 
+	 * and without duplicates. Each returned PowerSet is a new object.
+	 * @param minOn minimum number of On values in the set
+	 * @return
+	 * @see #getOnPowerSet(int)
+	 */
+	public Iterable<PowerSet> getOnSubsets(int minOn) {
+		return () -> new GrayCodeSubsetIterator(this, minOn);
+	}
+	
+	/**
+	 * Iterator over the proper subsets of the on positions of a PowerSet in Gray code order
+	 */
+	private static class GrayCodeSubsetIterator implements Iterator<PowerSet> {
+		
+		private final int[] onPositions;
+		private final int minOn;
+		
+		/**
+		 * The number of subsets: the full set (the last one of the Gray code sequence) is not returned
+		 */
+		private final long numSubsets;
+		
+		private final PowerSet current;
+		private int currentSizeOn;
+		private long i;
+		
+		private PowerSet next;
+		
+		public GrayCodeSubsetIterator(PowerSet powerSet, int minOn) {
+			this.onPositions = new int[powerSet.sizeOn()];
+			int j = 0;
+			for (int p=0;p<powerSet.size();p++) {
+				if (powerSet.isOn(p)) onPositions[j++] = p;
+			}
+			if (onPositions.length>62) 
+				throw new IllegalArgumentException("Too many on positions to enumerate subsets: "+onPositions.length);
+			
+			this.minOn = minOn;
+			this.numSubsets = 1L << onPositions.length;
+			// starting from the empty subset (Gray code 0)
+			this.current = new PowerSet(powerSet.size());
+			this.currentSizeOn = 0;
+			this.i = 0;
+			
+			this.next = findNext();
+		}
+		
+		private PowerSet findNext() {
+			while (i<numSubsets) {
+				if (i>0) {
+					// from Gray code i-1 to Gray code i only the bit at the number of trailing zeros of i changes
+					int p = onPositions[Long.numberOfTrailingZeros(i)];
+					if (current.isOn(p)) {
+						current.switchOff(p);
+						currentSizeOn--;
+					} else {
+						current.switchOn(p);
+						currentSizeOn++;
+					}
+				}
+				i++;
+				if (currentSizeOn>=minOn && currentSizeOn<onPositions.length) {
+					return new PowerSet(current);
+				}
+			}
+			return null;
+		}
+		
+		@Override
+		public boolean hasNext() {
+			return next!=null;
+		}
+		
+		@Override
+		public PowerSet next() {
+			if (next==null) throw new NoSuchElementException();
+			PowerSet ps = next;
+			next = findNext();
+			return ps;
+		}
 	}
 	
 	/**
@@ -164,9 +315,8 @@ public class PowerSet {
 	 */
 	public int sizeOn() {
 		int count = 0;
-		for (int p=0; p<set.length; p++){
-			if (set[p])
-				count++;
+		for (long word:words){
+			count += Long.bitCount(word);
 		}
 		return count;
 	}
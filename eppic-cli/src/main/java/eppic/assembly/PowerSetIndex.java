@@ -0,0 +1,110 @@
+package eppic.assembly;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An index of PowerSets (a set-trie) to find out efficiently whether a given PowerSet
+ * is a child of any of the indexed PowerSets, i.e. whether any of the indexed sets is a subset of it.
+ *
+ * Each indexed set is stored as the path of its on positions in increasing order, so that a lookup
+ * only follows the branches of positions that are on in the queried set, instead of comparing
+ * the queried set against every indexed set as {@link PowerSet#isChild(List)} does.
+ */
+public class PowerSetIndex {
+
+	private static class Node {
+
+		/**
+		 * The position of the PowerSet that this node represents
+		 */
+		final int position;
+
+		/**
+		 * Whether a set ends at this node
+		 */
+		boolean terminal;
+
+		/**
+		 * The children nodes, sorted by position
+		 */
+		final List<Node> children;
+
+		Node(int position) {
+			this.position = position;
+			this.terminal = false;
+			this.children = new ArrayList<Node>();
+		}
+
+		Node getOrAddChild(int position) {
+			int i = 0;
+			for (;i<children.size();i++) {
+				Node child = children.get(i);
+				if (child.position==position) return child;
+				if (child.position>position) break;
+			}
+			Node child = new Node(position);
+			children.add(i, child);
+			return child;
+		}
+	}
+
+	private final Node root;
+
+	private int size;
+
+	public PowerSetIndex() {
+		this.root = new Node(-1);
+		this.size = 0;
+	}
+
+	/**
+	 * Adds the given PowerSet to this index
+	 * @param powerSet
+	 * @return true if the set was not yet in the index, false otherwise
+	 */
+	public boolean add(PowerSet powerSet) {
+		Node node = root;
+		for (int i=0;i<powerSet.size();i++) {
+			if (powerSet.isOn(i)) {
+				node = node.getOrAddChild(i);
+			}
+		}
+		if (node.terminal) return false;
+		node.terminal = true;
+		size++;
+		return true;
+	}
+
+	/**
+	 * Returns true if the given PowerSet is a child of (equal to or superset of) any of
+	 * the PowerSets in this index, false otherwise.
+	 * @param powerSet
+	 * @return
+	 * @see PowerSet#isChild(List)
+	 */
+	public boolean containsParentOf(PowerSet powerSet) {
+		return containsParentOf(root, powerSet);
+	}
+
+	private static boolean containsParentOf(Node node, PowerSet powerSet) {
+		if (node.terminal) return true;
+
+		for (Node child:node.children) {
+			if (powerSet.isOn(child.position) && containsParentOf(child, powerSet)) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * The number of PowerSets in this index
+	 * @return
+	 */
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size==0;
+	}
+}
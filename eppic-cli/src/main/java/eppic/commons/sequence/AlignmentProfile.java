@@ -0,0 +1,165 @@
+package eppic.commons.sequence;
+
+import java.util.stream.IntStream;
+
+/**
+ * A column-major profile of a multiple protein sequence alignment for a given {@link AAAlphabet}.
+ * The residues of each column are stored as alphabet group indices in a primitive array,
+ * built once per alignment and alphabet. The group counts and entropies of all columns are then
+ * computed in a single pass, optionally in parallel.
+ * The values are identical to the ones computed by {@link MultipleSequenceAlignment#getColumnCounts(int, AAAlphabet)}
+ * and {@link MultipleSequenceAlignment#getColumnEntropy(int, AAAlphabet)}.
+ *
+ * @see MultipleSequenceAlignment#getProfile(AAAlphabet, boolean)
+ */
+public class AlignmentProfile {
+
+	/**
+	 * The group index used for gaps
+	 */
+	public static final byte GAP_INDEX = 0;
+
+	/**
+	 * The group index used for non-standard aminoacids: they are counted neither as gap nor as group
+	 */
+	public static final byte NON_STANDARD_INDEX = -1;
+
+	private static final double LOG2 = Math.log(2);
+
+	private final AAAlphabet alphabet;
+
+	private final int numSequences;
+	private final int numColumns;
+
+	/**
+	 * The group indices per column (first index) and sequence (second index)
+	 */
+	private final byte[][] columns;
+
+	/**
+	 * The counts per column (first index) and group (second index, 0 being the gaps)
+	 */
+	private final int[][] counts;
+
+	private final double[] entropies;
+
+	/**
+	 * Constructs the profile for the given aligned sequences, computing counts and entropies for all columns.
+	 * @param sequences the aligned sequences, all of the same length
+	 * @param alphabet the alphabet
+	 * @param parallel if true the profile is built and the entropies computed in parallel
+	 */
+	AlignmentProfile(String[] sequences, AAAlphabet alphabet, boolean parallel) {
+		this.alphabet = alphabet;
+		this.numSequences = sequences.length;
+		this.numColumns = sequences.length==0 ? 0 : sequences[0].length();
+
+		this.columns = new byte[numColumns][numSequences];
+		this.counts = new int[numColumns][];
+		this.entropies = new double[numColumns];
+
+		byte[] groupIndices = getGroupIndices(alphabet);
+
+		IntStream seqIndices = IntStream.range(0, numSequences);
+		if (parallel) seqIndices = seqIndices.parallel();
+		seqIndices.forEach(s -> {
+			String seq = sequences[s];
+			for (int c=0;c<numColumns;c++) {
+				char letter = seq.charAt(c);
+				columns[c][s] = letter<groupIndices.length ? groupIndices[letter] : getGroupIndex(letter, alphabet);
+			}
+		});
+
+		IntStream colIndices = IntStream.range(0, numColumns);
+		if (parallel) colIndices = colIndices.parallel();
+		colIndices.forEach(c -> {
+			counts[c] = countColumn(columns[c]);
+			entropies[c] = calcEntropy(counts[c]);
+		});
+	}
+
+	private int[] countColumn(byte[] column) {
+		int[] columnCounts = new int[alphabet.getNumLetters() + 1];
+		for (byte index:column) {
+			if (index!=NON_STANDARD_INDEX) columnCounts[index]++;
+		}
+		return columnCounts;
+	}
+
+	private double calcEntropy(int[] columnCounts) {
+		// same calculation as in MultipleSequenceAlignment.getColumnEntropy: gaps count in the probabilities
+		double sumplogp = 0.0;
+		for (int i = 1; i <= alphabet.getNumLetters(); i++) {
+			double prob = (double)columnCounts[i] / (double)numSequences;
+			if (prob != 0){
+				sumplogp += prob*(Math.log(prob)/LOG2);
+			}
+		}
+		return (-1.0)*sumplogp;
+	}
+
+	/**
+	 * Returns a lookup table of ASCII characters to group indices for the given alphabet
+	 * @param alphabet
+	 * @return
+	 */
+	private static byte[] getGroupIndices(AAAlphabet alphabet) {
+		byte[] groupIndices = new byte[128];
+		for (char letter=0;letter<groupIndices.length;letter++) {
+			groupIndices[letter] = getGroupIndex(letter, alphabet);
+		}
+		return groupIndices;
+	}
+
+	private static byte getGroupIndex(char letter, AAAlphabet alphabet) {
+		if (letter == MultipleSequenceAlignment.GAPCHARACTER) {
+			return GAP_INDEX;
+		} else if (AminoAcid.isStandardAA(letter)) {
+			return (byte) alphabet.getGroupByOneLetterCode(letter);
+		}
+		return NON_STANDARD_INDEX;
+	}
+
+	public AAAlphabet getAlphabet() {
+		return alphabet;
+	}
+
+	public int getNumberOfSequences() {
+		return numSequences;
+	}
+
+	public int getNumberOfColumns() {
+		return numColumns;
+	}
+
+	/**
+	 * Gets the counts of groups of aminoacids for the column alignIndex
+	 * @param alignIndex the column of the alignment (starting at 1)
+	 * @return an array of size numGroupsAlphabet+1 with indices containing the
+	 * counts of groups, the 0 index contains the count of gaps in the column
+	 * @see MultipleSequenceAlignment#getColumnCounts(int, AAAlphabet)
+	 */
+	public int[] getColumnCounts(int alignIndex) {
+		return counts[alignIndex-1].clone();
+	}
+
+	/**
+	 * Gets the entropy of column alignIndex
+	 * @param alignIndex the column of the alignment (starting at 1)
+	 * @return
+	 * @see MultipleSequenceAlignment#getColumnEntropy(int, AAAlphabet)
+	 */
+	public double getColumnEntropy(int alignIndex) {
+		return entropies[alignIndex-1];
+	}
+
+	/**
+	 * Gets the group index of the residue of sequence seqIndex in column alignIndex
+	 * @param alignIndex the column of the alignment (starting at 1)
+	 * @param seqIndex the index of the sequence in the alignment (starting at 0)
+	 * @return the group index, {@value #GAP_INDEX} for gaps and {@value #NON_STANDARD_INDEX} for non-standard aminoacids
+	 */
+	public byte getGroupIndex(int alignIndex, int seqIndex) {
+		return columns[alignIndex-1][seqIndex];
+	}
+}
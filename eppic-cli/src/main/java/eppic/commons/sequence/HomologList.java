@@ -922,8 +922,9 @@ public class HomologList implements  Serializable {//Iterable<UniprotHomolog>,
 	public void computeEntropies(AAAlphabet alphabet) {
 		this.alphabet = alphabet;
 		this.entropies = new ArrayList<Double>(); 
+		AlignmentProfile profile = this.aln.getProfile(alphabet, false);
 		for (int i=0;i<refInterval.getLength();i++){
-			entropies.add(this.aln.getColumnEntropy(this.aln.seq2al(ref.getUniId(),i+1), alphabet));
+			entropies.add(profile.getColumnEntropy(this.aln.seq2al(ref.getUniId(),i+1)));
 		}
 	}
 	
@@ -42,6 +42,8 @@ public class MultipleSequenceAlignment implements Serializable {
 	private static final String PIRHEADER_REGEX = "^>[A-Z0-9][A-Z0-9];([a-zA-Z0-9_|\\-.]+)";
 	public static final String PIRHEADER_CHAR = ">";
 	public static final String PIRSEQEND = "*";
+	
+	private static final double LOG2 = Math.log(2);
 	/*--------------------------- member variables --------------------------*/		
 	
 	private String[] sequences;
@@ -662,11 +664,11 @@ public class MultipleSequenceAlignment implements Serializable {
      * @return
      */
     public String getColumn(int alignIndex){
-    	String col="";
-    	for (String seq:sequences){
-    		col+=seq.charAt(alignIndex-1);
+    	char[] col = new char[sequences.length];
+    	for (int i=0;i<sequences.length;i++){
+    		col[i] = sequences[i].charAt(alignIndex-1);
     	}
-    	return col;
+    	return new String(col);
     }
     
     /**
@@ -684,12 +686,11 @@ public class MultipleSequenceAlignment implements Serializable {
     	// important: we are considering also gaps when calculating probabilities
     	
     	double sumplogp = 0.0;
-    	double log2 = Math.log(2);
     	
     	for (int i = 1; i <= alphabet.getNumLetters(); i++) {
 			double prob = (double)counts[i] / (double)this.getNumberOfSequences(); // i.e. we consider gaps!
 			if (prob != 0){ // plogp is defined to be 0 when p=0 (because of limit). If we let java calculate it, it gives NaN (-infinite) because it tries to compute log(0) 
-				sumplogp += prob*(Math.log(prob)/log2);
+				sumplogp += prob*(Math.log(prob)/LOG2);
 			}
 		}
 		return (-1.0)*sumplogp;
@@ -706,13 +707,12 @@ public class MultipleSequenceAlignment implements Serializable {
      * valid ones
      */
     public int[] getColumnCounts(int alignIndex, AAAlphabet alphabet) {
-    	String column = getColumn(alignIndex);
     	
     	// we use 0 for the gap counts, the rest for the AminoAcid classes counts (see AminoAcid enum)
     	int[] counts = new int[alphabet.getNumLetters() + 1];
     	 
-    	for (int i = 0; i < column.length(); i++) {
-    		char letter = column.charAt(i);
+    	for (String seq:sequences) {
+    		char letter = seq.charAt(alignIndex-1);
     		
     		if (letter == GAPCHARACTER) {
     			counts[0]++;
@@ -726,6 +726,19 @@ public class MultipleSequenceAlignment implements Serializable {
     	return counts;
     }
 
+    /**
+     * Gets the column profile of this alignment for the given alphabet, containing the 
+     * counts and entropies of all columns. Use it instead of {@link #getColumnEntropy(int, AAAlphabet)} 
+     * and {@link #getColumnCounts(int, AAAlphabet)} when values for many columns are needed. 
+     * Note the profile is a snapshot: it does not reflect later changes to the alignment.
+     * @param alphabet the AAAlphabet
+     * @param parallel whether to build the profile using multiple threads
+     * @return
+     */
+    public AlignmentProfile getProfile(AAAlphabet alphabet, boolean parallel) {
+    	return new AlignmentProfile(sequences, alphabet, parallel);
+    }
+    
     /**
      * Prints to given PrintStream profile information for the given tag's sequence, assuming 
      * it is a protein sequence (only aminoacids): aminoacid column counts and entropies
@@ -735,16 +748,15 @@ public class MultipleSequenceAlignment implements Serializable {
      */
     public void printProfile(PrintStream ps, String tag, AAAlphabet alphabet) {
     	String sequence = this.getSequenceNoGaps(tag);
+    	AlignmentProfile profile = this.getProfile(alphabet, false);
 		ps.print("\t");
 		for (int j = 1; j <= 20; j++) {
 			ps.print("\t" + AminoAcid.getByNumber(j).getOneLetterCode());
 		}
 		ps.println();
 		for (int i = 1; i <= sequence.length(); i++){
-			// this is not very efficient, we are counting twice: when calling getColumnEntropy and getColumnCounts
-			// TODO rewrite if this becomes a bottleneck
-			double entropy = this.getColumnEntropy(this.seq2al(tag, i), alphabet);
-			int[] counts = this.getColumnCounts(this.seq2al(tag, i), alphabet);
+			double entropy = profile.getColumnEntropy(this.seq2al(tag, i));
+			int[] counts = profile.getColumnCounts(this.seq2al(tag, i));
 			ps.print(i + "\t" + sequence.charAt(i-1));
 			int sum = 0;
 			for (int j = 1; j <= alphabet.getNumLetters(); j++) {
@@ -3,13 +3,20 @@ package eppic.commons.sequence;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -44,6 +51,11 @@ public class UniprotLocalConnection {
 	private static final String CLUSTERS_TABLE = "uniprot_clusters";
 	private static final String TAX_TABLE = "taxonomy";
 	
+	/**
+	 * The maximum number of ids to be put in a single IN-list query, see {@link #getMultipleUnirefEntries(List)}
+	 */
+	private static final int MAX_IDS_PER_QUERY = 500;
+	
 	private static final Logger LOGGER = LoggerFactory.getLogger(UniprotLocalConnection.class);
 	
 	private class TaxonomyRecord {
@@ -65,6 +77,11 @@ public class UniprotLocalConnection {
 	
 	private HashSet<String> nonReturnedIdsLastMultipleRequest;
 	
+	/**
+	 * Memoized taxonomy records per tax id, a null value is cached for tax ids not found in the taxonomy table
+	 */
+	private Map<Integer,TaxonomyRecord> taxonomyCache;
+	
 	public UniprotLocalConnection(String dbName) throws SQLException {
 		
 		conn = new MySQLConnection();
@@ -76,6 +93,8 @@ public class UniprotLocalConnection {
 		//      with automated deployment.
 		this.uniprotVer = "UNKNOWN";
 		
+		this.taxonomyCache = new HashMap<Integer,TaxonomyRecord>();
+		
 	}
 	
 	public String getVersion() {
@@ -115,9 +134,10 @@ public class UniprotLocalConnection {
 			uniprotId = uniId;
 		}
 		
-		Statement st = conn.createStatement();
-		String sql = "SELECT tax_id, sequence FROM "+dbName+"."+DATA_TABLE+" WHERE "+idColumn+"='"+repId+"'";
-		ResultSet rs = st.executeQuery(sql);
+		PreparedStatement st = conn.getConnectionObject().prepareStatement(
+				"SELECT tax_id, sequence FROM "+dbName+"."+DATA_TABLE+" WHERE "+idColumn+"=?");
+		st.setString(1, repId);
+		ResultSet rs = st.executeQuery();
 		
 		int count = 0;
 		while (rs.next()) {
@@ -152,9 +172,10 @@ public class UniprotLocalConnection {
 	}
 	
 	private UnirefEntryClusterMember getRepresentative(String uniId) throws SQLException, NoMatchFoundException {
-		Statement st = conn.createStatement();
-		String sql = "SELECT representative, tax_id FROM "+dbName+"."+CLUSTERS_TABLE+" WHERE member='"+uniId+"'";
-		ResultSet rs = st.executeQuery(sql);
+		PreparedStatement st = conn.getConnectionObject().prepareStatement(
+				"SELECT representative, tax_id FROM "+dbName+"."+CLUSTERS_TABLE+" WHERE member=?");
+		st.setString(1, uniId);
+		ResultSet rs = st.executeQuery();
 		String repUniId = null;
 		int memberTaxId = -1;
 		int count = 0;
@@ -179,12 +200,101 @@ public class UniprotLocalConnection {
 	/**
 	 * Given a list of uniprot or uniparc ids returns the corresponding UnirefEntry records.
 	 * If the query does not return all requested ids a warning is logged and the list of non-returned 
+	 * ids can be retrieved through {@link #getNonReturnedIdsLastMultipleRequest()}
+	 * <p>
+	 * The data is retrieved in batches of {@value #MAX_IDS_PER_QUERY} ids: one query to the clusters table for 
+	 * the representatives, one query to the data table for the sequences and one query to the taxonomy table for
+	 * the lineages not retrieved before. The result is the same as calling {@link #getUnirefEntry(String)}
+	 * for each of the ids, see {@link #getMultipleUnirefEntriesOneByOne(List)}  
+	 * @param uniIds
+	 * @return
+	 * @throws SQLException if something goes wrong while querying or if multiple matches are returned for an id
+	 */
+	public List<UnirefEntry> getMultipleUnirefEntries(List<String> uniIds) throws SQLException {
+		nonReturnedIdsLastMultipleRequest = new HashSet<String>();
+		
+		// 1) the representatives of the uniprot ids (uniparc ids are representatives themselves)
+		Set<String> uniprotIds = new LinkedHashSet<String>();
+		for (String uniId:uniIds) {
+			if (!uniId.startsWith("UPI")) uniprotIds.add(uniId);
+		}
+		Map<String,UnirefEntryClusterMember> representatives = getRepresentatives(uniprotIds);
+		
+		// 2) the tax ids and sequences of the representatives 
+		Set<String> repUniprotIds = new LinkedHashSet<String>();
+		Set<String> uniparcIds = new LinkedHashSet<String>();
+		for (String uniId:uniIds) {
+			if (uniId.startsWith("UPI")) {
+				uniparcIds.add(uniId);
+			} else if (representatives.containsKey(uniId)) {
+				repUniprotIds.add(representatives.get(uniId).getUniprotId());
+			}
+		}
+		Map<String,UnirefEntryClusterMember> uniprotSeqs = getSequences("uniprot_id", repUniprotIds);
+		Map<String,UnirefEntryClusterMember> uniparcSeqs = getSequences("uniparc_id", uniparcIds);
+
+		// 3) putting all together in the order of the input
+		List<UnirefEntry> entries = new ArrayList<UnirefEntry>();
+		for (String uniId:uniIds) {
+			
+			UnirefEntry uniref = new UnirefEntry();
+			
+			if (uniId.startsWith("UPI")) {
+				UnirefEntryClusterMember taxIdAndSeq = uniparcSeqs.get(uniId);
+				if (taxIdAndSeq==null) {
+					addNonReturnedId(uniId);
+					continue;
+				}
+				uniref.setUniparcId(uniId);
+				uniref.setNcbiTaxId(taxIdAndSeq.getNcbiTaxId());
+				uniref.setSequence(taxIdAndSeq.getUniprotId());
+			} else {
+				UnirefEntryClusterMember repId_taxId = representatives.get(uniId);
+				UnirefEntryClusterMember taxIdAndSeq = null;
+				if (repId_taxId!=null) taxIdAndSeq = uniprotSeqs.get(repId_taxId.getUniprotId());
+				if (taxIdAndSeq==null) {
+					addNonReturnedId(uniId);
+					continue;
+				}
+				uniref.setUniprotId(uniId);
+				// the tax id of the member, not the one of the representative
+				uniref.setNcbiTaxId(repId_taxId.getNcbiTaxId());
+				uniref.setSequence(taxIdAndSeq.getUniprotId());
+			}
+			
+			entries.add(uniref);
+		}
+		
+		// 4) the taxonomy: all lineages not retrieved yet are retrieved in one go
+		Set<Integer> taxIds = new HashSet<Integer>();
+		for (UnirefEntry uniref:entries) {
+			taxIds.add(uniref.getNcbiTaxId());
+		}
+		retrieveTaxonomies(taxIds);
+		
+		for (UnirefEntry uniref:entries) {
+			TaxonomyRecord tax = getTaxonomy(uniref.getNcbiTaxId());
+			if (tax!=null) {
+				uniref.setTaxons(tax.taxons);
+			} else {
+				LOGGER.info("No taxonomy information could be found for uniprot/uniparc id "+uniref.getUniId()+" (tax_id="+uniref.getNcbiTaxId()+")");
+			}
+		}
+		
+		return entries;
+	}
+	
+	/**
+	 * Given a list of uniprot or uniparc ids returns the corresponding UnirefEntry records, by
+	 * calling {@link #getUnirefEntry(String)} for each of them. 
+	 * This is much slower than {@link #getMultipleUnirefEntries(List)}, which should be preferred.
+	 * If the query does not return all requested ids a warning is logged and the list of non-returned 
 	 * ids can be retrieved through {@link #getNonReturnedIdsLastMultipleRequest()}  
 	 * @param uniIds
 	 * @return
 	 * @throws SQLException
 	 */
-	public List<UnirefEntry> getMultipleUnirefEntries(List<String> uniIds) throws SQLException {
+	public List<UnirefEntry> getMultipleUnirefEntriesOneByOne(List<String> uniIds) throws SQLException {
 		nonReturnedIdsLastMultipleRequest = new HashSet<String>();
 		
 		List<UnirefEntry> entries = new ArrayList<UnirefEntry>();
@@ -192,24 +302,165 @@ public class UniprotLocalConnection {
 			try {
 				entries.add(getUnirefEntry(uniId));
 			} catch (NoMatchFoundException e) {
-				nonReturnedIdsLastMultipleRequest.add(uniId);
-				LOGGER.warn("Information for uniprot/uniparc ID "+uniId+" could not be retrieved from local Uniprot.");
+				addNonReturnedId(uniId);
 			}
 			
 		}
 		return entries;
 	}
 	
+	private void addNonReturnedId(String uniId) {
+		nonReturnedIdsLastMultipleRequest.add(uniId);
+		LOGGER.warn("Information for uniprot/uniparc ID "+uniId+" could not be retrieved from local Uniprot.");
+	}
+	
+	/**
+	 * Gets the representatives of the given uniprot ids from the clusters table.
+	 * Uniprot ids not present in the table are not returned.
+	 * @param uniprotIds
+	 * @return a map of member uniprot ids to their representative uniprot id and their member tax id
+	 * (UnirefEntryClusterMember is abused here, see {@link #getRepresentative(String)})
+	 * @throws SQLException if something goes wrong while querying or if multiple matches are returned for an id
+	 */
+	private Map<String,UnirefEntryClusterMember> getRepresentatives(Set<String> uniprotIds) throws SQLException {
+		Map<String,UnirefEntryClusterMember> representatives = new HashMap<String,UnirefEntryClusterMember>();
+		
+		for (List<String> chunk:getChunks(uniprotIds)) {
+			PreparedStatement st = conn.getConnectionObject().prepareStatement(
+					"SELECT member, representative, tax_id FROM "+dbName+"."+CLUSTERS_TABLE+
+					" WHERE member IN ("+getPlaceholders(chunk.size())+")");
+			for (int i=0;i<chunk.size();i++) {
+				st.setString(i+1, chunk.get(i));
+			}
+			ResultSet rs = st.executeQuery();
+			while (rs.next()) {
+				String member = rs.getString(1);
+				if (representatives.containsKey(member)) {
+					rs.close();
+					st.close();
+					throw new SQLException("Multiple matches in clusters table "+dbName+"."+CLUSTERS_TABLE+" for uniprot id "+member);
+				}
+				representatives.put(member, new UnirefEntryClusterMember(rs.getString(2), rs.getInt(3)));
+			}
+			rs.close();
+			st.close();
+		}
+		
+		return representatives;
+	}
+	
+	/**
+	 * Gets the tax ids and sequences from the data table for the given ids.
+	 * Ids not present in the table or with a null sequence are not returned.
+	 * @param idColumn either uniprot_id or uniparc_id 
+	 * @param ids
+	 * @return a map of ids to their sequence and tax id (UnirefEntryClusterMember abused again: 
+	 * the uniprot id field holds the sequence)
+	 * @throws SQLException if something goes wrong while querying or if multiple matches are returned for an id
+	 */
+	private Map<String,UnirefEntryClusterMember> getSequences(String idColumn, Set<String> ids) throws SQLException {
+		Map<String,UnirefEntryClusterMember> sequences = new HashMap<String,UnirefEntryClusterMember>();
+		
+		for (List<String> chunk:getChunks(ids)) {
+			PreparedStatement st = conn.getConnectionObject().prepareStatement(
+					"SELECT "+idColumn+", tax_id, sequence FROM "+dbName+"."+DATA_TABLE+
+					" WHERE "+idColumn+" IN ("+getPlaceholders(chunk.size())+")");
+			for (int i=0;i<chunk.size();i++) {
+				st.setString(i+1, chunk.get(i));
+			}
+			ResultSet rs = st.executeQuery();
+			Set<String> seen = new HashSet<String>();
+			while (rs.next()) {
+				String id = rs.getString(1);
+				if (!seen.add(id)) {
+					rs.close();
+					st.close();
+					throw new SQLException("Multiple matches in table "+dbName+"."+DATA_TABLE+" for id "+id);
+				}
+				String sequence = rs.getString(3);
+				if (sequence==null) continue;
+				sequences.put(id, new UnirefEntryClusterMember(sequence, rs.getInt(2)));
+			}
+			rs.close();
+			st.close();
+		}
+		
+		return sequences;
+	}
+	
+	/**
+	 * Retrieves in batches the taxonomy records for the given tax ids that are not yet in the cache
+	 * @param taxIds
+	 * @throws SQLException
+	 */
+	private void retrieveTaxonomies(Set<Integer> taxIds) throws SQLException {
+		List<Integer> toRetrieve = new ArrayList<Integer>();
+		for (int taxId:taxIds) {
+			if (taxId!=0 && !taxonomyCache.containsKey(taxId)) toRetrieve.add(taxId);
+		}
+		
+		for (List<Integer> chunk:getChunks(toRetrieve)) {
+			PreparedStatement st = conn.getConnectionObject().prepareStatement(
+					"SELECT tax_id, scientific, lineage FROM "+dbName+"."+TAX_TABLE+
+					" WHERE tax_id IN ("+getPlaceholders(chunk.size())+")");
+			for (int i=0;i<chunk.size();i++) {
+				st.setInt(i+1, chunk.get(i));
+			}
+			ResultSet rs = st.executeQuery();
+			while (rs.next()) {
+				taxonomyCache.put(rs.getInt(1), createTaxonomyRecord(rs.getString(2), rs.getString(3)));
+			}
+			rs.close();
+			st.close();
+			
+			// the ones not found are cached as null so that we don't query for them again
+			for (int taxId:chunk) {
+				if (!taxonomyCache.containsKey(taxId)) taxonomyCache.put(taxId, null);
+			}
+		}
+	}
+	
+	private static <T> List<List<T>> getChunks(Collection<T> ids) {
+		List<List<T>> chunks = new ArrayList<List<T>>();
+		List<T> chunk = null;
+		for (T id:ids) {
+			if (chunk==null || chunk.size()==MAX_IDS_PER_QUERY) {
+				chunk = new ArrayList<T>();
+				chunks.add(chunk);
+			}
+			chunk.add(id);
+		}
+		return chunks;
+	}
+	
+	private static String getPlaceholders(int n) {
+		StringBuilder sb = new StringBuilder();
+		for (int i=0;i<n;i++) {
+			if (i>0) sb.append(",");
+			sb.append("?");
+		}
+		return sb.toString();
+	}
+	
 	public HashSet<String> getNonReturnedIdsLastMultipleRequest() {
 		return nonReturnedIdsLastMultipleRequest;
 	}
 	
+	/**
+	 * Gets the taxonomy record for the given tax id. Records are memoized per tax id.
+	 * @param taxId
+	 * @return the taxonomy record or null if tax id is 0 or not found in the taxonomy table
+	 * @throws SQLException
+	 */
 	public TaxonomyRecord getTaxonomy(int taxId) throws SQLException {
 		if (taxId==0) return null;
 		
-		Statement st = conn.createStatement();
-		String sql = "SELECT scientific,lineage FROM "+dbName+"."+TAX_TABLE+" WHERE tax_id="+taxId; 
-		ResultSet rs = st.executeQuery(sql);
+		if (taxonomyCache.containsKey(taxId)) return taxonomyCache.get(taxId);
+		
+		PreparedStatement st = conn.getConnectionObject().prepareStatement(
+				"SELECT scientific,lineage FROM "+dbName+"."+TAX_TABLE+" WHERE tax_id=?"); 
+		st.setInt(1, taxId);
+		ResultSet rs = st.executeQuery();
 
 		String scientific = null;
 		String lineage = null;
@@ -220,11 +471,18 @@ public class UniprotLocalConnection {
 		rs.close();
 		st.close();
 		
+		TaxonomyRecord tax = createTaxonomyRecord(scientific, lineage);
+		taxonomyCache.put(taxId, tax);
+		return tax;
+	}
+	
+	private TaxonomyRecord createTaxonomyRecord(String scientific, String lineage) {
 		if (scientific==null) 
 			return null;
 
 		String[] taxons = lineage.split("; ");
-		List<String> taxonsAL = Arrays.asList(taxons);
+		// the list is shared by all entries with same tax id: we make it unmodifiable
+		List<String> taxonsAL = Collections.unmodifiableList(Arrays.asList(taxons));
 		
 		return new TaxonomyRecord(scientific, taxonsAL);
 	}
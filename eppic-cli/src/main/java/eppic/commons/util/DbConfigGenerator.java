@@ -11,8 +11,35 @@ import java.util.Properties;
 public class DbConfigGenerator {
 
 
+	/**
+	 * The c3p0 connection pool settings that can be given in the config file (prefixed with "pool_"),
+	 * with their default values
+	 */
+	private static final String[][] POOL_SETTINGS = {
+		// property in config file, hibernate property, default
+		{"pool_min_size",         "hibernate.c3p0.min_size",          "5"},
+		{"pool_max_size",         "hibernate.c3p0.max_size",          "20"},
+		{"pool_timeout",          "hibernate.c3p0.timeout",           "1800"},
+		{"pool_max_statements",   "hibernate.c3p0.max_statements",    "50"},
+		// maximum time in milliseconds to wait for a connection, 0 is forever
+		{"pool_checkout_timeout", "hibernate.c3p0.checkoutTimeout",   "0"},
+	};
+
+	/**
+	 * The ehcache configuration with the regions of the cached entities, in the classpath of the wui
+	 */
+	private static final String EHCACHE_CONFIG = "/ehcache.xml";
+
 	/**
 	 * Generate DB config parameters by reading a properties file (configurationFile).
+	 * Besides the connection parameters, the file can contain the optional settings:
+	 * <ul>
+	 * <li>pool_min_size, pool_max_size, pool_timeout, pool_max_statements, pool_checkout_timeout: 
+	 * sizing of the c3p0 connection pool</li>
+	 * <li>cache: if true, the entities marked as cacheable in orm.xml and the cacheable queries are kept 
+	 * in the hibernate second-level and query caches (ehcache, regions configured in ehcache.xml)</li>
+	 * <li>statistics: if true, hibernate collects statistics (including cache hits and misses)</li>
+	 * </ul>
 	 * The returned map can be used with JPA:
 	 * <pre>
 	 * EntityManagerFactory emf = 
@@ -77,10 +104,26 @@ public class DbConfigGenerator {
 		map.put("javax.persistence.jdbc.user", user); 
 		map.put("javax.persistence.jdbc.password", pwd);
 
-		map.put("hibernate.c3p0.min_size", "5");
-		map.put("hibernate.c3p0.max_size", "20");
-		map.put("hibernate.c3p0.timeout", "1800");
-		map.put("hibernate.c3p0.max_statements", "50");		
+		for (String[] poolSetting : POOL_SETTINGS) {
+			String value = properties.getProperty(poolSetting[0]);
+			if (value==null || value.trim().isEmpty()) {
+				value = poolSetting[2];
+			}
+			map.put(poolSetting[1], value.trim());
+		}
+
+		if (Boolean.parseBoolean(properties.getProperty("cache","false").trim())) {
+			map.put("javax.persistence.sharedCache.mode", "ENABLE_SELECTIVE");
+			map.put("hibernate.cache.use_second_level_cache", "true");
+			map.put("hibernate.cache.use_query_cache", "true");
+			map.put("hibernate.cache.region.factory_class", "org.hibernate.cache.ehcache.EhCacheRegionFactory");
+			map.put("net.sf.ehcache.configurationResourceName", EHCACHE_CONFIG);
+			map.put("hibernate.cache.default_cache_concurrency_strategy", "read-write");
+		}
+
+		if (Boolean.parseBoolean(properties.getProperty("statistics","false").trim())) {
+			map.put("hibernate.generate_statistics", "true");
+		}
 
 		return map;
 
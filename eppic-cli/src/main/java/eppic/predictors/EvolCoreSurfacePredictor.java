@@ -13,6 +13,7 @@ import org.slf4j.LoggerFactory;
 import eppic.CallType;
 import eppic.EppicParams;
 import eppic.InterfaceEvolContext;
+import eppic.SurfaceScoreSampler;
 
 public class EvolCoreSurfacePredictor implements InterfaceTypePredictor {
 
@@ -50,13 +51,19 @@ public class EvolCoreSurfacePredictor implements InterfaceTypePredictor {
 	
 	private int coreSurfaceScoreStrategy;
 	
-
+	private SurfaceScoreSampler[] surfSamplers;
+	private int[] surfSampleSizes;
+	private double[][] surfScoreDists;
+	
 	
 	public EvolCoreSurfacePredictor(InterfaceEvolContext iec) {
 		this.iec = iec;
 		this.warnings = new ArrayList<String>();
 		this.callReasonSides = new String[2];
 		this.veto = null;
+		this.surfSamplers = new SurfaceScoreSampler[2];
+		this.surfSampleSizes = new int[2];
+		this.surfScoreDists = new double[2][];
 	}
 	
 	private boolean canDoEntropyScoring(int molecId) {
@@ -288,11 +295,14 @@ public class EvolCoreSurfacePredictor implements InterfaceTypePredictor {
 					" residues in surface. Can't do core-surface scoring for interface "+iec.getInterface().getId()+", member "+(molecId+1));
 			return Double.NaN;
 		}
-		surfScoreDist = iec.getSurfaceScoreDist(molecId, NUM_SAMPLES_SCORE_DIST, cores.size(), minAsaForSurface);		
-
-
+		if (surfScoreDists[molecId]!=null) {
+			// already sampled with sampleSurfaceScores
+			surfScoreDist = surfScoreDists[molecId];
+			surfScoreDists[molecId] = null;
+		} else {
+			surfScoreDist = iec.getSurfaceScoreDist(molecId, NUM_SAMPLES_SCORE_DIST, cores.size(), minAsaForSurface);
+		}
 
-		
 		UnivariateStatistic stat = new Mean();		
 		mean = stat.evaluate(surfScoreDist);
 		stat = new StandardDeviation();
@@ -335,6 +345,47 @@ public class EvolCoreSurfacePredictor implements InterfaceTypePredictor {
 		return zScore;
 	}
 	
+	/**
+	 * Resolves the evolutionary scores of the surface residues of both sides of the interface,
+	 * so that the surface can subsequently be sampled with {@link #sampleSurfaceScores(int)}.
+	 * This has to be called serially, the mapping of residues to the UniProt reference is not thread-safe.
+	 */
+	public void prepareSurfaceSampling() {
+		for (int molecId=InterfaceEvolContext.FIRST;molecId<=InterfaceEvolContext.SECOND;molecId++) {
+			surfSamplers[molecId] = null;
+			surfScoreDists[molecId] = null;
+			
+			if (!canDoEntropyScoring(molecId)) continue;
+			
+			List<Group> cores = null;
+			if (molecId == InterfaceEvolContext.FIRST) {
+				cores = iec.getInterface().getCoreResidues(bsaToAsaCutoff, minAsaForSurface).getFirst();
+			} else {
+				cores = iec.getInterface().getCoreResidues(bsaToAsaCutoff, minAsaForSurface).getSecond();
+			}
+			// same conditions as in scoreInterfaceSide
+			if (cores.size()==0) continue;
+			if (iec.getNumSurfaceResidues(molecId, minAsaForSurface)<cores.size()*NUM_RESIDUES_IN_SURFACE_TOLERANCE) continue;
+			
+			surfSamplers[molecId] = iec.getSurfaceScoreSampler(molecId, minAsaForSurface);
+			surfSampleSizes[molecId] = cores.size();
+		}
+	}
+	
+	/**
+	 * Samples the surface of the given side of the interface to get the background distribution 
+	 * of the core-surface score, to be used by the next {@link #computeScores()}.
+	 * {@link #prepareSurfaceSampling()} must be called before. Different sides and interfaces 
+	 * can be sampled concurrently.
+	 * @param molecId
+	 */
+	public void sampleSurfaceScores(int molecId) {
+		if (surfSamplers[molecId]==null) return;
+		
+		surfScoreDists[molecId] = surfSamplers[molecId].sample(NUM_SAMPLES_SCORE_DIST, surfSampleSizes[molecId]);
+		surfSamplers[molecId] = null;
+	}
+	
 	public void setCallCutoff(double callCutoff) {
 		this.callCutoff = callCutoff;
 	}
@@ -0,0 +1,97 @@
+package eppic.tools;
+
+import java.util.Random;
+
+import eppic.commons.sequence.AAAlphabet;
+import eppic.commons.sequence.AlignmentConstructionException;
+import eppic.commons.sequence.AlignmentProfile;
+import eppic.commons.sequence.MultipleSequenceAlignment;
+
+/**
+ * Micro-benchmark of the computation of entropies for all columns of an alignment:
+ * column by column with {@link MultipleSequenceAlignment#getColumnEntropy(int, AAAlphabet)}
+ * against the {@link AlignmentProfile} (serial and parallel).
+ * Uses random alignments, by default of 1000 sequences x 1500 columns.
+ */
+public class BenchmarkAlignmentProfile {
+
+	private static final String LETTERS = "ACDEFGHIKLMNPQRSTVWY-----X";
+
+	private static final int WARMUP_ITERATIONS = 5;
+	private static final int MEASURE_ITERATIONS = 10;
+
+	public static void main(String[] args) throws AlignmentConstructionException {
+
+		int numSeqs = 1000;
+		int length = 1500;
+		if (args.length>=2) {
+			numSeqs = Integer.parseInt(args[0]);
+			length = Integer.parseInt(args[1]);
+		}
+
+		AAAlphabet alphabet = new AAAlphabet(AAAlphabet.MIRNY_6);
+
+		MultipleSequenceAlignment aln = getRandomAlignment(new Random(1), numSeqs, length);
+
+		System.out.println("Alignment of "+numSeqs+" sequences x "+length+" columns, alphabet "+alphabet);
+
+		double[] expected = perColumn(aln, alphabet);
+
+		System.out.printf("%-20s %10.2f ms/op\n", "per column", time(() -> perColumn(aln, alphabet), expected));
+		System.out.printf("%-20s %10.2f ms/op\n", "profile", time(() -> profile(aln, alphabet, false), expected));
+		System.out.printf("%-20s %10.2f ms/op\n", "profile (parallel)", time(() -> profile(aln, alphabet, true), expected));
+	}
+
+	private interface EntropiesCalculation {
+		double[] calc();
+	}
+
+	private static double time(EntropiesCalculation calculation, double[] expected) {
+		for (int i=0;i<WARMUP_ITERATIONS;i++) {
+			check(calculation.calc(), expected);
+		}
+		long start = System.nanoTime();
+		for (int i=0;i<MEASURE_ITERATIONS;i++) {
+			check(calculation.calc(), expected);
+		}
+		return (System.nanoTime() - start)/1000000.0/MEASURE_ITERATIONS;
+	}
+
+	private static void check(double[] entropies, double[] expected) {
+		for (int i=0;i<expected.length;i++) {
+			if (Double.doubleToLongBits(entropies[i])!=Double.doubleToLongBits(expected[i]))
+				throw new IllegalStateException("Entropy for column "+(i+1)+" differs: "+entropies[i]+" vs "+expected[i]);
+		}
+	}
+
+	private static double[] perColumn(MultipleSequenceAlignment aln, AAAlphabet alphabet) {
+		double[] entropies = new double[aln.getAlignmentLength()];
+		for (int i=0;i<entropies.length;i++) {
+			entropies[i] = aln.getColumnEntropy(i+1, alphabet);
+		}
+		return entropies;
+	}
+
+	private static double[] profile(MultipleSequenceAlignment aln, AAAlphabet alphabet, boolean parallel) {
+		AlignmentProfile profile = aln.getProfile(alphabet, parallel);
+		double[] entropies = new double[aln.getAlignmentLength()];
+		for (int i=0;i<entropies.length;i++) {
+			entropies[i] = profile.getColumnEntropy(i+1);
+		}
+		return entropies;
+	}
+
+	private static MultipleSequenceAlignment getRandomAlignment(Random rand, int numSeqs, int length) throws AlignmentConstructionException {
+		String[] tags = new String[numSeqs];
+		String[] seqs = new String[numSeqs];
+		for (int i=0;i<numSeqs;i++) {
+			tags[i] = "seq"+i;
+			StringBuilder sb = new StringBuilder();
+			for (int j=0;j<length;j++) {
+				sb.append(LETTERS.charAt(rand.nextInt(LETTERS.length())));
+			}
+			seqs[i] = sb.toString();
+		}
+		return new MultipleSequenceAlignment(tags, seqs);
+	}
+}
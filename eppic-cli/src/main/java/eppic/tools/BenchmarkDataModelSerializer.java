@@ -0,0 +1,147 @@
+package eppic.tools;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import eppic.DataModelSerializer;
+import eppic.model.PdbInfoDB;
+import gnu.getopt.Getopt;
+
+/**
+ * Benchmark of the size and (de)serialization times of the serialized model files (.webui.dat)
+ * in the legacy Java serialization format against the {@link DataModelSerializer} format
+ * (compressed and uncompressed). The entries are read from the given directory (searched recursively
+ * for .webui.dat files in either format) and then written to and read from memory in each format.
+ */
+public class BenchmarkDataModelSerializer {
+
+	private static final String WEBUI_DAT_SUFFIX = ".webui.dat";
+
+	private enum Format { LEGACY, BINARY, BINARY_COMPRESSED }
+
+	public static void main(String[] args) throws IOException {
+
+		String help =
+				"Usage: BenchmarkDataModelSerializer\n" +
+				"Benchmarks the legacy and binary formats of serialized model files\n" +
+				" -d <dir>    : directory containing .webui.dat files (searched recursively)\n" +
+				" [-m <int>]  : maximum number of files to use, default: all \n" +
+				" [-n <int>]  : number of repetitions, default 3\n";
+
+		Getopt g = new Getopt("BenchmarkDataModelSerializer", args, "d:m:n:h?");
+
+		File dir = null;
+		int maxFiles = -1;
+		int repetitions = 3;
+
+		int c;
+		while ((c = g.getopt()) != -1) {
+			switch(c){
+			case 'd':
+				dir = new File(g.getOptarg());
+				break;
+			case 'm':
+				maxFiles = Integer.parseInt(g.getOptarg());
+				break;
+			case 'n':
+				repetitions = Integer.parseInt(g.getOptarg());
+				break;
+			case 'h':
+				System.out.println(help);
+				System.exit(0);
+				break;
+			case '?':
+				System.err.println(help);
+				System.exit(1);
+				break; // getopt() already printed an error
+			}
+		}
+
+		if (dir==null || !dir.isDirectory()) {
+			System.err.println("Missing or invalid directory (-d)");
+			System.err.println(help);
+			System.exit(1);
+		}
+
+		List<File> files = new ArrayList<File>();
+		findFiles(dir, files, maxFiles);
+
+		List<PdbInfoDB> entries = new ArrayList<PdbInfoDB>();
+		for (File file:files) {
+			try {
+				entries.add(DataModelSerializer.read(file));
+			} catch (IOException e) {
+				System.err.println("Could not read file "+file+", skipping. Error: "+e.getMessage());
+			}
+		}
+
+		System.out.println("Read "+entries.size()+" entries from "+dir);
+		if (entries.isEmpty()) return;
+
+		System.out.printf("%-18s %14s %12s %12s\n", "format", "total size (B)", "write (ms)", "read (ms)");
+
+		for (int r=0;r<repetitions;r++) {
+			System.out.println("Run "+(r+1));
+			for (Format format:Format.values()) {
+				long size = 0;
+				long writeTime = 0;
+				long readTime = 0;
+				for (PdbInfoDB entry:entries) {
+					long start = System.nanoTime();
+					byte[] data = write(entry, format);
+					writeTime += System.nanoTime() - start;
+					size += data.length;
+
+					start = System.nanoTime();
+					read(data, format);
+					readTime += System.nanoTime() - start;
+				}
+				System.out.printf("%-18s %14d %12.1f %12.1f\n", format, size, writeTime/1000000.0, readTime/1000000.0);
+			}
+		}
+	}
+
+	private static byte[] write(PdbInfoDB pdbInfo, Format format) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		if (format==Format.LEGACY) {
+			ObjectOutputStream out = new ObjectOutputStream(baos);
+			out.writeObject(pdbInfo);
+			out.close();
+		} else {
+			DataModelSerializer.write(baos, pdbInfo, format==Format.BINARY_COMPRESSED);
+		}
+		return baos.toByteArray();
+	}
+
+	private static PdbInfoDB read(byte[] data, Format format) throws IOException {
+		if (format==Format.LEGACY) {
+			// we read it directly as DataModelSerializer would, to measure only the java deserialization
+			ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data));
+			try {
+				return (PdbInfoDB) in.readObject();
+			} catch (ClassNotFoundException e) {
+				throw new IOException(e);
+			}
+		}
+		return DataModelSerializer.read(new ByteArrayInputStream(data));
+	}
+
+	private static void findFiles(File dir, List<File> files, int maxFiles) {
+		File[] children = dir.listFiles();
+		if (children==null) return;
+		for (File child:children) {
+			if (maxFiles>0 && files.size()>=maxFiles) return;
+			if (child.isDirectory()) {
+				findFiles(child, files, maxFiles);
+			} else if (child.getName().endsWith(WEBUI_DAT_SUFFIX)) {
+				files.add(child);
+			}
+		}
+	}
+}
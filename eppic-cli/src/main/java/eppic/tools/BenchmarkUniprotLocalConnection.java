@@ -0,0 +1,143 @@
+package eppic.tools;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+
+import eppic.commons.sequence.UniprotLocalConnection;
+import eppic.commons.sequence.UnirefEntry;
+import gnu.getopt.Getopt;
+
+/**
+ * Benchmark of the batched retrieval of UniProtKB data from a local UniProt database
+ * ({@link UniprotLocalConnection#getMultipleUnirefEntries(List)}) against the one-query-per-id
+ * retrieval ({@link UniprotLocalConnection#getMultipleUnirefEntriesOneByOne(List)}).
+ * It also checks that both retrieval methods return exactly the same data.
+ */
+public class BenchmarkUniprotLocalConnection {
+
+	public static void main(String[] args) throws IOException, SQLException {
+
+		String help =
+				"Usage: BenchmarkUniprotLocalConnection\n" +
+				"Benchmarks batched vs one-by-one retrieval of UniProtKB data from a local UniProt database\n" +
+				" -u <dbName>  : local UniProt database name \n" +
+				" -i <file>    : file with a list of UniProt/UniParc ids, one per line\n" +
+				" [-c <int>]   : size of the id lists queried at once, default: all ids in file \n" +
+				" [-n <int>]   : number of repetitions, default 3\n";
+
+		Getopt g = new Getopt("BenchmarkUniprotLocalConnection", args, "u:i:c:n:h?");
+
+		String dbName = null;
+		File idsFile = null;
+		int chunkSize = -1;
+		int repetitions = 3;
+
+		int c;
+		while ((c = g.getopt()) != -1) {
+			switch(c){
+			case 'u':
+				dbName = g.getOptarg();
+				break;
+			case 'i':
+				idsFile = new File(g.getOptarg());
+				break;
+			case 'c':
+				chunkSize = Integer.parseInt(g.getOptarg());
+				break;
+			case 'n':
+				repetitions = Integer.parseInt(g.getOptarg());
+				break;
+			case 'h':
+				System.out.println(help);
+				System.exit(0);
+				break;
+			case '?':
+				System.err.println(help);
+				System.exit(1);
+				break; // getopt() already printed an error
+			}
+		}
+
+		if (dbName==null || idsFile==null) {
+			System.err.println("Missing local UniProt database name (-u) or file with ids (-i)");
+			System.err.println(help);
+			System.exit(1);
+		}
+
+		List<String> allIds = readIds(idsFile);
+		if (chunkSize<=0) chunkSize = allIds.size();
+
+		List<List<String>> idLists = new ArrayList<List<String>>();
+		for (int i=0;i<allIds.size();i+=chunkSize) {
+			idLists.add(allIds.subList(i, Math.min(i+chunkSize, allIds.size())));
+		}
+
+		System.out.println("Read "+allIds.size()+" ids from "+idsFile+", will query in "+idLists.size()+" lists");
+
+		for (int r=0;r<repetitions;r++) {
+
+			// a new connection for each run so that no caching (taxonomy) is carried from run to run
+			UniprotLocalConnection oneByOneConn = new UniprotLocalConnection(dbName);
+			long start = System.currentTimeMillis();
+			List<UnirefEntry> oneByOne = new ArrayList<UnirefEntry>();
+			HashSet<String> oneByOneNonReturned = new HashSet<String>();
+			for (List<String> ids:idLists) {
+				oneByOne.addAll(oneByOneConn.getMultipleUnirefEntriesOneByOne(ids));
+				oneByOneNonReturned.addAll(oneByOneConn.getNonReturnedIdsLastMultipleRequest());
+			}
+			long oneByOneTime = System.currentTimeMillis() - start;
+			oneByOneConn.close();
+
+			UniprotLocalConnection batchedConn = new UniprotLocalConnection(dbName);
+			start = System.currentTimeMillis();
+			List<UnirefEntry> batched = new ArrayList<UnirefEntry>();
+			HashSet<String> batchedNonReturned = new HashSet<String>();
+			for (List<String> ids:idLists) {
+				batched.addAll(batchedConn.getMultipleUnirefEntries(ids));
+				batchedNonReturned.addAll(batchedConn.getNonReturnedIdsLastMultipleRequest());
+			}
+			long batchedTime = System.currentTimeMillis() - start;
+			batchedConn.close();
+
+			boolean same = isSame(oneByOne, batched) && oneByOneNonReturned.equals(batchedNonReturned);
+
+			System.out.printf("Run %d: one-by-one %6d ms, batched %6d ms, speed-up %5.1fx. Entries returned: %d, not returned: %d. Same results: %s\n",
+					r+1, oneByOneTime, batchedTime, (double)oneByOneTime/(double)Math.max(1,batchedTime),
+					batched.size(), batchedNonReturned.size(), same);
+		}
+	}
+
+	private static List<String> readIds(File file) throws IOException {
+		List<String> ids = new ArrayList<String>();
+		BufferedReader br = new BufferedReader(new FileReader(file));
+		String line;
+		while ((line=br.readLine())!=null) {
+			line = line.trim();
+			if (line.isEmpty() || line.startsWith("#")) continue;
+			ids.add(line);
+		}
+		br.close();
+		return ids;
+	}
+
+	private static boolean isSame(List<UnirefEntry> list1, List<UnirefEntry> list2) {
+		if (list1.size()!=list2.size()) return false;
+		for (int i=0;i<list1.size();i++) {
+			UnirefEntry u1 = list1.get(i);
+			UnirefEntry u2 = list2.get(i);
+			if (!Objects.equals(u1.getUniprotId(), u2.getUniprotId())) return false;
+			if (!Objects.equals(u1.getUniparcId(), u2.getUniparcId())) return false;
+			if (u1.getNcbiTaxId()!=u2.getNcbiTaxId()) return false;
+			if (!Objects.equals(u1.getSequence(), u2.getSequence())) return false;
+			if (!Objects.equals(u1.getTaxons(), u2.getTaxons())) return false;
+		}
+		return true;
+	}
+}
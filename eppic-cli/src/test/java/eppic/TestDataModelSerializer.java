@@ -0,0 +1,261 @@
+package eppic;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Test;
+
+import eppic.model.AssemblyContentDB;
+import eppic.model.AssemblyDB;
+import eppic.model.AssemblyScoreDB;
+import eppic.model.ChainClusterDB;
+import eppic.model.ContactDB;
+import eppic.model.HomologDB;
+import eppic.model.InterfaceClusterDB;
+import eppic.model.InterfaceClusterScoreDB;
+import eppic.model.InterfaceDB;
+import eppic.model.InterfaceScoreDB;
+import eppic.model.InterfaceWarningDB;
+import eppic.model.PdbInfoDB;
+import eppic.model.ResidueBurialDB;
+import eppic.model.ResidueInfoDB;
+import eppic.model.RunParametersDB;
+import eppic.model.SeqClusterDB;
+import eppic.model.UniProtRefWarningDB;
+
+/**
+ * Tests for {@link DataModelSerializer}
+ */
+public class TestDataModelSerializer {
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		PdbInfoDB pdbInfo = createPdbInfo();
+
+		for (boolean compress : new boolean[] {true, false}) {
+			byte[] data = write(pdbInfo, compress);
+
+			PdbInfoDB read = DataModelSerializer.read(new ByteArrayInputStream(data));
+
+			checkPdbInfo(read);
+
+			// writing again what was read must produce exactly the same data
+			assertArrayEquals(data, write(read, compress));
+		}
+	}
+
+	@Test
+	public void testLegacyFormat() throws IOException {
+		PdbInfoDB pdbInfo = createPdbInfo();
+
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		ObjectOutputStream oos = new ObjectOutputStream(baos);
+		oos.writeObject(pdbInfo);
+		oos.close();
+
+		PdbInfoDB read = DataModelSerializer.read(new ByteArrayInputStream(baos.toByteArray()));
+
+		checkPdbInfo(read);
+	}
+
+	@Test
+	public void testFile() throws IOException {
+		File file = File.createTempFile("eppic", ".webui.dat");
+		file.deleteOnExit();
+
+		DataModelSerializer.write(file, createPdbInfo());
+
+		assertFalse(DataModelSerializer.isLegacyFormat(file));
+		checkPdbInfo(DataModelSerializer.read(file));
+
+		file.delete();
+	}
+
+	@Test(expected = IOException.class)
+	public void testUnsupportedVersion() throws IOException {
+		byte[] data = write(createPdbInfo(), false);
+		// the version int follows the magic bytes
+		data[DataModelSerializer.MAGIC.length + 3] = (byte) (DataModelSerializer.VERSION + 1);
+		DataModelSerializer.read(new ByteArrayInputStream(data));
+	}
+
+	private static byte[] write(PdbInfoDB pdbInfo, boolean compress) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		DataModelSerializer.write(baos, pdbInfo, compress);
+		return baos.toByteArray();
+	}
+
+	private static void checkPdbInfo(PdbInfoDB p) {
+		assertEquals("1abc", p.getPdbCode());
+		assertEquals("A title with non-ascii characters: \u00c5\u00df", p.getTitle());
+		assertEquals(new Date(1000000000000L), p.getReleaseDate());
+		assertEquals(2.15, p.getResolution(), 0);
+		assertEquals(89.5, p.getCellGamma(), 0);
+		assertNull(p.getJob());
+		assertNull(p.getSpaceGroup());
+
+		assertEquals("1.0", p.getRunParameters().getEppicVersion());
+		assertSame(p, p.getRunParameters().getPdbInfo());
+
+		assertEquals(2, p.getChainClusters().size());
+		ChainClusterDB cc = p.getChainClusters().get(0);
+		assertSame(p, cc.getPdbInfo());
+		assertEquals("A", cc.getRepChain());
+		assertEquals(3, cc.getResidueInfos().size());
+		assertSame(cc, cc.getResidueInfos().get(2).getChainCluster());
+		assertEquals(0.25, cc.getResidueInfos().get(2).getEntropyScore(), 0);
+		assertEquals("P12345", cc.getHomologs().get(0).getUniProtId());
+		assertSame(cc, cc.getHomologs().get(0).getChainCluster());
+		assertEquals(95, cc.getSeqCluster().getC95());
+		assertSame(cc, cc.getSeqCluster().getChainCluster());
+		assertEquals("A warning", cc.getUniProtRefWarnings().get(0).getText());
+		// a chain cluster without the lists
+		assertNull(p.getChainClusters().get(1).getHomologs());
+		assertNull(p.getChainClusters().get(1).getSeqCluster());
+
+		assertEquals(1, p.getInterfaceClusters().size());
+		InterfaceClusterDB ic = p.getInterfaceClusters().get(0);
+		assertSame(p, ic.getPdbInfo());
+		assertEquals("eppic", ic.getInterfaceClusterScores().get(0).getMethod());
+		InterfaceDB i = ic.getInterfaces().get(0);
+		assertSame(ic, i.getInterfaceCluster());
+		assertEquals("X,Y,Z", i.getOperator());
+		assertEquals(-1, i.getXtalTrans_z());
+		assertEquals("bio", i.getInterfaceScores().get(0).getCallName());
+		assertEquals("clash", i.getInterfaceWarnings().get(0).getText());
+		assertEquals(2, i.getResidueBurials().size());
+		assertSame(cc.getResidueInfos().get(1), i.getResidueBurials().get(0).getResidueInfo());
+		assertNull(i.getResidueBurials().get(1).getResidueInfo());
+		assertEquals(ResidueBurialDB.CORE_GEOMETRY, i.getResidueBurials().get(0).getRegion());
+		assertSame(i, i.getResidueBurials().get(0).getInterfaceItem());
+		assertEquals(3.5, i.getContacts().get(0).getMinDistance(), 0);
+		assertSame(i, i.getContacts().get(0).getInterfaceItem());
+
+		assertEquals(1, p.getAssemblies().size());
+		AssemblyDB a = p.getAssemblies().get(0);
+		assertSame(p, a.getPdbInfo());
+		assertEquals(1, a.getInterfaceClusters().size());
+		assertSame(ic, a.getInterfaceClusters().iterator().next());
+		assertSame(a, ic.getAssemblies().iterator().next());
+		assertEquals("C2", a.getAssemblyContents().get(0).getSymmetry());
+		assertEquals(0.9, a.getAssemblyScores().get(0).getScore(), 0);
+	}
+
+	private static PdbInfoDB createPdbInfo() {
+		PdbInfoDB p = new PdbInfoDB();
+		p.setPdbCode("1abc");
+		p.setTitle("A title with non-ascii characters: \u00c5\u00df");
+		p.setReleaseDate(new Date(1000000000000L));
+		p.setResolution(2.15);
+		p.setCellGamma(89.5);
+
+		RunParametersDB r = new RunParametersDB();
+		r.setEppicVersion("1.0");
+		r.setPdbInfo(p);
+		p.setRunParameters(r);
+
+		ChainClusterDB cc = new ChainClusterDB();
+		cc.setPdbCode("1abc");
+		cc.setRepChain("A");
+		cc.setPdbInfo(p);
+		List<ResidueInfoDB> ris = new ArrayList<ResidueInfoDB>();
+		for (int i = 0; i < 3; i++) {
+			ResidueInfoDB ri = new ResidueInfoDB();
+			ri.setPdbCode("1abc");
+			ri.setRepChain("A");
+			ri.setResidueNumber(i + 1);
+			ri.setResidueType("ALA");
+			ri.setEntropyScore(i * 0.125);
+			ri.setChainCluster(cc);
+			ris.add(ri);
+		}
+		cc.setResidueInfos(ris);
+		HomologDB h = new HomologDB();
+		h.setUniProtId("P12345");
+		h.setChainCluster(cc);
+		List<HomologDB> homologs = new ArrayList<HomologDB>();
+		homologs.add(h);
+		cc.setHomologs(homologs);
+		SeqClusterDB sc = new SeqClusterDB(100, 95, 90, 80, 70, 60, 50, 40, 30);
+		sc.setChainCluster(cc);
+		cc.setSeqCluster(sc);
+		UniProtRefWarningDB w = new UniProtRefWarningDB();
+		w.setText("A warning");
+		w.setChainCluster(cc);
+		List<UniProtRefWarningDB> warnings = new ArrayList<UniProtRefWarningDB>();
+		warnings.add(w);
+		cc.setUniProtRefWarnings(warnings);
+		p.getChainClusters().add(cc);
+
+		ChainClusterDB cc2 = new ChainClusterDB();
+		cc2.setRepChain("B");
+		cc2.setPdbInfo(p);
+		p.getChainClusters().add(cc2);
+
+		InterfaceClusterDB ic = new InterfaceClusterDB();
+		ic.setClusterId(1);
+		ic.setPdbInfo(p);
+		InterfaceClusterScoreDB ics = new InterfaceClusterScoreDB();
+		ics.setMethod("eppic");
+		ics.setInterfaceCluster(ic);
+		ic.getInterfaceClusterScores().add(ics);
+
+		InterfaceDB i = new InterfaceDB();
+		i.setInterfaceId(1);
+		i.setOperator("X,Y,Z");
+		i.setXtalTrans_z(-1);
+		i.setInterfaceCluster(ic);
+		InterfaceScoreDB is = new InterfaceScoreDB();
+		is.setCallName("bio");
+		is.setInterfaceItem(i);
+		i.getInterfaceScores().add(is);
+		InterfaceWarningDB iw = new InterfaceWarningDB();
+		iw.setText("clash");
+		iw.setInterfaceItem(i);
+		i.getInterfaceWarnings().add(iw);
+		ResidueBurialDB rb1 = new ResidueBurialDB();
+		rb1.setRegion(ResidueBurialDB.CORE_GEOMETRY);
+		rb1.setResidueInfo(ris.get(1));
+		rb1.setInterfaceItem(i);
+		i.getResidueBurials().add(rb1);
+		ResidueBurialDB rb2 = new ResidueBurialDB();
+		rb2.setSide(true);
+		rb2.setInterfaceItem(i);
+		i.getResidueBurials().add(rb2);
+		ContactDB c = new ContactDB();
+		c.setMinDistance(3.5);
+		c.setInterfaceItem(i);
+		List<ContactDB> contacts = new ArrayList<ContactDB>();
+		contacts.add(c);
+		i.setContacts(contacts);
+		ic.getInterfaces().add(i);
+		p.getInterfaceClusters().add(ic);
+
+		AssemblyDB a = new AssemblyDB();
+		a.setId(1);
+		a.setPdbInfo(p);
+		a.getInterfaceClusters().add(ic);
+		ic.getAssemblies().add(a);
+		AssemblyScoreDB as = new AssemblyScoreDB();
+		as.setScore(0.9);
+		as.setAssembly(a);
+		a.getAssemblyScores().add(as);
+		AssemblyContentDB ac = new AssemblyContentDB();
+		ac.setSymmetry("C2");
+		ac.setAssembly(a);
+		List<AssemblyContentDB> contents = new ArrayList<AssemblyContentDB>();
+		contents.add(ac);
+		a.setAssemblyContents(contents);
+		p.getAssemblies().add(a);
+
+		return p;
+	}
+}
@@ -0,0 +1,266 @@
+package eppic;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.biojava.nbio.alignment.NeedlemanWunsch;
+import org.biojava.nbio.alignment.SimpleGapPenalty;
+import org.biojava.nbio.core.alignment.matrices.SubstitutionMatrixHelper;
+import org.biojava.nbio.core.alignment.template.SequencePair;
+import org.biojava.nbio.core.sequence.ProteinSequence;
+import org.biojava.nbio.core.sequence.compound.AminoAcidCompound;
+import org.biojava.nbio.structure.AminoAcidImpl;
+import org.biojava.nbio.structure.Chain;
+import org.biojava.nbio.structure.ChainImpl;
+import org.biojava.nbio.structure.Compound;
+import org.biojava.nbio.structure.Group;
+import org.biojava.nbio.structure.GroupType;
+import org.biojava.nbio.structure.HetatomImpl;
+import org.junit.Test;
+
+import eppic.commons.sequence.UnirefEntry;
+
+/**
+ * Test that the lookup tables of {@link PdbToUniProtMapper} give the same positions
+ * as looking them up directly in the alignments (as the mapper used to do),
+ * with sequences from SEQRES and from ATOM.
+ *
+ */
+public class TestPdbToUniProtMapper {
+
+	private static final String AA = "ACDEFGHIKLMNPQRSTVWY";
+
+	@Test
+	public void testAlignmentIndex() throws Exception {
+		Random r = new Random(7);
+		String core = randomSequence(r, 120);
+
+		// his-tag and cloning artifacts at both ends of the PDB sequence: gaps at both ends of the UniProt one
+		checkAlignmentIndex("HHHHHHGS" + core + "LEHHHHHH", core);
+		// the PDB sequence a fragment of the UniProt one: gaps at both ends of the PDB one
+		checkAlignmentIndex(core.substring(10, 100), core);
+		// point mutations, insertions and deletions
+		checkAlignmentIndex(core, mutate(r, core));
+		checkAlignmentIndex("MGSS" + mutate(r, core), "MSTLKEV" + core + "GG");
+	}
+
+	@Test
+	public void testMapperSeqres() throws Exception {
+		Random r = new Random(11);
+		for (int t = 0; t < 10; t++) {
+			String seq = randomSequence(r, 50 + r.nextInt(200));
+			Compound compound = createCompound(r, seq, new String[] {"A", "B"}, true);
+
+			PdbToUniProtMapper mapper = new PdbToUniProtMapper(compound);
+			String upSeq = "MSTLK" + mutate(r, seq) + "GGHHHH";
+			mapper.setUniProtReference(createUniref(upSeq));
+			assertFalse(mapper.isSequenceFromAtom());
+
+			// the single SEQRES alignment is used for all chains
+			for (Chain c : compound.getChains()) {
+				checkMapper(mapper, mapper.getAlignment(), c, upSeq.length());
+				checkMapper(mapper, mapper.getAlignment(), copy(c), upSeq.length());
+			}
+		}
+	}
+
+	@Test
+	public void testMapperAtom() throws Exception {
+		Random r = new Random(13);
+		for (int t = 0; t < 10; t++) {
+			String seq = randomSequence(r, 50 + r.nextInt(200));
+			// one chain, so that the only alignment is the one of that chain
+			Compound compound = createCompound(r, seq, new String[] {"A"}, false);
+			Chain c = compound.getChains().get(0);
+
+			PdbToUniProtMapper mapper = new PdbToUniProtMapper(compound);
+			String upSeq = "MSTLK" + mutate(r, seq) + "GGHHHH";
+			mapper.setUniProtReference(createUniref(upSeq));
+			assertTrue(mapper.isSequenceFromAtom());
+
+			checkMapper(mapper, mapper.getAlignment(), c, upSeq.length());
+
+			// more copies than those cached, queried twice
+			List<Chain> copies = new ArrayList<Chain>();
+			for (int i = 0; i < 20; i++) {
+				copies.add(copy(c));
+			}
+			for (int i = 0; i < 2; i++) {
+				for (Chain copy : copies) {
+					checkMapper(mapper, mapper.getAlignment(), copy, upSeq.length());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Checks the lookups of the index against those of the alignment for all the positions
+	 * of both sequences and for positions out of them
+	 */
+	private static void checkAlignmentIndex(String pdbSeq, String upSeq) throws Exception {
+		SequencePair<ProteinSequence, AminoAcidCompound> alignment = align(pdbSeq, upSeq);
+		PdbToUniProtMapper.AlignmentIndex index = new PdbToUniProtMapper.AlignmentIndex(alignment);
+
+		for (int q = 1; q <= pdbSeq.length(); q++) {
+			assertEquals("query position " + q, getTargetIndex(alignment, q), index.getTargetIndex(q));
+			assertEquals("query position " + q, isQueryMatching(alignment, q), index.isQueryMatching(q));
+		}
+		for (int t = 1; t <= upSeq.length(); t++) {
+			assertEquals("target position " + t, getQueryIndex(alignment, t), index.getQueryIndex(t));
+		}
+
+		for (int out : new int[] {-1, 0, pdbSeq.length() + 1}) {
+			assertEquals(-1, index.getTargetIndex(out));
+			assertFalse(index.isQueryMatching(out));
+		}
+		for (int out : new int[] {-1, 0, upSeq.length() + 1}) {
+			assertEquals(-1, index.getQueryIndex(out));
+		}
+	}
+
+	private static void checkMapper(PdbToUniProtMapper mapper, SequencePair<ProteinSequence, AminoAcidCompound> alignment,
+			Chain c, int upLength) {
+
+		for (Group g : c.getAtomGroups()) {
+			assertSame(c, g.getChain());
+			int serial = getSeqresSerial(mapper, g);
+			int expected = serial == -1 ? -1 : getTargetIndex(alignment, serial);
+			assertEquals(g.toString(), expected, mapper.getUniProtIndexForPdbGroup(g, false));
+			assertEquals(g.toString(), serial != -1 && isQueryMatching(alignment, serial), mapper.isPdbGroupMatchingUniProt(g));
+		}
+
+		for (int t = 1; t <= upLength; t++) {
+			int q = getQueryIndex(alignment, t);
+			Group expected = null;
+			if (q != -1) {
+				Chain member = null;
+				for (Chain m : c.getCompound().getChains()) {
+					if (m.getChainID().equals(c.getChainID())) member = m;
+				}
+				expected = mapper.isSequenceFromAtom() ? member.getAtomGroups().get(q - 1) : member.getSeqResGroups().get(q - 1);
+			}
+			assertSame("target position " + t, expected, mapper.getPdbGroupFromUniProtIndex(t, c.getChainID()));
+		}
+	}
+
+	/**
+	 * The serial of the group as the mapper used to find it: scanning the chain's amino acids
+	 * if the sequence is from ATOM
+	 */
+	private static int getSeqresSerial(PdbToUniProtMapper mapper, Group g) {
+		if (mapper.isSequenceFromAtom()) {
+			List<Group> groups = g.getChain().getAtomGroups(GroupType.AMINOACID);
+			for (int i = 0; i < groups.size(); i++) {
+				if (g == groups.get(i)) return i + 1;
+			}
+			return -1;
+		}
+		return g.getChain().getCompound().getAlignedResIndex(g, g.getChain());
+	}
+
+	private static int getTargetIndex(SequencePair<ProteinSequence, AminoAcidCompound> alignment, int queryIndex) {
+		int alnIdx = alignment.getQuery().getAlignmentIndexAt(queryIndex);
+		if (alignment.hasGap(alnIdx)) return -1;
+		return alignment.getIndexInTargetAt(alnIdx);
+	}
+
+	private static int getQueryIndex(SequencePair<ProteinSequence, AminoAcidCompound> alignment, int targetIndex) {
+		int alnIdx = alignment.getTarget().getAlignmentIndexAt(targetIndex);
+		if (alignment.hasGap(alnIdx)) return -1;
+		return alignment.getIndexInQueryAt(alnIdx);
+	}
+
+	private static boolean isQueryMatching(SequencePair<ProteinSequence, AminoAcidCompound> alignment, int queryIndex) {
+		int alnIdx = alignment.getQuery().getAlignmentIndexAt(queryIndex);
+		return alignment.getCompoundInQueryAt(alnIdx).equals(alignment.getCompoundInTargetAt(alnIdx));
+	}
+
+	/**
+	 * Aligns as the mapper does
+	 */
+	private static SequencePair<ProteinSequence, AminoAcidCompound> align(String pdbSeq, String upSeq) throws Exception {
+		return new NeedlemanWunsch<ProteinSequence, AminoAcidCompound>(new ProteinSequence(pdbSeq), new ProteinSequence(upSeq),
+				new SimpleGapPenalty(20, 1), SubstitutionMatrixHelper.getBlosum50()).getPair();
+	}
+
+	/**
+	 * Creates an entity with the given chains, with some residues not observed and some waters in between
+	 * @param withSeqres if false the chains have no SEQRES groups, so that the mapper uses their ATOM sequences
+	 */
+	private static Compound createCompound(Random r, String seq, String[] chainIds, boolean withSeqres) {
+		Compound compound = new Compound();
+		compound.setMolId(1);
+		for (String chainId : chainIds) {
+			Chain c = new ChainImpl();
+			c.setChainID(chainId);
+			c.setInternalChainID(chainId);
+			List<Group> seqresGroups = new ArrayList<Group>();
+			for (int i = 0; i < seq.length(); i++) {
+				AminoAcidImpl g = new AminoAcidImpl();
+				g.setAminoType(seq.charAt(i));
+				g.setPDBName("ALA");
+				if (r.nextInt(8) != 0) {
+					g.setResidueNumber(chainId, i + 1, null);
+					c.addGroup(g);
+				}
+				if (r.nextInt(20) == 0) {
+					HetatomImpl h = new HetatomImpl();
+					h.setPDBName("HOH");
+					h.setResidueNumber(chainId, 1000 + i, null);
+					c.addGroup(h);
+				}
+				seqresGroups.add(g);
+			}
+			if (withSeqres) c.setSeqResGroups(seqresGroups);
+			c.setCompound(compound);
+			compound.addChain(c);
+		}
+		return compound;
+	}
+
+	/**
+	 * A copy of the chain, as the symmetry partners in interfaces are
+	 */
+	private static Chain copy(Chain c) {
+		Chain copy = new ChainImpl();
+		copy.setChainID(c.getChainID());
+		copy.setInternalChainID(c.getInternalChainID());
+		for (Group g : c.getAtomGroups()) {
+			copy.addGroup((Group) g.clone());
+		}
+		copy.setCompound(c.getCompound());
+		return copy;
+	}
+
+	private static UnirefEntry createUniref(String sequence) {
+		UnirefEntry uniref = new UnirefEntry();
+		uniref.setUniprotId("P12345");
+		uniref.setSequence(sequence);
+		return uniref;
+	}
+
+	private static String randomSequence(Random r, int length) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < length; i++) {
+			sb.append(AA.charAt(r.nextInt(AA.length())));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Introduces point mutations, insertions and deletions
+	 */
+	private static String mutate(Random r, String seq) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < seq.length(); i++) {
+			int x = r.nextInt(30);
+			if (x == 0) continue;
+			if (x == 1) sb.append(AA.charAt(r.nextInt(AA.length())));
+			sb.append(x == 2 ? AA.charAt(r.nextInt(AA.length())) : seq.charAt(i));
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,143 @@
+package eppic;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Test the {@link RenderingScheduler} and the thumbnail batching of {@link PymolRunner}
+ * with stub executables (shell scripts) in place of PyMOL and Graphviz.
+ */
+public class TestRenderingScheduler {
+
+	private static final File SH = new File("/bin/sh");
+
+	/**
+	 * A PyMOL stand-in: writes the files of the "png" commands found in its -d arguments,
+	 * failing at the first script containing "bad", before writing its pngs
+	 */
+	private static final String STUB_PYMOL =
+			"#!/bin/sh\n" +
+			"while [ $# -gt 0 ]; do\n" +
+			"  if [ \"$1\" = \"-d\" ]; then\n" +
+			"    shift\n" +
+			"    case \"$1\" in *bad*) echo \"Error: bad script\"; exit 1;; esac\n" +
+			"    echo \"$1\" | tr ';' '\\n' | sed -n 's/^png //p' | while read f; do echo png > \"$f\"; done\n" +
+			"  fi\n" +
+			"  shift\n" +
+			"done\n";
+
+	@Rule
+	public TemporaryFolder tmpDir = new TemporaryFolder();
+
+	@Before
+	public void setUp() {
+		assumeTrue(SH.canExecute());
+	}
+
+	@Test
+	public void testSuccessAndFailures() throws Exception {
+		File ok = new File(tmpDir.getRoot(), "ok.png");
+		File failed = new File(tmpDir.getRoot(), "failed.png");
+		File notWritten = new File(tmpDir.getRoot(), "notwritten.png");
+
+		RenderingScheduler scheduler = new RenderingScheduler(2);
+		scheduler.submit(shellJob("ok", "echo png > " + ok, null, ok));
+		scheduler.submit(shellJob("failed", "echo png > " + failed + "; echo 'Error: no memory'; exit 3", null, failed));
+		scheduler.submit(shellJob("notwritten", "true", null, notWritten));
+		Map<File, String> failures = scheduler.awaitCompletion();
+
+		assertTrue(ok.exists());
+		assertEquals(2, failures.size());
+		assertEquals("failed: exited with error status 3. Last output: Error: no memory", failures.get(failed));
+		assertEquals("notwritten: output file was not written", failures.get(notWritten));
+	}
+
+	@Test
+	public void testTimeout() throws Exception {
+		File slow = new File(tmpDir.getRoot(), "slow.png");
+		File fast = new File(tmpDir.getRoot(), "fast.png");
+
+		RenderingScheduler scheduler = new RenderingScheduler(2);
+		scheduler.submit(shellJob("slow", "sleep 30; echo png > " + slow, null, slow));
+		scheduler.submit(shellJob("fast", "echo png > " + fast, null, fast));
+
+		long start = System.nanoTime();
+		Map<File, String> failures = scheduler.awaitCompletion();
+		long elapsed = (System.nanoTime() - start) / 1000000000L;
+
+		assertTrue("Timed out job was not killed: took " + elapsed + "s", elapsed < 20);
+		assertEquals(Collections.singleton(slow), failures.keySet());
+		assertEquals("slow: timed out after 1s", failures.get(slow));
+		assertTrue(fast.exists());
+	}
+
+	@Test
+	public void testInput() throws Exception {
+		File out = new File(tmpDir.getRoot(), "diagram.png");
+
+		RenderingScheduler scheduler = new RenderingScheduler(1);
+		scheduler.submit(shellJob("diagram", "cat > " + out, "digraph G { a -> b }", out));
+
+		assertTrue(scheduler.awaitCompletion().isEmpty());
+		assertEquals(Arrays.asList("digraph G { a -> b }"), Files.readAllLines(out.toPath(), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void testThumbnailBatches() throws Exception {
+		File pymol = tmpDir.newFile("pymol");
+		try (PrintWriter pw = new PrintWriter(pymol)) {
+			pw.print(STUB_PYMOL);
+		}
+		assertTrue(pymol.setExecutable(true));
+
+		List<PymolRunner.Thumbnail> thumbnails = new ArrayList<PymolRunner.Thumbnail>();
+		for (int i = 1; i <= 25; i++) {
+			File png = new File(tmpDir.getRoot(), "thumb" + i + ".png");
+			String script = "load " + (i == 7 ? "bad" : "good") + i + ".cif;ray;png " + png.getAbsolutePath() + ";";
+			thumbnails.add(new PymolRunner.Thumbnail("thumbnail " + i, script, new File[] { png }));
+		}
+
+		PymolRunner pr = new PymolRunner(pymol);
+
+		// enough batches to use the 2 threads
+		assertEquals(2, pr.getThumbnailJobs(thumbnails.subList(0, 10), 2).size());
+		// no more than the maximum number of thumbnails per batch
+		assertEquals(3, pr.getThumbnailJobs(thumbnails, 2).size());
+		assertEquals(25, pr.getThumbnailJobs(thumbnails, 40).size());
+
+		RenderingScheduler scheduler = new RenderingScheduler(2);
+		for (RenderingScheduler.Job job : pr.getThumbnailJobs(thumbnails, 2)) {
+			scheduler.submit(job);
+		}
+		Map<File, String> failures = scheduler.awaitCompletion();
+
+		// only the bad thumbnail is lost, the rest of its batch is rendered separately
+		File bad = thumbnails.get(6).getPngFiles()[0];
+		assertEquals(Collections.singleton(bad), failures.keySet());
+		assertEquals("thumbnail 7: exited with error status 1. Last output: Error: bad script", failures.get(bad));
+		for (PymolRunner.Thumbnail thumbnail : thumbnails) {
+			if (thumbnail.getPngFiles()[0].equals(bad)) continue;
+			assertTrue(thumbnail.getDescription() + " not rendered", thumbnail.getPngFiles()[0].exists());
+		}
+	}
+
+	private static RenderingScheduler.Job shellJob(String description, String script, String input, File outputFile) {
+		return new RenderingScheduler.Job(description, Arrays.asList(SH.getAbsolutePath(), "-c", script),
+				input, Collections.singletonList(outputFile), 1);
+	}
+}
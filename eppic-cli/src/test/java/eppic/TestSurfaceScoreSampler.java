@@ -0,0 +1,80 @@
+package eppic;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.math.random.RandomDataImpl;
+import org.apache.commons.math.stat.descriptive.moment.Mean;
+import org.apache.commons.math.stat.descriptive.moment.StandardDeviation;
+import org.junit.Test;
+
+/**
+ * Test that {@link SurfaceScoreSampler} draws the same samples as the sampling
+ * with commons-math's RandomDataImpl that it replaces.
+ */
+public class TestSurfaceScoreSampler {
+
+	private static final int NUM_SAMPLES = 10000;
+
+	@Test
+	public void testSameSamplesAsRandomData() {
+		Random r = new Random(42);
+
+		for (int numResidues : new int[] {1, 2, 10, 57, 300}) {
+			double[] scores = new double[numResidues];
+			for (int i=0;i<numResidues;i++) {
+				// some residues without a mapping to the reference
+				scores[i] = r.nextInt(10)==0 ? Double.NaN : r.nextDouble()*4.0;
+			}
+
+			for (int sampleSize : new int[] {1, numResidues/2, numResidues}) {
+				if (sampleSize==0) continue;
+				long seed = r.nextLong();
+
+				double[] expected = sampleWithRandomData(scores, NUM_SAMPLES, sampleSize, seed);
+				double[] actual = new SurfaceScoreSampler(scores, seed).sample(NUM_SAMPLES, sampleSize);
+
+				assertArrayEquals(expected, actual, 0.0);
+
+				assertEquals(new Mean().evaluate(expected), new Mean().evaluate(actual), 0.0);
+				assertEquals(new StandardDeviation().evaluate(expected), new StandardDeviation().evaluate(actual), 0.0);
+			}
+		}
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testSampleLargerThanSurface() {
+		new SurfaceScoreSampler(new double[] {1, 2, 3}, 1).sample(10, 4);
+	}
+
+	/**
+	 * The sampling as it was done before, with the scores boxed: the unmapped residues (NaNs)
+	 * are ignored in the averages
+	 */
+	private static double[] sampleWithRandomData(double[] scores, int numSamples, int sampleSize, long seed) {
+		List<Double> residues = new ArrayList<Double>();
+		for (double score : scores) residues.add(score);
+
+		RandomDataImpl rd = new RandomDataImpl();
+		rd.reSeed(seed);
+
+		double[] dist = new double[numSamples];
+		for (int i=0;i<numSamples;i++) {
+			Object[] sample = rd.nextSample(residues, sampleSize);
+			double totalScore = 0.0;
+			double totalWeight = 0.0;
+			for (Object o : sample) {
+				Double score = (Double) o;
+				if (!score.isNaN()) {
+					totalScore += score;
+					totalWeight += 1.0;
+				}
+			}
+			dist[i] = totalScore/totalWeight;
+		}
+		return dist;
+	}
+}
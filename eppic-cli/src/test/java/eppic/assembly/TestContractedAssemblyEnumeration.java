@@ -120,6 +120,31 @@ public class TestContractedAssemblyEnumeration {
 		
 	}
 	
+	@Test
+	public void testParallelEnumeration() throws IOException, StructureException {
+		// the parallel enumeration must give exactly the same assemblies, in the same order, as the serial one
+		
+		for (String pdbId : new String[] {"4nwp", "4hnw"}) {
+			Structure s = TestLatticeGraph.getStructure(pdbId);
+
+			StructureInterfaceList interfaces = TestLatticeGraph.getAllInterfaces(s);
+
+			CrystalAssemblies serial = new CrystalAssemblies(s, interfaces, false, 1);
+
+			CrystalAssemblies parallel = new CrystalAssemblies(s, interfaces, false, 4);
+
+			assertEquals(serial.getAllAssemblies(), parallel.getAllAssemblies());
+
+			List<Assembly> serialUniques = serial.getUniqueAssemblies();
+			List<Assembly> parallelUniques = parallel.getUniqueAssemblies();
+			assertEquals(serialUniques.size(), parallelUniques.size());
+			for (int i = 0; i < serialUniques.size(); i++) {
+				assertEquals(serialUniques.get(i).getId(), parallelUniques.get(i).getId());
+				assertEquals(serialUniques.get(i).toString(), parallelUniques.get(i).toString());
+			}
+		}
+	}
+	
 	private static String getDescription(Assembly a) {
 		
 		StringBuilder sb = new StringBuilder();
@@ -2,7 +2,11 @@ package eppic.assembly;
 
 import static org.junit.Assert.*;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
 import java.util.Set;
 
 import org.junit.Ignore;
@@ -56,6 +60,112 @@ public class TestPowerSet {
 		}
 	}
 
+	/**
+	 * Test that the Gray code subset iteration returns each proper subset of the 
+	 * active indices with the minimum number of active indices exactly once, 
+	 * each subset differing from the previous one in one index (except around the skipped full set).
+	 */
+	@Test
+	public void testGetOnSubsets() {
+
+		PowerSet original = new PowerSet(new boolean[] { true, false, true, true, false, true, true });
+		
+		for (int minOn = 0; minOn <= 6; minOn++) {
+			
+			// the number of subsets of 5 active indices with at least minOn and at most 4 active indices
+			int expected = 0;
+			for (int k = minOn; k < 5; k++) {
+				expected += binomial(5, k);
+			}
+			
+			Set<PowerSet> seen = new HashSet<PowerSet>();
+			PowerSet previous = null;
+			for (PowerSet ps : original.getOnSubsets(minOn)) {
+				assertTrue("Subset " + ps + " returned more than once", seen.add(ps));
+				assertTrue(ps.sizeOn() >= minOn);
+				assertTrue(ps.sizeOn() < original.sizeOn());
+				// original is a child of its subsets
+				assertTrue(original.isChild(ps));
+				if (previous != null && minOn == 0) {
+					int diff = 0;
+					for (int i = 0; i < ps.size(); i++) {
+						if (ps.isOn(i) != previous.isOn(i)) diff++;
+					}
+					// except around the full set, that is skipped
+					if (previous.sizeOn() != original.sizeOn() - 1 || ps.sizeOn() != original.sizeOn() - 1) {
+						assertEquals(1, diff);
+					}
+				}
+				previous = ps;
+			}
+			assertEquals(expected, seen.size());
+			assertEquals(seen, original.getOnPowerSet(minOn));
+		}
+	}
+	
+	private static int binomial(int n, int k) {
+		int b = 1;
+		for (int i = 1; i <= k; i++) {
+			b = b * (n - k + i) / i;
+		}
+		return b;
+	}
+
+	/**
+	 * Test that the bit set representation behaves exactly as the boolean array
+	 * it is constructed from, including hashCode and toString, also beyond 64 elements.
+	 */
+	@Test
+	public void testBooleanArrayEquivalence() {
+		Random rand = new Random(1);
+		for (int size : new int[] { 0, 1, 10, 63, 64, 65, 130 }) {
+			boolean[] set = new boolean[size];
+			for (int i = 0; i < size; i++) {
+				set[i] = rand.nextBoolean();
+			}
+			PowerSet ps = new PowerSet(set);
+			int numOn = 0;
+			for (int i = 0; i < size; i++) {
+				assertEquals(set[i], ps.isOn(i));
+				if (set[i]) numOn++;
+			}
+			assertEquals(size, ps.size());
+			assertEquals(numOn, ps.sizeOn());
+			assertEquals(Arrays.hashCode(set), ps.hashCode());
+			assertEquals(Arrays.toString(set), ps.toString());
+			assertEquals(ps, new PowerSet(ps));
+		}
+	}
+
+	/**
+	 * Test that the children obtained pruning with a {@link PowerSetIndex} are the same
+	 * as those obtained pruning with a list of invalid parents.
+	 */
+	@Test
+	public void testGetChildrenWithIndex() {
+		Random rand = new Random(1);
+		int size = 12;
+		List<PowerSet> invalidList = new ArrayList<PowerSet>();
+		PowerSetIndex invalidIndex = new PowerSetIndex();
+		for (int i = 0; i < 20; i++) {
+			PowerSet invalid = new PowerSet(size);
+			for (int j = 0; j < 3; j++) {
+				invalid.switchOn(rand.nextInt(size));
+			}
+			invalidList.add(invalid);
+			invalidIndex.add(invalid);
+		}
+
+		for (int i = 0; i < 200; i++) {
+			PowerSet parent = new PowerSet(size);
+			for (int j = 0; j < size; j++) {
+				if (rand.nextInt(4) == 0) parent.switchOn(j);
+			}
+			assertEquals(parent.isChild(invalidList), invalidIndex.containsParentOf(parent));
+			assertEquals(parent.getChildren(invalidList), parent.getChildren(invalidIndex));
+		}
+	}
+
 	/**
 	 * Test how long does it take to compute all subsets of a PowerSet of size
 	 * 10 and 11, given that the current threshold for maximum is 10.
@@ -0,0 +1,68 @@
+package eppic.commons.sequence;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TestAlignmentProfile {
+
+	// standard aminoacids, gaps and non-standard letters
+	private static final String LETTERS = "ACDEFGHIKLMNPQRSTVWY-----XBZUO*";
+
+	@Test
+	public void testProfileSameAsColumnMethods() throws AlignmentConstructionException {
+		Random rand = new Random(42);
+
+		String[] alphabets = {AAAlphabet.STANDARD_20, AAAlphabet.MIRNY_6, AAAlphabet.MURPHY_2, "ACILMV:DE:FHWY:GP:KR"};
+
+		for (String alphabetStr:alphabets) {
+			AAAlphabet alphabet = new AAAlphabet(alphabetStr);
+
+			MultipleSequenceAlignment aln = getRandomAlignment(rand, 57, 213);
+
+			for (boolean parallel:new boolean[]{false,true}) {
+				AlignmentProfile profile = aln.getProfile(alphabet, parallel);
+
+				assertEquals(aln.getNumberOfSequences(), profile.getNumberOfSequences());
+				assertEquals(aln.getAlignmentLength(), profile.getNumberOfColumns());
+
+				for (int col=1;col<=aln.getAlignmentLength();col++) {
+					assertArrayEquals(aln.getColumnCounts(col, alphabet), profile.getColumnCounts(col));
+					// must be exactly the same, not within a tolerance
+					assertEquals(Double.doubleToLongBits(aln.getColumnEntropy(col, alphabet)), 
+							Double.doubleToLongBits(profile.getColumnEntropy(col)));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testGetColumn() throws AlignmentConstructionException {
+		MultipleSequenceAlignment aln = new MultipleSequenceAlignment(
+				new String[]{"s1","s2","s3"}, new String[]{"AC-D","A-ED","GCE-"});
+		assertEquals("AAG", aln.getColumn(1));
+		assertEquals("C-C", aln.getColumn(2));
+		assertEquals("-EE", aln.getColumn(3));
+		assertEquals("DD-", aln.getColumn(4));
+
+		AlignmentProfile profile = aln.getProfile(new AAAlphabet(AAAlphabet.STANDARD_20), false);
+		assertEquals(AlignmentProfile.GAP_INDEX, profile.getGroupIndex(3, 0));
+		assertEquals(0.0, profile.getColumnEntropy(4) - (-(2.0/3.0)*Math.log(2.0/3.0)/Math.log(2)), 0.000001);
+	}
+
+	private static MultipleSequenceAlignment getRandomAlignment(Random rand, int numSeqs, int length) throws AlignmentConstructionException {
+		String[] tags = new String[numSeqs];
+		String[] seqs = new String[numSeqs];
+		for (int i=0;i<numSeqs;i++) {
+			tags[i] = "seq"+i;
+			StringBuilder sb = new StringBuilder();
+			for (int j=0;j<length;j++) {
+				sb.append(LETTERS.charAt(rand.nextInt(LETTERS.length())));
+			}
+			seqs[i] = sb.toString();
+		}
+		return new MultipleSequenceAlignment(tags, seqs);
+	}
+}
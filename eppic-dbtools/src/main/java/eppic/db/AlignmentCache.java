@@ -0,0 +1,172 @@
+package eppic.db;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.biojava.nbio.alignment.NeedlemanWunsch;
+import org.biojava.nbio.alignment.SimpleGapPenalty;
+import org.biojava.nbio.alignment.template.GapPenalty;
+import org.biojava.nbio.core.alignment.SimpleSequencePair;
+import org.biojava.nbio.core.alignment.matrices.SubstitutionMatrixHelper;
+import org.biojava.nbio.core.alignment.template.AlignedSequence.Step;
+import org.biojava.nbio.core.alignment.template.SequencePair;
+import org.biojava.nbio.core.alignment.template.SubstitutionMatrix;
+import org.biojava.nbio.core.exceptions.CompoundNotFoundException;
+import org.biojava.nbio.core.sequence.ProteinSequence;
+import org.biojava.nbio.core.sequence.compound.AminoAcidCompound;
+
+/**
+ * A cache of pairwise global alignments of protein sequences, keyed by the two (ungapped) sequences,
+ * so that the same pair of chain sequences is aligned only once across the many comparisons of entries
+ * of a sequence cluster. The cache is bounded, evicting the least recently used alignments, and can be
+ * used concurrently. Identical sequences are not aligned: an ungapped identity alignment is returned.
+ *
+ * The alignments are the same as the ones calculated in {@link PdbInfo} without a cache:
+ * Needleman-Wunsch with Blosum50 and gap penalties 8 (open) and 1 (extension).
+ */
+public class AlignmentCache {
+
+	public static final int DEFAULT_MAX_SIZE = 10000;
+
+	private static final SubstitutionMatrix<AminoAcidCompound> MATRIX = SubstitutionMatrixHelper.getBlosum50();
+	private static final short GAP_OPEN = 8;
+	private static final short GAP_EXTENSION = 1;
+
+	private final int maxSize;
+
+	private final Map<String, SequencePair<ProteinSequence,AminoAcidCompound>> cache;
+
+	private final AtomicLong hits;
+	private final AtomicLong misses;
+	private final AtomicLong identical;
+
+	public AlignmentCache() {
+		this(DEFAULT_MAX_SIZE);
+	}
+
+	/**
+	 * @param maxSize the maximum number of alignments to keep, beyond that the least recently used are evicted
+	 */
+	public AlignmentCache(int maxSize) {
+		this.maxSize = maxSize;
+		this.cache = new LinkedHashMap<String, SequencePair<ProteinSequence,AminoAcidCompound>>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, SequencePair<ProteinSequence,AminoAcidCompound>> eldest) {
+				return size() > AlignmentCache.this.maxSize;
+			}
+		};
+		this.hits = new AtomicLong(0);
+		this.misses = new AtomicLong(0);
+		this.identical = new AtomicLong(0);
+	}
+
+	/**
+	 * Gets the alignment of the 2 given ungapped sequences, from the cache if present
+	 * or aligning them (and caching the alignment) if not.
+	 * @param seq1 the query sequence
+	 * @param seq2 the target sequence
+	 * @return
+	 * @throws CompoundNotFoundException if any of the sequences has non-protein characters
+	 */
+	public SequencePair<ProteinSequence,AminoAcidCompound> getAlignment(String seq1, String seq2) throws CompoundNotFoundException {
+
+		// the separator can't be part of a protein sequence
+		String key = seq1 + "/" + seq2;
+
+		SequencePair<ProteinSequence,AminoAcidCompound> aln;
+		synchronized (cache) {
+			aln = cache.get(key);
+		}
+		if (aln!=null) {
+			hits.incrementAndGet();
+			return aln;
+		}
+
+		// aligning outside the lock: a pair requested concurrently could be aligned twice, but that's harmless
+		if (seq1.equals(seq2)) {
+			identical.incrementAndGet();
+			aln = getIdentityAlignment(new ProteinSequence(seq1), new ProteinSequence(seq2));
+		} else {
+			misses.incrementAndGet();
+			aln = align(new ProteinSequence(seq1), new ProteinSequence(seq2));
+		}
+
+		synchronized (cache) {
+			cache.put(key, aln);
+		}
+		return aln;
+	}
+
+	/**
+	 * Aligns the 2 sequences without using the cache
+	 * @param s1
+	 * @param s2
+	 * @return
+	 */
+	public static SequencePair<ProteinSequence,AminoAcidCompound> align(ProteinSequence s1, ProteinSequence s2) {
+		GapPenalty penalty = new SimpleGapPenalty(GAP_OPEN, GAP_EXTENSION);
+
+		NeedlemanWunsch<ProteinSequence,AminoAcidCompound> nw =
+				new NeedlemanWunsch<ProteinSequence,AminoAcidCompound>(s1, s2, penalty, MATRIX);
+
+		return nw.getPair();
+	}
+
+	private static SequencePair<ProteinSequence,AminoAcidCompound> getIdentityAlignment(ProteinSequence s1, ProteinSequence s2) {
+		List<Step> steps = new ArrayList<Step>(s1.getLength());
+		for (int i=0;i<s1.getLength();i++) {
+			steps.add(Step.COMPOUND);
+		}
+		return new SimpleSequencePair<ProteinSequence,AminoAcidCompound>(s1, s2, steps, steps);
+	}
+
+	public int size() {
+		synchronized (cache) {
+			return cache.size();
+		}
+	}
+
+	/**
+	 * The number of alignments found in the cache
+	 * @return
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * The number of alignments not found in the cache that needed to be calculated
+	 * @return
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * The number of alignments not found in the cache for identical sequences, not needing an alignment
+	 * @return
+	 */
+	public long getIdentical() {
+		return identical.get();
+	}
+
+	/**
+	 * The fraction of requests that were found in the cache
+	 * @return
+	 */
+	public double getHitRate() {
+		long total = getHits() + getMisses() + getIdentical();
+		if (total==0) return 0;
+		return (double)getHits()/(double)total;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("Alignment cache: %d requests, %d hits (%4.2f hit rate), %d aligned, %d identical sequences, %d/%d cached",
+				getHits()+getMisses()+getIdentical(), getHits(), getHitRate(), getMisses(), getIdentical(), size(), maxSize);
+	}
+}
@@ -1,9 +1,11 @@
 package eppic.db;
 
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.biojava.nbio.core.util.SingleLinkageClusterer;
 
@@ -13,6 +15,12 @@ import org.biojava.nbio.core.util.SingleLinkageClusterer;
  * A class to contain the comparison of lattices for a set of PDBs,
  * from which the Crystal Form clusters and interface clusters can be obtained.
  * 
+ * The comparisons can be stored either in dense matrices (default), or, for large sets of PDBs
+ * where the interface comparison matrix can't fit in memory, sparsely: only the scores above
+ * given cutoffs are kept and the single-linkage clustering is done with a {@link UnionFind}
+ * on the graph of stored pairs, see {@link #LatticeComparisonGroup(PdbInfoList, double, double)}.
+ * In both cases {@link #setElement(int, int, LatticeOverlapScore, LatticeMatchMatrix)} can be
+ * called concurrently for different pairs.
  * 
  * @author duarte_j
  *
@@ -25,8 +33,27 @@ public class LatticeComparisonGroup {
 	private LatticeOverlapScore[][] latticeOverlapMatrix;
 	private double[][] interfCompMatrix;
 
+	private boolean sparse;
+
+	/**
+	 * The cutoffs above which scores are stored in sparse mode
+	 */
+	private double losStoreCutoff;
+	private double coStoreCutoff;
+
+	/**
+	 * In sparse mode: lattice overlap scores of pairs i&lt;j above losStoreCutoff, indexed by {@link #pairKey(int, int)}
+	 */
+	private Map<Long, LatticeOverlapScore> latticeOverlapScores;
+
+	/**
+	 * In sparse mode: the interface comparison scores above coStoreCutoff
+	 */
+	private SparseScores interfCompScores;
+
 	public LatticeComparisonGroup(PdbInfoList pdbInfoList) {
 		this.pdbInfoList = pdbInfoList;
+		this.sparse = false;
 		
 		this.latticeOverlapMatrix = new LatticeOverlapScore[pdbInfoList.size()][pdbInfoList.size()];
 				
@@ -35,11 +62,49 @@ public class LatticeComparisonGroup {
 		this.interfCompMatrix = new double[numInterfaceClusters][numInterfaceClusters];
 	}
 	
+	/**
+	 * Constructs a sparse LatticeComparisonGroup, where only lattice overlap scores (average) above
+	 * losStoreCutoff and interface comparison scores above coStoreCutoff are kept.
+	 * The clusters can then only be calculated for cutoffs equal or above the store cutoffs.
+	 * The full comparison matrices are not available in this mode.
+	 * @param pdbInfoList
+	 * @param losStoreCutoff
+	 * @param coStoreCutoff
+	 */
+	public LatticeComparisonGroup(PdbInfoList pdbInfoList, double losStoreCutoff, double coStoreCutoff) {
+		this.pdbInfoList = pdbInfoList;
+		this.sparse = true;
+		this.losStoreCutoff = losStoreCutoff;
+		this.coStoreCutoff = coStoreCutoff;
+
+		// initialises the interface lookups, so that getOffset can be used concurrently later
+		pdbInfoList.getNumInterfaceClusters();
+
+		this.latticeOverlapScores = new ConcurrentHashMap<Long, LatticeOverlapScore>();
+		this.interfCompScores = new SparseScores();
+	}
+
 	public void setElement(int i, int j, LatticeOverlapScore los, LatticeMatchMatrix lmm) {
 		
-		latticeOverlapMatrix[i][j] = los;
-		
 		double[][] coMatrix = lmm.getCoMatrix();
+
+		if (sparse) {
+			if (i<j && los.getAvgScore()>losStoreCutoff) {
+				latticeOverlapScores.put(pairKey(i, j), los);
+			}
+			// as in the dense matrix, only the upper triangle is used for clustering
+			for (int k=0;k<coMatrix.length;k++) {
+				for (int l=0;l<coMatrix[k].length;l++){
+					if (i==j && l<=k) continue;
+					if (coMatrix[k][l]>coStoreCutoff) {
+						interfCompScores.add(k + pdbInfoList.getOffset(i), l + pdbInfoList.getOffset(j), coMatrix[k][l]);
+					}
+				}
+			}
+			return;
+		}
+
+		latticeOverlapMatrix[i][j] = los;
 		
 		//System.out.println("offset "+i+","+j+": "+pdbInfoList.getOffset(minArea, i)+" "+pdbInfoList.getOffset(minArea, j));
 		
@@ -51,30 +116,84 @@ public class LatticeComparisonGroup {
 		}
 	}
 	
+	public boolean isSparse() {
+		return sparse;
+	}
+
+	/**
+	 * Gets the lattice overlap score for PdbInfos i and j (i&lt;=j). In sparse mode
+	 * only scores above the store cutoff of pairs i&lt;j are available.
+	 * @param i
+	 * @param j
+	 * @return the score or null if not calculated or not stored
+	 */
+	public LatticeOverlapScore getLatticeOverlapScore(int i, int j) {
+		if (sparse) {
+			return latticeOverlapScores.get(pairKey(i, j));
+		}
+		return latticeOverlapMatrix[i][j];
+	}
+
+	/**
+	 * The number of interface comparison scores stored
+	 * @return
+	 */
+	public long getNumInterfaceComparisons() {
+		if (sparse) {
+			return interfCompScores.size();
+		}
+		return (long)interfCompMatrix.length * interfCompMatrix.length;
+	}
+
+	/**
+	 * @return
+	 * @throws UnsupportedOperationException if in sparse mode
+	 */
 	public LatticeOverlapScore[][] getLatticeComparisonMatrix() {
+		if (sparse) throw new UnsupportedOperationException("The lattice comparison matrix is not available in sparse mode");
 		return latticeOverlapMatrix;
 	}
 	
+	/**
+	 * @return
+	 * @throws UnsupportedOperationException if in sparse mode
+	 */
 	public double[][] getInterfaceComparisonMatrix() {
+		if (sparse) throw new UnsupportedOperationException("The interface comparison matrix is not available in sparse mode");
 		return interfCompMatrix;
 	}
 	
 	public Collection<GlobalPdbInfoCluster> getCFClusters(double losCutoff) {
 		
+		Map<Integer,Set<Integer>> cls;
 		
-		// first we convert the latticeOverlapMatrix into a double matrix
-		double[][] matrix = new double[pdbInfoList.size()][pdbInfoList.size()];
-		for (int i=0;i<latticeOverlapMatrix.length;i++) {
-			for (int j=i+1;j<latticeOverlapMatrix[i].length;j++) {
-				matrix[i][j] = latticeOverlapMatrix[i][j].getAvgScore();
+		if (sparse) {
+			checkCutoff(losCutoff, losStoreCutoff);
+
+			UnionFind uf = new UnionFind(pdbInfoList.size());
+			for (Map.Entry<Long, LatticeOverlapScore> entry:latticeOverlapScores.entrySet()) {
+				if (entry.getValue().getAvgScore()>losCutoff) {
+					uf.union(pairFirst(entry.getKey()), pairSecond(entry.getKey()));
+				}
+			}
+			cls = uf.getClusters();
+
+		} else {
+
+			// first we convert the latticeOverlapMatrix into a double matrix
+			double[][] matrix = new double[pdbInfoList.size()][pdbInfoList.size()];
+			for (int i=0;i<latticeOverlapMatrix.length;i++) {
+				for (int j=i+1;j<latticeOverlapMatrix[i].length;j++) {
+					matrix[i][j] = latticeOverlapMatrix[i][j].getAvgScore();
+				}
 			}
+
+			// note that the clusterer alters the matrix, keep that in mind if we wanted to use the matrix down the line
+			SingleLinkageClusterer cl = new SingleLinkageClusterer(matrix, true);
+			//cl.setDebug();
+			cls = cl.getClusters(losCutoff);
 		}
 		
-		// note that the clusterer alters the matrix, keep that in mind if we wanted to use the matrix down the line
-		SingleLinkageClusterer cl = new SingleLinkageClusterer(matrix, true);
-		//cl.setDebug();
-		Map<Integer,Set<Integer>> cls = cl.getClusters(losCutoff);
-		
 		// return the unique list sorted by ids (thanks to equals, hashCode and compareTo)
 		Set<GlobalPdbInfoCluster> set = new TreeSet<GlobalPdbInfoCluster>();
 		
@@ -94,11 +213,19 @@ public class LatticeComparisonGroup {
 	
 	public Collection<GlobalInterfaceCluster> getInterfClusters(double coCutoff) {
 		
-		// note that the clusterer alters the matrix, keep that in mind if we wanted to use the matrix down the line
-		SingleLinkageClusterer cl = new SingleLinkageClusterer(interfCompMatrix, true);
+		Map<Integer, Set<Integer>> cls;
 		
-		Map<Integer, Set<Integer>> cls = cl.getClusters(coCutoff);
+		if (sparse) {
+			checkCutoff(coCutoff, coStoreCutoff);
 		
+			cls = interfCompScores.getClusters(pdbInfoList.getNumInterfaceClusters(), coCutoff);
+
+		} else {
+			// note that the clusterer alters the matrix, keep that in mind if we wanted to use the matrix down the line
+			SingleLinkageClusterer cl = new SingleLinkageClusterer(interfCompMatrix, true);
+
+			cls = cl.getClusters(coCutoff);
+		}
 		
 		// return the unique list sorted by ids (thanks to equals, hashCode and compareTo)
 		Set<GlobalInterfaceCluster> set = new TreeSet<GlobalInterfaceCluster>();
@@ -117,4 +244,63 @@ public class LatticeComparisonGroup {
 		return set;
 	}
 		
+	private static void checkCutoff(double cutoff, double storeCutoff) {
+		if (cutoff<storeCutoff)
+			throw new IllegalArgumentException("Cutoff "+cutoff+" is below the cutoff "+storeCutoff+" used to store the scores");
+	}
+
+	private static long pairKey(int i, int j) {
+		return ((long)i << 32) | (j & 0xffffffffL);
+	}
+
+	private static int pairFirst(long key) {
+		return (int)(key >>> 32);
+	}
+
+	private static int pairSecond(long key) {
+		return (int)key;
+	}
+
+	/**
+	 * A growable list of scored pairs, stored in primitive arrays
+	 */
+	private static class SparseScores {
+
+		private static final int INITIAL_CAPACITY = 1024;
+
+		private long[] pairs;
+		private double[] scores;
+		private int size;
+
+		SparseScores() {
+			pairs = new long[INITIAL_CAPACITY];
+			scores = new double[INITIAL_CAPACITY];
+			size = 0;
+		}
+
+		synchronized void add(int i, int j, double score) {
+			if (size==pairs.length) {
+				pairs = Arrays.copyOf(pairs, size*2);
+				scores = Arrays.copyOf(scores, size*2);
+			}
+			pairs[size] = pairKey(i, j);
+			scores[size] = score;
+			size++;
+		}
+
+		synchronized int size() {
+			return size;
+		}
+
+		synchronized Map<Integer, Set<Integer>> getClusters(int numItems, double cutoff) {
+			UnionFind uf = new UnionFind(numItems);
+			for (int p=0;p<size;p++) {
+				if (scores[p]>cutoff) {
+					uf.union(pairFirst(pairs[p]), pairSecond(pairs[p]));
+				}
+			}
+			return uf.getClusters();
+		}
+	}
+
 }
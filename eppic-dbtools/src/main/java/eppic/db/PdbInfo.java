@@ -5,12 +5,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import org.biojava.nbio.alignment.NeedlemanWunsch;
-import org.biojava.nbio.alignment.SimpleGapPenalty;
-import org.biojava.nbio.alignment.template.GapPenalty;
-import org.biojava.nbio.core.alignment.matrices.SubstitutionMatrixHelper;
 import org.biojava.nbio.core.alignment.template.SequencePair;
-import org.biojava.nbio.core.alignment.template.SubstitutionMatrix;
 import org.biojava.nbio.core.exceptions.CompoundNotFoundException;
 import org.biojava.nbio.core.sequence.ProteinSequence;
 import org.biojava.nbio.core.sequence.compound.AminoAcidCompound;
@@ -89,10 +84,24 @@ public class PdbInfo {
 	
 	public LatticeMatchMatrix calcLatticeOverlapMatrix(PdbInfo other, SeqClusterLevel seqClusterLevel, double minArea, boolean debug) 
 			 {
+		return calcLatticeOverlapMatrix(other, seqClusterLevel, minArea, debug, null);
+	}
+	
+	/**
+	 * Calculates the lattice overlap matrix between this and other, getting the chain alignments from the given cache.
+	 * @param other
+	 * @param seqClusterLevel
+	 * @param minArea
+	 * @param debug
+	 * @param alnCache the cache of chain alignments, if null the chains are aligned without caching
+	 * @return
+	 */
+	public LatticeMatchMatrix calcLatticeOverlapMatrix(PdbInfo other, SeqClusterLevel seqClusterLevel, double minArea, boolean debug, AlignmentCache alnCache) 
+			 {
 	
 		// Maps from a pair of chain Ids to their alignment
 		// Only includes chains from the same sequence cluster
-		Map<Pair<String>,SequencePair<ProteinSequence,AminoAcidCompound>> map = getAlignmentsPool(other, seqClusterLevel);
+		Map<Pair<String>,SequencePair<ProteinSequence,AminoAcidCompound>> map = getAlignmentsPool(other, seqClusterLevel, alnCache);
 		
 		if (debug) {
 			for (Pair<String> pair:map.keySet()) {
@@ -127,9 +136,10 @@ public class PdbInfo {
 	 * are ignored). Returned is a map from the two chainIds to the aligned sequences.
 	 * @param other Structure to compare to
 	 * @param seqClusterLevel Minimum sequence identity to compare chains
+	 * @param alnCache the cache of alignments, if null the chains are aligned without caching
 	 * @return A map from the pair of chains to the alignment
 	 */
-	private Map<Pair<String>,SequencePair<ProteinSequence,AminoAcidCompound>> getAlignmentsPool(PdbInfo other, SeqClusterLevel seqClusterLevel) 
+	private Map<Pair<String>,SequencePair<ProteinSequence,AminoAcidCompound>> getAlignmentsPool(PdbInfo other, SeqClusterLevel seqClusterLevel, AlignmentCache alnCache) 
 		 {
 		
 		Map<Pair<String>,SequencePair<ProteinSequence,AminoAcidCompound>> map = new HashMap<Pair<String>,SequencePair<ProteinSequence,AminoAcidCompound>>();
@@ -147,15 +157,14 @@ public class PdbInfo {
 					String otherSeq = otherChainCluster.getChainCluster().getPdbAlignedSeq().replace("-", "");
 					
 					
-					SubstitutionMatrix<AminoAcidCompound> matrix = SubstitutionMatrixHelper.getBlosum50();
-					GapPenalty penalty = new SimpleGapPenalty((short)8,(short)1);
-
 					// before move to Biojava, we had as tags of the sequences:  "first" and "second"
-					ProteinSequence s1 = null; 
-					ProteinSequence s2 = null; 
+					SequencePair<ProteinSequence,AminoAcidCompound> aln = null; 
 					try {
-						s1 = new ProteinSequence(thisSeq);
-						s2 = new ProteinSequence(otherSeq);
+						if (alnCache!=null) {
+							aln = alnCache.getAlignment(thisSeq, otherSeq);
+						} else {
+							aln = AlignmentCache.align(new ProteinSequence(thisSeq), new ProteinSequence(otherSeq));
+						}
 					} catch (CompoundNotFoundException e) {
 						System.err.println("Non-protein characters in one of the sequences! "+e.getMessage());
 						System.err.println("Sequences are: ");
@@ -169,11 +178,6 @@ public class PdbInfo {
 						System.exit(1);
 					}
 
-					NeedlemanWunsch<ProteinSequence,AminoAcidCompound> nw = 
-							new NeedlemanWunsch<ProteinSequence,AminoAcidCompound>(s1,s2, penalty, matrix);
-					
-					SequencePair<ProteinSequence,AminoAcidCompound> aln = nw.getPair(); 
-
 					Pair<String> pair = new Pair<String>(thisChainCluster.getChainCluster().getRepChain(),
 														 otherChainCluster.getChainCluster().getRepChain());
 					map.put(pair, aln);
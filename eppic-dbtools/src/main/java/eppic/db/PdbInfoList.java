@@ -3,6 +3,10 @@ package eppic.db;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.IntStream;
 
 import eppic.model.PdbInfoDB;
 
@@ -28,6 +32,11 @@ public class PdbInfoList {
 	private HashMap<Integer, InterfaceCluster> interfaceLookup;
 	private HashMap<Integer, Integer> offsets;
 	
+	/**
+	 * The cache of chain alignments used for the comparisons, if null no caching is done
+	 */
+	private AlignmentCache alnCache;
+	
 	public PdbInfoList(List<PdbInfoDB> pdbInfoList) {
 		pdbList = new ArrayList<PdbInfo>();
 		for (PdbInfoDB pdbInfo:pdbInfoList) {
@@ -39,6 +48,15 @@ public class PdbInfoList {
 		this.minArea = minArea;
 	}
 	
+	/**
+	 * Sets the cache of chain alignments to use for the lattice comparisons, it can be shared 
+	 * with other PdbInfoLists. If not set (or null) the chains are aligned without caching.
+	 * @param alnCache
+	 */
+	public void setAlignmentCache(AlignmentCache alnCache) {
+		this.alnCache = alnCache;
+	}
+	
 	public LatticeComparisonGroup calcLatticeOverlapMatrix(SeqClusterLevel seqClusterLevel, double coCutoff) { 
 		
 		LatticeComparisonGroup cfCompare = new LatticeComparisonGroup(this);
@@ -49,7 +67,7 @@ public class PdbInfoList {
 				PdbInfo ipdb = pdbList.get(i);
 				PdbInfo jpdb = pdbList.get(j);
 								
-				LatticeMatchMatrix lmm = ipdb.calcLatticeOverlapMatrix(jpdb, seqClusterLevel, minArea, debug);
+				LatticeMatchMatrix lmm = ipdb.calcLatticeOverlapMatrix(jpdb, seqClusterLevel, minArea, debug, alnCache);
 				cfCompare.setElement(i, j, lmm.getLatticeOverlapScore(coCutoff), lmm);
 				 
 			}
@@ -58,6 +76,68 @@ public class PdbInfoList {
 		return cfCompare;
 	}
 	
+	/**
+	 * Calculates the lattice overlaps of all pairs of entries as {@link #calcLatticeOverlapMatrix(SeqClusterLevel, double)},
+	 * optionally storing only the scores above cutoffs and optionally in parallel.
+	 * @param seqClusterLevel
+	 * @param coCutoff
+	 * @param sparse if true only the lattice overlap scores above losCutoff and the interface comparison
+	 * scores above coCutoff are stored, see {@link LatticeComparisonGroup#LatticeComparisonGroup(PdbInfoList, double, double)}
+	 * @param losCutoff the lattice overlap score store cutoff, only used if sparse is true
+	 * @param pool the pool where to run the pairwise comparisons in parallel, if null they are run serially. 
+	 * This can be called from a task running in the same pool.
+	 * @return
+	 */
+	public LatticeComparisonGroup calcLatticeOverlapMatrix(SeqClusterLevel seqClusterLevel, double coCutoff, boolean sparse, double losCutoff, ForkJoinPool pool) {
+		
+		LatticeComparisonGroup cfCompare = null;
+		if (sparse) 
+			cfCompare = new LatticeComparisonGroup(this, losCutoff, coCutoff);
+		else 
+			cfCompare = new LatticeComparisonGroup(this);
+		
+		if (pool == null) {
+			for (int i=0;i<pdbList.size();i++) {
+				compareRow(cfCompare, i, seqClusterLevel, coCutoff);
+			}
+			return cfCompare;
+		}
+		
+		final LatticeComparisonGroup cfc = cfCompare;
+		
+		// the rows are of different lengths (j>=i only), the work stealing of the pool balances them
+		if (ForkJoinTask.getPool() == pool) {
+			// we are already running in a task of the pool: the parallel stream runs in it
+			IntStream.range(0, pdbList.size()).parallel().forEach(i -> compareRow(cfc, i, seqClusterLevel, coCutoff));
+			return cfCompare;
+		}
+		
+		try {
+			pool.submit(() -> 
+				IntStream.range(0, pdbList.size()).parallel().forEach(i -> compareRow(cfc, i, seqClusterLevel, coCutoff))
+			).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while comparing lattices", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+			if (e.getCause() instanceof Error) throw (Error) e.getCause();
+			throw new RuntimeException(e.getCause());
+		}
+		
+		return cfCompare;
+	}
+	
+	private void compareRow(LatticeComparisonGroup cfCompare, int i, SeqClusterLevel seqClusterLevel, double coCutoff) {
+		PdbInfo ipdb = pdbList.get(i);
+		for (int j=i;j<pdbList.size();j++) { // note we also do j==i in order to cluster interfaces within a PDB
+			PdbInfo jpdb = pdbList.get(j);
+			
+			LatticeMatchMatrix lmm = ipdb.calcLatticeOverlapMatrix(jpdb, seqClusterLevel, minArea, debug, alnCache);
+			cfCompare.setElement(i, j, lmm.getLatticeOverlapScore(coCutoff), lmm);
+		}
+	}
+	
 	public int size() {
 		return pdbList.size();
 	}
@@ -0,0 +1,91 @@
+package eppic.db;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * A disjoint-set (union-find) structure over the items 0 to n-1, with path compression
+ * and union by size.
+ * Single-linkage clustering at a cutoff is equivalent to finding the connected components
+ * of the graph of item pairs with scores above the cutoff, which is what this is used for
+ * when only the pairs above the cutoff are stored.
+ */
+public class UnionFind {
+
+	private int[] parent;
+	private int[] size;
+
+	public UnionFind(int n) {
+		parent = new int[n];
+		size = new int[n];
+		for (int i=0;i<n;i++) {
+			parent[i] = i;
+			size[i] = 1;
+		}
+	}
+
+	/**
+	 * Finds the representative of the set that item i belongs to
+	 * @param i
+	 * @return
+	 */
+	public int find(int i) {
+		int root = i;
+		while (parent[root]!=root) {
+			root = parent[root];
+		}
+		// path compression
+		while (parent[i]!=root) {
+			int next = parent[i];
+			parent[i] = root;
+			i = next;
+		}
+		return root;
+	}
+
+	/**
+	 * Joins the sets of items i and j
+	 * @param i
+	 * @param j
+	 * @return true if they were in different sets, false if they were already in the same set
+	 */
+	public boolean union(int i, int j) {
+		int rootI = find(i);
+		int rootJ = find(j);
+		if (rootI==rootJ) return false;
+
+		if (size[rootI]<size[rootJ]) {
+			int tmp = rootI;
+			rootI = rootJ;
+			rootJ = tmp;
+		}
+		parent[rootJ] = rootI;
+		size[rootI] += size[rootJ];
+		return true;
+	}
+
+	/**
+	 * Gets the sets as a map of cluster ids to members, in the same form as returned by
+	 * SingleLinkageClusterer.getClusters(double). The cluster ids are assigned from 1
+	 * in the order of the smallest member of each cluster.
+	 * @return
+	 */
+	public Map<Integer, Set<Integer>> getClusters() {
+		Map<Integer, Integer> rootsToIds = new TreeMap<Integer, Integer>();
+		Map<Integer, Set<Integer>> clusters = new TreeMap<Integer, Set<Integer>>();
+
+		for (int i=0;i<parent.length;i++) {
+			int root = find(i);
+			Integer id = rootsToIds.get(root);
+			if (id==null) {
+				id = rootsToIds.size() + 1;
+				rootsToIds.put(root, id);
+				clusters.put(id, new TreeSet<Integer>());
+			}
+			clusters.get(id).add(i);
+		}
+		return clusters;
+	}
+}
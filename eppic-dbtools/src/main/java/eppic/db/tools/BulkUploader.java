@@ -0,0 +1,417 @@
+package eppic.db.tools;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.persistence.EntityManager;
+
+import eppic.DataModelSerializer;
+import eppic.model.PdbInfoDB;
+
+/**
+ * A pipelined uploader of eppic output (.webui.dat files) to the database, used by {@link UploadToDb}
+ * for bulk loads. The entries go through 3 stages:
+ * <ol>
+ * <li>a single up-front query for which entries are already present in the database (see {@link DBHandler#checkJobsExist(java.util.Collection)}),
+ * entries already present are skipped (unless forced)</li>
+ * <li>a pool of reader threads deserializing the .webui.dat files</li>
+ * <li>a pool of writer threads, each with its own EntityManager, persisting the entries in batches
+ * (one transaction per batch)</li>
+ * </ol>
+ * The stages are connected through a bounded queue, so that the readers can't get too far ahead of the writers.
+ * Throughput of each stage is printed periodically.
+ * <p>
+ * If a checkpoint file is given, the pdb codes of all entries committed to the database are appended to it
+ * after each batch commit and the entries listed in it are skipped on start, so that an interrupted upload can
+ * be resumed by running again with the same checkpoint file.
+ */
+public class BulkUploader {
+
+	private static final String WEBUI_DAT_SUFFIX = ".webui.dat";
+
+	/**
+	 * The interval in seconds at which the throughput statistics are printed
+	 */
+	private static final int STATS_INTERVAL = 60;
+
+	/**
+	 * The number of batches per writer that the queue between readers and writers can hold
+	 */
+	private static final int QUEUE_BATCHES_PER_WRITER = 2;
+
+	/**
+	 * An entry read from disk: a finished job if pdbInfo is not null, an error job otherwise
+	 */
+	private static class Entry {
+		final String pdbCode;
+		final File webuiFile;
+		final PdbInfoDB pdbInfo;
+		Entry(String pdbCode, File webuiFile, PdbInfoDB pdbInfo) {
+			this.pdbCode = pdbCode;
+			this.webuiFile = webuiFile;
+			this.pdbInfo = pdbInfo;
+		}
+	}
+
+	/**
+	 * Marks the end of the queue for the writers
+	 */
+	private static final Entry END = new Entry(null, null, null);
+
+	private DBHandler dbh;
+
+	private int numReaders;
+	private int numWriters;
+	private int batchSize;
+
+	private File checkpointFile;
+	private PrintWriter checkpointWriter;
+
+	private boolean force;
+
+	/**
+	 * The pdb codes of the entries to upload that were present in the database at start
+	 */
+	private Set<String> present;
+
+	private BlockingQueue<Entry> queue;
+
+	private AtomicLong countRead;
+	private AtomicLong countReadErrors;
+	private AtomicLong readNanos;
+	private AtomicLong countWritten;
+	private AtomicLong countErrorJobs;
+	private AtomicLong countBatches;
+	private AtomicLong writeNanos;
+
+	private List<String> pdbsWithWarnings;
+
+	private int countPresent;
+	private int countCheckpointed;
+
+	/**
+	 * Constructs a BulkUploader.
+	 * The DBHandler should ideally be created with hibernate.jdbc.batch_size set to batchSize,
+	 * see {@link #getBatchProperties(int)}
+	 * @param dbh
+	 * @param numReaders the number of threads deserializing files
+	 * @param numWriters the number of threads persisting to the database, each uses its own connection
+	 * @param batchSize the number of entries persisted per transaction
+	 * @param checkpointFile a file where to keep the list of committed entries, if null no checkpointing is done
+	 * @param force if true entries already present in the database are removed and inserted again,
+	 * if false they are skipped
+	 */
+	public BulkUploader(DBHandler dbh, int numReaders, int numWriters, int batchSize, File checkpointFile, boolean force) {
+		this.dbh = dbh;
+		this.numReaders = numReaders;
+		this.numWriters = numWriters;
+		this.batchSize = batchSize;
+		this.checkpointFile = checkpointFile;
+		this.force = force;
+
+		this.queue = new ArrayBlockingQueue<Entry>(Math.max(1, batchSize * numWriters * QUEUE_BATCHES_PER_WRITER));
+
+		this.countRead = new AtomicLong(0);
+		this.countReadErrors = new AtomicLong(0);
+		this.readNanos = new AtomicLong(0);
+		this.countWritten = new AtomicLong(0);
+		this.countErrorJobs = new AtomicLong(0);
+		this.countBatches = new AtomicLong(0);
+		this.writeNanos = new AtomicLong(0);
+
+		this.pdbsWithWarnings = Collections.synchronizedList(new ArrayList<String>());
+	}
+
+	/**
+	 * Gets the hibernate properties to enable JDBC batching of statements with the given batch size,
+	 * to be passed to {@link DBHandler#DBHandler(String, File, Map)}
+	 * @param batchSize
+	 * @return
+	 */
+	public static Map<String, String> getBatchProperties(int batchSize) {
+		Map<String, String> properties = new HashMap<String, String>();
+		properties.put("hibernate.jdbc.batch_size", Integer.toString(batchSize));
+		properties.put("hibernate.order_inserts", "true");
+		properties.put("hibernate.order_updates", "true");
+		return properties;
+	}
+
+	/**
+	 * Uploads the entries in the given job directories (directories named as pdb codes containing
+	 * a <pdbCode>.webui.dat file, or none for error jobs), waiting until all are done.
+	 * @param jobDirectories
+	 * @throws IOException if the checkpoint file can't be read or written
+	 * @throws InterruptedException
+	 */
+	public void upload(List<File> jobDirectories) throws IOException, InterruptedException {
+
+		long totalStart = System.currentTimeMillis();
+
+		// stage 0: what is left to upload
+		Map<String, File> toUpload = new LinkedHashMap<String, File>();
+		for (File jobDirectory:jobDirectories) {
+			if (!jobDirectory.isDirectory()) {
+				System.err.println("Warning: directory "+jobDirectory+" is not present, skipping");
+				continue;
+			}
+			if (!jobDirectory.getName().matches("^\\d\\w\\w\\w$")){
+				System.out.println("Dir name doesn't look like a PDB code, skipping directory " + jobDirectory);
+				continue;
+			}
+			toUpload.put(jobDirectory.getName(), jobDirectory);
+		}
+
+		if (checkpointFile!=null) {
+			Set<String> done = readCheckpointFile(checkpointFile);
+			int sizeBefore = toUpload.size();
+			toUpload.keySet().removeAll(done);
+			countCheckpointed = sizeBefore - toUpload.size();
+			System.out.println("Skipping "+countCheckpointed+" entries already listed in checkpoint file "+checkpointFile);
+			checkpointWriter = new PrintWriter(new FileWriter(checkpointFile, true));
+		}
+
+		long start = System.currentTimeMillis();
+		present = dbh.checkJobsExist(toUpload.keySet());
+		System.out.println("Found "+present.size()+" of "+toUpload.size()+" entries already present in database in "+
+				(System.currentTimeMillis()-start)+" ms");
+
+		List<File> presentDirs = new ArrayList<File>();
+		for (String pdbCode:present) {
+			File dir = toUpload.remove(pdbCode);
+			if (dir!=null) presentDirs.add(dir);
+		}
+		countPresent = presentDirs.size();
+
+		List<File> dirs = new ArrayList<File>(toUpload.values());
+		if (force) {
+			// the present ones are removed by the writers before inserting them again
+			dirs.addAll(presentDirs);
+		}
+
+		System.out.println("Will upload "+dirs.size()+" entries with "+numReaders+" readers, "+
+				numWriters+" writers and batches of "+batchSize+" entries per transaction");
+
+		ScheduledExecutorService statsPrinter = Executors.newSingleThreadScheduledExecutor();
+		final long pipelineStart = System.nanoTime();
+		statsPrinter.scheduleAtFixedRate(() -> printStats(pipelineStart), STATS_INTERVAL, STATS_INTERVAL, TimeUnit.SECONDS);
+
+		// stage 2: the writers
+		List<Thread> writers = new ArrayList<Thread>();
+		for (int i=0;i<numWriters;i++) {
+			Thread writer = new Thread(() -> write(), "writer-"+i);
+			writers.add(writer);
+			writer.start();
+		}
+
+		// stage 1: the readers
+		ExecutorService readers = Executors.newFixedThreadPool(numReaders);
+		for (File dir:dirs) {
+			readers.submit(() -> read(dir));
+		}
+		readers.shutdown();
+		readers.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+
+		for (int i=0;i<numWriters;i++) {
+			queue.put(END);
+		}
+		for (Thread writer:writers) {
+			writer.join();
+		}
+
+		statsPrinter.shutdownNow();
+
+		if (checkpointWriter!=null) {
+			checkpointWriter.close();
+		}
+
+		printStats(pipelineStart);
+
+		long totalEnd = System.currentTimeMillis();
+
+		System.out.println("Completed all "+jobDirectories.size()+" entries in "+((totalEnd-totalStart)/1000)+" s");
+		System.out.println("Already present: "+countPresent+(force?" (forced re-upload)":"")+
+				", already in checkpoint file: "+countCheckpointed+
+				", uploaded: "+countWritten.get()+
+				", couldn't insert: "+pdbsWithWarnings.size());
+		System.out.println("There were "+countErrorJobs.get()+" error jobs in "+countWritten.get()+" uploaded entries.");
+
+		if (!pdbsWithWarnings.isEmpty()) {
+			System.out.println("These PDBs had problems while inserting to db: ");
+			for (String pdb:pdbsWithWarnings) {
+				System.out.print(pdb+" ");
+			}
+			System.out.println();
+		}
+	}
+
+	private void read(File jobDirectory) {
+		String pdbCode = jobDirectory.getName();
+		File webuiFile = new File(jobDirectory, pdbCode + WEBUI_DAT_SUFFIX);
+
+		long start = System.nanoTime();
+		PdbInfoDB pdbInfo = null;
+
+		if (webuiFile.isFile()) {
+			try {
+				pdbInfo = DataModelSerializer.read(webuiFile);
+			} catch (IOException e) {
+				System.err.println("Problem reading serialized file, skipping entry "+webuiFile+". Error: "+e.getMessage());
+				countReadErrors.incrementAndGet();
+				pdbsWithWarnings.add(pdbCode);
+				return;
+			}
+		}
+		readNanos.addAndGet(System.nanoTime() - start);
+		countRead.incrementAndGet();
+
+		try {
+			queue.put(new Entry(pdbCode, webuiFile, pdbInfo));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void write() {
+		EntityManager em = dbh.getEntityManager();
+
+		List<Entry> batch = new ArrayList<Entry>();
+
+		try {
+			while (true) {
+				Entry entry = queue.take();
+				if (entry==END) break;
+
+				batch.add(entry);
+				if (batch.size()>=batchSize) {
+					persistBatchSafely(em, batch);
+					batch.clear();
+				}
+			}
+			if (!batch.isEmpty()) {
+				persistBatchSafely(em, batch);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			em.close();
+		}
+	}
+
+	/**
+	 * Persists the batch, never throwing: a writer that died would leave the readers blocked on the full queue
+	 * @param em
+	 * @param batch
+	 */
+	private void persistBatchSafely(EntityManager em, List<Entry> batch) {
+		try {
+			persistBatch(em, batch);
+		} catch (RuntimeException e) {
+			System.err.println("WARNING: unexpected problem while inserting batch of "+batch.size()+" entries, skipping them. Error: "+e.getMessage());
+			for (Entry entry:batch) {
+				pdbsWithWarnings.add(entry.pdbCode);
+			}
+		}
+	}
+
+	private void persistBatch(EntityManager em, List<Entry> batch) {
+		long start = System.nanoTime();
+
+		try {
+			persist(em, batch);
+		} catch (RuntimeException e) {
+			// the whole batch was rolled back (including the removal of forced entries): we retry entry by entry 
+			// so that a single bad entry doesn't lose the batch.
+			// The entries need to be read again: the rolled back ones have ids assigned and can't be persisted anymore
+			System.err.println("WARNING: problems while inserting batch of "+batch.size()+" entries, retrying one by one. Error: "+e.getMessage());
+			for (Entry entry:batch) {
+				try {
+					Entry reread = entry;
+					if (entry.pdbInfo!=null) {
+						reread = new Entry(entry.pdbCode, entry.webuiFile, DataModelSerializer.read(entry.webuiFile));
+					}
+					persist(em, Collections.singletonList(reread));
+				} catch (IOException|RuntimeException ex) {
+					System.err.println("WARNING: problems while inserting "+entry.pdbCode+". Error: "+ex.getMessage());
+					pdbsWithWarnings.add(entry.pdbCode);
+				}
+			}
+		}
+
+		writeNanos.addAndGet(System.nanoTime() - start);
+		countBatches.incrementAndGet();
+	}
+
+	private void persist(EntityManager em, List<Entry> entries) {
+		List<PdbInfoDB> pdbInfos = new ArrayList<PdbInfoDB>();
+		List<String> errorPdbCodes = new ArrayList<String>();
+		List<String> removePdbCodes = new ArrayList<String>();
+		for (Entry entry:entries) {
+			if (entry.pdbInfo!=null) pdbInfos.add(entry.pdbInfo);
+			else errorPdbCodes.add(entry.pdbCode);
+			// forced entries: the old one is removed in the same transaction, so that it stays if the insert fails
+			if (force && present.contains(entry.pdbCode)) removePdbCodes.add(entry.pdbCode);
+		}
+
+		dbh.persistJobs(em, pdbInfos, errorPdbCodes, removePdbCodes, batchSize);
+
+		countWritten.addAndGet(entries.size());
+		countErrorJobs.addAndGet(errorPdbCodes.size());
+
+		if (checkpointWriter!=null) {
+			synchronized (checkpointWriter) {
+				for (Entry entry:entries) {
+					checkpointWriter.println(entry.pdbCode);
+				}
+				checkpointWriter.flush();
+			}
+		}
+	}
+
+	private void printStats(long pipelineStart) {
+		double elapsed = (System.nanoTime() - pipelineStart) / 1000000000.0;
+		long read = countRead.get();
+		long written = countWritten.get();
+		long batches = countBatches.get();
+
+		System.out.printf("Stats after %.0f s. Read: %d entries (%.1f entries/s, %.1f ms/entry per reader, %d read errors). "+
+				"Written: %d entries in %d batches (%.1f entries/s, %.1f ms/batch per writer). Queued: %d\n",
+				elapsed,
+				read, read/elapsed, read==0?0:readNanos.get()/1000000.0/read, countReadErrors.get(),
+				written, batches, written/elapsed, batches==0?0:writeNanos.get()/1000000.0/batches,
+				queue.size());
+	}
+
+	private static Set<String> readCheckpointFile(File file) throws IOException {
+		Set<String> pdbCodes = new HashSet<String>();
+		if (!file.exists()) return pdbCodes;
+
+		BufferedReader br = new BufferedReader(new FileReader(file));
+		String line;
+		while ((line=br.readLine())!=null) {
+			line = line.trim();
+			if (line.isEmpty()) continue;
+			pdbCodes.add(line);
+		}
+		br.close();
+		return pdbCodes;
+	}
+}
@@ -2,16 +2,23 @@ package eppic.db.tools;
 
 import java.io.File;
 import java.io.PrintWriter;
+import java.util.ArrayDeque;
 import java.util.Collection;
+import java.util.Deque;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import eppic.db.AlignmentCache;
 import eppic.db.InterfaceCluster;
 import eppic.db.GlobalInterfaceCluster;
 import eppic.db.LatticeComparisonGroup;
+import eppic.db.LatticeOverlapScore;
 import eppic.db.PdbInfo;
 import eppic.db.GlobalPdbInfoCluster;
 import eppic.db.PdbInfoList;
@@ -32,6 +39,11 @@ public class ClusterCrystalForms {
 	private static int interfClusterGlobalId = 1;
 
 	private static boolean debug = false;
+	
+	/**
+	 * The chain alignments cache, shared by all sequence clusters
+	 */
+	private static AlignmentCache alnCache = new AlignmentCache();
 
 	public static void main(String[] args) throws Exception {
 
@@ -46,6 +58,12 @@ public class ClusterCrystalForms {
 				" [-A]        : ignore -i and calculate crystal-form clusters for all sequence clusters in DB\n"+
 				" [-f <file>] : file to write the crystal form cluster identifiers (only used in -A)\n"+
 				" [-F <file>] : file to write the global interface cluster identifiers (only used in -A)\n"+
+				" [-t <int>]  : number of threads for the lattice comparisons. With -A independent sequence clusters\n"+
+				"               are also processed concurrently (default 1)\n"+
+				" [-S]        : sparse mode: only comparison scores above the cutoffs (-c, -s) are stored and the\n"+
+				"               clustering is done on them, needed for sequence clusters with thousands of members.\n"+
+				"               Clusters are the exact single-linkage ones (connected components of the pairs above\n"+
+				"               cutoff), the default mode's clusterer can split some of them\n"+
 				" [-d]        : print some debug output (full lattice comparison and interfaces comparison matrices)\n"+
 				" [-g <file>] : a configuration file containing the database access parameters, if not provided\n" +
 				"               the config will be read from file "+DBHandler.DEFAULT_CONFIG_FILE_NAME+" in home dir\n";
@@ -63,8 +81,11 @@ public class ClusterCrystalForms {
 		String dbName = null;
 		File configFile = null;
 		
+		int numThreads = 1;
+		boolean sparse = false;
+		
 		
-		Getopt g = new Getopt("ClusterCrystalForms", args, "D:i:c:a:l:s:Af:F:dg:h?");
+		Getopt g = new Getopt("ClusterCrystalForms", args, "D:i:c:a:l:s:Af:F:t:Sdg:h?");
 		int c;
 		while ((c = g.getopt()) != -1) {
 			switch(c){
@@ -95,6 +116,12 @@ public class ClusterCrystalForms {
 			case 'F':
 				interfClustersFile = new File(g.getOptarg());
 				break;
+			case 't':
+				numThreads = Integer.parseInt(g.getOptarg());
+				break;
+			case 'S':
+				sparse = true;
+				break;
 			case 'd':
 				debug = true;
 				break;
@@ -136,6 +163,18 @@ public class ClusterCrystalForms {
 			}
 		}
 
+		if (sparse && losClusterCutoff < 0) {
+			// all pairs would be stored in sparse mode, it would only use more memory than the dense matrices
+			System.err.println("The lattice overlap score cutoff (-s) can't be negative in sparse mode");
+			System.exit(1);
+		}
+		
+		// the pool for the lattice comparisons (and for clusters with -A), null for serial
+		ForkJoinPool pool = null;
+		if (numThreads>1) {
+			pool = new ForkJoinPool(numThreads);
+		}
+
 		// note if configFile is null, DBHandler will use a default location in user's home dir
 		DBHandler dbh = new DBHandler(dbName, configFile);	
 
@@ -179,7 +218,8 @@ public class ClusterCrystalForms {
 				System.err.println("Make sure that the PDB code is in the database and that the representative chain id is valid");
 			} else {
 			
-				calcCluster(seqClusterId, dbh, seqClusterLevel, coCutoff, minArea, losClusterCutoff, null, null);
+				printCluster(calcCluster(seqClusterId, dbh, seqClusterLevel, coCutoff, minArea, losClusterCutoff, sparse, pool), 
+						coCutoff, null, null);
 			}
 			
 		} else {
@@ -187,11 +227,22 @@ public class ClusterCrystalForms {
 
 			System.out.println("Total number of clusters (at "+seqClusterLevel.getLevel()+"% seq id): "+clusterIds.size());
 
-			for (int clusterId:clusterIds) {
-				calcCluster(clusterId, dbh, seqClusterLevel, coCutoff, minArea, losClusterCutoff, cfcPw, icPw);
+			if (pool==null) {
+				for (int clusterId:clusterIds) {
+					printCluster(calcCluster(clusterId, dbh, seqClusterLevel, coCutoff, minArea, losClusterCutoff, sparse, null), 
+							coCutoff, cfcPw, icPw);
+				}
+			} else {
+				calcClustersConcurrently(clusterIds, dbh, seqClusterLevel, coCutoff, minArea, losClusterCutoff, sparse, pool, numThreads, cfcPw, icPw);
 			}
 		}
 		
+		if (pool!=null) {
+			pool.shutdown();
+		}
+		
+		System.out.println(alnCache);
+		
 		if (cfClustersFile!=null) {
 			cfcPw.close();
 		}
@@ -200,24 +251,91 @@ public class ClusterCrystalForms {
 		}
 	}
 	
-	private static void calcCluster(int seqClusterId, DBHandler dbh, SeqClusterLevel seqClusterLevel, double coCutoff, double minArea, double losClusterCutoff,
-			PrintWriter cfcPw, PrintWriter icPw) 
-			{
+	/**
+	 * Calculates the given sequence clusters concurrently in the pool (sharing it with their lattice comparisons), 
+	 * with at most maxInFlight of them in memory at once. Results are printed in the same order as in serial mode.
+	 */
+	private static void calcClustersConcurrently(Set<Integer> clusterIds, DBHandler dbh, SeqClusterLevel seqClusterLevel, double coCutoff, double minArea, double losClusterCutoff,
+			boolean sparse, ForkJoinPool pool, int maxInFlight, PrintWriter cfcPw, PrintWriter icPw) throws InterruptedException, ExecutionException {
+		
+		Deque<ForkJoinTask<ClusterResult>> inFlight = new ArrayDeque<ForkJoinTask<ClusterResult>>();
+		for (int clusterId:clusterIds) {
+			inFlight.add(pool.submit(() -> 
+				calcCluster(clusterId, dbh, seqClusterLevel, coCutoff, minArea, losClusterCutoff, sparse, pool)));
+			
+			if (inFlight.size()>=maxInFlight) {
+				printCluster(inFlight.poll().get(), coCutoff, cfcPw, icPw);
+			}
+		}
+		while (!inFlight.isEmpty()) {
+			printCluster(inFlight.poll().get(), coCutoff, cfcPw, icPw);
+		}
+	}
+	
+	/**
+	 * The lattice comparison and clusters of a sequence cluster
+	 */
+	private static class ClusterResult {
+		int seqClusterId;
+		SeqClusterLevel seqClusterLevel;
+		PdbInfoList pdbList;
+		LatticeComparisonGroup cfMatrix;
+		Collection<GlobalPdbInfoCluster> cfClusters;
+		Collection<GlobalInterfaceCluster> interfClusters;
+		
+		long deserializationTime;
+		long comparisonTime;
+		long cfClustersTime;
+		long interfClustersTime;
+	}
+	
+	private static ClusterResult calcCluster(int seqClusterId, DBHandler dbh, SeqClusterLevel seqClusterLevel, double coCutoff, double minArea, double losClusterCutoff,
+			boolean sparse, ForkJoinPool pool) {
+		
+		ClusterResult result = new ClusterResult();
+		result.seqClusterId = seqClusterId;
+		result.seqClusterLevel = seqClusterLevel;
 		
 		long start = System.currentTimeMillis();
 		List<PdbInfoDB> pdbInfoList = dbh.deserializeSeqCluster(seqClusterId, seqClusterLevel.getLevel());
-		long end = System.currentTimeMillis();		
+		long end = System.currentTimeMillis();
+		result.deserializationTime = end - start;
 
-		PdbInfoList pdbList = new PdbInfoList(pdbInfoList);
-		pdbList.setMinArea(minArea);
+		result.pdbList = new PdbInfoList(pdbInfoList);
+		result.pdbList.setMinArea(minArea);
+		result.pdbList.setAlignmentCache(alnCache);
 		
-		System.out.println ("### Sequence cluster id ("+seqClusterLevel.getLevel()+"%): "+seqClusterId+" ("+pdbList.size()+" members)");
-		System.out.println("Done deserialization in "+((end - start)/1000)+" s");
+		start = System.currentTimeMillis();
+		result.cfMatrix = result.pdbList.calcLatticeOverlapMatrix(seqClusterLevel, coCutoff, sparse, losClusterCutoff, pool);
+		end = System.currentTimeMillis();
+		result.comparisonTime = end - start;
 		
 		start = System.currentTimeMillis();
-		LatticeComparisonGroup cfMatrix = pdbList.calcLatticeOverlapMatrix(seqClusterLevel, coCutoff);
+		result.cfClusters = result.cfMatrix.getCFClusters(losClusterCutoff);
 		end = System.currentTimeMillis();
-
+		result.cfClustersTime = end - start;
+		
+		// in debug mode the interface clusters are calculated after printing the interface comparison matrix, 
+		// since the clusterer alters it
+		if (!debug) {
+			start = System.currentTimeMillis();
+			result.interfClusters = result.cfMatrix.getInterfClusters(coCutoff);
+			end = System.currentTimeMillis();
+			result.interfClustersTime = end - start;
+		}
+		
+		return result;
+	}
+	
+	private static void printCluster(ClusterResult result, double coCutoff, PrintWriter cfcPw, PrintWriter icPw) {
+		
+		int seqClusterId = result.seqClusterId;
+		SeqClusterLevel seqClusterLevel = result.seqClusterLevel;
+		PdbInfoList pdbList = result.pdbList;
+		LatticeComparisonGroup cfMatrix = result.cfMatrix;
+		
+		System.out.println ("### Sequence cluster id ("+seqClusterLevel.getLevel()+"%): "+seqClusterId+" ("+pdbList.size()+" members)");
+		System.out.println("Done deserialization in "+(result.deserializationTime/1000)+" s");
 		
 		// the lattice comparison matrix
 		if (debug) {
@@ -227,29 +345,28 @@ public class ClusterCrystalForms {
 			}
 			System.out.println();
 
-			for (int i=0;i<cfMatrix.getLatticeComparisonMatrix().length;i++) {
+			for (int i=0;i<pdbList.size();i++) {
 				System.out.print(pdbList.get(i).getPdbInfo().getPdbCode());
-				for (int j=0;j<cfMatrix.getLatticeComparisonMatrix()[i].length;j++) {
-					if (cfMatrix.getLatticeComparisonMatrix()[i][j]==null) 
+				for (int j=0;j<pdbList.size();j++) {
+					LatticeOverlapScore los = j<i ? null : cfMatrix.getLatticeOverlapScore(i, j);
+					if (los==null) 
 						System.out.printf("%11s\t","NA");
 					else
-						System.out.printf("%5.3f:%5.3f\t",cfMatrix.getLatticeComparisonMatrix()[i][j].getfAB(),cfMatrix.getLatticeComparisonMatrix()[i][j].getfBA());
+						System.out.printf("%5.3f:%5.3f\t",los.getfAB(),los.getfBA());
 				}
 				System.out.println();
 			}
 
 			System.out.println();
 		}
-		System.out.println("Done comparison in "+((end - start)/1000)+" s");
+		System.out.println("Done comparison in "+(result.comparisonTime/1000)+" s");
 
 		
 		
 		// crystal form clusters
 		System.out.println("Calculating crystal form clusters...");
-		start = System.currentTimeMillis();
-		Collection<GlobalPdbInfoCluster> cfClusters = cfMatrix.getCFClusters(losClusterCutoff);
-		end = System.currentTimeMillis();
-		System.out.println("Crystal form clusters calculated in "+((end - start)/1000)+" s");
+		Collection<GlobalPdbInfoCluster> cfClusters = result.cfClusters;
+		System.out.println("Crystal form clusters calculated in "+(result.cfClustersTime/1000)+" s");
 		System.out.println("Total number of crystal form clusters: "+cfClusters.size());
 		for (GlobalPdbInfoCluster cfCluster:cfClusters) {
 			System.out.print("Cluster "+cfCluster.getId()+": ");			
@@ -273,7 +390,9 @@ public class ClusterCrystalForms {
 		
 		
 		// the interface comparison mega-matrix (only printed in debug mode)
-		if (debug) {
+		if (debug && cfMatrix.isSparse()) {
+			System.out.println("Interface comparison matrix not available in sparse mode ("+cfMatrix.getNumInterfaceComparisons()+" scores above cutoff stored)");
+		} else if (debug) {
 			System.out.printf("%7s","");
 			for (int i=0;i<pdbList.getNumInterfaceClusters();i++) {
 				InterfaceCluster iInterf = pdbList.getInterfaceCluster(i);
@@ -292,10 +411,14 @@ public class ClusterCrystalForms {
 		
 		// interface clusters
 		System.out.println("Calculating interface clusters...");
-		start = System.currentTimeMillis();
-		Collection<GlobalInterfaceCluster> interfClusters = cfMatrix.getInterfClusters(coCutoff);
-		end = System.currentTimeMillis();
-		System.out.println("Interfaces clusters calculated in "+((end - start)/1000)+" s");
+		if (result.interfClusters==null) {
+			long start = System.currentTimeMillis();
+			result.interfClusters = cfMatrix.getInterfClusters(coCutoff);
+			long end = System.currentTimeMillis();
+			result.interfClustersTime = end - start;
+		}
+		Collection<GlobalInterfaceCluster> interfClusters = result.interfClusters;
+		System.out.println("Interfaces clusters calculated in "+(result.interfClustersTime/1000)+" s");
 		System.out.println("Total number of interface clusters: "+interfClusters.size());
 		for (GlobalInterfaceCluster cluster:interfClusters) {
 
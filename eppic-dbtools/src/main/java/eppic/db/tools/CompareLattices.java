@@ -4,6 +4,7 @@ import java.io.File;
 
 import org.biojava.nbio.structure.contact.Pair;
 
+import eppic.db.AlignmentCache;
 import eppic.db.LatticeMatchMatrix;
 import eppic.db.LatticeOverlapScore;
 import eppic.db.PdbInfo;
@@ -109,7 +110,9 @@ public class CompareLattices {
 			//System.exit(0);
 		}
 		
-		LatticeMatchMatrix llm = pdb1.calcLatticeOverlapMatrix(pdb2, seqClusterLevel, minArea, debug);
+		AlignmentCache alnCache = new AlignmentCache();
+		LatticeMatchMatrix llm = pdb1.calcLatticeOverlapMatrix(pdb2, seqClusterLevel, minArea, debug, alnCache);
+		if (debug) System.out.println(alnCache);
 		double[][] matrix = llm.getCoMatrix();
 		for (int i=0;i<matrix.length;i++) {
 			for (int j=0;j<matrix[i].length;j++) {
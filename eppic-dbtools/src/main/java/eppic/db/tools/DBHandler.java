@@ -4,9 +4,7 @@
 package eppic.db.tools;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
@@ -32,6 +30,7 @@ import javax.persistence.metamodel.SingularAttribute;
 
 import ch.systemsx.sybit.shared.model.InputType;
 import ch.systemsx.sybit.shared.model.StatusOfJob;
+import eppic.DataModelSerializer;
 import eppic.commons.util.DbConfigGenerator;
 import eppic.model.ChainClusterDB;
 import eppic.model.ChainClusterDB_;
@@ -62,6 +61,11 @@ public class DBHandler {
 	public static final File DEFAULT_CONFIG_FILE = new File(System.getProperty("user.home"), DEFAULT_CONFIG_FILE_NAME);
 	
 	
+	/**
+	 * The maximum number of ids in the IN clause of the queries in {@link #checkJobsExist(Collection)}
+	 */
+	private static final int JOB_IDS_PER_QUERY = 1000;
+	
 	@PersistenceUnit
 	private EntityManagerFactory emf;
 	
@@ -72,6 +76,18 @@ public class DBHandler {
 	 * @param userConfigFile a user supplied config file, if null the default location {@value #DEFAULT_CONFIG_FILE} will be used.
 	 */
 	public DBHandler(String dbName, File userConfigFile) {
+		this(dbName, userConfigFile, null);
+	}
+	
+	/**
+	 * Constructor.
+	 * 
+	 * @param dbName the database name
+	 * @param userConfigFile a user supplied config file, if null the default location {@value #DEFAULT_CONFIG_FILE} will be used.
+	 * @param extraProperties additional JPA/hibernate properties to pass to the Entity Manager Factory 
+	 * (e.g. hibernate.jdbc.batch_size), overriding the ones from the config file. If null none are added.
+	 */
+	public DBHandler(String dbName, File userConfigFile, Map<String, String> extraProperties) {
 		
 		File configurationFile = null;
 		
@@ -96,6 +112,10 @@ public class DBHandler {
 			System.exit(1);
 		}
 		
+		if (extraProperties!=null) {
+			properties.putAll(extraProperties);
+		}
+		
 		try {
 			this.emf = Persistence.createEntityManagerFactory(PERSISTENCE_UNIT_NAME, properties);
 
@@ -125,22 +145,7 @@ public class DBHandler {
 		
 		em.getTransaction().begin(); 
 		
-		String pdbCode = pdbInfo.getPdbCode();
-
-		JobDB job = new JobDB();
-		job.setJobId(pdbCode);
-		job.setEmail(null);
-		job.setInputName(pdbCode);
-		job.setIp("localhost");
-		job.setStatus(StatusOfJob.FINISHED.getName());
-		job.setSubmissionDate(new Date());
-		job.setInputType(InputType.PDBCODE.getIndex());
-		job.setSubmissionId("-1");
-
-		pdbInfo.setJob(job);
-		job.setPdbInfo(pdbInfo);
-				
-		em.persist(job);
+		em.persist(createFinishedJob(pdbInfo));
 		
 		em.getTransaction().commit();
 		em.clear(); 
@@ -154,20 +159,97 @@ public class DBHandler {
 
 		em.getTransaction().begin(); 
 		
+		em.persist(createPlaceholderJob(pdbCode, StatusOfJob.ERROR));
+		
+		em.getTransaction().commit();
+		em.clear();   
+		
+	}
+	
+	/**
+	 * Persists in a single transaction all the given PdbInfoDBs (using empty place-holder jobs
+	 * as in {@link #persistFinishedJob(EntityManager, PdbInfoDB)}) and error jobs for all the given 
+	 * errorPdbCodes (as in {@link #persistErrorJob(EntityManager, String)}). 
+	 * The persistence context is flushed and cleared after every flushEvery jobs, so that hibernate 
+	 * can send the inserts in JDBC batches (if hibernate.jdbc.batch_size is set) and memory is kept bounded. 
+	 * The jobs with the given removePdbCodes (as in {@link #removeJob(String)}) are removed first in the same 
+	 * transaction, so that entries can be replaced. 
+	 * If anything fails the transaction is rolled back and the exception rethrown: nothing is removed nor persisted.
+	 * @param em
+	 * @param pdbInfos the finished jobs, can be empty
+	 * @param errorPdbCodes the pdb codes of the error jobs, can be empty
+	 * @param removePdbCodes the pdb codes of the jobs to remove before persisting, can be empty
+	 * @param flushEvery
+	 */
+	public void persistJobs(EntityManager em, List<PdbInfoDB> pdbInfos, List<String> errorPdbCodes, 
+			Collection<String> removePdbCodes, int flushEvery) {
+		
+		em.getTransaction().begin();
+		
+		try {
+			if (!removePdbCodes.isEmpty()) {
+				CriteriaBuilder cb = em.getCriteriaBuilder();
+				CriteriaQuery<JobDB> cq = cb.createQuery(JobDB.class);
+				Root<JobDB> root = cq.from(JobDB.class);
+				cq.where(root.get(JobDB_.jobId).in(removePdbCodes));
+				cq.select(root);
+				for (JobDB job:em.createQuery(cq).getResultList()) {
+					// the pdbInfo goes with it (cascade)
+					em.remove(job);
+				}
+				// hibernate would otherwise run the inserts before the deletes
+				em.flush();
+				em.clear();
+			}
+			
+			int count = 0;
+			for (PdbInfoDB pdbInfo:pdbInfos) {
+				em.persist(createFinishedJob(pdbInfo));
+				count++;
+				if (count%flushEvery==0) {
+					em.flush();
+					em.clear();
+				}
+			}
+			for (String pdbCode:errorPdbCodes) {
+				em.persist(createPlaceholderJob(pdbCode, StatusOfJob.ERROR));
+				count++;
+				if (count%flushEvery==0) {
+					em.flush();
+					em.clear();
+				}
+			}
+
+			em.getTransaction().commit();
+			
+		} catch (RuntimeException e) {
+			if (em.getTransaction().isActive()) {
+				em.getTransaction().rollback();
+			}
+			throw e;
+		} finally {
+			em.clear();
+		}
+	}
+	
+	private static JobDB createFinishedJob(PdbInfoDB pdbInfo) {
+		JobDB job = createPlaceholderJob(pdbInfo.getPdbCode(), StatusOfJob.FINISHED);
+		pdbInfo.setJob(job);
+		job.setPdbInfo(pdbInfo);
+		return job;
+	}
+	
+	private static JobDB createPlaceholderJob(String pdbCode, StatusOfJob status) {
 		JobDB job = new JobDB();
 		job.setJobId(pdbCode);
 		job.setEmail(null);
 		job.setInputName(pdbCode);
 		job.setIp("localhost");
-		job.setStatus(StatusOfJob.ERROR.getName());
+		job.setStatus(status.getName());
 		job.setSubmissionDate(new Date());
 		job.setInputType(InputType.PDBCODE.getIndex());
 		job.setSubmissionId("-1");
-		em.persist(job);
-		
-		em.getTransaction().commit();
-		em.clear();   
-		
+		return job;
 	}
 	
 	/**
@@ -254,39 +336,41 @@ public class DBHandler {
 	}
 	
 	/**
-	 * Checks if entries with the given jobIds exist in the DataBase
-	 * Note this returns true whenever the query returns at least 1 record, i.e. it doesn't guarantee
+	 * Finds which of the given jobIds exist in the DataBase, with one query per chunk of 
+	 * {@value #JOB_IDS_PER_QUERY} ids, instead of one query per id as with {@link #checkJobExist(String)}.
+	 * Note an id is returned whenever there is a job record for it, i.e. it doesn't guarantee
 	 * that the entries are complete with data present in all cascading tables
 	 * @param jobIds
-	 * @return true if present; false if not
+	 * @return the subset of jobIds that are present, empty if none is
 	 */
-	public boolean checkJobsExist(List<String> jobIds){
+	public Set<String> checkJobsExist(Collection<String> jobIds){
 		EntityManager em = this.getEntityManager();
 		
-		CriteriaBuilder cb = em.getCriteriaBuilder();
-
-		CriteriaQuery<JobDB> cq = cb.createQuery(JobDB.class);
-		Root<JobDB> rootJob = cq.from(JobDB.class);
-		
-		Predicate predicate = cb.conjunction();
-		for (String jobId:jobIds) {
-		    Predicate newPredicate = cb.equal(rootJob.get(JobDB_.jobId), jobId);
-		    predicate = cb.and(predicate, newPredicate);
-		}
-		cq.where(predicate);
+		Set<String> present = new HashSet<String>();
 		
+		List<String> ids = new ArrayList<String>(jobIds);
 		
-		// in order to make the query light-weight we only take these 2 fields for which there is 
-		// a corresponding constructor in JobDB
-		// with the simple 'select' above the query is a monster with many joins (following the full hierarchy of Job, PdbInfo etc) 
-		cq.multiselect(rootJob.get(JobDB_.inputName), rootJob.get(JobDB_.inputType));
-		List<JobDB> queryJobList = em.createQuery(cq).getResultList();
-		int querySize = queryJobList.size();
-		
-		em.close();
+		try {
+			for (int i=0;i<ids.size();i+=JOB_IDS_PER_QUERY) {
+				List<String> chunk = ids.subList(i, Math.min(i+JOB_IDS_PER_QUERY, ids.size()));
+
+				CriteriaBuilder cb = em.getCriteriaBuilder();
+
+				CriteriaQuery<String> cq = cb.createQuery(String.class);
+				Root<JobDB> rootJob = cq.from(JobDB.class);
+
+				cq.where(rootJob.get(JobDB_.jobId).in(chunk));
+
+				// only the id is selected so that the query is light-weight, see checkJobExist
+				cq.select(rootJob.get(JobDB_.jobId));
+
+				present.addAll(em.createQuery(cq).getResultList());
+			}
+		} finally {
+			em.close();
+		}
 		
-		if(querySize>0) return true;
-		else return false;
+		return present;
 		
 	}
 	
@@ -403,7 +487,7 @@ public class DBHandler {
 	 * @param jobDir directory containing the webui.dat file
 	 * @return 
 	 */
-	private PdbInfoDB readFromSerializedFile(File jobDir) throws IOException, ClassNotFoundException{		
+	private PdbInfoDB readFromSerializedFile(File jobDir) throws IOException {		
 		EntityManager em = this.getEntityManager();
 		
 		CriteriaBuilder criteriaBuilder = em.getCriteriaBuilder();
@@ -423,9 +507,7 @@ public class DBHandler {
 		
 		File webuiFile = new File(jobDir, pdbID + ".webui.dat");
 		
-		ObjectInputStream in = new ObjectInputStream(new FileInputStream(webuiFile));
-		PdbInfoDB pdbScoreItem = (PdbInfoDB)in.readObject();
-		in.close();
+		PdbInfoDB pdbScoreItem = DataModelSerializer.read(webuiFile);
 		
 		em.close();
 		
@@ -1,5 +1,6 @@
 package eppic.db.tools;
 
+import eppic.SurfaceScoreSampler;
 import eppic.commons.sequence.AAAlphabet;
 import eppic.commons.sequence.MultipleSequenceAlignment;
 import eppic.model.ChainClusterDB;
@@ -13,12 +14,24 @@ import gnu.getopt.Getopt;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
+import java.io.FileWriter;
 import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
-import org.apache.commons.math.random.RandomDataImpl;
 import org.apache.commons.math.stat.descriptive.UnivariateStatistic;
 import org.apache.commons.math.stat.descriptive.moment.Mean;
 import org.apache.commons.math.stat.descriptive.moment.StandardDeviation;
@@ -27,6 +40,10 @@ import org.apache.commons.math.stat.descriptive.moment.StandardDeviation;
  * A script to calculate eppic's performance on a given dataset and a set of parameters
  * by extracting the precalculated data from the eppic database.
  * 
+ * The data of the dataset is retrieved once and the entropies of the residues are calculated once
+ * per alphabet, the parameter sets are then evaluated in parallel. If an output file is given, the
+ * results are appended to it as they are obtained and the parameter sets already in it are skipped,
+ * so that an interrupted evaluation can be resumed by running again with the same output file. 
  * 
  * @author Joseph Somody
  */
@@ -35,16 +52,70 @@ public class EvaluateParamset {
 	// CONSTANTS
 	public static final double SCORE_INFINITY_VALUE = 1000.00;
 	
-	// PARAMETERS (DEFAULTS SET HERE, CAN BE CHANGED BY PROVIDING PARAMSET FILE)
-	public static double geomCutoff = 0.90;
-	public static double evolCutoff = 0.80;
-	public static double callThreshold = -0.90;
-	public static double minSurfaceASA = 5.00;
-	public static double numSurfResTol = 2.00;
-	public static int numSurfSamp = 10000;
-	public static int minHomologues = 10;
-	public static double minHomology = 0.50;
-	public static AAAlphabet aaAlphabet = new AAAlphabet(AAAlphabet.MIRNY_6);
+	public static final String HEADER = "GeomBurialCutoff\tEvolBurialCutoff\tCoreSurfaceCallThreshold\t" +
+			"SurfMinASA\tNumSurfResTolerance\tNumSurfSamples\tMinHomologues\tMinHomology\tAAAlphabet\tBalancedAccuracy";
+	
+	/**
+	 * A set of parameters to evaluate (defaults set here, can be changed by providing paramset file)
+	 */
+	public static class Paramset {
+		public double geomCutoff = 0.90;
+		public double evolCutoff = 0.80;
+		public double callThreshold = -0.90;
+		public double minSurfaceASA = 5.00;
+		public double numSurfResTol = 2.00;
+		public int numSurfSamp = 10000;
+		public int minHomologues = 10;
+		public double minHomology = 0.50;
+		public AAAlphabet aaAlphabet = new AAAlphabet(AAAlphabet.MIRNY_6);
+		
+		/**
+		 * The default parameter set
+		 */
+		public Paramset() {
+			
+		}
+		
+		/**
+		 * Parses a parameter set from a line of a paramset file
+		 * @param line
+		 */
+		public Paramset(String line) {
+			String[] lineArray = line.trim().split("\\s+");
+			geomCutoff = Double.parseDouble(lineArray[0]);
+			evolCutoff = Double.parseDouble(lineArray[1]);
+			callThreshold = Double.parseDouble(lineArray[2]);
+			minSurfaceASA = Double.parseDouble(lineArray[3]);
+			numSurfResTol = Double.parseDouble(lineArray[4]);
+			numSurfSamp = Integer.parseInt(lineArray[5]);
+			minHomologues = Integer.parseInt(lineArray[6]);
+			minHomology = Double.parseDouble(lineArray[7]);
+			aaAlphabet = new AAAlphabet(lineArray[8]);
+		}
+		
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder();
+			sb.append(geomCutoff);
+			sb.append("\t");
+			sb.append(evolCutoff);
+			sb.append("\t");
+			sb.append(callThreshold);
+			sb.append("\t");
+			sb.append(minSurfaceASA);
+			sb.append("\t");
+			sb.append(numSurfResTol);
+			sb.append("\t");
+			sb.append(numSurfSamp);
+			sb.append("\t");
+			sb.append(minHomologues);
+			sb.append("\t");
+			sb.append(minHomology);
+			sb.append("\t");
+			sb.append(aaAlphabet);
+			return sb.toString();
+		}
+	}
 	
 	// DATA FROM DATABASE (RETRIEVED AND CALCULATED ONCE, HELD IN MEMORY FOR ALL PARAMSET EVALUATIONS)
 	public static ArrayList<Boolean> truths; // LIST OF BOOLEANS (TRUE IFF BIO), ONE PER DATAPOINT
@@ -55,17 +126,29 @@ public class EvaluateParamset {
 	public static ArrayList<ArrayList<Integer>> numHomologues; // LIST OF NUMBERS OF HOMOLOGUES, ONE PER DATAPOINT, PAIR = (LEFT, RIGHT)
 	public static ArrayList<ArrayList<Double>> homologies; // LIST OF HOMOLOGY CUTOFFS, ONE PER DATAPOINT, PAIR = (LEFT, RIGHT)
 	
+	// DATA ABOVE AS ARRAYS (CALCULATED ONCE IN PRECOMPUTEDATA), INDEXED [DATAPOINT][SIDE][RESIDUE]
+	public static double[][][] asaArrays;
+	public static double[][][] bsaArrays;
+	public static int[][][] msaColumns;
+	// ENTROPIES OF THE RESIDUES (CALCULATED ONCE PER ALPHABET), ALPHABET -> [DATAPOINT][SIDE][RESIDUE]
+	public static Map<String, double[][][]> entropiesByAlphabet = new ConcurrentHashMap<String, double[][][]>();
+	
 	// INPUTS FROM COMMAND LINE
 	public static String dbName;
 	public static File datasetFile;
 	public static File paramsetFile;
 	
+	public static File outFile;
+	public static int numThreads = 1;
+	public static long seed;
+	
 	private static File configFile;
 	
 	public static void main(String[] args) throws Exception {
 		parseCommandLine(args);
 		System.out.println("Collecting data from database...");
 		collectData();
+		precomputeData();
 		System.out.println("Done collecting data from database.");
 		System.out.println("Testing parameter sets...");
 		testParamsets();
@@ -81,13 +164,19 @@ public class EvaluateParamset {
 						"EvolBurialCutoff\\tCoreSurfaceCallThreshold\\tSurfMinASA\\tNumSurfResTolerance\\t" +
 						"NumSurfSamples\\tMinHomologues\\tMinHomology\\tAAAlphabet\")\n" +
 						"[-g <file>]  : a configuration file containing the database access parameters, if not provided\n" +
-						"               the config will be read from file "+DBHandler.DEFAULT_CONFIG_FILE_NAME+" in home dir\n";
+						"               the config will be read from file "+DBHandler.DEFAULT_CONFIG_FILE_NAME+" in home dir\n" +
+						"[-o <file>]  : a file to append the results to, instead of standard output. Parameter sets already\n" +
+						"               in it are skipped, so that an interrupted run can be resumed\n" +
+						"[-t <int>]   : number of threads to evaluate parameter sets in parallel. Default: 1\n" +
+						"[-s <long>]  : the seed for the random sampling of surface residues, the n-th parameter set\n" +
+						"               is evaluated with seed+n. If not provided a random seed is used\n";
 						
 		
 		String localDbName = null;
 		String listFileName = null;
 		String paramsetFileName = null;
-		Getopt g = new Getopt("EvaluateParamset", args, "D:i:P:g:h?");
+		Long localSeed = null;
+		Getopt g = new Getopt("EvaluateParamset", args, "D:i:P:g:o:t:s:h?");
 		
 		
 		int c;
@@ -105,6 +194,15 @@ public class EvaluateParamset {
 			case 'g':
 				configFile = new File(g.getOptarg());
 				break;
+			case 'o':
+				outFile = new File(g.getOptarg());
+				break;
+			case 't':
+				numThreads = Integer.parseInt(g.getOptarg());
+				break;
+			case 's':
+				localSeed = Long.parseLong(g.getOptarg());
+				break;
 			case 'h':
 				System.out.println(help);
 				System.exit(0);
@@ -142,6 +240,9 @@ public class EvaluateParamset {
 				System.exit(1);
 			}
 		}
+		
+		seed = localSeed == null ? new Random().nextLong() : localSeed;
+		System.out.println("Using random seed " + seed);
 	}
 	
 	private static void collectData() throws Exception {
@@ -362,112 +463,226 @@ public class EvaluateParamset {
 		return toReturn;
 	}
 	
-	private static int getRegion(double asa, double bsa) {
+	/**
+	 * Converts the (ASA, BSA) pairs and the mappings of residues to MSA columns to arrays, 
+	 * so that they don't have to be unboxed and looked up in every evaluation
+	 */
+	private static void precomputeData() {
+		asaArrays = new double[truths.size()][2][];
+		bsaArrays = new double[truths.size()][2][];
+		msaColumns = new int[truths.size()][2][];
+		for (int i = 0; i < truths.size(); i++) {
+			for (int side = 0; side < 2; side++) {
+				ArrayList<ArrayList<Double>> thisAsaBsas = asaBsas.get(i).get(side);
+				ArrayList<Integer> thisResidues = resids.get(i).get(side);
+				HashMap<Integer, Integer> thisMapping = mappings.get(i).get(side);
+				asaArrays[i][side] = new double[thisAsaBsas.size()];
+				bsaArrays[i][side] = new double[thisAsaBsas.size()];
+				msaColumns[i][side] = new int[thisResidues.size()];
+				for (int j = 0; j < thisAsaBsas.size(); j++) {
+					asaArrays[i][side][j] = thisAsaBsas.get(j).get(0);
+					bsaArrays[i][side][j] = thisAsaBsas.get(j).get(1);
+					msaColumns[i][side][j] = thisMapping.get(thisResidues.get(j)); // use mapping to get column number from residue number
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Returns the entropies of all residues of all datapoints for the given alphabet, 
+	 * calculating them the first time the alphabet is used
+	 * @param aaAlphabet
+	 * @return the entropies indexed [datapoint][side][residue]
+	 */
+	private static double[][][] getEntropies(AAAlphabet aaAlphabet) {
+		return entropiesByAlphabet.computeIfAbsent(aaAlphabet.toString(), k -> {
+			double[][][] entropies = new double[truths.size()][2][];
+			for (int i = 0; i < truths.size(); i++) {
+				for (int side = 0; side < 2; side++) {
+					MultipleSequenceAlignment thisMSA = MSAs.get(i).get(side);
+					int[] columns = msaColumns[i][side];
+					entropies[i][side] = new double[columns.length];
+					for (int j = 0; j < columns.length; j++) {
+						entropies[i][side][j] = thisMSA.getColumnEntropy(columns[j], aaAlphabet);
+					}
+				}
+			}
+			return entropies;
+		});
+	}
+	
+	private static int getRegion(double asa, double bsa, Paramset p) {
 		int assignment = ResidueBurialDB.OTHER;
 		double ratio = bsa / asa;
-		if (asa > minSurfaceASA && bsa > 0) {
-			if (ratio < evolCutoff) {
+		if (asa > p.minSurfaceASA && bsa > 0) {
+			if (ratio < p.evolCutoff) {
 				assignment = ResidueBurialDB.RIM_EVOLUTIONARY;
-			} else if (ratio < geomCutoff) {
+			} else if (ratio < p.geomCutoff) {
 				assignment = ResidueBurialDB.CORE_EVOLUTIONARY; 
 			} else {
 				assignment = ResidueBurialDB.CORE_GEOMETRY;
 			}
-		} else if (asa > minSurfaceASA) {
+		} else if (asa > p.minSurfaceASA) {
 			assignment = ResidueBurialDB.SURFACE;
 		}		
 		return assignment;
 	}
 	
-	private static ArrayList<ArrayList<Double>> getEntropies(int whichDatapoint, int whichSide) {
-		ArrayList<Double> coreEntropies = new ArrayList<Double>(); // empty list for core entropies
-		ArrayList<Double> surfaceEntropies = new ArrayList<Double>(); // empty list for surface entropies
-		ArrayList<ArrayList<Double>> thisAsaBsas = asaBsas.get(whichDatapoint).get(whichSide); // get appropriate list of ASA/BSA pairs
-		ArrayList<Integer> thisRegions = new ArrayList<Integer>();
-		for (int i = 0; i < thisAsaBsas.size(); i++) {
-			thisRegions.add(getRegion(thisAsaBsas.get(i).get(0), thisAsaBsas.get(i).get(1)));
-		}
-		ArrayList<Integer> thisResidues = resids.get(whichDatapoint).get(whichSide); // get appropriate list of residue nums
-		HashMap<Integer, Integer> thisMapping = mappings.get(whichDatapoint).get(whichSide); // get appropriate mapping from residnum to msacol
-		MultipleSequenceAlignment thisMSA = MSAs.get(whichDatapoint).get(whichSide); // get appropriate msa
-		for (int i = 0; i < thisResidues.size(); i++) { // loop through indices of regions/residues
-			int thisRegion = thisRegions.get(i); // get the region at this index
-			int mapFrom = thisResidues.get(i); // get the residue number at this index
-			int mapped = thisMapping.get(mapFrom); // use mapping to get column number from residue number
+	/**
+	 * Calculates the core-surface score of a side of a datapoint
+	 * @param whichDatapoint
+	 * @param whichSide
+	 * @param p
+	 * @param random
+	 * @return
+	 */
+	private static double getScore(int whichDatapoint, int whichSide, Paramset p, Random random) {
+		double[] asas = asaArrays[whichDatapoint][whichSide];
+		double[] bsas = bsaArrays[whichDatapoint][whichSide];
+		double[] entropies = getEntropies(p.aaAlphabet)[whichDatapoint][whichSide];
+		
+		double[] coreEntropies = new double[entropies.length];
+		double[] surfaceEntropies = new double[entropies.length];
+		int numCore = 0;
+		int numSurface = 0;
+		for (int i = 0; i < entropies.length; i++) {
+			int thisRegion = getRegion(asas[i], bsas[i], p);
 			if (thisRegion == ResidueBurialDB.CORE_EVOLUTIONARY || thisRegion == ResidueBurialDB.CORE_GEOMETRY) {
-				coreEntropies.add(thisMSA.getColumnEntropy(mapped, aaAlphabet)); // add column entropy to core list iff core
+				coreEntropies[numCore++] = entropies[i]; // add column entropy to core list iff core
 			}
 			if (thisRegion != ResidueBurialDB.OTHER) { // not other -> one of surface/rimevol/coreevol/coregeom = the real surface
-				surfaceEntropies.add(thisMSA.getColumnEntropy(mapped, aaAlphabet)); // add column entropy to surface list iff surface
+				surfaceEntropies[numSurface++] = entropies[i]; // add column entropy to surface list iff surface
 			}
 		}
-		ArrayList<ArrayList<Double>> entropiesPair = new ArrayList<ArrayList<Double>>();
-		entropiesPair.add(coreEntropies);
-		entropiesPair.add(surfaceEntropies);
-		return entropiesPair;
+		return doEntropySamplingAndCalculation(Arrays.copyOf(coreEntropies, numCore), Arrays.copyOf(surfaceEntropies, numSurface), p, random);
 	}
 	
-	private static void testParamsets() throws IOException {
-		System.out.println("GeomBurialCutoff\tEvolBurialCutoff\tCoreSurfaceCallThreshold\t" +
-				"SurfMinASA\tNumSurfResTolerance\tNumSurfSamples\tMinHomologues\tMinHomology\tAAAlphabet\tBalancedAccuracy");
+	private static void testParamsets() throws IOException, InterruptedException {
+		List<Paramset> paramsets = new ArrayList<Paramset>();
 		if (paramsetFile == null) {
-			System.out.println(getCurrentParamset() + "\t" + testFitness());
+			paramsets.add(new Paramset());
 		} else {
 			BufferedReader br = new BufferedReader(new FileReader(paramsetFile));
 			String line;
 			while ((line = br.readLine()) != null) {
 				if (line.startsWith("#")) continue;
 				if (line.trim().isEmpty()) continue;
-				String[] lineArray = line.trim().split("\\s+");
-				geomCutoff = Double.parseDouble(lineArray[0]);
-				evolCutoff = Double.parseDouble(lineArray[1]);
-				callThreshold = Double.parseDouble(lineArray[2]);
-				minSurfaceASA = Double.parseDouble(lineArray[3]);
-				numSurfResTol = Double.parseDouble(lineArray[4]);
-				numSurfSamp = Integer.parseInt(lineArray[5]);
-				minHomologues = Integer.parseInt(lineArray[6]);
-				minHomology = Double.parseDouble(lineArray[7]);
-				aaAlphabet = new AAAlphabet(lineArray[8]);
-				System.out.println(getCurrentParamset() + "\t" + testFitness());
+				paramsets.add(new Paramset(line));
 			}
 			br.close();
 		}
+		
+		PrintWriter out = null;
+		Set<String> done = new HashSet<String>();
+		if (outFile == null) {
+			out = new PrintWriter(System.out);
+			out.println(HEADER);
+		} else {
+			truncateIncompleteLastLine(outFile);
+			done = readDoneParamsets(outFile);
+			boolean isNew = !outFile.exists() || outFile.length() == 0;
+			out = new PrintWriter(new FileWriter(outFile, true));
+			if (isNew) {
+				out.println(HEADER);
+			}
+			System.out.println("Skipping " + done.size() + " parameter sets already in output file " + outFile);
+		}
+		out.flush();
+		
+		final PrintWriter writer = out;
+		ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+		List<Future<?>> futures = new ArrayList<Future<?>>();
+		for (int i = 0; i < paramsets.size(); i++) {
+			final Paramset p = paramsets.get(i);
+			if (done.contains(p.toString())) continue;
+			
+			// each paramset has its own seed, so that results don't depend on the order of evaluation
+			final long paramsetSeed = seed + i;
+			futures.add(executor.submit(() -> {
+				String result = p.toString() + "\t" + testFitness(p, new Random(paramsetSeed));
+				synchronized (writer) {
+					writer.println(result);
+					writer.flush();
+				}
+			}));
+		}
+		executor.shutdown();
+		
+		try {
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} catch (ExecutionException e) {
+			executor.shutdownNow();
+			throw new RuntimeException(e.getCause());
+		} finally {
+			if (outFile != null) {
+				writer.close();
+			}
+		}
 	}
 	
-	private static String getCurrentParamset() {
-		StringBuilder sb = new StringBuilder();
-		sb.append(geomCutoff);
-		sb.append("\t");
-		sb.append(evolCutoff);
-		sb.append("\t");
-		sb.append(callThreshold);
-		sb.append("\t");
-		sb.append(minSurfaceASA);
-		sb.append("\t");
-		sb.append(numSurfResTol);
-		sb.append("\t");
-		sb.append(numSurfSamp);
-		sb.append("\t");
-		sb.append(minHomologues);
-		sb.append("\t");
-		sb.append(minHomology);
-		sb.append("\t");
-		sb.append(aaAlphabet);
-		return sb.toString();
+	/**
+	 * Removes the incomplete last line (interrupted while writing) of the given output file if any,
+	 * so that the results appended to it start on a new line
+	 * @param file
+	 * @throws IOException
+	 */
+	private static void truncateIncompleteLastLine(File file) throws IOException {
+		if (!file.exists()) return;
+		
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			long length = raf.length();
+			while (length > 0) {
+				raf.seek(length - 1);
+				if (raf.read() == '\n') break;
+				length--;
+			}
+			if (length < raf.length()) {
+				System.out.println("Removing incomplete last line of output file " + file);
+				raf.setLength(length);
+			}
+		}
 	}
 	
-	private static double testFitness() { // balanced accuracy
+	/**
+	 * Reads the parameter sets (the first 9 columns) already evaluated in the given output file
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	private static Set<String> readDoneParamsets(File file) throws IOException {
+		Set<String> paramsets = new HashSet<String>();
+		if (!file.exists()) return paramsets;
+		
+		BufferedReader br = new BufferedReader(new FileReader(file));
+		String line;
+		while ((line = br.readLine()) != null) {
+			if (line.startsWith(HEADER)) continue;
+			String[] lineArray = line.split("\t");
+			// an incomplete line is evaluated again
+			if (lineArray.length < 10) continue;
+			StringBuilder sb = new StringBuilder();
+			for (int i = 0; i < 9; i++) {
+				if (i > 0) sb.append("\t");
+				sb.append(lineArray[i]);
+			}
+			paramsets.add(sb.toString());
+		}
+		br.close();
+		return paramsets;
+	}
+	
+	private static double testFitness(Paramset p, Random random) { // balanced accuracy
 		double truePositives = 0.0;
 		double falsePositives = 0.0;
 		double trueNegatives = 0.0;
 		double falseNegatives = 0.0;
 		for (int i = 0; i < truths.size(); i++) { // loop through all datapoints
-			if ((numHomologues.get(i).get(0) >= minHomologues) && (numHomologues.get(i).get(1) >= minHomologues)) {
-				if ((homologies.get(i).get(0) >= minHomology) && (homologies.get(i).get(1) >= minHomology)) {
-					ArrayList<ArrayList<Double>> leftEntropiesPair = getEntropies(i, 0); // get left entropies
-					Double leftScore = doEntropySamplingAndCalculation(leftEntropiesPair.get(0), leftEntropiesPair.get(1)); // and calculate the score
-					ArrayList<ArrayList<Double>> rightEntropiesPair = getEntropies(i, 1); // get right entropies
-					Double rightScore = doEntropySamplingAndCalculation(rightEntropiesPair.get(0), rightEntropiesPair.get(1)); // and calculate the score
+			if ((numHomologues.get(i).get(0) >= p.minHomologues) && (numHomologues.get(i).get(1) >= p.minHomologues)) {
+				if ((homologies.get(i).get(0) >= p.minHomology) && (homologies.get(i).get(1) >= p.minHomology)) {
+					double leftScore = getScore(i, 0, p, random); // calculate the left score
+					double rightScore = getScore(i, 1, p, random); // and the right score
 					double finalScore = Double.NaN; // default value for final score
 					if (!Double.isNaN(leftScore) && !Double.isNaN(rightScore)) { // if neither side is NaN, average for final score
 						finalScore = (leftScore + rightScore) / 2.0;
@@ -478,7 +693,7 @@ public class EvaluateParamset {
 					} // otherwise, both are NaN, final stays NaN
 					boolean finalCall = Boolean.FALSE;
 					if (!Double.isNaN(finalScore)) {
-						finalCall = finalScore < callThreshold;
+						finalCall = finalScore < p.callThreshold;
 					}
 					boolean truth = truths.get(i);
 					if (finalCall && truth) {
@@ -504,11 +719,11 @@ public class EvaluateParamset {
 		return (sensitivity + specificity) / 2.0;
 	}
 	
-	private static double doEntropySamplingAndCalculation(ArrayList<Double> coreEntropies, ArrayList<Double> surfaceEntropies) {
-		if (coreEntropies.size() == 0) {
+	private static double doEntropySamplingAndCalculation(double[] coreEntropies, double[] surfaceEntropies, Paramset p, Random random) {
+		if (coreEntropies.length == 0) {
 			return Double.NaN;
 		}
-		if (surfaceEntropies.size() < (coreEntropies.size() * numSurfResTol)) {
+		if (surfaceEntropies.length < (coreEntropies.length * p.numSurfResTol)) {
 			return Double.NaN;
 		}
 		double coreTotal = 0.0;
@@ -518,21 +733,10 @@ public class EvaluateParamset {
 			coreCount += 1.0;
 		}
 		double coreScore = coreTotal / coreCount;
-		final int SAMPLE_SIZE = coreEntropies.size();
+		final int SAMPLE_SIZE = coreEntropies.length;
 		double surfaceScoreMean = Double.NaN;
 		double surfaceScoreSD = Double.NaN;
-		double[] surfaceScoreDistribution = new double[numSurfSamp];
-		RandomDataImpl rd = new RandomDataImpl();
-		for (int i = 0; i < numSurfSamp; i++) {
-			Object[] sample = rd.nextSample(surfaceEntropies, SAMPLE_SIZE);
-			double total = 0.0;
-			double count = 0.0;
-			for (int j = 0; j < sample.length; j++) {
-				total += (double)sample[j];
-				count += 1.0;
-			}
-			surfaceScoreDistribution[i] = total / count;
-		}
+		double[] surfaceScoreDistribution = new SurfaceScoreSampler(surfaceEntropies, random).sample(p.numSurfSamp, SAMPLE_SIZE);
 		UnivariateStatistic stat = new Mean();
 		surfaceScoreMean = stat.evaluate(surfaceScoreDistribution);
 		stat = new StandardDeviation();
@@ -551,4 +755,4 @@ public class EvaluateParamset {
 		}
 		return zScore;
 	}
-}
\ No newline at end of file
+}
@@ -1,15 +1,15 @@
 package eppic.db.tools;
 
+import eppic.DataModelSerializer;
 import eppic.model.PdbInfoDB;
 import gnu.getopt.Getopt;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileReader;
 import java.io.IOException;
-import java.io.ObjectInputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import javax.persistence.EntityManager;
@@ -26,6 +26,11 @@ public class UploadToDb {
 	private static final int TIME_STATS_EVERY1 = 100;
 	private static final int TIME_STATS_EVERY2 = 1000;
 	
+	// defaults for the pipelined upload
+	private static final int DEFAULT_NUM_READERS = 4;
+	private static final int DEFAULT_NUM_WRITERS = 4;
+	private static final int DEFAULT_BATCH_SIZE = 50;
+	
 	public static void main(String[] args) {
 		
 		String help = 
@@ -42,7 +47,15 @@ public class UploadToDb {
 				" OPERATION MODE\n" +
 				" Default operation: only entries not already present in database will be inserted \n"+
 				" [-F]          : forces everything chosen to be inserted, deletes previous entries if present\n" +
-				" [-r]          : removes the specified entries from database\n";
+				" [-r]          : removes the specified entries from database\n" +
+				" PIPELINED UPLOAD (for bulk loads, not compatible with -r)\n" +
+				" [-t <int>]    : number of reader threads deserializing files. If any of -t, -w, -b or -c is\n" +
+				"                 specified a pipelined upload with one up-front check of existing entries\n" +
+				"                 and batched transactions is used. Default: "+DEFAULT_NUM_READERS+"\n" +
+				" [-w <int>]    : number of writer threads, each using its own db connection. Default: "+DEFAULT_NUM_WRITERS+"\n" +
+				" [-b <int>]    : number of entries per transaction. Default: "+DEFAULT_BATCH_SIZE+"\n" +
+				" [-c <file>]   : checkpoint file listing the entries committed to the db, entries in it are skipped.\n" +
+				"                 Use the same file again to resume an interrupted upload\n";
 				
 
 		boolean isDividedLayout = false;
@@ -57,7 +70,13 @@ public class UploadToDb {
 		String dbName = null;
 		File configFile = null;
 		
-		Getopt g = new Getopt("UploadToDB", args, "D:d:lf:g:Frh?");
+		boolean pipelined = false;
+		int numReaders = DEFAULT_NUM_READERS;
+		int numWriters = DEFAULT_NUM_WRITERS;
+		int batchSize = DEFAULT_BATCH_SIZE;
+		File checkpointFile = null;
+		
+		Getopt g = new Getopt("UploadToDB", args, "D:d:lf:g:Frt:w:b:c:h?");
 		int c;
 		while ((c = g.getopt()) != -1) {
 			switch(c){
@@ -86,6 +105,22 @@ public class UploadToDb {
 				modeNew = false;
 				modeEverything = false;
 				break;
+			case 't':
+				numReaders = Integer.parseInt(g.getOptarg());
+				pipelined = true;
+				break;
+			case 'w':
+				numWriters = Integer.parseInt(g.getOptarg());
+				pipelined = true;
+				break;
+			case 'b':
+				batchSize = Integer.parseInt(g.getOptarg());
+				pipelined = true;
+				break;
+			case 'c':
+				checkpointFile = new File(g.getOptarg());
+				pipelined = true;
+				break;
 			case 'h':
 				System.out.println(help);
 				System.exit(0);
@@ -118,6 +153,17 @@ public class UploadToDb {
 			System.exit(1);
 		}
 		
+		if (pipelined && modeRemove) {
+			System.err.println("\n\nHey Jim, pipelined upload options (-t, -w, -b, -c) can't be used with -r! \n");
+			System.err.println(help);
+			System.exit(1);
+		}
+		
+		if (numReaders<1 || numWriters<1 || batchSize<1) {
+			System.err.println("Number of readers (-t), writers (-w) and batch size (-b) must be at least 1");
+			System.exit(1);
+		}
+		
 		// Get the Directories to be processed
 		File[] jobsDirectories;
 		if(choosefromFile!=null){
@@ -143,6 +189,22 @@ public class UploadToDb {
 			System.out.println("Directories under "+jobDirectoriesRoot+" will be considered to be PDB codes directly, no PDB divided layout will be used. ");
 		}
 		
+		if (pipelined) {
+			dbh = new DBHandler(dbName, configFile, BulkUploader.getBatchProperties(batchSize));
+			
+			BulkUploader uploader = new BulkUploader(dbh, numReaders, numWriters, batchSize, checkpointFile, modeEverything);
+			try {
+				uploader.upload(Arrays.asList(jobsDirectories));
+			} catch (IOException e) {
+				System.err.println("Problem with checkpoint file "+checkpointFile+". Error: "+e.getMessage());
+				System.exit(1);
+			} catch (InterruptedException e) {
+				System.err.println("Upload interrupted");
+				System.exit(1);
+			}
+			return;
+		}
+		
 		dbh = new DBHandler(dbName, configFile);
 		
 		List<String> pdbsWithWarnings = new ArrayList<String>();
@@ -307,13 +369,9 @@ public class UploadToDb {
 	private static PdbInfoDB readFromSerializedFile(File webuiFile) {
 		PdbInfoDB pdbScoreItem = null;
 		try {
-			ObjectInputStream in = new ObjectInputStream(new FileInputStream(webuiFile));
-			pdbScoreItem = (PdbInfoDB)in.readObject();
-			in.close();
+			pdbScoreItem = DataModelSerializer.read(webuiFile);
 		} catch (IOException e) {
 			System.err.println("Problem reading serialized file, skipping entry"+webuiFile+". Error: "+e.getMessage());
-		} catch (ClassNotFoundException e) {
-			System.err.println("Problem reading serialized file, skipping entry"+webuiFile+". Error: "+e.getMessage());					
 		}
 		// will be null if an exception occurs
 		return pdbScoreItem;
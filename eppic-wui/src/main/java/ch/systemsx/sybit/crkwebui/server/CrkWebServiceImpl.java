@@ -49,11 +49,14 @@ import ch.systemsx.sybit.crkwebui.server.db.data.InputWithType;
 import ch.systemsx.sybit.crkwebui.server.email.data.EmailData;
 import ch.systemsx.sybit.crkwebui.server.email.data.EmailMessageData;
 import ch.systemsx.sybit.crkwebui.server.email.managers.EmailSender;
+import ch.systemsx.sybit.crkwebui.server.ip.limiters.IPRateLimiter;
 import ch.systemsx.sybit.crkwebui.server.ip.validators.IPVerifier;
 import ch.systemsx.sybit.crkwebui.server.jobs.managers.JobManagerFactory;
 import ch.systemsx.sybit.crkwebui.server.jobs.managers.commons.JobManager;
 import ch.systemsx.sybit.crkwebui.server.jobs.managers.commons.JobStatusUpdater;
+import ch.systemsx.sybit.crkwebui.server.results.ResultBundleStore;
 import ch.systemsx.sybit.crkwebui.server.runners.CrkRunner;
+import ch.systemsx.sybit.crkwebui.server.search.PdbSearchCache;
 import ch.systemsx.sybit.crkwebui.server.settings.generators.ApplicationSettingsGenerator;
 import ch.systemsx.sybit.crkwebui.shared.exceptions.CrkWebException;
 import ch.systemsx.sybit.crkwebui.shared.exceptions.DaoException;
@@ -72,7 +75,6 @@ import ch.systemsx.sybit.crkwebui.shared.model.ProcessingInProgressData;
 import ch.systemsx.sybit.crkwebui.shared.model.Residue;
 import ch.systemsx.sybit.crkwebui.shared.model.ResiduesList;
 import ch.systemsx.sybit.crkwebui.shared.model.RunJobData;
-import ch.systemsx.sybit.crkwebui.shared.model.SequenceClusterType;
 import ch.systemsx.sybit.crkwebui.shared.model.StepStatus;
 import ch.systemsx.sybit.shared.model.InputType;
 import ch.systemsx.sybit.shared.model.StatusOfJob;
@@ -200,6 +202,12 @@ public class CrkWebServiceImpl extends XsrfProtectedServiceServlet implements Cr
 
 	private EmailMessageData emailMessageData;
 
+	// number of residues fetched from the db at a time
+	private int residuesFetchSize;
+
+	// null if the results of precomputed entries are not bundled
+	private ResultBundleStore resultBundleStore;
+
 	@Override
 	public void init(ServletConfig config) throws ServletException
 	{
@@ -263,6 +271,12 @@ public class CrkWebServiceImpl extends XsrfProtectedServiceServlet implements Cr
 		doIPBasedVerification = Boolean.parseBoolean(properties.getProperty("limit_access_by_ip","false"));
 		defaultNrOfAllowedSubmissionsForIP = Integer.parseInt(properties.getProperty("nr_of_allowed_submissions_for_ip","100"));
 
+		if(doIPBasedVerification)
+		{
+			// loads the submissions of the last day, so that they are not counted in the db for every submission
+			IPRateLimiter.getInstance();
+		}
+
 		String queuingSystem = properties.getProperty("queuing_system");
 		if(queuingSystem == null)
 		{
@@ -402,6 +416,23 @@ public class CrkWebServiceImpl extends XsrfProtectedServiceServlet implements Cr
 		if (dbSettings==null) {
 			throw new ServletException("Could not initialise the db properties.");
 		}
+
+		residuesFetchSize = Integer.parseInt(properties.getProperty("residues_fetch_size", Integer.toString(ResidueDAOJpa.DEFAULT_FETCH_SIZE)));
+
+		String resultBundlesPath = properties.getProperty("result_bundles_path");
+		if(resultBundlesPath != null && !resultBundlesPath.trim().equals(""))
+		{
+			// new releases are usually loaded to the same db, so the release can't be guessed from the connection
+			String dbRelease = properties.getProperty("db_release");
+			if(dbRelease == null || dbRelease.trim().equals(""))
+			{
+				throw new ServletException("db_release must be set in the config file if result_bundles_path is set, "
+						+ "so that results bundled for previous db releases are not served");
+			}
+			dbRelease = dbRelease.trim();
+			resultBundleStore = new ResultBundleStore(new File(resultBundlesPath.trim()), dbRelease);
+			logger.info("Results of precomputed entries will be bundled in {} for db release {}", resultBundlesPath, dbRelease);
+		}
 		
 	}
 
@@ -544,6 +575,10 @@ public class CrkWebServiceImpl extends XsrfProtectedServiceServlet implements Cr
 					submissionStatus,
 					submissionId);
 
+			if(doIPBasedVerification)
+			{
+				IPRateLimiter.getInstance().registerSubmission(getThreadLocalRequest().getRemoteAddr(), currentDate);
+			}
 			
 			emailSender.sendInSeparateThread(runJobData.getEmailAddress(),
 						emailTitle,
@@ -560,6 +595,15 @@ public class CrkWebServiceImpl extends XsrfProtectedServiceServlet implements Cr
 	{
 		StatusOfJob status = null;
 
+		// precomputed entries are always finished: their bundle is served without checking the status
+		PdbInfo bundledResult = resultBundleStore != null ? resultBundleStore.read(jobId) : null;
+		if(bundledResult != null)
+		{
+			UserSessionDAO sessionDAO = new UserSessionDAOJpa();
+			sessionDAO.insertSessionForJob(getThreadLocalRequest().getSession().getId(), jobId, getThreadLocalRequest().getRemoteAddr());
+			return bundledResult;
+		}
+
 		JobDAO jobDAO = new JobDAOJpa();
 		status = jobDAO.getStatusForJob(jobId);
 
@@ -569,7 +613,13 @@ public class CrkWebServiceImpl extends XsrfProtectedServiceServlet implements Cr
 			sessionDAO.insertSessionForJob(getThreadLocalRequest().getSession().getId(), jobId, getThreadLocalRequest().getRemoteAddr());
 			if(status.equals(StatusOfJob.FINISHED))
 			{
-				return getResultData(jobId);
+				PdbInfo pdbInfo = getResultData(jobId);
+				if(resultBundleStore != null)
+				{
+					// only done for precomputed entries, user jobs are always read from the db
+					resultBundleStore.write(jobId, pdbInfo);
+				}
+				return pdbInfo;
 			}
 			else
 			{
@@ -745,7 +795,7 @@ public class CrkWebServiceImpl extends XsrfProtectedServiceServlet implements Cr
 	@Override
 	public ResiduesList getAllResidues(String jobId) throws Exception
 	{
-		ResidueDAO residueDAO = new ResidueDAOJpa();
+		ResidueDAO residueDAO = new ResidueDAOJpa(residuesFetchSize);
 		ResiduesList residuesList = residueDAO.getResiduesForAllInterfaces(jobId);
 		return residuesList;
 	}
@@ -753,30 +803,8 @@ public class CrkWebServiceImpl extends XsrfProtectedServiceServlet implements Cr
 	@Override
 	public HashMap<Integer, List<Residue>> getInterfaceResidues(int interfaceUid) throws Exception
 	{
-		ResidueDAO residueDAO = new ResidueDAOJpa();
-		List<Residue> interfaceResidues = residueDAO.getResiduesForInterface(interfaceUid);
-
-		HashMap<Integer, List<Residue>> structures = new HashMap<Integer, List<Residue>>();
-
-		List<Residue> firstStructureResidues = new ArrayList<Residue>();
-		List<Residue> secondStructureResidues = new ArrayList<Residue>();
-
-		for(Residue residue : interfaceResidues)
-		{
-			if(residue.getSide() == false)
-			{
-				firstStructureResidues.add(residue);
-			}
-			else if(residue.getSide() == true)
-			{
-				secondStructureResidues.add(residue);
-			}
-		}
-
-		structures.put(1, firstStructureResidues);
-		structures.put(2, secondStructureResidues);
-
-		return structures;
+		ResidueDAO residueDAO = new ResidueDAOJpa(residuesFetchSize);
+		return residueDAO.getResiduesForInterfaceBySide(interfaceUid);
 	}
 
 	@Override
@@ -890,6 +918,8 @@ public class CrkWebServiceImpl extends XsrfProtectedServiceServlet implements Cr
 		{
 			e.printStackTrace();
 		}
+
+		IPRateLimiter.destroyInstance();
 	}
 
 	@Override
@@ -914,26 +944,8 @@ public class CrkWebServiceImpl extends XsrfProtectedServiceServlet implements Cr
 	@Override
 	public List<PDBSearchResult> getListOfPDBs(String pdbCode, String chain) throws Exception {
 		long start = System.currentTimeMillis();
-		ChainClusterDAO homologsDAO = new ChainClusterDAOJpa();
-		List<PDBSearchResult> data = new ArrayList<PDBSearchResult>();
-		for(SequenceClusterType cl : SequenceClusterType.values()) {
-			List<PDBSearchResult> resultList = homologsDAO.getPdbSearchItems(pdbCode, chain, cl);
-			HashMap<Integer, PDBSearchResult> results = new HashMap<Integer, PDBSearchResult>();
-			if (resultList != null) {
-				for(PDBSearchResult pdbSearchResult: resultList)
-					if(pdbSearchResult.getPdbCode() != null)
-						results.put(pdbSearchResult.getUid(), pdbSearchResult);
-				for(PDBSearchResult p : data)
-					if(results.containsKey(p.getUid()))
-						results.remove(p.getUid());
-					else {
-						p.setSuspicious(true);
-						logger.warn("PDBSearchResult with uid " + p.getUid() + " and pdbCode " + p.getPdbCode() + " is not in the " + cl + " sequenceClusterType level but it's present in the stricter levels.");
-					}
-				for(PDBSearchResult p : results.values())
-					data.add(p);
-			}
-		}
+		// all the sequence cluster levels are retrieved in one query and cached
+		List<PDBSearchResult> data = PdbSearchCache.getInstance().getPdbSearchItems(pdbCode, chain);
 		long durration = System.currentTimeMillis() - start;
 		logger.debug("Length of data: " + data.size() + " (fetching took " + durration + "ms)");
 		return data;
@@ -3,21 +3,25 @@ package ch.systemsx.sybit.crkwebui.server.commons.util.io;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.LinkedList;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.PriorityQueue;
 import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -29,7 +33,11 @@ import org.slf4j.LoggerFactory;
  * <p>Conceptually this can be thought of as a simple key-value cache, where
  * the unique key happens to be the path to a file and the value can be returned
  * as a String, Reader, File handle, etc. Behind the hood, values are cached to
- * memory (for a limited number of hits) and to disk.
+ * memory (up to a maximum total size, evicting the least recently used) and to disk.
+ *
+ * <p>Each path is computed only once at a time: concurrent requests for a path being
+ * computed wait for that computation, without blocking requests for other paths.
+ * Values are written to disk asynchronously once computed.
  * 
  * <p>All paths referenced in the FileCache should be considered to be owned by
  * the cache. Although the {@link #getFile(String, Callable)} method provides
@@ -43,63 +51,86 @@ import org.slf4j.LoggerFactory;
 public class FileCache {
 	private static final Logger logger = LoggerFactory.getLogger(FileCache.class);
 
+	/**
+	 * Default maximum size in bytes of the values kept in memory
+	 */
+	public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
 	/**
 	 * Represents the cached contents of a file. Only one CacheFile should exist
-	 * for any given path. Also, it is assumed that this class owns the underlying
+	 * in the cache for any given path. Also, it is assumed that this class owns the underlying
 	 * file (e.g. it will not be modified by other processes during the life of
 	 * the CacheFile object.
 	 * 
-	 * <p>This class is not internally synchronized, so external synchronization
-	 * (e.g. on FileCache.memcache) is required for all access.
+	 * <p>The contents and the writing to disk are futures, they can be waited for
+	 * without any synchronization. The recency bookkeeping (inCache and weight)
+	 * is synchronized on FileCache.lru.
 	 * @author Spencer Bliven
 	 *
 	 */
-	protected static class CacheFile implements Comparable<CacheFile> {
+	protected static class CacheFile {
 		
-		// auto-incrementing global serial number. Synchronize on the class object for access.
-		private static long nextSerial = 0;
-		// serial number at last time of access
-		private long serial;
-		
-		private final Future<String> contents;
-		private final Future<?> writer;
+		private final CompletableFuture<String> contents;
+		private final CompletableFuture<Void> writer;
 		private final File file;
+		
+		// the approximate size in memory of the contents, 0 until computed
+		private long weight;
+		// whether this is in the lru list of the cache
+		private boolean inCache;
+
 		public CacheFile(File file, Callable<String> contents, ExecutorService executor) {
-			// assign next serial number
-			synchronized (CacheFile.class) {
-				serial = nextSerial;
-				nextSerial++;
-			}
 			this.file = file;
+			this.weight = 0;
+			this.inCache = false;
 
 			// if already cached, don't recalculate
-			if(fileExists(file)) {
+			boolean onDisk = fileExists(file);
+			if(onDisk) {
 				contents = () -> FileContentReader.readContentOfFile(file, false);
 			}
 			// begin reading contents
-			this.contents = executor.submit(contents);
-			// begin writing contents
-			if(!fileExists(file)) {
-				Runnable write = () -> {
-					try
-					{
-						String str = this.contents.get();
-						try ( FileWriter writer = new FileWriter(file) ) {
-							writer.write(str);
-						}
-					} catch (IOException|InterruptedException|ExecutionException e) {
+			final Callable<String> computation = contents;
+			this.contents = CompletableFuture.supplyAsync(() -> {
+				try {
+					return computation.call();
+				} catch (RuntimeException e) {
+					throw e;
+				} catch (Exception e) {
+					throw new CompletionException(e);
+				}
+			}, executor);
+			// begin writing contents once available
+			if(!onDisk) {
+				this.writer = this.contents.thenAcceptAsync(str -> {
+					try {
+						write(file, str);
+					} catch (IOException e) {
 						logger.error("Error writing {}",file,e);
 					}
-				};
-				this.writer = executor.submit(write);
+				}, executor);
 			} else {
 				this.writer = null;
 			}
 		}
-		@Override
-		public int compareTo(CacheFile o) {
-			return Long.compare(this.serial, o.serial);
+
+		/**
+		 * Writes to a temporary file that is then moved in place, so that the file
+		 * is never seen partially written
+		 */
+		private static void write(File file, String str) throws IOException {
+			File tmp = new File(file.getParentFile(), "."+file.getName()+".tmp");
+			try ( FileWriter writer = new FileWriter(tmp) ) {
+				writer.write(str);
+			}
+			try {
+				Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (IOException e) {
+				// e.g. atomic moves not supported by the file system
+				Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
 		}
+
 		/**
 		 * @return The contents of this file
 		 * @throws CancellationException if the computation was cancelled
@@ -107,16 +138,17 @@ public class FileCache {
 		 * @throws InterruptedException if the current thread was interrupted while waiting
 		 */
 		public String get() throws CancellationException, InterruptedException, ExecutionException {
-			touch();
 			return contents.get();
 		}
 		public String get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
-			touch();
 			return contents.get(timeout, unit);
 		}
 		public File getFile() throws InterruptedException, ExecutionException {
 			if(writer != null) {
 				writer.get();
+			} else {
+				// read from disk: no writing, but errors reading need to be reported
+				contents.get();
 			}
 			assert file.exists();//File should have been written before here
 			return file;
@@ -128,45 +160,32 @@ public class FileCache {
 		 * Delete this cachefile. The CacheFile object should be discarded afterwards.
 		 */
 		public void delete() {
-			if(writer != null)
-				writer.cancel(true);
 			contents.cancel(true);
-			file.delete();
-		}
-		/** Marks this file as recently accessed for purposes of cache recency
-		 */
-		public void touch() {
-			synchronized (CacheFile.class) {
-				if( serial == nextSerial) {
-					return; // already newest file
+			if(writer != null) {
+				// a write already in progress is let to finish, so that it doesn't recreate the file
+				try {
+					writer.get();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				} catch (ExecutionException|CancellationException e) {
+					// not written
 				}
-				serial = nextSerial;
-				nextSerial++;
 			}
+			file.delete();
 		}
-		
 		/**
-		 * Wait for the file to finish writing before finalizing
-		 * @throws Throwable
+		 * Get whether the contents have been computed successfully
+		 * @return
 		 */
-		@Override
-		protected void finalize() throws Throwable {
-			boolean completed = writer == null || writer.isDone();
-			while(!completed) {
-				logger.info("Waiting to finish writing {}",this.file);
-				try {
-					writer.get(10, TimeUnit.SECONDS);
-					completed = true;
-				} catch(TimeoutException e) {}
-			}
-			super.finalize();
+		public boolean isDone() {
+			return contents.isDone() && !contents.isCompletedExceptionally();
 		}
 		/**
 		 * Get whether the contents have finished writing to disk
 		 * @return
 		 */
 		public boolean isSynced() {
-			if(writer != null && writer.isDone() && !writer.isCancelled() ) {
+			if(writer != null && writer.isDone() && !writer.isCompletedExceptionally() ) {
 				return true;
 			}
 			return file.exists() && file.length()>0;
@@ -176,24 +195,45 @@ public class FileCache {
 
 	private ExecutorService executor;
 
-	// access the following 3 members are synchronized on memcache
-	// map of all files currently in memory
+	// map of all files currently in memory. A path is in memcache at most once, so computations are never duplicated
 	private Map<String, CacheFile> memcache;
-	// queue of memcache values, to allow easy expiration of oldest entries
-	private PriorityQueue<CacheFile> queue;
+	// memcache values in access order, to allow expiration of least recently used entries in O(1).
+	// Access to it, to bytes and to the CacheFiles' bookkeeping is synchronized on lru.
+	// No other lock is acquired while holding it and it's never held while waiting for contents
+	private LinkedHashMap<String, CacheFile> lru;
+	// total weight of the values in lru
+	private long bytes;
+	// files evicted from memory before being fully written, reused if requested again
+	private Map<String, CacheFile> writing;
 	// Set of "safe" files, used to implement purging. null indicates all are safe.
-	private Set<String> notpurged = null;
+	private volatile Set<String> notpurged = null;
 	
-	private int capacity;
+	private volatile int capacity;
+	private volatile long maxBytes;
+
+	// statistics
+	private final AtomicLong hits;
+	private final AtomicLong diskHits;
+	private final AtomicLong misses;
+	private final AtomicLong evictions;
+	private final AtomicLong computeTime;
 	
 	/**
 	 * For most situations, use {@link #getInstance()} instead
 	 */
 	public FileCache() { // package visibility for testing only
 		executor = Executors.newCachedThreadPool();
-		memcache = new HashMap<>();
-		queue = new PriorityQueue<>();
-		setCapacity(16);
+		memcache = new ConcurrentHashMap<>();
+		lru = new LinkedHashMap<>(16, 0.75f, true);
+		bytes = 0;
+		writing = new ConcurrentHashMap<>();
+		setCapacity(Integer.MAX_VALUE);
+		setMaxBytes(DEFAULT_MAX_BYTES);
+		hits = new AtomicLong(0);
+		diskHits = new AtomicLong(0);
+		misses = new AtomicLong(0);
+		evictions = new AtomicLong(0);
+		computeTime = new AtomicLong(0);
 	}
 	
 	// Singleton instance
@@ -202,7 +242,7 @@ public class FileCache {
 	 * Get the singleton instance
 	 * @return
 	 */
-	public static FileCache getInstance() {
+	public static synchronized FileCache getInstance() {
 		if(instance == null) {
 			instance = new FileCache();
 		}
@@ -215,13 +255,11 @@ public class FileCache {
 	 * @return
 	 */
 	public boolean isCached(String path) {
-		synchronized(memcache) {
-			if( memcache.containsKey(path) )
-				return true;
-			File file = new File(path);
-			if(fileExists(file) ) {
-				return true;
-			}
+		if( memcache.containsKey(path) )
+			return true;
+		File file = new File(path);
+		if(fileExists(file) ) {
+			return true;
 		}
 		return false;
 	}
@@ -231,52 +269,149 @@ public class FileCache {
 	 * @return
 	 */
 	public boolean isCachedInMemory(String path) {
-		synchronized(memcache) {
-			return memcache.containsKey(path);
-		}
-
+		return memcache.containsKey(path);
 	}
 	
 	private static boolean fileExists(File file) {
 		return file.exists() && file.length()>0;
 	}
 
+	/**
+	 * Removes the least recently used entries while over capacity or over the maximum size.
+	 * Entries still being computed are kept, which may cause the cache
+	 * to be temporarily over-capacity. Entries still being written are kept aside
+	 * until written.
+	 */
 	protected void removeExpired() {
-		synchronized( memcache ) {
-			List<CacheFile> stillwriting = new LinkedList<>();
-			while(queue.size() > capacity) {
-				CacheFile expired = queue.remove(); //lowest serial
-				if( !expired.isSynced()) {
-					// save actively writing cases to be pushed back on the queue
-					stillwriting.add(expired);
-				} else {
-					memcache.remove(expired.getFilename());
+		List<CacheFile> expired = new ArrayList<>();
+		synchronized( lru ) {
+			Iterator<CacheFile> it = lru.values().iterator();
+			while( (lru.size() > capacity || bytes > maxBytes) && it.hasNext()) {
+				CacheFile cacheFile = it.next(); // least recently used first
+				if( cacheFile.isDone() ) {
+					it.remove();
+					cacheFile.inCache = false;
+					bytes -= cacheFile.weight;
+					expired.add(cacheFile);
 				}
 			}
-			//re-add cases that are still writing
-			//Note that this may cause memcache to be temporarily over-capacity
-			queue.addAll(stillwriting);
+		}
+		for(CacheFile cacheFile : expired) {
+			String path = cacheFile.getFilename();
+			if( !cacheFile.isSynced() ) {
+				writing.put(path, cacheFile);
+				if( cacheFile.isSynced() ) {
+					// finished writing in the meantime
+					writing.remove(path, cacheFile);
+				}
+			}
+			// only removes it if it wasn't replaced in the meantime
+			memcache.remove(path, cacheFile);
+			evictions.incrementAndGet();
 		}
 	}
 	
 	protected CacheFile getCacheFile(String path, Callable<String> contents) {
-		CacheFile cacheFile;
-		if( memcache.containsKey(path) ) {
-			cacheFile = memcache.get(path);
+		boolean[] created = new boolean[] {false};
+		CacheFile cacheFile = memcache.computeIfAbsent(path, p -> {
+			created[0] = true;
+			CacheFile stillWriting = writing.remove(p);
+			if( stillWriting != null ) {
+				hits.incrementAndGet();
+				return stillWriting;
+			}
+			return newCacheFile(p, contents);
+		});
+
+		synchronized( lru ) {
+			if( created[0] ) {
+				CacheFile replaced = lru.put(path, cacheFile);
+				if( replaced != null ) {
+					replaced.inCache = false;
+					bytes -= replaced.weight;
+				}
+				cacheFile.inCache = true;
+				bytes += cacheFile.weight;
+			} else if( cacheFile.inCache ) {
+				lru.get(path); // marks it as recently used
+			}
+		}
+		if( !created[0] ) {
+			hits.incrementAndGet();
+		}
+		return cacheFile;
+	}
+
+	/**
+	 * Creates the CacheFile for path, starting its computation.
+	 * Must be fast, it is called while holding the memcache lock for path
+	 */
+	private CacheFile newCacheFile(String path, Callable<String> contents) {
+		File file = new File(path);
+		if(notpurged != null && !notpurged.contains(path)) {
+			file.delete();
+		}
+		boolean onDisk = fileExists(file);
+		if(onDisk) {
+			diskHits.incrementAndGet();
 		} else {
-			File file = new File(path);
-			if(notpurged != null && !notpurged.contains(path)) {
-				file.delete();
+			misses.incrementAndGet();
+		}
+		final long start = System.nanoTime();
+		CacheFile cacheFile = new CacheFile(file, contents, executor);
+		cacheFile.contents.whenComplete( (str, e) -> {
+			if(!onDisk) {
+				computeTime.addAndGet(System.nanoTime() - start);
 			}
-			cacheFile = new CacheFile(file, contents, executor);
-			memcache.put(path, cacheFile);
-			queue.add(cacheFile);
-			if(notpurged != null) {
-				notpurged.add(path);
+			if(str != null) {
+				synchronized( lru ) {
+					// chars are 2 bytes in memory
+					cacheFile.weight = 2L * str.length();
+					if(cacheFile.inCache) {
+						bytes += cacheFile.weight;
+					}
+				}
 			}
+		});
+		if(cacheFile.writer != null) {
+			cacheFile.writer.whenComplete( (v, e) -> writing.remove(path, cacheFile) );
+		}
+		if(notpurged != null) {
+			notpurged.add(path);
 		}
 		return cacheFile;
 	}
+
+	/**
+	 * Removes the given CacheFile from memory (not from disk), if it is still the one cached for its path
+	 * @param cacheFile
+	 * @return true if removed
+	 */
+	private boolean removeFromMemory(String path, CacheFile cacheFile) {
+		boolean removed = memcache.remove(path, cacheFile);
+		synchronized( lru ) {
+			if(cacheFile.inCache) {
+				lru.remove(path);
+				cacheFile.inCache = false;
+				bytes -= cacheFile.weight;
+			}
+		}
+		return removed;
+	}
+
+	/**
+	 * Waits for the contents, dropping the CacheFile from the cache if the computation failed,
+	 * so that it is computed again in the next request
+	 */
+	private String getContents(String path, CacheFile cacheFile) throws InterruptedException, ExecutionException {
+		try {
+			return cacheFile.get();
+		} catch (ExecutionException|CancellationException e) {
+			removeFromMemory(path, cacheFile);
+			throw e;
+		}
+	}
+
 	/**
 	 * Get the String associated with a particular key, either by computing it
 	 * or by getting the cached value (from memory or disk).
@@ -286,7 +421,8 @@ public class FileCache {
 	 * {@link Callable}s that would produce the same strings). Otherwise the cache may
 	 * be out of date.
 	 * <p>
-	 * This function blocks while the result is calculated.
+	 * This function blocks while the result is calculated. Concurrent calls for
+	 * the same path wait for the same calculation, calls for other paths are not blocked.
 	 * @param path Path to the cache location
 	 * @param contents Method to generate the contents, if needed
 	 * @return A (possibly cached) value equivalent to calling <tt>contents.call()</tt>
@@ -294,12 +430,10 @@ public class FileCache {
 	 * @throws InterruptedException if the computation thread was interrupted while waiting
 	 */
 	public String getString(String path, Callable<String> contents) throws InterruptedException, ExecutionException {
-		synchronized( memcache ) {
-			CacheFile cacheFile = getCacheFile(path, contents);
-			String contentsStr = cacheFile.get();
-			removeExpired();
-			return contentsStr;
-		}
+		CacheFile cacheFile = getCacheFile(path, contents);
+		String contentsStr = getContents(path, cacheFile);
+		removeExpired();
+		return contentsStr;
 	}
 	/**
 	 * Get the String associated with a particular key, either by computing it
@@ -317,14 +451,17 @@ public class FileCache {
 	 * @throws InterruptedException if the computation thread was interrupted while waiting
 	 */
 	public String getString(String path) throws InterruptedException, ExecutionException {
-		synchronized( memcache) {
-			if( !memcache.containsKey(path) ) {
-				return null;
+		CacheFile cacheFile = memcache.get(path);
+		if( cacheFile == null ) {
+			return null;
+		}
+		synchronized( lru ) {
+			if( cacheFile.inCache ) {
+				lru.get(path); // marks it as recently used
 			}
-			CacheFile cacheFile = memcache.get(path);
-			String contents = cacheFile.get();
-			return contents;
 		}
+		hits.incrementAndGet();
+		return getContents(path, cacheFile);
 	}
 
 	/**
@@ -342,28 +479,29 @@ public class FileCache {
 	 * @throws ExecutionException
 	 */
 	public File getFile(String path, Callable<String> contents) throws InterruptedException, ExecutionException {
-		synchronized( memcache ) {
-			CacheFile cacheFile = getCacheFile(path, contents);
-			File contentsFile = cacheFile.getFile();
-			removeExpired();
-			return contentsFile;
-		}
+		CacheFile cacheFile = getCacheFile(path, contents);
+		getContents(path, cacheFile);
+		File contentsFile = cacheFile.getFile();
+		removeExpired();
+		return contentsFile;
 	}
 	public File getFile(String path) throws InterruptedException, ExecutionException {
-		synchronized( memcache) {
-			File file;
-			if( memcache.containsKey(path) ) {
-				CacheFile cacheFile = memcache.get(path);
-				file = cacheFile.getFile();
-			} else {
-				file = new File(path);
-			}
-			if(fileExists(file)) {
-				if(notpurged != null) {
-					notpurged.add(path);
-				}
-				return file;
+		File file;
+		CacheFile cacheFile = memcache.get(path);
+		if( cacheFile == null ) {
+			cacheFile = writing.get(path);
+		}
+		if( cacheFile != null ) {
+			file = cacheFile.getFile();
+		} else {
+			file = new File(path);
+		}
+		if(fileExists(file)) {
+			Set<String> np = notpurged;
+			if(np != null) {
+				np.add(path);
 			}
+			return file;
 		}
 		return null;
 	}
@@ -374,10 +512,11 @@ public class FileCache {
 	 * @throws InterruptedException 
 	 */
 	public void flush() throws InterruptedException, ExecutionException {
-		synchronized(memcache) {
-			for( CacheFile f : memcache.values()) {
-				f.getFile();
-			}
+		for( CacheFile f : memcache.values()) {
+			f.getFile();
+		}
+		for( CacheFile f : writing.values()) {
+			f.getFile();
 		}
 	}
 	/**
@@ -389,12 +528,30 @@ public class FileCache {
 	}
 
 	/**
-	 * Set the number of recent files to keep in memory
+	 * Set the number of recent files to keep in memory.
+	 * By default the number is not limited, only the total size (see {@link #setMaxBytes(long)}).
 	 * @param capacity
 	 */
 	public void setCapacity(int capacity) {
 		this.capacity = capacity;
 	}
+
+	/**
+	 * Get the maximum total size (approximate, in bytes) of the values to keep in memory
+	 * @return
+	 */
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * Set the maximum total size (approximate, in bytes) of the values to keep in memory.
+	 * Default {@value #DEFAULT_MAX_BYTES}
+	 * @param maxBytes
+	 */
+	public void setMaxBytes(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
 	
 	/**
 	 * 
@@ -404,16 +561,73 @@ public class FileCache {
 		return memcache.size();
 	}
 	
+	/**
+	 *
+	 * @return The approximate size in bytes of the values cached in memory
+	 */
+	public long getBytes() {
+		synchronized( lru ) {
+			return bytes;
+		}
+	}
+
+	/**
+	 * @return The number of requests served from memory (or waiting for an ongoing computation)
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * @return The number of requests served by reading a previously written file from disk
+	 */
+	public long getDiskHits() {
+		return diskHits.get();
+	}
+
+	/**
+	 * @return The number of requests that needed a computation
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * @return The number of values evicted from memory
+	 */
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	/**
+	 * @return The total time in milliseconds spent in computations
+	 */
+	public long getComputeTime() {
+		return computeTime.get() / 1000000;
+	}
+
+	/**
+	 * @return A summary of the cache statistics
+	 */
+	public String getStats() {
+		return String.format("%d in memory (%d bytes), %d hits, %d disk hits, %d misses (%d ms computing), %d evictions",
+				size(), getBytes(), getHits(), getDiskHits(), getMisses(), getComputeTime(), getEvictions());
+	}
+
 	/**
 	 * Clears the in-memory cache. Files on disk are still retained and will be
 	 * reused.
 	 * @see #purge()
 	 */
 	public void clear() {
-		synchronized(memcache) {
-			memcache.clear();
-			queue.clear();
+		synchronized(lru) {
+			for( CacheFile cacheFile : lru.values()) {
+				cacheFile.inCache = false;
+			}
+			lru.clear();
+			bytes = 0;
 		}
+		memcache.clear();
 	}
 	
 	/**
@@ -421,17 +635,20 @@ public class FileCache {
 	 * @param path
 	 */
 	public void delete(String path) {
-		synchronized(memcache) {
-			if(memcache.containsKey(path)) {
-				CacheFile file = memcache.get(path);
-				file.delete();
-				memcache.remove(path);
-				queue.remove(file);
-			} else {
-				File file = new File(path);
-				file.delete();
-			}
-			notpurged.remove(path);
+		CacheFile cacheFile = memcache.get(path);
+		if(cacheFile != null) {
+			removeFromMemory(path, cacheFile);
+			cacheFile.delete();
+		}
+		cacheFile = writing.remove(path);
+		if(cacheFile != null) {
+			cacheFile.delete();
+		}
+		File file = new File(path);
+		file.delete();
+		Set<String> np = notpurged;
+		if(np != null) {
+			np.remove(path);
 		}
 	}
 	
@@ -444,21 +661,25 @@ public class FileCache {
 	 * This guarantees that subsequent calls to purge will remove all files.
 	 */
 	public void purge() {
-		synchronized(memcache) {
-			// delete known files
-			for( CacheFile cacheFile : memcache.values()) {
-				cacheFile.delete();
-			}
-			if(notpurged != null) {
-				for( String filename : notpurged) {
-					File file = new File(filename);
-					file.delete();
-				}
+		Set<String> np = notpurged;
+		// from now on new files are tracked in the new set
+		notpurged = ConcurrentHashMap.newKeySet();
+
+		// delete known files
+		for( CacheFile cacheFile : memcache.values()) {
+			cacheFile.delete();
+		}
+		for( CacheFile cacheFile : writing.values()) {
+			cacheFile.delete();
+		}
+		writing.clear();
+		if(np != null) {
+			for( String filename : np) {
+				File file = new File(filename);
+				file.delete();
 			}
-			memcache.clear();
-			queue.clear();
-			notpurged = new HashSet<>();
 		}
+		clear();
 	}
 
 	@Override
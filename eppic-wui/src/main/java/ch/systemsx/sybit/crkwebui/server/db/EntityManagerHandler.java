@@ -1,24 +1,97 @@
 package ch.systemsx.sybit.crkwebui.server.db;
 
+import java.sql.SQLException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
 import javax.persistence.Persistence;
 
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mchange.v2.c3p0.C3P0Registry;
+import com.mchange.v2.c3p0.PooledDataSource;
+
 import ch.systemsx.sybit.crkwebui.server.CrkWebServiceImpl;
 
 /**
  * Entity manager handler.
+ * If hibernate statistics are enabled (see DbConfigGenerator) the cache hit ratios and the
+ * connection pool usage are logged periodically. The pool can also be monitored through the
+ * JMX beans registered by c3p0.
  * @author AS
  */
 public class EntityManagerHandler {
 
+	private static final Logger logger = LoggerFactory.getLogger(EntityManagerHandler.class);
+
+	/**
+	 * Query hint to keep the results of a query in the query cache (only used if the cache is enabled)
+	 */
+	public static final String CACHEABLE_HINT = "org.hibernate.cacheable";
+
+	/**
+	 * Interval in seconds between logs of the statistics
+	 */
+	private static final int STATISTICS_LOG_INTERVAL = 300;
 
 	private final static EntityManagerFactory emf = 
 			Persistence.createEntityManagerFactory("eppicjpa", CrkWebServiceImpl.dbSettings);
 
+	static {
+		startStatisticsLogging();
+	}
+
 	public static EntityManager getEntityManager() {
 		return emf.createEntityManager();
 	}
 	
+	private static void startStatisticsLogging() {
+		final Statistics statistics = emf.unwrap(SessionFactory.class).getStatistics();
+		if (!statistics.isStatisticsEnabled()) {
+			return;
+		}
+
+		ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "EntityManagerHandler-statistics");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		executor.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				logStatistics(statistics);
+			}
+		}, STATISTICS_LOG_INTERVAL, STATISTICS_LOG_INTERVAL, TimeUnit.SECONDS);
+	}
+
+	private static void logStatistics(Statistics statistics) {
+		logger.info("Second-level cache: {} hits, {} misses. Query cache: {} hits, {} misses. {} queries executed, slowest took {} ms",
+				statistics.getSecondLevelCacheHitCount(), statistics.getSecondLevelCacheMissCount(),
+				statistics.getQueryCacheHitCount(), statistics.getQueryCacheMissCount(),
+				statistics.getQueryExecutionCount(), statistics.getQueryExecutionMaxTime());
+
+		for (Object o : C3P0Registry.getPooledDataSources()) {
+			PooledDataSource dataSource = (PooledDataSource) o;
+			try {
+				logger.info("Connection pool {}: {} connections, {} busy, {} threads awaiting checkout",
+						dataSource.getDataSourceName(),
+						dataSource.getNumConnectionsDefaultUser(),
+						dataSource.getNumBusyConnectionsDefaultUser(),
+						dataSource.getNumThreadsAwaitingCheckoutDefaultUser());
+			} catch (SQLException e) {
+				logger.warn("Could not get the connection pool statistics: {}", e.getMessage());
+			}
+		}
+	}
 	
 }
@@ -39,4 +39,22 @@ public interface ChainClusterDAO
 	 * @throws DaoException when can not retrieve items
 	 */
 	List<PDBSearchResult> getPdbSearchItems(String pdbCode, String repChain, SequenceClusterType c) throws DaoException;
+
+	/**
+	 * Retrieves a list of pdb search items from ChainCluster table in any of the sequence clusters
+	 * (of all levels) of a particular pdb id and chain. Each item has the strictest level it was found in
+	 * and is flagged as suspicious if it is missing from any of the looser levels.
+	 * @param pdbCode
+	 * @param repChain
+	 * @return list of results, ordered from the strictest to the loosest level
+	 * @throws DaoException when can not retrieve items
+	 */
+	List<PDBSearchResult> getPdbSearchItems(String pdbCode, String repChain) throws DaoException;
+
+	/**
+	 * Retrieves a value that changes whenever the sequence clusters are reloaded.
+	 * @return version of the sequence clusters
+	 * @throws DaoException when can not retrieve the version
+	 */
+	String getSeqClustersVersion() throws DaoException;
 }
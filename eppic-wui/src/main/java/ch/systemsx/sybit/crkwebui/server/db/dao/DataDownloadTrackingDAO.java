@@ -1,6 +1,8 @@
 package ch.systemsx.sybit.crkwebui.server.db.dao;
 
 import java.util.Date;
+import java.util.List;
+import java.util.Map;
 
 import ch.systemsx.sybit.crkwebui.shared.exceptions.DaoException;
 
@@ -35,4 +37,19 @@ public interface DataDownloadTrackingDAO {
 	 */
 	public Date getOldestJobDownloadDateDuringLastDay(String ip) throws DaoException;
 	
+
+	/**
+	 * persists many new entries in one transaction
+	 * @param downloadDatesByIP download dates by ip
+	 * @throws DaoException
+	 */
+	public void insertNewIPs(Map<String, List<Date>> downloadDatesByIP) throws DaoException;
+
+	/**
+	 * Retrieves dates of all the downloads during the last day.
+	 * @return download dates during the last day by ip address
+	 * @throws DaoException when can not retrieve information from data storage
+	 */
+	public Map<String, List<Date>> getDownloadDatesForIPsDuringLastDay() throws DaoException;
+	
 }
@@ -1,5 +1,7 @@
 package ch.systemsx.sybit.crkwebui.server.db.dao;
 
+import java.util.List;
+
 import ch.systemsx.sybit.crkwebui.shared.exceptions.DaoException;
 
 /**
@@ -16,4 +18,11 @@ public interface IPForbiddenDAO
 	 * @throws DaoException when can not retrieve information from data storage
 	 */
 	public boolean isIPForbidden(String ip) throws DaoException;
+
+	/**
+	 * Retrieves all the ip addresses that can not submit jobs.
+	 * @return list of forbidden ip addresses
+	 * @throws DaoException when can not retrieve information from data storage
+	 */
+	public List<String> getForbiddenIPs() throws DaoException;
 }
@@ -1,6 +1,7 @@
 package ch.systemsx.sybit.crkwebui.server.db.dao;
 
 import java.util.List;
+import java.util.Map;
 
 import ch.systemsx.sybit.crkwebui.shared.exceptions.DaoException;
 import ch.systemsx.sybit.crkwebui.shared.model.Interface;
@@ -47,4 +48,14 @@ public interface InterfaceDAO
 	 * @throws DaoException 
 	 */
 	public List<Interface> getAllInterfaces(int pdbInfoUid) throws DaoException;
+
+	/**
+	 * Retrieves the interface items with scores and residues of all interface clusters of a pdb info item,
+	 * fetching the residues and scores of all interfaces together rather than interface by interface.
+	 * @param pdbInfoUid uid of pdb info item
+	 * @param interfaceIds list of ids of the interfaces to be returned, null for all (without warnings)
+	 * @return lists of interface items with residues and scores, by uid of their interface cluster
+	 * @throws DaoException when can not retrieve interface items
+	 */
+	public Map<Integer, List<Interface>> getInterfacesWithResiduesByCluster(int pdbInfoUid, List<Integer> interfaceIds) throws DaoException;
 }
@@ -2,6 +2,7 @@ package ch.systemsx.sybit.crkwebui.server.db.dao;
 
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
 import ch.systemsx.sybit.crkwebui.server.db.data.InputWithType;
 import ch.systemsx.sybit.crkwebui.server.db.data.JobStatusDetails;
@@ -48,6 +49,13 @@ public interface JobDAO
 	 */
 	public void updateStatusOfJob(String jobId, StatusOfJob stopped) throws DaoException;
 
+	/**
+	 * Updates statuses of several jobs in one transaction.
+	 * @param statuses new statuses by job identifier
+	 * @throws DaoException when can not update information in data storage
+	 */
+	public void updateStatusOfJobs(Map<String, StatusOfJob> statuses) throws DaoException;
+
 	/**
 	 * Removes links between jobs and selected session.
 	 * @param sessionId identifier of the session
@@ -110,6 +118,13 @@ public interface JobDAO
 	 */
 	public Date getOldestJobSubmissionDateDuringLastDay(String ip) throws DaoException;
 
+	/**
+	 * Retrieves submission dates of all the jobs submitted during the last day.
+	 * @return job submission dates during the last day by ip address
+	 * @throws DaoException when can not retrieve information from data storage
+	 */
+	public Map<String, List<Date>> getSubmissionDatesForIPsDuringLastDay() throws DaoException;
+
 	/**
 	 * Removes session - job link for specified job and session.
 	 * @param sessionId identifier of the session
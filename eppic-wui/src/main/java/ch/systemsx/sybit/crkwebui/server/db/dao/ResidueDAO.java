@@ -1,5 +1,6 @@
 package ch.systemsx.sybit.crkwebui.server.db.dao;
 
+import java.util.HashMap;
 import java.util.List;
 
 import ch.systemsx.sybit.crkwebui.shared.exceptions.DaoException;
@@ -20,6 +21,24 @@ public interface ResidueDAO {
 	 * @throws DaoException when can not retrieve list of residue items
 	 */
 	public List<Residue> getResiduesForInterface(int interfaceUid) throws DaoException;
+
+	/**
+	 * Retrieves a page of the interface residue items for specified interface.
+	 * @param interfaceUid uid of interface item
+	 * @param firstResult position of the first residue to retrieve, in the order of their uids
+	 * @param maxResults maximum number of residues to retrieve, negative for all
+	 * @return list of interface residue items for specified interface
+	 * @throws DaoException when can not retrieve list of residue items
+	 */
+	public List<Residue> getResiduesForInterface(int interfaceUid, int firstResult, int maxResults) throws DaoException;
+
+	/**
+	 * Retrieves interface residue items for specified interface, by side.
+	 * @param interfaceUid uid of interface item
+	 * @return interface residue items of the first (key 1) and second (key 2) side of the interface
+	 * @throws DaoException when can not retrieve list of residue items
+	 */
+	public HashMap<Integer, List<Residue>> getResiduesForInterfaceBySide(int interfaceUid) throws DaoException;
 	
 	/**
 	 * Retrieves list of interface residue items for all interfaces.
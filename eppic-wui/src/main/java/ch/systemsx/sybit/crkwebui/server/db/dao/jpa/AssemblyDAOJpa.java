@@ -44,6 +44,7 @@ public class AssemblyDAOJpa implements AssemblyDAO {
 			criteriaQuery.where(criteriaBuilder.equal(pdbInfoDB.get(PdbInfoDB_.uid), pdbInfoUid));
 			
 			Query query = entityManager.createQuery(criteriaQuery);
+			query.setHint(EntityManagerHandler.CACHEABLE_HINT, true);
 			
 			@SuppressWarnings("unchecked")
 			List<AssemblyDB> assemblyDBs = query.getResultList();
@@ -2,16 +2,20 @@ package ch.systemsx.sybit.crkwebui.server.db.dao.jpa;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.persistence.EntityManager;
 import javax.persistence.NoResultException;
 import javax.persistence.Query;
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Join;
 import javax.persistence.criteria.Path;
 import javax.persistence.criteria.Predicate;
 import javax.persistence.criteria.Root;
+import javax.persistence.criteria.Selection;
 import javax.persistence.metamodel.SingularAttribute;
 
 import org.slf4j.Logger;
@@ -59,6 +63,7 @@ public class ChainClusterDAOJpa implements ChainClusterDAO {
 	    criteriaQuery.where(condition);
 
 	    Query query = entityManager.createQuery(criteriaQuery);
+	    query.setHint(EntityManagerHandler.CACHEABLE_HINT, true);
 	    @SuppressWarnings("unchecked")
 	    List<ChainClusterDB> numHomologsStringItemDBs = query.getResultList();
 
@@ -222,6 +227,202 @@ public class ChainClusterDAOJpa implements ChainClusterDAO {
     }
 
 
+    @Override
+    public List<PDBSearchResult> getPdbSearchItems(String pdbCode, String repChain) throws DaoException {
+	EntityManager entityManager = null;
+	long start = System.currentTimeMillis();
+	try
+	{
+	    SequenceClusterType[] levels = SequenceClusterType.values();
+
+	    entityManager = EntityManagerHandler.getEntityManager();
+	    CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+
+	    // the cluster ids of all levels in one query
+	    CriteriaQuery<Object[]> clusterIdsQuery = criteriaBuilder.createQuery(Object[].class);
+	    Root<SeqClusterDB> clusterIdsRoot = clusterIdsQuery.from(SeqClusterDB.class);
+	    List<Selection<?>> clusterIdColumns = new ArrayList<Selection<?>>();
+	    for(SequenceClusterType level : levels) {
+		clusterIdColumns.add(clusterIdsRoot.get(getSequenceClusterTypeColumn(level)));
+	    }
+	    clusterIdsQuery.multiselect(clusterIdColumns);
+	    clusterIdsQuery.where(criteriaBuilder.equal(clusterIdsRoot.get(SeqClusterDB_.pdbCode), pdbCode),
+		    criteriaBuilder.equal(clusterIdsRoot.get(SeqClusterDB_.repChain), repChain));
+
+	    List<Object[]> clusterIdsResult = entityManager.createQuery(clusterIdsQuery).setMaxResults(1).getResultList();
+	    if(clusterIdsResult.isEmpty()) {
+		logger.warn("No cluster id for pdbCode " + pdbCode + " repChain " + repChain);
+		return new ArrayList<PDBSearchResult>();
+	    }
+
+	    int[] clusterIds = new int[levels.length];
+	    List<Predicate> levelConditions = new ArrayList<Predicate>();
+
+	    CriteriaQuery<Object[]> criteriaQuery = criteriaBuilder.createQuery(Object[].class);
+	    Root<SeqClusterDB> root = criteriaQuery.from(SeqClusterDB.class);
+	    Join<SeqClusterDB, ChainClusterDB> chainClusterJoin = root.join(SeqClusterDB_.chainCluster);
+	    Join<ChainClusterDB, PdbInfoDB> pdbInfoJoin = chainClusterJoin.join(ChainClusterDB_.pdbInfo);
+
+	    List<Selection<?>> columns = new ArrayList<Selection<?>>();
+	    for(int i = 0; i < levels.length; i++) {
+		clusterIds[i] = (Integer) clusterIdsResult.get(0)[i];
+		SingularAttribute<SeqClusterDB, Integer> column = getSequenceClusterTypeColumn(levels[i]);
+		columns.add(root.get(column));
+		if(clusterIds[i] > 0) {
+		    levelConditions.add(criteriaBuilder.equal(root.get(column), clusterIds[i]));
+		} else {
+		    logger.warn("clusterId is " + clusterIds[i] + " for pdbCode " + pdbCode + " repChain " + repChain + " sequenceClusterType " + levels[i]);
+		}
+	    }
+	    if(levelConditions.isEmpty()) {
+		return new ArrayList<PDBSearchResult>();
+	    }
+	    columns.add(pdbInfoJoin);
+
+	    // the members of the clusters of all levels in one query
+	    criteriaQuery.multiselect(columns);
+	    criteriaQuery.where(criteriaBuilder.or(levelConditions.toArray(new Predicate[levelConditions.size()])));
+
+	    List<Object[]> rows = entityManager.createQuery(criteriaQuery).getResultList();
+
+	    long duration = System.currentTimeMillis() - start;
+	    logger.debug("Querying pdbitems of all levels for pdb " + pdbCode + " and chain " + repChain + " took: " + duration + " ms");
+
+	    return createPdbSearchItems(clusterIds, rows);
+	}
+	catch(Throwable e)
+	{
+	    logger.error("Query failed:", e);
+	    throw new DaoException(e);
+	}
+	finally
+	{
+	    try
+	    {
+		entityManager.close();
+	    }
+	    catch(Throwable t)
+	    {
+		t.printStackTrace();
+	    }
+	}
+    }
+
+    /**
+     * Creates the search items from the members of the clusters of all levels, in one pass.
+     * The level of each item is the strictest one where it is found. An item is suspicious if
+     * it is missing from a looser level (with a valid cluster id) than its own.
+     * @param clusterIds the cluster ids of the query chain, in the order of the SequenceClusterType values
+     * (0 or negative if missing)
+     * @param rows the cluster ids of each member chain followed by its PdbInfoDB
+     * @return the search items ordered by level
+     */
+    static List<PDBSearchResult> createPdbSearchItems(int[] clusterIds, List<Object[]> rows) {
+	SequenceClusterType[] levels = SequenceClusterType.values();
+
+	// bit i is set if the pdb has a chain in the cluster of level i
+	Map<Integer, Integer> levelsByPdb = new LinkedHashMap<Integer, Integer>();
+	Map<Integer, PdbInfoDB> pdbs = new LinkedHashMap<Integer, PdbInfoDB>();
+	for(Object[] row : rows) {
+	    PdbInfoDB pdbItemDB = (PdbInfoDB) row[levels.length];
+	    if(pdbItemDB.getPdbCode() == null) {
+		continue;
+	    }
+	    int mask = levelsByPdb.containsKey(pdbItemDB.getUid()) ? levelsByPdb.get(pdbItemDB.getUid()) : 0;
+	    for(int i = 0; i < levels.length; i++) {
+		if(clusterIds[i] > 0 && clusterIds[i] == (Integer) row[i]) {
+		    mask |= 1 << i;
+		}
+	    }
+	    levelsByPdb.put(pdbItemDB.getUid(), mask);
+	    pdbs.put(pdbItemDB.getUid(), pdbItemDB);
+	}
+
+	int validLevels = 0;
+	for(int i = 0; i < levels.length; i++) {
+	    if(clusterIds[i] > 0) {
+		validLevels |= 1 << i;
+	    }
+	}
+
+	List<List<PDBSearchResult>> resultsByLevel = new ArrayList<List<PDBSearchResult>>();
+	for(int i = 0; i < levels.length; i++) {
+	    resultsByLevel.add(new ArrayList<PDBSearchResult>());
+	}
+
+	for(Map.Entry<Integer, Integer> entry : levelsByPdb.entrySet()) {
+	    int mask = entry.getValue();
+	    int level = Integer.numberOfTrailingZeros(mask);
+	    PdbInfoDB pdbItemDB = pdbs.get(entry.getKey());
+
+	    PDBSearchResult result = new PDBSearchResult(pdbItemDB.getUid(),
+		    pdbItemDB.getPdbCode(), 
+		    pdbItemDB.getTitle(), 
+		    pdbItemDB.getReleaseDate(), 
+		    pdbItemDB.getSpaceGroup(),
+		    pdbItemDB.getCellA(),
+		    pdbItemDB.getCellB(),
+		    pdbItemDB.getCellC(),
+		    pdbItemDB.getCellAlpha(),
+		    pdbItemDB.getCellBeta(),
+		    pdbItemDB.getCellGamma(),
+		    pdbItemDB.getResolution(), 
+		    pdbItemDB.getRfreeValue(), 
+		    pdbItemDB.getExpMethod(),
+		    pdbItemDB.getCrystalFormId(),
+		    levels[level]);
+
+	    // valid levels looser than the pdb's own where it is missing
+	    int missingLevels = validLevels & ~mask & (-1 << (level + 1));
+	    if(missingLevels != 0) {
+		result.setSuspicious(true);
+		logger.warn("PDBSearchResult with uid " + result.getUid() + " and pdbCode " + result.getPdbCode() + " is not in the " + levels[Integer.numberOfTrailingZeros(missingLevels)] + " sequenceClusterType level but it's present in the stricter levels.");
+	    }
+
+	    resultsByLevel.get(level).add(result);
+	}
+
+	List<PDBSearchResult> resultList = new ArrayList<PDBSearchResult>();
+	for(List<PDBSearchResult> levelResults : resultsByLevel) {
+	    resultList.addAll(levelResults);
+	}
+	return resultList;
+    }
+
+    @Override
+    public String getSeqClustersVersion() throws DaoException {
+	EntityManager entityManager = null;
+	try
+	{
+	    entityManager = EntityManagerHandler.getEntityManager();
+	    CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+	    CriteriaQuery<Object[]> criteriaQuery = criteriaBuilder.createQuery(Object[].class);
+	    Root<SeqClusterDB> root = criteriaQuery.from(SeqClusterDB.class);
+	    // the table is emptied and filled again when reloaded, with new uids
+	    criteriaQuery.multiselect(criteriaBuilder.count(root), criteriaBuilder.max(root.get(SeqClusterDB_.uid)));
+
+	    Object[] res = entityManager.createQuery(criteriaQuery).getSingleResult();
+	    return res[0] + "-" + res[1];
+	}
+	catch(Throwable e)
+	{
+	    logger.error("Query failed:", e);
+	    throw new DaoException(e);
+	}
+	finally
+	{
+	    try
+	    {
+		entityManager.close();
+	    }
+	    catch(Throwable t)
+	    {
+		t.printStackTrace();
+	    }
+	}
+    }
+
+
     private List<Integer> getChainCluserIds(long clusterId, SingularAttribute<SeqClusterDB, Integer> sequenceClusterTypeColumn) {
 	EntityManager entityManager = null;
 	long start = System.currentTimeMillis();
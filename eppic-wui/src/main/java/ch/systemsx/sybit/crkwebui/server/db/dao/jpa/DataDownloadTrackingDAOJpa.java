@@ -1,8 +1,11 @@
 package ch.systemsx.sybit.crkwebui.server.db.dao.jpa;
 
 import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.persistence.EntityManager;
 import javax.persistence.Query;
@@ -164,4 +167,102 @@ public class DataDownloadTrackingDAOJpa implements DataDownloadTrackingDAO {
 		}
 	}
 
+	@Override
+	public void insertNewIPs(Map<String, List<Date>> downloadDatesByIP) throws DaoException {
+		EntityManager entityManager = null;
+
+		try
+		{
+			entityManager = EntityManagerHandler.getEntityManager();
+			entityManager.getTransaction().begin();
+
+			for(Map.Entry<String, List<Date>> entry : downloadDatesByIP.entrySet())
+			{
+				for(Date downloadDate : entry.getValue())
+				{
+					entityManager.persist(new DataDownloadTracking(entry.getKey(), downloadDate));
+				}
+			}
+
+			entityManager.getTransaction().commit();
+		}
+		catch(Throwable e)
+		{
+			e.printStackTrace();
+
+			try
+			{
+				entityManager.getTransaction().rollback();
+			}
+			catch(Throwable t)
+			{
+				t.printStackTrace();
+			}
+
+			throw new DaoException(e);
+		}
+		finally
+		{
+			try
+			{
+				entityManager.close();
+			}
+			catch(Throwable t)
+			{
+				t.printStackTrace();
+			}
+		}
+	}
+
+	@Override
+	public Map<String, List<Date>> getDownloadDatesForIPsDuringLastDay() throws DaoException
+	{
+		EntityManager entityManager = null;
+
+		try
+		{
+			entityManager = EntityManagerHandler.getEntityManager();
+
+			Date currentDate = new Date();
+			long oneDay = 1 * 24 * 60 * 60 * 1000;
+			Timestamp dayBeforeTimestamp = new Timestamp(currentDate.getTime() - oneDay);
+
+			CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+			CriteriaQuery<Object[]> criteriaQuery = criteriaBuilder.createQuery(Object[].class);
+			Root<DataDownloadTracking> root = criteriaQuery.from(DataDownloadTracking.class);
+			criteriaQuery.multiselect(root.get(DataDownloadTracking_.ip), root.get(DataDownloadTracking_.downloadDate));
+			criteriaQuery.where(criteriaBuilder.greaterThan(root.get(DataDownloadTracking_.downloadDate), dayBeforeTimestamp));
+			criteriaQuery.orderBy(criteriaBuilder.asc(root.get(DataDownloadTracking_.downloadDate)));
+
+			Map<String, List<Date>> datesByIP = new HashMap<String, List<Date>>();
+
+			for(Object[] row : entityManager.createQuery(criteriaQuery).getResultList())
+			{
+				String ip = (String) row[0];
+				if(!datesByIP.containsKey(ip))
+				{
+					datesByIP.put(ip, new ArrayList<Date>());
+				}
+				datesByIP.get(ip).add((Date) row[1]);
+			}
+
+			return datesByIP;
+		}
+		catch(Throwable e)
+		{
+			e.printStackTrace();
+			throw new DaoException(e);
+		}
+		finally
+		{
+			try
+			{
+				entityManager.close();
+			}
+			catch(Throwable t)
+			{
+				t.printStackTrace();
+			}
+		}
+	}
 }
@@ -1,6 +1,8 @@
 package ch.systemsx.sybit.crkwebui.server.db.dao.jpa;
 
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.persistence.EntityManager;
 import javax.persistence.Query;
@@ -71,4 +73,44 @@ public class IPAllowedDAOJpa implements IPAllowedDAO
 		
 		return nrOfAllowedSubmissionsPerIP;
 	}
+
+	@Override
+	public Map<String, Integer> getNrOfAllowedSubmissionsForIPs() throws DaoException
+	{
+		EntityManager entityManager = null;
+
+		try
+		{
+			entityManager = EntityManagerHandler.getEntityManager();
+
+			CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+			CriteriaQuery<IPAllowed> criteriaQuery = criteriaBuilder.createQuery(IPAllowed.class);
+			criteriaQuery.from(IPAllowed.class);
+
+			Map<String, Integer> nrOfAllowedSubmissionsPerIP = new HashMap<String, Integer>();
+
+			for(IPAllowed ipAllowed : entityManager.createQuery(criteriaQuery).getResultList())
+			{
+				nrOfAllowedSubmissionsPerIP.put(ipAllowed.getIp(), ipAllowed.getNrOfAllowedSubmission());
+			}
+
+			return nrOfAllowedSubmissionsPerIP;
+		}
+		catch(Throwable e)
+		{
+			e.printStackTrace();
+			throw new DaoException(e);
+		}
+		finally
+		{
+			try
+			{
+				entityManager.close();
+			}
+			catch(Throwable t)
+			{
+				t.printStackTrace();
+			}
+		}
+	}
 }
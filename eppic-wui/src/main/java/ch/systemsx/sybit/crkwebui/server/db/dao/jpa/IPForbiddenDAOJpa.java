@@ -70,4 +70,38 @@ public class IPForbiddenDAOJpa implements IPForbiddenDAO
 			}
 		}
 	}
+
+	@Override
+	public List<String> getForbiddenIPs() throws DaoException
+	{
+		EntityManager entityManager = null;
+
+		try
+		{
+			entityManager = EntityManagerHandler.getEntityManager();
+
+			CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+			CriteriaQuery<String> criteriaQuery = criteriaBuilder.createQuery(String.class);
+			Root<IPForbidden> sessionRoot = criteriaQuery.from(IPForbidden.class);
+			criteriaQuery.select(sessionRoot.get(IPForbidden_.ip));
+
+			return entityManager.createQuery(criteriaQuery).getResultList();
+		}
+		catch(Throwable e)
+		{
+			e.printStackTrace();
+			throw new DaoException(e);
+		}
+		finally
+		{
+			try
+			{
+				entityManager.close();
+			}
+			catch(Throwable t)
+			{
+				t.printStackTrace();
+			}
+		}
+	}
 }
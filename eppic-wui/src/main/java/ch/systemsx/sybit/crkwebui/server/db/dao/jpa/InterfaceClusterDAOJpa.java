@@ -41,6 +41,7 @@ public class InterfaceClusterDAOJpa implements InterfaceClusterDAO
 			criteriaQuery.where(criteriaBuilder.equal(pdbInfoDB.get(PdbInfoDB_.uid), pdbInfoUid));
 			
 			Query query = entityManager.createQuery(criteriaQuery);
+			query.setHint(EntityManagerHandler.CACHEABLE_HINT, true);
 			
 			@SuppressWarnings("unchecked")
 			List<InterfaceClusterDB> interfaceClusterDBs = query.getResultList();
@@ -1,7 +1,11 @@
 package ch.systemsx.sybit.crkwebui.server.db.dao.jpa;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import javax.persistence.EntityManager;
 import javax.persistence.Query;
@@ -9,6 +13,7 @@ import javax.persistence.TypedQuery;
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
 import javax.persistence.criteria.Join;
+import javax.persistence.criteria.JoinType;
 import javax.persistence.criteria.Path;
 import javax.persistence.criteria.Root;
 
@@ -22,6 +27,8 @@ import eppic.model.InterfaceDB;
 import eppic.model.InterfaceDB_;
 import eppic.model.PdbInfoDB;
 import eppic.model.PdbInfoDB_;
+import eppic.model.ResidueBurialDB;
+import eppic.model.ResidueBurialDB_;
 
 /**
  * Implementation of InterfaceDAO.
@@ -278,4 +285,115 @@ public class InterfaceDAOJpa implements InterfaceDAO
 			}
 		}
 	}
+
+	@Override
+	public Map<Integer, List<Interface>> getInterfacesWithResiduesByCluster(int pdbInfoUid, List<Integer> interfaceIds) throws DaoException
+	{
+		EntityManager entityManager = null;
+
+		try
+		{
+			entityManager = EntityManagerHandler.getEntityManager();
+
+			CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+
+			// 1st query: the interfaces with their clusters and residues
+			CriteriaQuery<InterfaceDB> criteriaQuery = criteriaBuilder.createQuery(InterfaceDB.class);
+
+			Root<InterfaceDB> interfaceRoot = criteriaQuery.from(InterfaceDB.class);
+			interfaceRoot.fetch(InterfaceDB_.interfaceCluster);
+			@SuppressWarnings("unchecked")
+			Join<InterfaceDB,ResidueBurialDB> residueJoin = (Join<InterfaceDB,ResidueBurialDB>) interfaceRoot.fetch(InterfaceDB_.residueBurials, JoinType.LEFT);
+			residueJoin.fetch(ResidueBurialDB_.residueInfo, JoinType.LEFT);
+			Join<InterfaceDB,InterfaceClusterDB> clusterJoin = interfaceRoot.join(InterfaceDB_.interfaceCluster);
+			Join<InterfaceClusterDB,PdbInfoDB> pdbInfoJoin = clusterJoin.join(InterfaceClusterDB_.pdbInfo);
+
+			if(interfaceIds != null)
+			{
+				criteriaQuery.where(criteriaBuilder.equal(pdbInfoJoin.get(PdbInfoDB_.uid), pdbInfoUid),
+									interfaceRoot.get(InterfaceDB_.interfaceId).in(interfaceIds));
+			}
+			else
+			{
+				criteriaQuery.where(criteriaBuilder.equal(pdbInfoJoin.get(PdbInfoDB_.uid), pdbInfoUid));
+			}
+			criteriaQuery.orderBy(criteriaBuilder.asc(interfaceRoot.get(InterfaceDB_.uid)),
+								  criteriaBuilder.asc(residueJoin.get(ResidueBurialDB_.uid)));
+
+			TypedQuery<InterfaceDB> query = entityManager.createQuery(criteriaQuery);
+
+			// one row per residue
+			Set<InterfaceDB> interfaceDBs = new LinkedHashSet<InterfaceDB>(query.getResultList());
+
+			if(!interfaceDBs.isEmpty())
+			{
+				// 2nd query: initialises the scores of the same (already managed) interfaces
+				fetchCollection(entityManager, interfaceDBs, "interfaceScores");
+
+				if(interfaceIds != null)
+				{
+					// 3rd query: the warnings
+					fetchCollection(entityManager, interfaceDBs, "interfaceWarnings");
+				}
+			}
+
+			Map<Integer, List<Interface>> result = new LinkedHashMap<Integer, List<Interface>>();
+
+			for(InterfaceDB interfaceDB : interfaceDBs)
+			{
+				if(interfaceIds == null)
+				{
+					interfaceDB.setInterfaceWarnings(null);
+				}
+
+				int clusterUid = interfaceDB.getInterfaceCluster().getUid();
+				if(!result.containsKey(clusterUid))
+				{
+					result.put(clusterUid, new ArrayList<Interface>());
+				}
+				result.get(clusterUid).add(Interface.create(interfaceDB));
+			}
+
+			return result;
+		}
+		catch(Throwable e)
+		{
+			e.printStackTrace();
+			throw new DaoException(e);
+		}
+		finally
+		{
+			try
+			{
+				entityManager.close();
+			}
+			catch(Throwable t)
+			{
+				t.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Initialises a collection of the given managed interfaces in one query.
+	 * @param entityManager
+	 * @param interfaceDBs
+	 * @param collectionName name of the collection attribute of InterfaceDB
+	 */
+	private static void fetchCollection(EntityManager entityManager, Set<InterfaceDB> interfaceDBs, String collectionName)
+	{
+		List<Integer> uids = new ArrayList<Integer>(interfaceDBs.size());
+		for(InterfaceDB interfaceDB : interfaceDBs)
+		{
+			uids.add(interfaceDB.getUid());
+		}
+
+		CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+		CriteriaQuery<InterfaceDB> criteriaQuery = criteriaBuilder.createQuery(InterfaceDB.class);
+		Root<InterfaceDB> interfaceRoot = criteriaQuery.from(InterfaceDB.class);
+		interfaceRoot.fetch(collectionName, JoinType.LEFT);
+		criteriaQuery.where(interfaceRoot.get(InterfaceDB_.uid).in(uids));
+
+		entityManager.createQuery(criteriaQuery).getResultList();
+	}
 }
@@ -3,8 +3,10 @@ package ch.systemsx.sybit.crkwebui.server.db.dao.jpa;
 import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import javax.persistence.EntityManager;
@@ -152,6 +154,65 @@ public class JobDAOJpa implements JobDAO
 		}
 	}
 
+	@Override
+	public void updateStatusOfJobs(Map<String, StatusOfJob> statuses) throws DaoException
+	{
+		if(statuses.isEmpty())
+		{
+			return;
+		}
+
+		EntityManager entityManager = null;
+
+		try
+		{
+			entityManager = EntityManagerHandler.getEntityManager();
+			entityManager.getTransaction().begin();
+
+			CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+			CriteriaQuery<JobDB> criteriaQuery = criteriaBuilder.createQuery(JobDB.class);
+			Root<JobDB> jobRoot = criteriaQuery.from(JobDB.class);
+			criteriaQuery.where(jobRoot.get(JobDB_.jobId).in(statuses.keySet()));
+			criteriaQuery.select(jobRoot);
+
+			TypedQuery<JobDB> query = entityManager.createQuery(criteriaQuery);
+			List<JobDB> jobs = query.getResultList();
+
+			for(JobDB job : jobs)
+			{
+				job.setStatus(statuses.get(job.getJobId()).getName());
+			}
+
+			entityManager.getTransaction().commit();
+		}
+		catch(Throwable e)
+		{
+			logger.error(e.getMessage(),e);
+
+			try
+			{
+				entityManager.getTransaction().rollback();
+			}
+			catch(Throwable t)
+			{
+				logger.error("Error rolling back EntityManager",t);
+			}
+
+			throw new DaoException(e);
+		}
+		finally
+		{
+			try
+			{
+				entityManager.close();
+			}
+			catch(Throwable t)
+			{
+				logger.error("Error closing EntityManager",t);
+			}
+		}
+	}
+
 	@Override
 	public void untieJobsFromSession(String sessionId) throws DaoException
 	{
@@ -602,6 +663,58 @@ public class JobDAOJpa implements JobDAO
 		}
 	}
 
+	@Override
+	public Map<String, List<Date>> getSubmissionDatesForIPsDuringLastDay() throws DaoException
+	{
+		EntityManager entityManager = null;
+
+		try
+		{
+			entityManager = EntityManagerHandler.getEntityManager();
+
+			Date currentDate = new Date();
+			long oneDay = 1 * 24 * 60 * 60 * 1000;
+			Timestamp dayBeforeTimestamp = new Timestamp(currentDate.getTime() - oneDay);
+
+			CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+			CriteriaQuery<Object[]> criteriaQuery = criteriaBuilder.createQuery(Object[].class);
+			Root<JobDB> root = criteriaQuery.from(JobDB.class);
+			criteriaQuery.multiselect(root.get(JobDB_.ip), root.get(JobDB_.submissionDate));
+			criteriaQuery.where(criteriaBuilder.greaterThan(root.get(JobDB_.submissionDate), dayBeforeTimestamp));
+			criteriaQuery.orderBy(criteriaBuilder.asc(root.get(JobDB_.submissionDate)));
+
+			Map<String, List<Date>> datesByIP = new HashMap<String, List<Date>>();
+
+			for(Object[] row : entityManager.createQuery(criteriaQuery).getResultList())
+			{
+				String ip = (String) row[0];
+				if(!datesByIP.containsKey(ip))
+				{
+					datesByIP.put(ip, new ArrayList<Date>());
+				}
+				datesByIP.get(ip).add((Date) row[1]);
+			}
+
+			return datesByIP;
+		}
+		catch(Throwable e)
+		{
+			logger.error(e.getMessage(),e);
+			throw new DaoException(e);
+		}
+		finally
+		{
+			try
+			{
+				entityManager.close();
+			}
+			catch(Throwable t)
+			{
+				logger.error("Error closing EntityManager",t);
+			}
+		}
+	}
+
 	@Override
 	public InputWithType getInputWithTypeForJob(String jobId) throws DaoException
 	{
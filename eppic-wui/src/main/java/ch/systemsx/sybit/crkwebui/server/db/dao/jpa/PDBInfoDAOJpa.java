@@ -67,6 +67,7 @@ public class PDBInfoDAOJpa implements PDBInfoDAO
 									  pdbScoreItemRoot.get(PdbInfoDB_.exhaustiveAssemblyEnumeration));
 			
 			TypedQuery<PdbInfoDB> query = entityManager.createQuery(criteriaQuery);
+			query.setHint(EntityManagerHandler.CACHEABLE_HINT, true);
 			PdbInfoDB pdbScoreItemDB = query.getSingleResult();
 			
 			result = PdbInfo.create(pdbScoreItemDB);
@@ -5,12 +5,15 @@ import java.util.HashMap;
 import java.util.List;
 
 import javax.persistence.EntityManager;
-import javax.persistence.Query;
+import javax.persistence.TypedQuery;
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
-import javax.persistence.criteria.Path;
+import javax.persistence.criteria.Join;
+import javax.persistence.criteria.JoinType;
 import javax.persistence.criteria.Root;
 
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -20,6 +23,8 @@ import eppic.model.InterfaceDB_;
 import eppic.model.JobDB_;
 import eppic.model.PdbInfoDB_;
 import eppic.model.ResidueBurialDB_;
+import eppic.model.ResidueInfoDB;
+import eppic.model.ResidueInfoDB_;
 import ch.systemsx.sybit.crkwebui.server.db.EntityManagerHandler;
 import ch.systemsx.sybit.crkwebui.server.db.dao.ResidueDAO;
 import ch.systemsx.sybit.crkwebui.shared.exceptions.DaoException;
@@ -32,6 +37,8 @@ import eppic.model.PdbInfoDB;
 
 /**
  * Implementation of ResidueDAO.
+ * The residues are read as projections of the needed columns (not as entities) and
+ * streamed with a scrollable result straight into the returned lists.
  * @author AS
  *
  */
@@ -39,111 +46,183 @@ public class ResidueDAOJpa implements ResidueDAO
 {
 	
 	private static final Logger logger = LoggerFactory.getLogger(ResidueDAOJpa.class);
-	
+
+	/**
+	 * Default number of rows fetched from the db at a time
+	 */
+	public static final int DEFAULT_FETCH_SIZE = 1000;
+
+	private final int fetchSize;
+
+	public ResidueDAOJpa()
+	{
+		this(DEFAULT_FETCH_SIZE);
+	}
+
+	/**
+	 * @param fetchSize number of rows fetched from the db at a time
+	 */
+	public ResidueDAOJpa(int fetchSize)
+	{
+		this.fetchSize = fetchSize;
+	}
+
+	/**
+	 * Receives the residues as they are read.
+	 */
+	private interface ResidueHandler
+	{
+		void handle(int interfaceId, Residue residue);
+	}
 	
 	@Override
 	public List<Residue> getResiduesForInterface(int interfaceUid) throws DaoException
 	{
-		EntityManager entityManager = null;
-		
-		List<Residue> result = new ArrayList<Residue>();
+		return getResiduesForInterface(interfaceUid, 0, -1);
+	}
+
+	@Override
+	public List<Residue> getResiduesForInterface(int interfaceUid, int firstResult, int maxResults) throws DaoException
+	{
+		final List<Residue> result = new ArrayList<Residue>();
 		
-		try
-		{
-			entityManager = EntityManagerHandler.getEntityManager();
-			
-			CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
-			CriteriaQuery<ResidueBurialDB> criteriaQuery = criteriaBuilder.createQuery(ResidueBurialDB.class);
-			
-			Root<ResidueBurialDB> residueRoot = criteriaQuery.from(ResidueBurialDB.class);
-			Path<InterfaceDB> interfaceItem = residueRoot.get(ResidueBurialDB_.interfaceItem);
-			criteriaQuery.where(criteriaBuilder.equal(interfaceItem.get(InterfaceDB_.uid), interfaceUid));
-			
-			Query query = entityManager.createQuery(criteriaQuery);
-			
-			@SuppressWarnings("unchecked")
-			List<ResidueBurialDB> interfaceResidueItemDBs = query.getResultList();
-			
-			for(ResidueBurialDB interfaceResidueItemDB : interfaceResidueItemDBs)
-			{
-				result.add(Residue.create(interfaceResidueItemDB));
-			}
-		}
-		catch(Throwable e)
-		{
-			e.printStackTrace();
-			throw new DaoException(e);
-		}
-		finally
-		{
-			try
-			{
-				entityManager.close();
+		readResidues(interfaceUid, null, firstResult, maxResults, new ResidueHandler() {
+			@Override
+			public void handle(int interfaceId, Residue residue) {
+				result.add(residue);
 			}
-			catch(Throwable t)
-			{
-				t.printStackTrace();
-			}
-		}
+		});
 		
 		logger.debug("Got {} residues for interface uid {}", result.size(), interfaceUid);
 		
 		return result;
 	}
+
+	@Override
+	public HashMap<Integer, List<Residue>> getResiduesForInterfaceBySide(int interfaceUid) throws DaoException
+	{
+		final HashMap<Integer, List<Residue>> structures = createStructures();
+
+		readResidues(interfaceUid, null, 0, -1, new ResidueHandler() {
+			@Override
+			public void handle(int interfaceId, Residue residue) {
+				addToSide(structures, residue);
+			}
+		});
+
+		logger.debug("Got {} + {} residues for interface uid {}", structures.get(1).size(), structures.get(2).size(), interfaceUid);
+
+		return structures;
+	}
 	
 	@Override
 	public ResiduesList getResiduesForAllInterfaces(String jobId) throws DaoException
 	{
-		EntityManager entityManager = null;
+		final ResiduesList residuesForInterfaces = new ResiduesList();
 		
-		ResiduesList residuesForInterfaces = new ResiduesList();
+		readResidues(null, jobId, 0, -1, new ResidueHandler() {
+			@Override
+			public void handle(int interfaceId, Residue residue) {
+				HashMap<Integer, List<Residue>> structures = residuesForInterfaces.get(interfaceId);
+				if(structures == null)
+				{
+					structures = createStructures();
+					residuesForInterfaces.put(interfaceId, structures);
+				}
+				addToSide(structures, residue);
+			}
+		});
+		
+		logger.debug("Got residues for {} interfaces belonging to job id {}", residuesForInterfaces.size() , jobId);
+		
+		return residuesForInterfaces;
+	}
+
+	private static HashMap<Integer, List<Residue>> createStructures()
+	{
+		HashMap<Integer, List<Residue>> structures = new HashMap<Integer, List<Residue>>();
+		structures.put(1, new ArrayList<Residue>());
+		structures.put(2, new ArrayList<Residue>());
+		return structures;
+	}
+
+	private static void addToSide(HashMap<Integer, List<Residue>> structures, Residue residue)
+	{
+		if(residue.getSide() == false)
+		{
+			structures.get(1).add(residue);
+		}
+		else
+		{
+			structures.get(2).add(residue);
+		}
+	}
+
+	/**
+	 * Reads the residues of an interface or of all the interfaces of a job, in the order of their uids.
+	 * @param interfaceUid uid of the interface, or null
+	 * @param jobId identifier of the job, used if interfaceUid is null
+	 * @param firstResult position of the first residue to read
+	 * @param maxResults maximum number of residues to read, negative for all
+	 * @param handler receives each residue as it is read
+	 * @throws DaoException when can not read the residues
+	 */
+	private void readResidues(Integer interfaceUid, String jobId, int firstResult, int maxResults, ResidueHandler handler) throws DaoException
+	{
+		EntityManager entityManager = null;
+		ScrollableResults results = null;
 		
 		try
 		{
 			entityManager = EntityManagerHandler.getEntityManager();
 			
 			CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
-			CriteriaQuery<ResidueBurialDB> criteriaQuery = criteriaBuilder.createQuery(ResidueBurialDB.class);
+			CriteriaQuery<Object[]> criteriaQuery = criteriaBuilder.createQuery(Object[].class);
 			
-			Root<ResidueBurialDB> interfaceResidueItemRoot = criteriaQuery.from(ResidueBurialDB.class);
-			Path<InterfaceDB> interfaceItem = interfaceResidueItemRoot.get(ResidueBurialDB_.interfaceItem);
-			Path<InterfaceClusterDB> interfaceClusterItem = interfaceItem.get(InterfaceDB_.interfaceCluster);
-			Path<PdbInfoDB> pdbScoreItem = interfaceClusterItem.get(InterfaceClusterDB_.pdbInfo);
-			Path<JobDB> jobItem = pdbScoreItem.get(PdbInfoDB_.job);
-			criteriaQuery.where(criteriaBuilder.equal(jobItem.get(JobDB_.jobId), jobId));
-			
-			Query query = entityManager.createQuery(criteriaQuery);
-			
-			@SuppressWarnings("unchecked")
-			List<ResidueBurialDB> interfaceResidueItemDBs = query.getResultList();
+			Root<ResidueBurialDB> residueRoot = criteriaQuery.from(ResidueBurialDB.class);
+			Join<ResidueBurialDB, InterfaceDB> interfaceItem = residueRoot.join(ResidueBurialDB_.interfaceItem);
+			Join<ResidueBurialDB, ResidueInfoDB> residueInfo = residueRoot.join(ResidueBurialDB_.residueInfo, JoinType.LEFT);
+
+			// the order of the columns is the one expected by createResidue
+			criteriaQuery.multiselect(interfaceItem.get(InterfaceDB_.interfaceId),
+									  residueRoot.get(ResidueBurialDB_.uid),
+									  residueRoot.get(ResidueBurialDB_.side),
+									  residueRoot.get(ResidueBurialDB_.asa),
+									  residueRoot.get(ResidueBurialDB_.bsa),
+									  residueRoot.get(ResidueBurialDB_.region),
+									  residueInfo.get(ResidueInfoDB_.residueNumber),
+									  residueInfo.get(ResidueInfoDB_.pdbResidueNumber),
+									  residueInfo.get(ResidueInfoDB_.residueType),
+									  residueInfo.get(ResidueInfoDB_.entropyScore));
+
+			if(interfaceUid != null)
+			{
+				criteriaQuery.where(criteriaBuilder.equal(interfaceItem.get(InterfaceDB_.uid), interfaceUid));
+			}
+			else
+			{
+				Join<InterfaceDB, InterfaceClusterDB> interfaceClusterItem = interfaceItem.join(InterfaceDB_.interfaceCluster);
+				Join<InterfaceClusterDB, PdbInfoDB> pdbScoreItem = interfaceClusterItem.join(InterfaceClusterDB_.pdbInfo);
+				Join<PdbInfoDB, JobDB> jobItem = pdbScoreItem.join(PdbInfoDB_.job);
+				criteriaQuery.where(criteriaBuilder.equal(jobItem.get(JobDB_.jobId), jobId));
+			}
+			criteriaQuery.orderBy(criteriaBuilder.asc(residueRoot.get(ResidueBurialDB_.uid)));
 			
-			for(ResidueBurialDB interfaceResidueItemDB : interfaceResidueItemDBs)
+			TypedQuery<Object[]> query = entityManager.createQuery(criteriaQuery);
+			query.setFirstResult(firstResult);
+			if(maxResults >= 0)
 			{
-				if(residuesForInterfaces.get(interfaceResidueItemDB.getInterfaceItem().getInterfaceId()) == null)
-				{
-					HashMap<Integer, List<Residue>> structures = new HashMap<Integer, List<Residue>>();
-					List<Residue> firstStructureResidues = new ArrayList<Residue>();
-					List<Residue> secondStructureResidues = new ArrayList<Residue>();
-					structures.put(1, firstStructureResidues);
-					structures.put(2, secondStructureResidues);
-					
-					residuesForInterfaces.put(new Integer(interfaceResidueItemDB.getInterfaceItem().getInterfaceId()), 
-											  structures);
-					
-					
-				}
-				
-				Residue residue = Residue.create(interfaceResidueItemDB);
-				
-				if(residue.getSide() == false)
-				{
-					residuesForInterfaces.get(interfaceResidueItemDB.getInterfaceItem().getInterfaceId()).get(1).add(residue);
-				}
-				else if(residue.getSide() == true)
-				{
-					residuesForInterfaces.get(interfaceResidueItemDB.getInterfaceItem().getInterfaceId()).get(2).add(residue);
-				}
-				
+				query.setMaxResults(maxResults);
+			}
+			query.setHint("org.hibernate.fetchSize", fetchSize);
+			query.setHint("org.hibernate.readOnly", true);
+
+			results = query.unwrap(org.hibernate.query.Query.class).scroll(ScrollMode.FORWARD_ONLY);
+
+			while(results.next())
+			{
+				Object[] row = results.get();
+				handler.handle((Integer) row[0], createResidue(row));
 			}
 		}
 		catch(Throwable e)
@@ -155,6 +234,10 @@ public class ResidueDAOJpa implements ResidueDAO
 		{
 			try
 			{
+				if(results != null)
+				{
+					results.close();
+				}
 				entityManager.close();
 			}
 			catch(Throwable t)
@@ -162,9 +245,37 @@ public class ResidueDAOJpa implements ResidueDAO
 				t.printStackTrace();
 			}
 		}
-		
-		logger.debug("Got residues for {} interfaces belonging to job id {}", residuesForInterfaces.size() , jobId);
-		
-		return residuesForInterfaces;
+	}
+
+	/**
+	 * Creates a residue from a row of the projection query.
+	 * Equivalent to {@link Residue#create(ResidueBurialDB)}.
+	 * @param row interface id, then residue burial uid, side, asa, bsa and region,
+	 * then residue info number, pdb number, type and entropy (null if there is no residue info)
+	 * @return the residue
+	 */
+	static Residue createResidue(Object[] row)
+	{
+		Residue residue = new Residue();
+
+		double asa = (Double) row[3];
+		double bsa = (Double) row[4];
+
+		residue.setUid((Integer) row[1]);
+		residue.setSide((Boolean) row[2]);
+		residue.setAsa(asa);
+		residue.setBsa(bsa);
+		residue.setBsaPercentage(bsa / asa);
+		residue.setRegion((Short) row[5]);
+
+		if(row[6] != null)
+		{
+			residue.setResidueNumber((Integer) row[6]);
+			residue.setPdbResidueNumber((String) row[7]);
+			residue.setResidueType((String) row[8]);
+			residue.setEntropyScore((Double) row[9]);
+		}
+
+		return residue;
 	}
 }
@@ -1,12 +1,17 @@
 package ch.systemsx.sybit.crkwebui.server.files.downloader.servlets;
 
 import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.zip.GZIPOutputStream;
 
 import javax.persistence.PersistenceContext;
 import javax.servlet.ServletConfig;
@@ -21,14 +26,12 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import ch.systemsx.sybit.crkwebui.server.commons.servlets.BaseServlet;
-import ch.systemsx.sybit.crkwebui.server.db.dao.DataDownloadTrackingDAO;
 import ch.systemsx.sybit.crkwebui.server.db.dao.AssemblyDAO;
 import ch.systemsx.sybit.crkwebui.server.db.dao.ChainClusterDAO;
 import ch.systemsx.sybit.crkwebui.server.db.dao.InterfaceClusterDAO;
 import ch.systemsx.sybit.crkwebui.server.db.dao.InterfaceDAO;
 import ch.systemsx.sybit.crkwebui.server.db.dao.JobDAO;
 import ch.systemsx.sybit.crkwebui.server.db.dao.PDBInfoDAO;
-import ch.systemsx.sybit.crkwebui.server.db.dao.jpa.DataDownloadTrackingDAOJpa;
 import ch.systemsx.sybit.crkwebui.server.db.dao.jpa.AssemblyDAOJpa;
 import ch.systemsx.sybit.crkwebui.server.db.dao.jpa.ChainClusterDAOJpa;
 import ch.systemsx.sybit.crkwebui.server.db.dao.jpa.InterfaceClusterDAOJpa;
@@ -38,6 +41,7 @@ import ch.systemsx.sybit.crkwebui.server.db.dao.jpa.PDBInfoDAOJpa;
 import ch.systemsx.sybit.crkwebui.server.db.data.InputWithType;
 import ch.systemsx.sybit.crkwebui.server.files.downloader.generators.JobListWithInterfacesGenerator;
 import ch.systemsx.sybit.crkwebui.server.files.downloader.validators.DataDownloadServletInputValidator;
+import ch.systemsx.sybit.crkwebui.server.ip.limiters.IPRateLimiter;
 import ch.systemsx.sybit.crkwebui.server.ip.validators.IPVerifier;
 import ch.systemsx.sybit.crkwebui.shared.exceptions.DaoException;
 import ch.systemsx.sybit.crkwebui.shared.exceptions.ValidationException;
@@ -46,9 +50,12 @@ import ch.systemsx.sybit.crkwebui.shared.model.ChainCluster;
 import ch.systemsx.sybit.crkwebui.shared.model.Interface;
 import ch.systemsx.sybit.crkwebui.shared.model.InterfaceCluster;
 import ch.systemsx.sybit.crkwebui.shared.model.PdbInfo;
+import ch.systemsx.sybit.shared.model.StatusOfJob;
 
 /**
- * Servlet used to download results in xml format
+ * Servlet used to download results in xml format.
+ * The results of each job are retrieved and written to the response one after the other,
+ * so that only one of them is kept in memory at a time.
  * @author biyani_n
  *
  */
@@ -63,6 +70,15 @@ public class DataDownloadServlet extends BaseServlet{
 	private static final long serialVersionUID = 1L;
 	
 	private static final Logger logger = LoggerFactory.getLogger(DataDownloadServlet.class);
+
+	private static final String ROOT_START_TAG = "<eppicAnalysisList>";
+	private static final String ROOT_END_TAG = "</eppicAnalysisList>";
+
+	/**
+	 * The JAXB context is thread-safe and expensive to create, so it is created once.
+	 * Marshallers are not thread-safe and are created for each response.
+	 */
+	private static JAXBContext jaxbContext;
 		
 	//Parameters
 	private int maxNumJobIds;
@@ -74,7 +90,16 @@ public class DataDownloadServlet extends BaseServlet{
 		
 		maxNumJobIds = Integer.parseInt(properties.getProperty("max_jobs_in_one_call","1"));
 		defaultNrOfAllowedSubmissionsForIP = Integer.parseInt(properties.getProperty("nr_of_allowed_submissions_for_ip","100"));
-	
+
+		// loads the downloads of the last day, so that they are not counted in the db for every request
+		IPRateLimiter.getInstance();
+	}
+
+	@Override
+	public void destroy() {
+		super.destroy();
+
+		IPRateLimiter.destroyInstance();
 	}
 
 	/**
@@ -103,13 +128,10 @@ public class DataDownloadServlet extends BaseServlet{
 										      defaultNrOfAllowedSubmissionsForIP, 
 										      true);
 			
-			List<PdbInfo> pdbList = new ArrayList<PdbInfo>();
-
-			for(String jobId: jobIdMap.keySet()){
-				pdbList.add(getResultData(jobId, jobIdMap.get(jobId), getSeqInfo));
-			}
-
-			createXMLResponse(response, pdbList);
+			// all jobs are checked before anything is written: errors can't be reported once the response is committed
+			checkJobsFinished(jobIdMap.keySet());
+			
+			createXMLResponse(request, response, jobIdMap, getSeqInfo);
 
 		}
 		catch(ValidationException e) {
@@ -122,13 +144,32 @@ public class DataDownloadServlet extends BaseServlet{
 	}
 	
 	/**
-	 * Inserts the ip to the DB
+	 * Registers the download, which is inserted to the DB asynchronously
 	 * @param ip
 	 * @throws DaoException
 	 */
 	private void addIPToDB(String ip) throws DaoException{
-		DataDownloadTrackingDAO downloadDAO = new DataDownloadTrackingDAOJpa();
-		downloadDAO.insertNewIP(ip, new Date());
+		IPRateLimiter.getInstance().registerDownload(ip, new Date());
+	}
+	
+	/**
+	 * Checks that all jobs exist and are finished, i.e. that they have results to download.
+	 * @param jobIds identifiers of the jobs
+	 * @throws ValidationException when a job does not exist or is not finished
+	 * @throws DaoException when can not retrieve the status of a job
+	 */
+	private void checkJobsFinished(Collection<String> jobIds) throws ValidationException, DaoException
+	{
+		JobDAO jobDAO = new JobDAOJpa();
+		for(String jobId: jobIds){
+			StatusOfJob status = jobDAO.getStatusForJob(jobId);
+			if(status == null){
+				throw new ValidationException("No job found for id " + jobId);
+			}
+			if(status != StatusOfJob.FINISHED){
+				throw new ValidationException("Job " + jobId + " has no results: its status is " + status.getName());
+			}
+		}
 	}
 	
 	/**
@@ -149,18 +190,15 @@ public class DataDownloadServlet extends BaseServlet{
 		InterfaceClusterDAO clusterDAO = new InterfaceClusterDAOJpa();
 		List<InterfaceCluster> clusters = clusterDAO.getInterfaceClustersWithoutInterfaces(pdbInfo.getUid());
 
+		// the interfaces of all clusters are retrieved together
+		if(interfaceIdList != null){
+			logger.debug("Interface id list requested: {}", interfaceIdList.toString());
+		}
 		InterfaceDAO interfaceDAO = new InterfaceDAOJpa();
+		Map<Integer, List<Interface>> interfacesByCluster = interfaceDAO.getInterfacesWithResiduesByCluster(pdbInfo.getUid(), interfaceIdList);
 		for(InterfaceCluster cluster: clusters){
-			logger.debug("Getting data for interface cluster uid {}", cluster.getUid());
-			List<Interface> interfaceItems;
-			if(interfaceIdList != null){
-				logger.debug("Interface id list requested: {}", interfaceIdList.toString()); 
-				interfaceItems = interfaceDAO.getInterfacesWithResidues(cluster.getUid(), interfaceIdList);
-			}
-			else{
-				interfaceItems = interfaceDAO.getInterfacesWithResidues(cluster.getUid());
-			}
-			cluster.setInterfaces(interfaceItems);
+			List<Interface> interfaceItems = interfacesByCluster.get(cluster.getUid());
+			cluster.setInterfaces(interfaceItems != null ? interfaceItems : new ArrayList<Interface>());
 		}
 
 		// now we remove interface clusters with no interfaces, which can happen when interfaceIdList is provided
@@ -197,39 +235,94 @@ public class DataDownloadServlet extends BaseServlet{
 	}
 
 	/**
-	 * converts the contents of the class to xml file
+	 * Writes the results of the jobs as xml to the response, retrieving and writing them one by one.
+	 * The response is gzipped if the client accepts it.
+	 * @param request the request, to check whether gzip is accepted
 	 * @param response to write xml file
-	 * @throws IOException 
-	 * @throws JAXBException 
+	 * @param jobIdMap interface ids to be retrieved (null for everything) by job identifier
+	 * @param getSeqInfo whether to retrieve the chain clusters
+	 * @throws IOException
+	 * @throws JAXBException
+	 * @throws DaoException when can not retrieve result of a job
 	 */
-	void createXMLResponse(HttpServletResponse response, List<PdbInfo> pdbList) throws IOException, JAXBException{
-
-		if(pdbList == null) return;
+	void createXMLResponse(HttpServletRequest request, HttpServletResponse response,
+			Map<String, List<Integer>> jobIdMap, String getSeqInfo) throws IOException, JAXBException, DaoException{
 
 		response.setContentType("text/xml");
 		response.setCharacterEncoding("UTF-8");
 
-		PrintWriter writer = response.getWriter();
+		String acceptEncoding = request.getHeader("Accept-Encoding");
+		boolean gzip = acceptEncoding != null && acceptEncoding.contains("gzip");
+
+		GZIPOutputStream gzipStream = null;
+		Writer writer;
+		if(gzip){
+			response.setHeader("Content-Encoding", "gzip");
+			gzipStream = new GZIPOutputStream(response.getOutputStream());
+			writer = new OutputStreamWriter(gzipStream, StandardCharsets.UTF_8);
+		}
+		else{
+			writer = response.getWriter();
+		}
+
+		Marshaller jaxbMarshaller = createMarshaller();
 
-		serializePdbInfoList(pdbList, writer);
+		try{
+			writer.append(ROOT_START_TAG);
 
+			for(String jobId: jobIdMap.keySet()){
+				PdbInfo pdbInfo = getResultData(jobId, jobIdMap.get(jobId), getSeqInfo);
+				jaxbMarshaller.marshal(pdbInfo, writer);
+				// the client gets each entry as soon as it is ready
+				writer.flush();
+			}
+
+			writer.append(ROOT_END_TAG);
+		}
+		finally{
+			// if a job fails half way the xml is truncated, but at least the stream is properly ended
+			try{
+				writer.flush();
+				if(gzipStream != null){
+					gzipStream.finish();
+				}
+			}
+			catch(IOException e){
+				logger.warn("Could not end the xml data download stream: {}", e.getMessage());
+			}
+		}
 	}
 
 	public void serializePdbInfoList(List<PdbInfo> pdbList, PrintWriter writer) throws JAXBException {
-	    // create JAXB context and initializing Marshaller
-	    JAXBContext jaxbContext = JAXBContext.newInstance(PdbInfo.class);
-	    Marshaller jaxbMarshaller = jaxbContext.createMarshaller();
-
-	    // for getting nice formatted output
-	    jaxbMarshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, Boolean.TRUE);
-	    jaxbMarshaller.setProperty(Marshaller.JAXB_FRAGMENT, Boolean.TRUE);
+	    Marshaller jaxbMarshaller = createMarshaller();
 
-	    // Writing to console
-	    writer.append("<eppicAnalysisList>");
+	    writer.append(ROOT_START_TAG);
 	    
 	    for(PdbInfo pdb:pdbList){
 	    	jaxbMarshaller.marshal(pdb, writer);
 	    }
-	    writer.append("</eppicAnalysisList>");
+	    writer.append(ROOT_END_TAG);
+	}
+
+	/**
+	 * Creates a marshaller of pdb info items writing formatted xml fragments
+	 * @return the marshaller
+	 * @throws JAXBException
+	 */
+	private static Marshaller createMarshaller() throws JAXBException {
+		Marshaller jaxbMarshaller = getJAXBContext().createMarshaller();
+
+		// for getting nice formatted output
+		jaxbMarshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, Boolean.TRUE);
+		jaxbMarshaller.setProperty(Marshaller.JAXB_FRAGMENT, Boolean.TRUE);
+
+		return jaxbMarshaller;
+	}
+
+	private static synchronized JAXBContext getJAXBContext() throws JAXBException {
+		if(jaxbContext == null){
+			jaxbContext = JAXBContext.newInstance(PdbInfo.class);
+		}
+		return jaxbContext;
 	}
 }
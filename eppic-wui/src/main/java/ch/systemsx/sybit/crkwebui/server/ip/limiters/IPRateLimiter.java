@@ -0,0 +1,384 @@
+package ch.systemsx.sybit.crkwebui.server.ip.limiters;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ch.systemsx.sybit.crkwebui.server.db.dao.DataDownloadTrackingDAO;
+import ch.systemsx.sybit.crkwebui.server.db.dao.IPAllowedDAO;
+import ch.systemsx.sybit.crkwebui.server.db.dao.IPForbiddenDAO;
+import ch.systemsx.sybit.crkwebui.server.db.dao.JobDAO;
+import ch.systemsx.sybit.crkwebui.server.db.dao.jpa.DataDownloadTrackingDAOJpa;
+import ch.systemsx.sybit.crkwebui.server.db.dao.jpa.IPAllowedDAOJpa;
+import ch.systemsx.sybit.crkwebui.server.db.dao.jpa.IPForbiddenDAOJpa;
+import ch.systemsx.sybit.crkwebui.server.db.dao.jpa.JobDAOJpa;
+import ch.systemsx.sybit.crkwebui.shared.exceptions.DaoException;
+
+/**
+ * Keeps in memory the information needed to limit the submissions and downloads per ip address,
+ * so that it does not have to be queried from the db for every request:
+ * the job submissions and data downloads of the last day per ip, the forbidden ips and
+ * the ips with specific numbers of allowed submissions.
+ * <p>
+ * The submissions and downloads are loaded from the db when started and are then registered
+ * as they happen. The forbidden and allowed ips are reloaded periodically, so that changes
+ * in the db are picked up. The downloads are persisted to the db asynchronously in batches.
+ */
+public class IPRateLimiter
+{
+	private static final Logger logger = LoggerFactory.getLogger(IPRateLimiter.class);
+
+	/**
+	 * Length of the window of the limits: one day
+	 */
+	public static final long WINDOW_LENGTH = 24 * 60 * 60 * 1000;
+
+	/**
+	 * Minimum number of submissions or downloads kept per ip, raised to one above the largest limit
+	 * in use (see {@link #ensureLimit(int)}) so that the counts can reach any limit
+	 */
+	public static final int MAX_EVENTS_PER_IP = 10000;
+
+	/**
+	 * Interval between reloads of the forbidden and allowed ips, in milliseconds
+	 */
+	public static final long LISTS_REFRESH_INTERVAL = 5 * 60 * 1000;
+
+	/**
+	 * Interval between writes of the registered downloads to the db, in milliseconds
+	 */
+	public static final long FLUSH_INTERVAL = 5 * 1000;
+
+	private final IPForbiddenDAO ipForbiddenDAO;
+	private final IPAllowedDAO ipAllowedDAO;
+	private final JobDAO jobDAO;
+	private final DataDownloadTrackingDAO downloadDAO;
+
+	private final SlidingWindowCounter submissions;
+	private final SlidingWindowCounter downloads;
+
+	private volatile Set<String> forbiddenIPs;
+	private volatile Map<String, Integer> nrOfAllowedSubmissionsPerIP;
+	private volatile boolean loaded;
+
+	// downloads not yet persisted, access synchronized on it
+	private Map<String, List<Date>> pendingDownloads;
+
+	private ScheduledExecutorService scheduler;
+
+	// Singleton instance
+	private static IPRateLimiter instance = null;
+
+	/**
+	 * Gets the singleton instance, creating and starting it when first requested.
+	 * @return the instance using the jpa DAOs
+	 */
+	public static synchronized IPRateLimiter getInstance()
+	{
+		if(instance == null)
+		{
+			instance = new IPRateLimiter(new IPForbiddenDAOJpa(),
+										 new IPAllowedDAOJpa(),
+										 new JobDAOJpa(),
+										 new DataDownloadTrackingDAOJpa());
+			instance.start();
+		}
+
+		return instance;
+	}
+
+	/**
+	 * Stops the singleton instance, if it was created, persisting the pending downloads.
+	 */
+	public static synchronized void destroyInstance()
+	{
+		if(instance != null)
+		{
+			instance.stop();
+			instance = null;
+		}
+	}
+
+	/**
+	 * For most situations, use {@link #getInstance()} instead.
+	 * The limiter has to be started with {@link #start()}.
+	 */
+	public IPRateLimiter(IPForbiddenDAO ipForbiddenDAO,
+						 IPAllowedDAO ipAllowedDAO,
+						 JobDAO jobDAO,
+						 DataDownloadTrackingDAO downloadDAO)
+	{
+		this.ipForbiddenDAO = ipForbiddenDAO;
+		this.ipAllowedDAO = ipAllowedDAO;
+		this.jobDAO = jobDAO;
+		this.downloadDAO = downloadDAO;
+
+		this.submissions = new SlidingWindowCounter(WINDOW_LENGTH, MAX_EVENTS_PER_IP);
+		this.downloads = new SlidingWindowCounter(WINDOW_LENGTH, MAX_EVENTS_PER_IP);
+
+		this.forbiddenIPs = Collections.emptySet();
+		this.nrOfAllowedSubmissionsPerIP = Collections.emptyMap();
+		this.loaded = false;
+
+		this.pendingDownloads = new HashMap<String, List<Date>>();
+	}
+
+	/**
+	 * Loads the data from the db and starts the periodic refresh and persistence.
+	 * If the data can not be loaded it is tried again at every refresh.
+	 */
+	public void start()
+	{
+		load();
+
+		scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "IPRateLimiter");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		scheduler.scheduleWithFixedDelay(this::refresh, LISTS_REFRESH_INTERVAL, LISTS_REFRESH_INTERVAL, TimeUnit.MILLISECONDS);
+		scheduler.scheduleWithFixedDelay(this::flushDownloads, FLUSH_INTERVAL, FLUSH_INTERVAL, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stops the periodic tasks and persists the pending downloads.
+	 */
+	public void stop()
+	{
+		if(scheduler != null)
+		{
+			scheduler.shutdown();
+
+			try
+			{
+				scheduler.awaitTermination(FLUSH_INTERVAL, TimeUnit.MILLISECONDS);
+			}
+			catch(InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		flushDownloads();
+	}
+
+	private void load()
+	{
+		try
+		{
+			refreshLists();
+
+			Map<String, List<Date>> submissionDates = jobDAO.getSubmissionDatesForIPsDuringLastDay();
+			Map<String, List<Date>> downloadDates = downloadDAO.getDownloadDatesForIPsDuringLastDay();
+
+			submissions.addAll(submissionDates);
+			downloads.addAll(downloadDates);
+
+			loaded = true;
+
+			logger.info("Loaded submissions of {} ips and downloads of {} ips during the last day, {} forbidden ips, {} ips with specific limits",
+					submissionDates.size(), downloadDates.size(), forbiddenIPs.size(), nrOfAllowedSubmissionsPerIP.size());
+		}
+		catch(DaoException e)
+		{
+			logger.error("Could not load the ip limits from the db, they will be checked in the db until loaded", e);
+		}
+	}
+
+	private void refreshLists() throws DaoException
+	{
+		Set<String> newForbiddenIPs = new HashSet<String>(ipForbiddenDAO.getForbiddenIPs());
+		Map<String, Integer> newNrOfAllowedSubmissionsPerIP = ipAllowedDAO.getNrOfAllowedSubmissionsForIPs();
+
+		for(int nrOfAllowedSubmissions : newNrOfAllowedSubmissionsPerIP.values())
+		{
+			ensureLimit(nrOfAllowedSubmissions);
+		}
+
+		forbiddenIPs = newForbiddenIPs;
+		nrOfAllowedSubmissionsPerIP = newNrOfAllowedSubmissionsPerIP;
+	}
+
+	/**
+	 * Makes sure that enough submissions and downloads are kept per ip to check the given limit.
+	 * The specific limits of the allowed ips are ensured when loaded, the default limit has to be
+	 * ensured by the caller checking it.
+	 * @param nrOfAllowedSubmissions number of allowed submissions or downloads per day
+	 */
+	public void ensureLimit(int nrOfAllowedSubmissions)
+	{
+		if(nrOfAllowedSubmissions >= submissions.getMaxEventsPerKey())
+		{
+			logger.info("Keeping up to {} submissions and downloads per ip for a limit of {}",
+					nrOfAllowedSubmissions + 1, nrOfAllowedSubmissions);
+			submissions.ensureMaxEventsPerKey(nrOfAllowedSubmissions + 1);
+			downloads.ensureMaxEventsPerKey(nrOfAllowedSubmissions + 1);
+		}
+	}
+
+	private void refresh()
+	{
+		if(!loaded)
+		{
+			load();
+			return;
+		}
+
+		try
+		{
+			refreshLists();
+		}
+		catch(DaoException e)
+		{
+			logger.warn("Could not refresh the forbidden and allowed ips, using the previous ones", e);
+		}
+
+		long now = System.currentTimeMillis();
+		submissions.removeExpired(now);
+		downloads.removeExpired(now);
+	}
+
+	/**
+	 * Writes the registered downloads to the db.
+	 */
+	public void flushDownloads()
+	{
+		Map<String, List<Date>> toPersist;
+
+		synchronized(pendingDownloads)
+		{
+			if(pendingDownloads.isEmpty())
+			{
+				return;
+			}
+
+			toPersist = pendingDownloads;
+			pendingDownloads = new HashMap<String, List<Date>>();
+		}
+
+		try
+		{
+			downloadDAO.insertNewIPs(toPersist);
+		}
+		catch(DaoException e)
+		{
+			// they are still counted in memory, they would only be missing after a restart
+			logger.error("Could not persist downloads of {} ips", toPersist.size(), e);
+		}
+		catch(RuntimeException e)
+		{
+			logger.error("Could not persist downloads of {} ips", toPersist.size(), e);
+		}
+	}
+
+	/**
+	 * Retrieves information whether the data was loaded from the db. Until then, the limits
+	 * should be checked in the db.
+	 * @return true if the data is in memory
+	 */
+	public boolean isLoaded()
+	{
+		return loaded;
+	}
+
+	/**
+	 * Registers a job submission. The job itself is persisted by the caller.
+	 * Until the data is loaded, submissions are only counted in the db.
+	 * @param ip ip address
+	 * @param submissionDate submission date
+	 */
+	public void registerSubmission(String ip, Date submissionDate)
+	{
+		if(loaded)
+		{
+			submissions.add(ip, submissionDate.getTime());
+		}
+	}
+
+	/**
+	 * Registers a data download, which is persisted to the db asynchronously.
+	 * Until the data is loaded, downloads are persisted straight away, as they are counted in the db.
+	 * @param ip ip address
+	 * @param downloadDate download date
+	 * @throws DaoException when the download can not be persisted before the data is loaded
+	 */
+	public void registerDownload(String ip, Date downloadDate) throws DaoException
+	{
+		if(!loaded)
+		{
+			downloadDAO.insertNewIP(ip, downloadDate);
+			return;
+		}
+
+		downloads.add(ip, downloadDate.getTime());
+
+		synchronized(pendingDownloads)
+		{
+			if(!pendingDownloads.containsKey(ip))
+			{
+				pendingDownloads.put(ip, new ArrayList<Date>());
+			}
+			pendingDownloads.get(ip).add(downloadDate);
+		}
+	}
+
+	/**
+	 * Retrieves information whether user with specified ip address can not submit job.
+	 * @param ip ip address
+	 * @return true if the ip is forbidden
+	 */
+	public boolean isIPForbidden(String ip)
+	{
+		return forbiddenIPs.contains(ip);
+	}
+
+	/**
+	 * Retrieves number of allowed submissions for specified ip.
+	 * @param ip ip address
+	 * @return number of allowed submissions, 0 if there is no specific limit for the ip
+	 */
+	public int getNrOfAllowedSubmissionsForIP(String ip)
+	{
+		Integer nrOfAllowedSubmissions = nrOfAllowedSubmissionsPerIP.get(ip);
+		return nrOfAllowedSubmissions != null ? nrOfAllowedSubmissions : 0;
+	}
+
+	/**
+	 * Retrieves number of job submissions or data downloads for specified ip address during last day.
+	 * @param ip ip address
+	 * @param fromDownloads true for downloads, false for job submissions
+	 * @return number of submissions or downloads
+	 */
+	public long getNrOfSubmissionsForIPDuringLastDay(String ip, boolean fromDownloads)
+	{
+		return getCounter(fromDownloads).getCount(ip, System.currentTimeMillis());
+	}
+
+	/**
+	 * Retrieves oldest job submission or data download date during the last day for specified ip address.
+	 * @param ip ip address
+	 * @param fromDownloads true for downloads, false for job submissions
+	 * @return oldest date, or one day ago if there are none
+	 */
+	public Date getOldestSubmissionDateDuringLastDay(String ip, boolean fromDownloads)
+	{
+		return new Date(getCounter(fromDownloads).getOldest(ip, System.currentTimeMillis()));
+	}
+
+	private SlidingWindowCounter getCounter(boolean fromDownloads)
+	{
+		return fromDownloads ? downloads : submissions;
+	}
+}
@@ -0,0 +1,195 @@
+package ch.systemsx.sybit.crkwebui.server.ip.limiters;
+
+import java.util.ArrayDeque;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Thread-safe counter of events per key (e.g. submissions per ip address) over a sliding time window.
+ * The times of the events in the window are kept, so that the counts are exact.
+ */
+public class SlidingWindowCounter
+{
+	private final long windowLength;
+	private volatile int maxEventsPerKey;
+
+	// mutations of the deques are done within compute, so that empty deques can be removed safely;
+	// reads are synchronized on the deques
+	private final ConcurrentHashMap<String, ArrayDeque<Long>> events;
+
+	/**
+	 * Creates a counter.
+	 * @param windowLength length of the window in milliseconds
+	 * @param maxEventsPerKey maximum number of events kept per key, the oldest are dropped beyond it
+	 */
+	public SlidingWindowCounter(long windowLength, int maxEventsPerKey)
+	{
+		this.windowLength = windowLength;
+		this.maxEventsPerKey = maxEventsPerKey;
+		this.events = new ConcurrentHashMap<String, ArrayDeque<Long>>();
+	}
+
+	/**
+	 * Raises the maximum number of events kept per key to the given one, if it is lower.
+	 * Events already dropped are not recovered.
+	 * @param maxEventsPerKey maximum number of events kept per key
+	 */
+	public synchronized void ensureMaxEventsPerKey(int maxEventsPerKey)
+	{
+		if(maxEventsPerKey > this.maxEventsPerKey)
+		{
+			this.maxEventsPerKey = maxEventsPerKey;
+		}
+	}
+
+	/**
+	 * Retrieves the maximum number of events kept per key.
+	 * @return maximum number of events kept per key
+	 */
+	public int getMaxEventsPerKey()
+	{
+		return maxEventsPerKey;
+	}
+
+	/**
+	 * Adds an event.
+	 * @param key key of the event
+	 * @param time time of the event in milliseconds
+	 */
+	public void add(String key, long time)
+	{
+		events.compute(key, (k, deque) -> {
+			if(deque == null)
+			{
+				deque = new ArrayDeque<Long>();
+			}
+			synchronized(deque)
+			{
+				deque.addLast(time);
+				if(deque.size() > maxEventsPerKey)
+				{
+					deque.removeFirst();
+				}
+			}
+			return deque;
+		});
+	}
+
+	/**
+	 * Adds the events of many keys, e.g. to initialise the counter from the data storage.
+	 * @param timesByKey times of the events by key, in ascending order
+	 */
+	public void addAll(Map<String, List<Date>> timesByKey)
+	{
+		for(Map.Entry<String, List<Date>> entry : timesByKey.entrySet())
+		{
+			for(Date date : entry.getValue())
+			{
+				add(entry.getKey(), date.getTime());
+			}
+		}
+	}
+
+	/**
+	 * Retrieves number of events of the key in the window ending at the given time.
+	 * @param key key of the events
+	 * @param now end of the window in milliseconds
+	 * @return number of events in the window
+	 */
+	public int getCount(String key, long now)
+	{
+		ArrayDeque<Long> deque = events.get(key);
+
+		if(deque == null)
+		{
+			return 0;
+		}
+
+		long start = now - windowLength;
+		int count = 0;
+
+		synchronized(deque)
+		{
+			for(long time : deque)
+			{
+				if(time > start)
+				{
+					count++;
+				}
+			}
+		}
+
+		return count;
+	}
+
+	/**
+	 * Retrieves time of the oldest event of the key in the window ending at the given time.
+	 * @param key key of the events
+	 * @param now end of the window in milliseconds
+	 * @return time of the oldest event in the window, or start of the window if there are none
+	 */
+	public long getOldest(String key, long now)
+	{
+		long start = now - windowLength;
+		ArrayDeque<Long> deque = events.get(key);
+
+		if(deque == null)
+		{
+			return start;
+		}
+
+		long oldest = Long.MAX_VALUE;
+
+		synchronized(deque)
+		{
+			for(long time : deque)
+			{
+				if(time > start && time < oldest)
+				{
+					oldest = time;
+				}
+			}
+		}
+
+		return oldest == Long.MAX_VALUE ? start : oldest;
+	}
+
+	/**
+	 * Forgets the events out of the window ending at the given time, removing the keys with no events.
+	 * @param now end of the window in milliseconds
+	 */
+	public void removeExpired(long now)
+	{
+		long start = now - windowLength;
+
+		for(String key : events.keySet())
+		{
+			events.computeIfPresent(key, (k, deque) -> {
+				synchronized(deque)
+				{
+					deque.removeIf(time -> time <= start);
+					return deque.isEmpty() ? null : deque;
+				}
+			});
+		}
+	}
+
+	/**
+	 * Retrieves number of keys with events.
+	 * @return number of keys
+	 */
+	public int size()
+	{
+		return events.size();
+	}
+
+	/**
+	 * Forgets all events.
+	 */
+	public void clear()
+	{
+		events.clear();
+	}
+}
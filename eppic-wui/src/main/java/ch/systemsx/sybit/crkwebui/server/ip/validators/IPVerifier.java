@@ -15,11 +15,13 @@ import ch.systemsx.sybit.crkwebui.server.db.dao.jpa.DataDownloadTrackingDAOJpa;
 import ch.systemsx.sybit.crkwebui.server.db.dao.jpa.IPAllowedDAOJpa;
 import ch.systemsx.sybit.crkwebui.server.db.dao.jpa.IPForbiddenDAOJpa;
 import ch.systemsx.sybit.crkwebui.server.db.dao.jpa.JobDAOJpa;
+import ch.systemsx.sybit.crkwebui.server.ip.limiters.IPRateLimiter;
 import ch.systemsx.sybit.crkwebui.shared.exceptions.DaoException;
 import ch.systemsx.sybit.crkwebui.shared.exceptions.ValidationException;
 
 /**
  * This class is used to verify whether job can be submitted from specified IP. 
+ * The limits are checked in memory with {@link IPRateLimiter}, or in the db while it is not loaded.
  * @author AS
  */
 public class IPVerifier 
@@ -52,8 +54,19 @@ public class IPVerifier
 											  int defaultNrOfAllowedSubmissionsForIP,
 											  boolean verifyFromDownloads) throws ValidationException, DaoException
 	{
-		IPForbiddenDAO ipForbiddenDAO = new IPForbiddenDAOJpa();
-		boolean isIpForbidden = ipForbiddenDAO.isIPForbidden(ip);
+		IPRateLimiter rateLimiter = IPRateLimiter.getInstance();
+		boolean useDB = !rateLimiter.isLoaded();
+
+		boolean isIpForbidden;
+		if(useDB)
+		{
+			IPForbiddenDAO ipForbiddenDAO = new IPForbiddenDAOJpa();
+			isIpForbidden = ipForbiddenDAO.isIPForbidden(ip);
+		}
+		else
+		{
+			isIpForbidden = rateLimiter.isIPForbidden(ip);
+		}
 		
 		if(isIpForbidden)
 		{
@@ -61,9 +74,16 @@ public class IPVerifier
 		}
 		else
 		{
-			IPAllowedDAO ipAllowedDAO = new IPAllowedDAOJpa();
-			
-			int nrOfAllowedSubmissionsForIPDuringOneDay  = ipAllowedDAO.getNrOfAllowedSubmissionsForIP(ip);
+			int nrOfAllowedSubmissionsForIPDuringOneDay;
+			if(useDB)
+			{
+				IPAllowedDAO ipAllowedDAO = new IPAllowedDAOJpa();
+				nrOfAllowedSubmissionsForIPDuringOneDay = ipAllowedDAO.getNrOfAllowedSubmissionsForIP(ip);
+			}
+			else
+			{
+				nrOfAllowedSubmissionsForIPDuringOneDay = rateLimiter.getNrOfAllowedSubmissionsForIP(ip);
+			}
 			
 			if(nrOfAllowedSubmissionsForIPDuringOneDay <= 0)
 			{
@@ -72,7 +92,12 @@ public class IPVerifier
 			
 			long nrOfJobsForIPDuringLastDay;
 			Date date;
-			if(!verifyFromDownloads){
+			if(!useDB){
+				rateLimiter.ensureLimit(nrOfAllowedSubmissionsForIPDuringOneDay);
+				nrOfJobsForIPDuringLastDay = rateLimiter.getNrOfSubmissionsForIPDuringLastDay(ip, verifyFromDownloads);
+				date = rateLimiter.getOldestSubmissionDateDuringLastDay(ip, verifyFromDownloads);
+			}
+			else if(!verifyFromDownloads){
 				JobDAO jobDAO = new JobDAOJpa();
 				nrOfJobsForIPDuringLastDay = jobDAO.getNrOfJobsForIPDuringLastDay(ip);
 				date = jobDAO.getOldestJobSubmissionDateDuringLastDay(ip);
@@ -61,7 +61,7 @@ public class AssemblyDiagramPageGenerator {
 		String jsonFilename = getJsonFilename(directory, inputName, requestedIfaces);
 		Callable<String> computeJson = () -> {
 
-			Structure auStruct = LatticeGraphPageGenerator.readStructure(auFile);
+			Structure auStruct = StructureCache.getInstance().getStructure(auFile);
 
 			LatticeGUIMustache gui = LatticeGUIMustache.createLatticeGUIMustache(LatticeGUIMustache.TEMPLATE_ASSEMBLY_DIAGRAM_JSON, auStruct, requestedIfaces);
 
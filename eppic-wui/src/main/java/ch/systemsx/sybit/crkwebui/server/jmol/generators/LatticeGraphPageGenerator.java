@@ -123,7 +123,7 @@ public class LatticeGraphPageGenerator {
 
 			// Read input structure
 
-			Structure struc = readStructure(strucFile);
+			Structure struc = StructureCache.getInstance().getStructure(strucFile);
 
 			// Read spacegroup
 			//PDBCrystallographicInfo crystInfo = struc
@@ -0,0 +1,316 @@
+package ch.systemsx.sybit.crkwebui.server.jmol.generators;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.biojava.nbio.structure.Structure;
+import org.biojava.nbio.structure.StructureException;
+import org.biojava.nbio.structure.StructureTools;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Thread-safe cache of parsed structures, shared by the page generators so that
+ * the same structure file is not parsed again for every lattice graph or assembly
+ * diagram requested on it.
+ *
+ * <p>Entries are keyed by the file path and are reparsed if the file's modification
+ * time or length change. Concurrent requests for a file being parsed wait for that
+ * parsing. The most recently used structures are kept in memory up to a maximum total
+ * number of atoms; beyond that they are only softly referenced, so that they can
+ * still be reused until the garbage collector needs the memory.
+ *
+ * <p>The cached structures are never handed out: callers get a copy
+ * (see {@link Structure#clone()}), which they are free to modify.
+ */
+public class StructureCache {
+	private static final Logger logger = LoggerFactory.getLogger(StructureCache.class);
+
+	/**
+	 * Default maximum total number of atoms of the structures kept in memory
+	 */
+	public static final long DEFAULT_MAX_ATOMS = 1000000;
+
+	/**
+	 * Statistics are logged every this many requests
+	 */
+	private static final int LOG_STATS_EVERY = 100;
+
+	/**
+	 * A parsed (or being parsed) structure file.
+	 * The future completes with a soft reference to the structure.
+	 */
+	private static class CacheEntry {
+		private final long lastModified;
+		private final long length;
+		private final CompletableFuture<SoftReference<Structure>> structure;
+
+		public CacheEntry(File file) {
+			this.lastModified = file.lastModified();
+			this.length = file.length();
+			this.structure = new CompletableFuture<>();
+		}
+
+		/**
+		 * @param file
+		 * @return whether this entry can still be used for the given file
+		 */
+		public boolean isValid(File file) {
+			if( lastModified != file.lastModified() || length != file.length() ) {
+				return false;
+			}
+			if( !structure.isDone() ) {
+				return true;
+			}
+			return !structure.isCompletedExceptionally() && structure.getNow(null).get() != null;
+		}
+	}
+
+	private final Map<String, CacheEntry> entries;
+	// strong references to the most recently used structures, with their number of atoms.
+	// Access to it and to atoms is synchronized on recent
+	private final LinkedHashMap<String, Structure> recent;
+	private long atoms;
+	private volatile long maxAtoms;
+
+	// statistics
+	private final AtomicLong hits;
+	private final AtomicLong misses;
+	private final AtomicLong collected;
+	private final AtomicLong parseTime;
+
+	/**
+	 * For most situations, use {@link #getInstance()} instead
+	 */
+	public StructureCache() {
+		entries = new ConcurrentHashMap<>();
+		recent = new LinkedHashMap<>(16, 0.75f, true);
+		atoms = 0;
+		maxAtoms = DEFAULT_MAX_ATOMS;
+		hits = new AtomicLong(0);
+		misses = new AtomicLong(0);
+		collected = new AtomicLong(0);
+		parseTime = new AtomicLong(0);
+	}
+
+	// Singleton instance
+	private static StructureCache instance = null;
+	/**
+	 * Get the singleton instance
+	 * @return
+	 */
+	public static synchronized StructureCache getInstance() {
+		if(instance == null) {
+			instance = new StructureCache();
+		}
+		return instance;
+	}
+
+	/**
+	 * Gets a copy of the structure in the given file, parsing it only if not cached.
+	 * @param file the structure file (can be cif or pdb and gzipped or not)
+	 * @return the parsed Structure
+	 * @throws IOException For errors reading the file
+	 * @throws StructureException For errors parsing the structure
+	 * @see LatticeGraphPageGenerator#readStructure(File)
+	 */
+	public Structure getStructure(File file) throws IOException, StructureException {
+		String path = file.getAbsolutePath();
+		while(true) {
+			boolean[] created = new boolean[] {false};
+			CacheEntry entry = entries.compute(path, (p, old) -> {
+				if( old != null && old.isValid(file) ) {
+					return old;
+				}
+				created[0] = true;
+				return new CacheEntry(file);
+			});
+
+			if( created[0] ) {
+				misses.incrementAndGet();
+				parse(path, file, entry);
+			} else {
+				hits.incrementAndGet();
+			}
+
+			Structure struc = get(path, entry);
+			if( struc != null ) {
+				logStats();
+				return struc.clone();
+			}
+			// reclaimed by the garbage collector between the lookup and now: parse again
+			collected.incrementAndGet();
+			entries.remove(path, entry);
+		}
+	}
+
+	private void parse(String path, File file, CacheEntry entry) {
+		long start = System.nanoTime();
+		try {
+			Structure struc = LatticeGraphPageGenerator.readStructure(file);
+			parseTime.addAndGet(System.nanoTime() - start);
+			keep(path, struc);
+			entry.structure.complete(new SoftReference<>(struc));
+		} catch (IOException|StructureException|RuntimeException e) {
+			// not cached, so that it is parsed again in the next request
+			entries.remove(path, entry);
+			entry.structure.completeExceptionally(e);
+		}
+	}
+
+	private Structure get(String path, CacheEntry entry) throws IOException, StructureException {
+		SoftReference<Structure> ref;
+		try {
+			ref = entry.structure.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for structure "+path, e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if( cause instanceof IOException ) {
+				throw (IOException) cause;
+			} else if( cause instanceof StructureException ) {
+				throw (StructureException) cause;
+			} else if( cause instanceof RuntimeException ) {
+				throw (RuntimeException) cause;
+			}
+			throw new IOException(cause);
+		}
+		Structure struc = ref.get();
+		if( struc != null ) {
+			synchronized(recent) {
+				if( recent.get(path) == null ) { // also marks it as recently used
+					// brought back from the soft references
+					recent.put(path, struc);
+					atoms += StructureTools.getNrAtoms(struc);
+					removeExpired();
+				}
+			}
+		}
+		return struc;
+	}
+
+	/**
+	 * Keeps a strong reference to the given structure, replacing any previous one for the path
+	 */
+	private void keep(String path, Structure struc) {
+		synchronized(recent) {
+			Structure old = recent.put(path, struc);
+			if( old != null ) {
+				atoms -= StructureTools.getNrAtoms(old);
+			}
+			atoms += StructureTools.getNrAtoms(struc);
+			removeExpired();
+		}
+	}
+
+	/**
+	 * Drops the strong references to the least recently used structures while over maxAtoms.
+	 * The most recent is always kept. Must be called while synchronized on recent
+	 */
+	private void removeExpired() {
+		Iterator<Structure> it = recent.values().iterator();
+		while( atoms > maxAtoms && recent.size() > 1 && it.hasNext() ) {
+			Structure struc = it.next();
+			atoms -= StructureTools.getNrAtoms(struc);
+			it.remove();
+		}
+	}
+
+	private void logStats() {
+		if( (getHits() + getMisses()) % LOG_STATS_EVERY == 0 ) {
+			logger.info("Structure cache: {}", getStats());
+		} else {
+			logger.debug("Structure cache: {}", getStats());
+		}
+	}
+
+	/**
+	 * Get the maximum total number of atoms of the structures strongly kept in memory
+	 * @return
+	 */
+	public long getMaxAtoms() {
+		return maxAtoms;
+	}
+
+	/**
+	 * Set the maximum total number of atoms of the structures strongly kept in memory.
+	 * Less recently used structures are kept only until the memory is needed.
+	 * Default {@value #DEFAULT_MAX_ATOMS}
+	 * @param maxAtoms
+	 */
+	public void setMaxAtoms(long maxAtoms) {
+		this.maxAtoms = maxAtoms;
+		synchronized(recent) {
+			removeExpired();
+		}
+	}
+
+	/**
+	 * @return The total number of atoms of the structures strongly kept in memory
+	 */
+	public long getAtoms() {
+		synchronized(recent) {
+			return atoms;
+		}
+	}
+
+	/**
+	 * @return The number of requests served from the cache (or waiting for an ongoing parsing)
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * @return The number of requests that needed parsing the file
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * @return The number of cached structures found to be reclaimed by the garbage collector
+	 */
+	public long getCollected() {
+		return collected.get();
+	}
+
+	/**
+	 * @return The total time in milliseconds spent parsing
+	 */
+	public long getParseTime() {
+		return parseTime.get() / 1000000;
+	}
+
+	/**
+	 * @return A summary of the cache statistics
+	 */
+	public String getStats() {
+		int strong;
+		synchronized(recent) {
+			strong = recent.size();
+		}
+		return String.format("%d files (%d in memory with %d atoms), %d hits, %d misses (%d ms parsing), %d collected",
+				entries.size(), strong, getAtoms(), getHits(), getMisses(), getParseTime(), getCollected());
+	}
+
+	/**
+	 * Removes all structures from the cache
+	 */
+	public void clear() {
+		entries.clear();
+		synchronized(recent) {
+			recent.clear();
+			atoms = 0;
+		}
+	}
+}
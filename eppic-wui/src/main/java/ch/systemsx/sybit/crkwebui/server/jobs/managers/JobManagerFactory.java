@@ -7,6 +7,7 @@ import org.slf4j.LoggerFactory;
 
 import ch.systemsx.sybit.crkwebui.server.jobs.managers.commons.JobManager;
 import ch.systemsx.sybit.crkwebui.server.jobs.managers.drmaa.DrmaaJobManager;
+import ch.systemsx.sybit.crkwebui.server.jobs.managers.local.LocalJobManager;
 import ch.systemsx.sybit.crkwebui.shared.exceptions.JobManagerException;
 
 /**
@@ -18,7 +19,7 @@ public class JobManagerFactory
 	private static final Logger LOGGER = LoggerFactory.getLogger(JobManagerFactory.class);
 	/**
 	 * Retrieves instance of job manager by name.
-	 * @param queuingSystemName name of the queuing system
+	 * @param queuingSystemName name of the queuing system: sge, or local to run the jobs in worker processes in this machine
 	 * @param queuingSystemProperties native specification properties for queuing system
 	 * @param jobsDirectory directory where results of the job are stored
 	 * @return job manager instance
@@ -40,6 +41,11 @@ public class JobManagerFactory
 												 queuingSystemProperties,
 												 jobsDirectory);
 			}
+			else if(queuingSystemName.equals("local"))
+			{
+				LOGGER.info("Initialising LocalJobManager with jobsDirectory {}", jobsDirectory);
+				jobManager = new LocalJobManager(queuingSystemProperties, jobsDirectory);
+			}
 		}
 
 		return jobManager;
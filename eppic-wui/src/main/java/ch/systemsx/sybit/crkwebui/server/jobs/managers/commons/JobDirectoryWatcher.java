@@ -0,0 +1,186 @@
+package ch.systemsx.sybit.crkwebui.server.jobs.managers.commons;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ch.systemsx.sybit.crkwebui.server.CrkWebServiceImpl;
+
+/**
+ * Watches the job directories for the files that signal a change of status of the jobs:
+ * the finished and killed files and the steps log written by the CLI.
+ * The base directory is also watched, to be notified of new user jobs.
+ * <p>
+ * Notifications are not guaranteed (e.g. for files written by other hosts in network
+ * file systems), so they should only be used to detect changes earlier than by polling.
+ * Not thread-safe, it is meant to be used by a single daemon thread.
+ */
+public class JobDirectoryWatcher
+{
+	private static final Logger logger = LoggerFactory.getLogger(JobDirectoryWatcher.class);
+
+	private WatchService watchService;
+	private WatchKey baseDirectoryKey;
+	private Map<WatchKey, String> jobIdsByKey;
+	private Map<String, WatchKey> keysByJobId;
+
+	/**
+	 * Creates a watcher of the jobs directories.
+	 * @param baseDirectory directory where the jobs directories are created
+	 * @throws IOException when the watch service can not be created
+	 */
+	public JobDirectoryWatcher(File baseDirectory) throws IOException
+	{
+		this.watchService = FileSystems.getDefault().newWatchService();
+		this.jobIdsByKey = new HashMap<WatchKey, String>();
+		this.keysByJobId = new HashMap<String, WatchKey>();
+
+		try
+		{
+			baseDirectoryKey = baseDirectory.toPath().register(watchService, StandardWatchEventKinds.ENTRY_CREATE);
+		}
+		catch(IOException e)
+		{
+			logger.warn("Can not watch jobs directory {}: {}", baseDirectory, e.getMessage());
+		}
+	}
+
+	/**
+	 * Starts watching the directory of the job, if not already watched.
+	 * @param jobId identifier of the job
+	 * @param jobDirectory directory of the job
+	 */
+	public void watch(String jobId, File jobDirectory)
+	{
+		if(keysByJobId.containsKey(jobId) || !jobDirectory.isDirectory())
+		{
+			return;
+		}
+
+		try
+		{
+			WatchKey key = jobDirectory.toPath().register(watchService,
+														  StandardWatchEventKinds.ENTRY_CREATE,
+														  StandardWatchEventKinds.ENTRY_MODIFY);
+			jobIdsByKey.put(key, jobId);
+			keysByJobId.put(jobId, key);
+		}
+		catch(IOException e)
+		{
+			logger.warn("Can not watch directory {} of job {}: {}", jobDirectory, jobId, e.getMessage());
+		}
+	}
+
+	/**
+	 * Stops watching the directory of the job.
+	 * @param jobId identifier of the job
+	 */
+	public void unwatch(String jobId)
+	{
+		WatchKey key = keysByJobId.remove(jobId);
+
+		if(key != null)
+		{
+			key.cancel();
+			jobIdsByKey.remove(key);
+		}
+	}
+
+	/**
+	 * Retrieves identifiers of the jobs watched.
+	 * @return identifiers of the jobs whose directories are watched
+	 */
+	public Set<String> getWatchedJobs()
+	{
+		return keysByJobId.keySet();
+	}
+
+	/**
+	 * Waits for changes in the jobs directories.
+	 * @param timeout maximum time to wait in milliseconds
+	 * @return identifiers of the jobs with changes, including new jobs directories;
+	 * empty if there were no changes before the timeout
+	 * @throws InterruptedException when interrupted while waiting
+	 * @throws ClosedWatchServiceException when the watcher was closed
+	 */
+	public Set<String> awaitChanges(long timeout) throws InterruptedException
+	{
+		Set<String> changedJobs = new HashSet<String>();
+
+		WatchKey key = watchService.poll(Math.max(timeout, 0), TimeUnit.MILLISECONDS);
+
+		while(key != null)
+		{
+			for(WatchEvent<?> event : key.pollEvents())
+			{
+				if(event.kind() == StandardWatchEventKinds.OVERFLOW)
+				{
+					// events were lost: all jobs may have changed
+					changedJobs.addAll(keysByJobId.keySet());
+					continue;
+				}
+
+				String fileName = ((Path) event.context()).getFileName().toString();
+
+				if(key == baseDirectoryKey)
+				{
+					// the directory of a new user job
+					changedJobs.add(fileName);
+				}
+				else if(jobIdsByKey.containsKey(key) && isStatusFile(fileName))
+				{
+					changedJobs.add(jobIdsByKey.get(key));
+				}
+			}
+
+			if(!key.reset() && jobIdsByKey.containsKey(key))
+			{
+				// the directory is not accessible anymore
+				String jobId = jobIdsByKey.remove(key);
+				keysByJobId.remove(jobId);
+				changedJobs.add(jobId);
+			}
+
+			// collect anything else already signalled, without waiting
+			key = watchService.poll();
+		}
+
+		return changedJobs;
+	}
+
+	private static boolean isStatusFile(String fileName)
+	{
+		return fileName.equals(CrkWebServiceImpl.FINISHED_FILE_NAME) ||
+			   fileName.equals(CrkWebServiceImpl.KILLED_FILE_NAME) ||
+			   fileName.endsWith(CrkWebServiceImpl.STEPS_FILE_NAME_SUFFIX);
+	}
+
+	/**
+	 * Stops watching, waking up any thread waiting for changes.
+	 */
+	public void close()
+	{
+		try
+		{
+			watchService.close();
+		}
+		catch(IOException e)
+		{
+			logger.warn("Error closing jobs directory watcher", e);
+		}
+	}
+}
@@ -1,12 +1,17 @@
 package ch.systemsx.sybit.crkwebui.server.jobs.managers.commons;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.ObjectInputStream;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
-//import org.slf4j.Logger;
-//import org.slf4j.LoggerFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import ch.systemsx.sybit.crkwebui.server.CrkWebServiceImpl;
 import ch.systemsx.sybit.crkwebui.server.commons.util.io.DirLocatorUtil;
@@ -21,24 +26,42 @@ import ch.systemsx.sybit.crkwebui.shared.exceptions.DaoException;
 import ch.systemsx.sybit.crkwebui.shared.exceptions.DeserializationException;
 import ch.systemsx.sybit.crkwebui.shared.exceptions.JobHandlerException;
 import ch.systemsx.sybit.shared.model.StatusOfJob;
+import eppic.DataModelSerializer;
 import eppic.model.PdbInfoDB;
 
 /**
  * Daemon used to update status of submitted jobs.
+ * The job directories are watched for the files written when the jobs progress or finish, so that
+ * the status of those jobs is checked right away. Jobs without changes are checked with increasing
+ * intervals, from POLLING_INTERVAL to MAX_POLLING_INTERVAL.
+ * The status changes found in each cycle are saved in one transaction.
  * @author AS
  *
  */
 public class JobStatusUpdater implements Runnable
 {
-	//private static final Logger logger = LoggerFactory.getLogger(JobStatusUpdater.class);
+	private static final Logger logger = LoggerFactory.getLogger(JobStatusUpdater.class);
 	
 	/**
-	 * The polling interval in milliseconds
+	 * The polling interval in milliseconds, for jobs whose status just changed
 	 */
 	public static final int POLLING_INTERVAL = 2000;
 	
+	/**
+	 * The maximum polling interval in milliseconds, for jobs whose status didn't change for a while
+	 */
+	public static final int MAX_POLLING_INTERVAL = 60000;
+	
+	/**
+	 * The maximum time in milliseconds between reads of the list of unfinished jobs, to find new jobs
+	 */
+	public static final int DISCOVERY_INTERVAL = 10000;
+	
 	private volatile boolean running;
 	private volatile boolean isUpdating;
+	private volatile JobDirectoryWatcher watcher;
+	private Map<String, Long> pollingIntervals;
+	private Map<String, Long> nextChecks;
 	private JobManager jobManager;
 	private JobDAO jobDAO;
 	private String resultsPathUrl;
@@ -60,11 +83,24 @@ public class JobStatusUpdater implements Runnable
 		this.emailSender = emailSender;
 		this.emailMessageData = emailMessageData;
 		this.generalDestinationDirectoryName = generalDestinationDirectoryName;
+		this.pollingIntervals = new HashMap<String, Long>();
+		this.nextChecks = new HashMap<String, Long>();
 	}
 
 	@Override
 	public void run()
 	{
+		try
+		{
+			watcher = new JobDirectoryWatcher(new File(generalDestinationDirectoryName));
+		}
+		catch (IOException e)
+		{
+			logger.warn("Can not watch job directories, statuses of jobs will only be polled: {}", e.getMessage());
+		}
+
+		Set<String> changedJobs = new HashSet<String>();
+
 		while(running)
 		{
 			isUpdating = true;
@@ -73,64 +109,180 @@ public class JobStatusUpdater implements Runnable
 			{
 				List<JobStatusDetails> unfinishedJobs = jobDAO.getListOfUnfinishedJobs();
 
-				for(JobStatusDetails unfinishedJob : unfinishedJobs)
+				updateStatuses(unfinishedJobs, changedJobs);
+
+				isUpdating = false;
+
+				changedJobs = awaitChanges(getTimeToNextCheck());
+			}
+			catch (ClosedWatchServiceException e)
+			{
+				// stopped
+				break;
+			}
+			catch (Throwable t)
+			{
+				t.printStackTrace();
+
+				isUpdating = false;
+
+				try
 				{
-					try
-					{
-						StatusOfJob savedStatus = StatusOfJob.getByName(unfinishedJob.getStatus());
-
-						StatusOfJob currentStatus = jobManager.getStatusOfJob(unfinishedJob.getJobId(), unfinishedJob.getSubmissionId());
-
-						if(savedStatus != currentStatus)
-						{
-							File logFileDirectory = DirLocatorUtil.getJobDir(new File(generalDestinationDirectoryName), unfinishedJob.getJobId());
-							File logFile = new File(logFileDirectory, CrkWebServiceImpl.PROGRESS_LOG_FILE_NAME);
-
-							if(currentStatus == StatusOfJob.FINISHED)
-							{
-								handleJobFinishedSuccessfully(unfinishedJob, logFile);
-							}
-							else if(currentStatus == StatusOfJob.ERROR)
-							{
-								handleJobFinishedWithError(unfinishedJob);
-							}
-							else if(currentStatus == StatusOfJob.RUNNING)
-							{
-								handleRunningJob(unfinishedJob.getJobId());
-							}
-							else if(currentStatus == StatusOfJob.WAITING)
-							{
-								handleWaitingJob(unfinishedJob.getJobId());
-							}
-							else if(currentStatus == StatusOfJob.STOPPED)
-							{
-								handleStoppedJob(unfinishedJob.getJobId());
-							}
-						}
-					}
-					catch(DeserializationException e)
+					Thread.sleep(POLLING_INTERVAL);
+				}
+				catch (InterruptedException e)
+				{
+					break;
+				}
+			}
+			
+			isUpdating = false;
+		}
+	}
+
+	/**
+	 * Checks the status of the jobs that changed or that are due to be polled, and saves the changes.
+	 * @param unfinishedJobs the jobs not finished yet
+	 * @param changedJobs identifiers of the jobs notified to have changed
+	 * @throws DaoException when the status changes can not be saved
+	 */
+	private void updateStatuses(List<JobStatusDetails> unfinishedJobs, Set<String> changedJobs) throws DaoException
+	{
+		long now = System.currentTimeMillis();
+
+		Map<String, StatusOfJob> statusUpdates = new HashMap<String, StatusOfJob>();
+		List<JobStatusDetails> failedJobs = new ArrayList<JobStatusDetails>();
+		Set<String> unfinishedJobIds = new HashSet<String>();
+
+		for(JobStatusDetails unfinishedJob : unfinishedJobs)
+		{
+			String jobId = unfinishedJob.getJobId();
+			unfinishedJobIds.add(jobId);
+
+			File jobDirectory = DirLocatorUtil.getJobDir(new File(generalDestinationDirectoryName), jobId);
+
+			if(watcher != null)
+			{
+				watcher.watch(jobId, jobDirectory);
+			}
+
+			Long nextCheck = nextChecks.get(jobId);
+			if(nextCheck != null && nextCheck > now && !changedJobs.contains(jobId))
+			{
+				continue;
+			}
+
+			try
+			{
+				StatusOfJob savedStatus = StatusOfJob.getByName(unfinishedJob.getStatus());
+
+				StatusOfJob currentStatus = jobManager.getStatusOfJob(jobId, unfinishedJob.getSubmissionId());
+
+				if(savedStatus != currentStatus)
+				{
+					File logFile = new File(jobDirectory, CrkWebServiceImpl.PROGRESS_LOG_FILE_NAME);
+
+					if(currentStatus == StatusOfJob.FINISHED)
 					{
-						handleJobFinishedWithError(unfinishedJob);
+						handleJobFinishedSuccessfully(unfinishedJob, logFile);
 					}
-					catch (JobHandlerException e)
+					else if(currentStatus == StatusOfJob.ERROR)
 					{
-						e.printStackTrace();
+						failedJobs.add(unfinishedJob);
 					}
-					catch (DaoException e)
+					else if((currentStatus == StatusOfJob.RUNNING) ||
+							(currentStatus == StatusOfJob.WAITING) ||
+							(currentStatus == StatusOfJob.STOPPED))
 					{
-						e.printStackTrace();
+						statusUpdates.put(jobId, currentStatus);
 					}
+
+					pollingIntervals.put(jobId, (long) POLLING_INTERVAL);
+				}
+				else
+				{
+					Long pollingInterval = pollingIntervals.get(jobId);
+					pollingInterval = (pollingInterval == null) ? POLLING_INTERVAL : Math.min(2 * pollingInterval, MAX_POLLING_INTERVAL);
+					pollingIntervals.put(jobId, pollingInterval);
 				}
-				
-				Thread.sleep(POLLING_INTERVAL);
 			}
-			catch (Throwable t)
+			catch(DeserializationException e)
 			{
-				t.printStackTrace();
+				failedJobs.add(unfinishedJob);
 			}
-			
-			isUpdating = false;
+			catch (JobHandlerException e)
+			{
+				e.printStackTrace();
+			}
+			catch (DaoException e)
+			{
+				e.printStackTrace();
+			}
+
+			Long pollingInterval = pollingIntervals.get(jobId);
+			nextChecks.put(jobId, now + ((pollingInterval == null) ? POLLING_INTERVAL : pollingInterval));
+		}
+
+		// forget the jobs that are finished
+		pollingIntervals.keySet().retainAll(unfinishedJobIds);
+		nextChecks.keySet().retainAll(unfinishedJobIds);
+		if(watcher != null)
+		{
+			for(String jobId : new ArrayList<String>(watcher.getWatchedJobs()))
+			{
+				if(!unfinishedJobIds.contains(jobId))
+				{
+					watcher.unwatch(jobId);
+				}
+			}
+		}
+
+		for(JobStatusDetails failedJob : failedJobs)
+		{
+			statusUpdates.put(failedJob.getJobId(), StatusOfJob.ERROR);
+		}
+
+		jobDAO.updateStatusOfJobs(statusUpdates);
+
+		// only notified once the error status is saved
+		for(JobStatusDetails failedJob : failedJobs)
+		{
+			notifyJobFinishedWithError(failedJob);
+		}
+	}
+
+	/**
+	 * Retrieves time until the next job is due to be polled.
+	 * @return time in milliseconds, at most DISCOVERY_INTERVAL
+	 */
+	private long getTimeToNextCheck()
+	{
+		long timeToNextCheck = DISCOVERY_INTERVAL;
+		long now = System.currentTimeMillis();
+
+		for(long nextCheck : nextChecks.values())
+		{
+			timeToNextCheck = Math.min(timeToNextCheck, nextCheck - now);
+		}
+
+		return Math.max(timeToNextCheck, 0);
+	}
+
+	/**
+	 * Waits for changes in the job directories, or just sleeps if they can not be watched.
+	 * @param timeout maximum time to wait in milliseconds
+	 * @return identifiers of the jobs with changes
+	 * @throws InterruptedException when interrupted while waiting
+	 */
+	private Set<String> awaitChanges(long timeout) throws InterruptedException
+	{
+		if(watcher != null)
+		{
+			return watcher.awaitChanges(timeout);
 		}
+
+		Thread.sleep(timeout);
+		return new HashSet<String>();
 	}
 
 	/**
@@ -170,11 +322,10 @@ public class JobStatusUpdater implements Runnable
 	}
 
 	/**
-	 * Handles job which finished with error status.
+	 * Notifies about job which finished with error status. The status has to be saved separately.
 	 * @param jobStatusDetails details of the job
-	 * @throws DaoException when can not appropriately handle results of the job
 	 */
-	private void handleJobFinishedWithError(JobStatusDetails jobStatusDetails) throws DaoException
+	private void notifyJobFinishedWithError(JobStatusDetails jobStatusDetails)
 	{
 		File jobDirectory = DirLocatorUtil.getJobDir(new File(generalDestinationDirectoryName), jobStatusDetails.getJobId());
 		
@@ -202,8 +353,6 @@ public class JobStatusUpdater implements Runnable
 	        }
 		}
 
-		jobDAO.updateStatusOfJob(jobStatusDetails.getJobId(), StatusOfJob.ERROR);
-		
 		String emailTitle = emailMessageData.getEmailJobErrorTitle().replaceFirst("%s", jobStatusDetails.getInput());
 		String emailMessage = emailMessageData.getEmailJobErrorMessage().replaceFirst("%s", errorMsg);
 		emailMessage = emailMessage.replaceFirst("%s", resultsPathUrl);
@@ -214,37 +363,6 @@ public class JobStatusUpdater implements Runnable
 						 emailMessage);
 	}
 
-	/**
-	 * Handles job with running status.
-	 * @param jobId identifier of the job
-	 * @throws DaoException when can not appropriately handle running job
-	 */
-	private void handleRunningJob(String jobId) throws DaoException
-	{
-		jobDAO.updateStatusOfJob(jobId, StatusOfJob.RUNNING);
-	}
-	
-	/**
-	 * Handles job with waiting status.
-	 * @param jobId identifier of the job
-	 * @throws DaoException when can not appropriately handle waiting job
-	 */
-	private void handleWaitingJob(String jobId) throws DaoException
-	{
-		jobDAO.updateStatusOfJob(jobId, StatusOfJob.WAITING);
-	}
-	
-	/**
-	 * Handles job with stopped status.
-	 * @param jobId identifier of the job
-	 * @throws DaoException when can not appropriately handle stopped job
-	 */
-	private void handleStoppedJob(String jobId) throws DaoException
-	{
-		jobDAO.updateStatusOfJob(jobId, StatusOfJob.STOPPED);
-	}
-
-
 	/**
 	 * Retrieves result of processing from specified file.
 	 * @param resultFileName file containing result of processing
@@ -257,34 +375,16 @@ public class JobStatusUpdater implements Runnable
 
 		if (resultFile.exists())
 		{
-			FileInputStream fileInputStream = null;
-			ObjectInputStream inputStream = null;
-
 			try
 			{
-				fileInputStream = new FileInputStream(resultFile);
-				inputStream = new ObjectInputStream(fileInputStream);
-				pdbScoreItem = (PdbInfoDB)inputStream.readObject();
+				// reads both the current binary format and the legacy java serialization format
+				pdbScoreItem = DataModelSerializer.read(resultFile);
 			}
 			catch (Throwable e)
 			{
 				e.printStackTrace();
 				throw new DeserializationException(e);
 			}
-			finally
-			{
-				if(inputStream != null)
-				{
-					try
-					{
-						inputStream.close();
-					}
-					catch(Throwable t)
-					{
-						t.printStackTrace();
-					}
-				}
-			}
 		}
 		else
 		{
@@ -297,6 +397,12 @@ public class JobStatusUpdater implements Runnable
 	public void setRunning(boolean running)
 	{
 		this.running = running;
+
+		if(!running && (watcher != null))
+		{
+			// wakes up the daemon if waiting for changes
+			watcher.close();
+		}
 	}
 
 	/**
@@ -0,0 +1,447 @@
+package ch.systemsx.sybit.crkwebui.server.jobs.managers.local;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.lang.ProcessBuilder.Redirect;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ch.systemsx.sybit.crkwebui.server.CrkWebServiceImpl;
+import ch.systemsx.sybit.crkwebui.server.commons.util.io.DirLocatorUtil;
+import ch.systemsx.sybit.crkwebui.server.jobs.managers.commons.JobManager;
+import ch.systemsx.sybit.crkwebui.shared.exceptions.JobHandlerException;
+import ch.systemsx.sybit.shared.model.StatusOfJob;
+import eppic.EppicWorker;
+
+/**
+ * Implementation of JobManager running the jobs in the local machine, in a bounded pool of
+ * resident worker JVMs (see {@link EppicWorker}). Each worker runs one job at a time and is
+ * reused for the following jobs, avoiding the JVM start up for each job.
+ * Jobs beyond the number of workers are queued.
+ * <p>
+ * As in the queuing system, the output and error of each job are written to files
+ * jobId.o&lt;n&gt; and jobId.e&lt;n&gt; in the job directory and jobs are considered finished
+ * successfully if they wrote the finished file.
+ */
+public class LocalJobManager implements JobManager
+{
+	private static final Logger logger = LoggerFactory.getLogger(LocalJobManager.class);
+
+	public static final String NR_OF_WORKERS_PROPERTY = "nr_of_workers";
+	public static final String MAX_JOBS_PER_WORKER_PROPERTY = "max_jobs_per_worker";
+
+	public static final int DEFAULT_NR_OF_WORKERS = 2;
+	public static final int DEFAULT_MAX_JOBS_PER_WORKER = 50;
+
+	private static final String SUBMISSION_ID_PREFIX = "local-";
+
+	private enum State { QUEUED, RUNNING, DONE, CANCELLED }
+
+	/**
+	 * A submitted job
+	 */
+	private static class LocalJob
+	{
+		private final String jobId;
+		private final File jobDirectory;
+		private volatile State state;
+		private volatile Future<?> future;
+		private volatile WorkerProcess worker;
+
+		public LocalJob(String jobId, File jobDirectory)
+		{
+			this.jobId = jobId;
+			this.jobDirectory = jobDirectory;
+			this.state = State.QUEUED;
+		}
+	}
+
+	/**
+	 * A worker JVM, reading jobs from its standard input
+	 */
+	private static class WorkerProcess
+	{
+		private final List<String> command;
+		private final Process process;
+		private final BufferedWriter in;
+		private final BufferedReader out;
+		private int nrOfJobs;
+		private volatile boolean destroyed;
+
+		public WorkerProcess(List<String> command) throws IOException
+		{
+			this.command = command;
+			ProcessBuilder processBuilder = new ProcessBuilder(command);
+			processBuilder.redirectError(Redirect.INHERIT);
+			this.process = processBuilder.start();
+			this.in = new BufferedWriter(new OutputStreamWriter(process.getOutputStream()));
+			this.out = new BufferedReader(new InputStreamReader(process.getInputStream()));
+			this.nrOfJobs = 0;
+		}
+
+		/**
+		 * Runs a job, waiting for it to finish.
+		 * @return true if the worker can run more jobs, false if it exited
+		 */
+		public boolean runJob(File outFile, File errFile, List<String> args) throws IOException
+		{
+			nrOfJobs++;
+
+			StringBuilder line = new StringBuilder();
+			line.append(outFile.getAbsolutePath()).append(EppicWorker.FIELD_SEPARATOR).append(errFile.getAbsolutePath());
+			for(String arg : args)
+			{
+				line.append(EppicWorker.FIELD_SEPARATOR).append(arg);
+			}
+
+			in.write(line.toString());
+			in.newLine();
+			in.flush();
+
+			String response;
+			while((response = out.readLine()) != null)
+			{
+				if(response.equals(EppicWorker.JOB_DONE))
+				{
+					return true;
+				}
+			}
+			return false;
+		}
+
+		public void destroy()
+		{
+			destroyed = true;
+			process.destroyForcibly();
+		}
+	}
+
+	private final String jobsDirectory;
+	private final int maxJobsPerWorker;
+
+	private final ExecutorService executor;
+	// the worker of each thread of the executor
+	private final ThreadLocal<WorkerProcess> workers;
+	private final Set<WorkerProcess> allWorkers;
+
+	private final Map<String, LocalJob> jobs;
+	private final AtomicLong submissionCounter;
+
+	/**
+	 * Creates instance of local job manager.
+	 * @param queuingSystemProperties properties for the number of workers and the maximum number of jobs
+	 * run by a worker before it is restarted
+	 * @param jobsDirectory directory where results of jobs are stored
+	 */
+	public LocalJobManager(Properties queuingSystemProperties, String jobsDirectory)
+	{
+		this(Integer.parseInt(queuingSystemProperties.getProperty(NR_OF_WORKERS_PROPERTY, String.valueOf(DEFAULT_NR_OF_WORKERS))),
+			 Integer.parseInt(queuingSystemProperties.getProperty(MAX_JOBS_PER_WORKER_PROPERTY, String.valueOf(DEFAULT_MAX_JOBS_PER_WORKER))),
+			 jobsDirectory);
+	}
+
+	/**
+	 * Creates instance of local job manager.
+	 * @param nrOfWorkers number of jobs run simultaneously
+	 * @param maxJobsPerWorker number of jobs run by a worker before it is restarted
+	 * @param jobsDirectory directory where results of jobs are stored
+	 */
+	public LocalJobManager(int nrOfWorkers, int maxJobsPerWorker, String jobsDirectory)
+	{
+		this.jobsDirectory = jobsDirectory;
+		this.maxJobsPerWorker = maxJobsPerWorker;
+		this.executor = Executors.newFixedThreadPool(nrOfWorkers);
+		this.workers = new ThreadLocal<WorkerProcess>();
+		this.allWorkers = Collections.newSetFromMap(new ConcurrentHashMap<WorkerProcess, Boolean>());
+		this.jobs = new ConcurrentHashMap<String, LocalJob>();
+		this.submissionCounter = new AtomicLong(0);
+	}
+
+	@Override
+	public String startJob(String javaVMExec,
+						   String jobId,
+						   List<String> command,
+						   String jobDirectory,
+						   int nrOfThreadsForSubmission) throws JobHandlerException
+	{
+		int jarIndex = command.indexOf("-jar");
+		if((jarIndex < 0) || (jarIndex == command.size() - 1))
+		{
+			throw new JobHandlerException("The command to run job " + jobId + " does not specify a jar: " + command);
+		}
+		for(String token : command)
+		{
+			if(token.contains(EppicWorker.FIELD_SEPARATOR) || token.contains("\n"))
+			{
+				throw new JobHandlerException("The command to run job " + jobId + " contains tabs or new lines: " + command);
+			}
+		}
+
+		final List<String> workerCommand = createWorkerCommand(javaVMExec,
+															   command.subList(0, jarIndex),
+															   command.get(jarIndex + 1));
+		final List<String> args = new ArrayList<String>(command.subList(jarIndex + 2, command.size()));
+
+		final String submissionId = SUBMISSION_ID_PREFIX + submissionCounter.incrementAndGet();
+		final LocalJob job = new LocalJob(jobId, new File(jobDirectory));
+
+		final String suffix = submissionId.substring(SUBMISSION_ID_PREFIX.length());
+
+		job.future = executor.submit(() -> {
+			File outFile = new File(job.jobDirectory, jobId + ".o" + suffix);
+			File errFile = new File(job.jobDirectory, jobId + ".e" + suffix);
+			runJob(job, workerCommand, outFile, errFile, args);
+		});
+		jobs.put(submissionId, job);
+
+		logger.info("Job {} queued with submission id {}", jobId, submissionId);
+
+		return submissionId;
+	}
+
+	/**
+	 * Gets the command to start a worker JVM.
+	 * @param javaVMExec the java executable
+	 * @param jvmOptions the options passed to the JVM
+	 * @param jar the EPPIC jar
+	 * @return
+	 */
+	protected List<String> createWorkerCommand(String javaVMExec, List<String> jvmOptions, String jar)
+	{
+		List<String> workerCommand = new ArrayList<String>();
+		workerCommand.add(javaVMExec);
+		workerCommand.addAll(jvmOptions);
+		workerCommand.add("-cp");
+		workerCommand.add(jar);
+		workerCommand.add(EppicWorker.class.getName());
+		return workerCommand;
+	}
+
+	/**
+	 * Runs the job in the worker of the current thread, starting a new worker if needed.
+	 */
+	private void runJob(LocalJob job, List<String> workerCommand, File outFile, File errFile, List<String> args)
+	{
+		synchronized(job)
+		{
+			if(job.state != State.QUEUED)
+			{
+				return;
+			}
+			job.state = State.RUNNING;
+		}
+
+		WorkerProcess worker = workers.get();
+
+		try
+		{
+			// a worker destroyed by stopJob can't be reused, even if it already answered its job
+			if((worker != null) && (worker.destroyed || !worker.command.equals(workerCommand) || (worker.nrOfJobs >= maxJobsPerWorker)))
+			{
+				stopWorker(worker);
+				worker = null;
+			}
+
+			if(worker == null)
+			{
+				worker = new WorkerProcess(workerCommand);
+				workers.set(worker);
+				allWorkers.add(worker);
+				logger.info("Started worker {}", workerCommand);
+			}
+
+			synchronized(job)
+			{
+				if(job.state == State.CANCELLED)
+				{
+					// stopped while the worker was started
+					return;
+				}
+				job.worker = worker;
+			}
+
+			logger.info("Running job {}", job.jobId);
+
+			if(!worker.runJob(outFile, errFile, args))
+			{
+				logger.info("Worker exited running job {}", job.jobId);
+				stopWorker(worker);
+			}
+		}
+		catch(IOException e)
+		{
+			logger.error("Error running job " + job.jobId + " in worker", e);
+
+			if(worker != null)
+			{
+				stopWorker(worker);
+			}
+		}
+		finally
+		{
+			// the worker is released under the lock of the job, so that stopJob can't destroy it
+			// once it runs the next job
+			synchronized(job)
+			{
+				job.worker = null;
+				if(job.state == State.RUNNING)
+				{
+					job.state = State.DONE;
+				}
+			}
+		}
+	}
+
+	private void stopWorker(WorkerProcess worker)
+	{
+		worker.destroy();
+		allWorkers.remove(worker);
+		if(workers.get() == worker)
+		{
+			workers.remove();
+		}
+	}
+
+	@Override
+	public StatusOfJob getStatusOfJob(String jobId, String submissionId) throws JobHandlerException
+	{
+		LocalJob job = jobs.get(submissionId);
+
+		if(job == null)
+		{
+			// e.g. submitted before a restart
+			File jobDirectory = DirLocatorUtil.getJobDir(new File(jobsDirectory), jobId);
+			if(!jobDirectory.exists())
+			{
+				return StatusOfJob.NONEXISTING;
+			}
+			return getFinalStatus(jobDirectory);
+		}
+
+		switch(job.state)
+		{
+			case QUEUED:
+				return StatusOfJob.QUEUING;
+
+			case RUNNING:
+				return StatusOfJob.RUNNING;
+
+			default:
+				StatusOfJob status = getFinalStatus(job.jobDirectory);
+				// the final status can be found from the job directory from now on
+				jobs.remove(submissionId);
+				return status;
+		}
+	}
+
+	/**
+	 * Gets the status of a job that isn't running anymore, from the files it left in its directory.
+	 * @param jobDirectory the directory of the job
+	 * @return FINISHED, STOPPED or ERROR
+	 */
+	private static StatusOfJob getFinalStatus(File jobDirectory)
+	{
+		if(new File(jobDirectory, CrkWebServiceImpl.FINISHED_FILE_NAME).exists())
+		{
+			return StatusOfJob.FINISHED;
+		}
+		else if(new File(jobDirectory, CrkWebServiceImpl.KILLED_FILE_NAME).exists())
+		{
+			return StatusOfJob.STOPPED;
+		}
+		return StatusOfJob.ERROR;
+	}
+
+	@Override
+	public void stopJob(String submissionId) throws JobHandlerException
+	{
+		LocalJob job = jobs.get(submissionId);
+
+		if(job == null)
+		{
+			return;
+		}
+
+		synchronized(job)
+		{
+			if((job.state == State.DONE) || (job.state == State.CANCELLED))
+			{
+				return;
+			}
+			boolean running = (job.state == State.RUNNING);
+			job.state = State.CANCELLED;
+
+			if(!running)
+			{
+				// not started yet
+				job.future.cancel(false);
+				return;
+			}
+
+			// destroyed while holding the lock, as the worker belongs to this job only until runJob
+			// releases it. The worker thread will notice that the worker exited and start a new one
+			// for the next job
+			if(job.worker != null)
+			{
+				logger.info("Stopping job {}", job.jobId);
+				job.worker.destroy();
+			}
+		}
+	}
+
+	/**
+	 * Gets the number of jobs queued or running.
+	 * @return
+	 */
+	public int getNrOfActiveJobs()
+	{
+		int count = 0;
+		for(LocalJob job : jobs.values())
+		{
+			if((job.state == State.QUEUED) || (job.state == State.RUNNING))
+			{
+				count++;
+			}
+		}
+		return count;
+	}
+
+	@Override
+	public void finalize() throws JobHandlerException
+	{
+		executor.shutdownNow();
+
+		for(WorkerProcess worker : new HashSet<WorkerProcess>(allWorkers))
+		{
+			worker.destroy();
+		}
+		allWorkers.clear();
+
+		try
+		{
+			executor.awaitTermination(10, TimeUnit.SECONDS);
+		}
+		catch(InterruptedException e)
+		{
+			throw new JobHandlerException(e);
+		}
+	}
+}
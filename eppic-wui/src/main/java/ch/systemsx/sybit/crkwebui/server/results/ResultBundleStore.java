@@ -0,0 +1,154 @@
+package ch.systemsx.sybit.crkwebui.server.results;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ch.systemsx.sybit.crkwebui.server.commons.util.io.DirLocatorUtil;
+import ch.systemsx.sybit.crkwebui.shared.model.PdbInfo;
+
+/**
+ * Stores on disk the complete results (the PdbInfo with its assemblies, interface clusters,
+ * interfaces and chain clusters) of precomputed entries, so that they can be served with one
+ * file read instead of being assembled from the db for every visitor.
+ *
+ * <p>Precomputed entries don't change within a db release: each bundle is written with the
+ * release it was computed for and is ignored (and later overwritten) when read with a different one.
+ * User jobs are never bundled.
+ */
+public class ResultBundleStore {
+	private static final Logger logger = LoggerFactory.getLogger(ResultBundleStore.class);
+
+	/**
+	 * Version of the layout of the bundle files, to be increased when it changes
+	 */
+	private static final int FORMAT_VERSION = 1;
+
+	public static final String BUNDLE_FILE_SUFFIX = ".pdbinfo.ser.gz";
+
+	private final File baseDir;
+	private final String release;
+
+	/**
+	 * Creates a store.
+	 * @param baseDir the directory where the bundles are stored, in the same divided layout as the jobs
+	 * @param release identifier of the db release, the bundles of other releases are not used
+	 */
+	public ResultBundleStore(File baseDir, String release) {
+		this.baseDir = baseDir;
+		this.release = release;
+	}
+
+	/**
+	 * @param jobId
+	 * @return whether the job is a precomputed entry, i.e. its id is a PDB id
+	 * @see DirLocatorUtil#getJobDir(File, String)
+	 */
+	public static boolean isPrecomputed(String jobId) {
+		return jobId != null && jobId.length() == 4;
+	}
+
+	/**
+	 * Gets the file where the bundle of the given entry is stored
+	 * @param jobId
+	 * @return
+	 */
+	public File getBundleFile(String jobId) {
+		return new File(DirLocatorUtil.getJobDir(baseDir, jobId), jobId + BUNDLE_FILE_SUFFIX);
+	}
+
+	/**
+	 * Reads the bundle of the given entry.
+	 * @param jobId
+	 * @return the results, or null if the entry is not precomputed, there is no bundle for it
+	 * or the bundle is for another release or can not be read
+	 */
+	public PdbInfo read(String jobId) {
+		if( !isPrecomputed(jobId) ) {
+			return null;
+		}
+		File file = getBundleFile(jobId);
+		if( !file.isFile() ) {
+			return null;
+		}
+
+		try (ObjectInputStream in = new ObjectInputStream(
+				new GZIPInputStream(new BufferedInputStream(new FileInputStream(file))))) {
+			int formatVersion = in.readInt();
+			String bundleRelease = in.readUTF();
+			if( formatVersion != FORMAT_VERSION || !release.equals(bundleRelease) ) {
+				logger.debug("Result bundle {} is for release {} (format {}), current is {} (format {})",
+						file, bundleRelease, formatVersion, release, FORMAT_VERSION);
+				return null;
+			}
+			return (PdbInfo) in.readObject();
+		} catch (IOException|ClassNotFoundException|ClassCastException e) {
+			logger.warn("Could not read result bundle {}: {}", file, e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Writes the bundle of the given entry, replacing any previous one. Concurrent readers
+	 * see either the previous or the new bundle.
+	 * @param jobId
+	 * @param pdbInfo the complete results of the entry
+	 * @return true if written, false if the entry is not precomputed or the bundle can not be written
+	 */
+	public boolean write(String jobId, PdbInfo pdbInfo) {
+		if( !isPrecomputed(jobId) ) {
+			return false;
+		}
+		File file = getBundleFile(jobId);
+		File tmpFile = null;
+
+		try {
+			File dir = file.getParentFile();
+			if( !dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory() ) {
+				throw new IOException("Can not create directory " + dir);
+			}
+			tmpFile = File.createTempFile(jobId, ".tmp", dir);
+
+			try (ObjectOutputStream out = new ObjectOutputStream(
+					new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile))))) {
+				out.writeInt(FORMAT_VERSION);
+				out.writeUTF(release);
+				out.writeObject(pdbInfo);
+			}
+
+			Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			return true;
+		} catch (IOException e) {
+			logger.warn("Could not write result bundle {}: {}", file, e.getMessage());
+			if( tmpFile != null ) {
+				tmpFile.delete();
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Removes the bundle of the given entry, e.g. after it was recomputed within the same release.
+	 * @param jobId
+	 * @return true if there was a bundle and it was removed
+	 */
+	public boolean delete(String jobId) {
+		return isPrecomputed(jobId) && getBundleFile(jobId).delete();
+	}
+
+	public String getRelease() {
+		return release;
+	}
+}
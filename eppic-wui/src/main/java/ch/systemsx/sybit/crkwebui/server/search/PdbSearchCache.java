@@ -0,0 +1,208 @@
+package ch.systemsx.sybit.crkwebui.server.search;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ch.systemsx.sybit.crkwebui.server.db.dao.ChainClusterDAO;
+import ch.systemsx.sybit.crkwebui.server.db.dao.jpa.ChainClusterDAOJpa;
+import ch.systemsx.sybit.crkwebui.shared.exceptions.DaoException;
+import ch.systemsx.sybit.crkwebui.shared.helpers.PDBSearchResult;
+
+/**
+ * Thread-safe cache of the results of the sequence cluster searches by pdb code and chain.
+ *
+ * <p>The cache holds at most a maximum number of searches, dropping the least recently used,
+ * and each of them for a limited time. It is cleared when the sequence clusters are reloaded
+ * in the db, which is checked at most once every {@value #VERSION_CHECK_INTERVAL} ms.
+ */
+public class PdbSearchCache {
+	private static final Logger logger = LoggerFactory.getLogger(PdbSearchCache.class);
+
+	/**
+	 * Default maximum number of searches kept
+	 */
+	public static final int DEFAULT_MAX_ENTRIES = 1000;
+
+	/**
+	 * Default time in milliseconds a search is kept
+	 */
+	public static final long DEFAULT_TIME_TO_LIVE = 60 * 60 * 1000;
+
+	/**
+	 * Minimum time in milliseconds between checks of the version of the sequence clusters
+	 */
+	public static final long VERSION_CHECK_INTERVAL = 60 * 1000;
+
+	private static class CacheEntry {
+		private final List<PDBSearchResult> results;
+		private final long created;
+
+		public CacheEntry(List<PDBSearchResult> results, long created) {
+			this.results = results;
+			this.created = created;
+		}
+	}
+
+	private final ChainClusterDAO chainClusterDAO;
+	private final long timeToLive;
+
+	// access synchronized on entries
+	private final LinkedHashMap<String, CacheEntry> entries;
+	// number of times the cache was cleared, to avoid caching results from before a reload
+	private long generation;
+
+	// access synchronized on versionLock
+	private final Object versionLock;
+	private String version;
+	private long lastVersionCheck;
+
+	private final AtomicLong hits;
+	private final AtomicLong misses;
+
+	/**
+	 * For most situations, use {@link #getInstance()} instead
+	 * @param chainClusterDAO DAO doing the searches
+	 * @param maxEntries maximum number of searches kept
+	 * @param timeToLive time in milliseconds a search is kept
+	 */
+	public PdbSearchCache(ChainClusterDAO chainClusterDAO, final int maxEntries, long timeToLive) {
+		this.chainClusterDAO = chainClusterDAO;
+		this.timeToLive = timeToLive;
+		this.entries = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+				return size() > maxEntries;
+			}
+		};
+		this.generation = 0;
+		this.versionLock = new Object();
+		this.version = null;
+		this.lastVersionCheck = Long.MIN_VALUE;
+		this.hits = new AtomicLong(0);
+		this.misses = new AtomicLong(0);
+	}
+
+	// Singleton instance
+	private static PdbSearchCache instance = null;
+	/**
+	 * Get the singleton instance
+	 * @return
+	 */
+	public static synchronized PdbSearchCache getInstance() {
+		if(instance == null) {
+			instance = new PdbSearchCache(new ChainClusterDAOJpa(), DEFAULT_MAX_ENTRIES, DEFAULT_TIME_TO_LIVE);
+		}
+		return instance;
+	}
+
+	/**
+	 * Gets the pdb search items of all sequence cluster levels of the given chain,
+	 * searching the db only if not cached.
+	 * @param pdbCode
+	 * @param repChain
+	 * @return list of results, which the caller is free to modify
+	 * @throws DaoException when can not retrieve items
+	 * @see ChainClusterDAO#getPdbSearchItems(String, String)
+	 */
+	public List<PDBSearchResult> getPdbSearchItems(String pdbCode, String repChain) throws DaoException {
+		checkVersion();
+
+		String key = pdbCode + "_" + repChain;
+		long searchGeneration;
+
+		synchronized(entries) {
+			CacheEntry entry = entries.get(key);
+			if( entry != null && System.currentTimeMillis() - entry.created < timeToLive ) {
+				hits.incrementAndGet();
+				return new ArrayList<PDBSearchResult>(entry.results);
+			}
+			searchGeneration = generation;
+		}
+
+		misses.incrementAndGet();
+		long start = System.currentTimeMillis();
+		List<PDBSearchResult> results = chainClusterDAO.getPdbSearchItems(pdbCode, repChain);
+
+		synchronized(entries) {
+			if( searchGeneration == generation ) {
+				entries.put(key, new CacheEntry(results, start));
+			}
+		}
+
+		logger.debug("PDB search cache: {}", getStats());
+
+		return new ArrayList<PDBSearchResult>(results);
+	}
+
+	/**
+	 * Clears the cache if the sequence clusters were reloaded since the last check.
+	 * The check is skipped if done less than {@value #VERSION_CHECK_INTERVAL} ms ago.
+	 */
+	private void checkVersion() throws DaoException {
+		synchronized(versionLock) {
+			long now = System.currentTimeMillis();
+			if( now - lastVersionCheck < VERSION_CHECK_INTERVAL ) {
+				return;
+			}
+
+			String currentVersion = chainClusterDAO.getSeqClustersVersion();
+			lastVersionCheck = now;
+
+			if( !currentVersion.equals(version) ) {
+				if( version != null ) {
+					logger.info("Sequence clusters reloaded (version {}, was {}), clearing PDB search cache", currentVersion, version);
+				}
+				version = currentVersion;
+				clear();
+			}
+		}
+	}
+
+	/**
+	 * Removes all searches from the cache
+	 */
+	public void clear() {
+		synchronized(entries) {
+			entries.clear();
+			generation++;
+		}
+	}
+
+	/**
+	 * @return The number of searches in the cache (including expired ones not yet removed)
+	 */
+	public int size() {
+		synchronized(entries) {
+			return entries.size();
+		}
+	}
+
+	/**
+	 * @return The number of searches served from the cache
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * @return The number of searches done in the db
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * @return A summary of the cache statistics
+	 */
+	public String getStats() {
+		return String.format("%d searches, %d hits, %d misses", size(), getHits(), getMisses());
+	}
+}
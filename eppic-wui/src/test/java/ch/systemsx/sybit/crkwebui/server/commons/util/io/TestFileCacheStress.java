@@ -0,0 +1,184 @@
+package ch.systemsx.sybit.crkwebui.server.commons.util.io;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Concurrency tests for {@link FileCache}
+ */
+public class TestFileCacheStress {
+
+	private FileCache cache;
+	private ExecutorService pool;
+	private List<String> paths;
+
+	@Before
+	public void setUp() {
+		// create new instance to avoid singleton interactions
+		cache = new FileCache();
+		cache.purge();
+		pool = Executors.newFixedThreadPool(16);
+		paths = new ArrayList<>();
+	}
+
+	@After
+	public void tearDown() throws InterruptedException, ExecutionException {
+		pool.shutdownNow();
+		cache.flush();
+		cache.purge();
+		for(String path : paths) {
+			new File(path).delete();
+		}
+	}
+
+	@Test
+	public void testSingleFlight() throws Exception {
+		final String path = tmp("single");
+		final AtomicInteger computations = new AtomicInteger(0);
+		final CountDownLatch start = new CountDownLatch(1);
+
+		List<Future<String>> results = new ArrayList<>();
+		for(int i=0;i<50;i++) {
+			results.add(pool.submit(() -> {
+				start.await();
+				return cache.getString(path, () -> {
+					computations.incrementAndGet();
+					Thread.sleep(50);
+					return "single";
+				});
+			}));
+		}
+		start.countDown();
+		for(Future<String> result : results) {
+			assertEquals("single", result.get(10, TimeUnit.SECONDS));
+		}
+		assertEquals("Should have been computed once", 1, computations.get());
+		assertEquals(1, cache.getMisses());
+		assertEquals(49, cache.getHits());
+	}
+
+	@Test
+	public void testSlowKeyDoesNotBlockOthers() throws Exception {
+		final String slow = tmp("slow");
+		final String fast = tmp("fast");
+		final CountDownLatch release = new CountDownLatch(1);
+
+		Future<String> slowResult = pool.submit(() -> cache.getString(slow, () -> {
+			release.await();
+			return "slow";
+		}));
+		// the slow computation is in progress while this one is requested
+		while(!cache.isCachedInMemory(slow)) {
+			Thread.sleep(1);
+		}
+		Future<String> fastResult = pool.submit(() -> cache.getString(fast, () -> "fast"));
+		assertEquals("fast", fastResult.get(10, TimeUnit.SECONDS));
+		assertFalse(slowResult.isDone());
+
+		release.countDown();
+		assertEquals("slow", slowResult.get(10, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testFailedComputationIsRetried() throws Exception {
+		final String path = tmp("failed");
+		Callable<String> failing = () -> { throw new IOException("failed"); };
+		try {
+			cache.getString(path, failing);
+			fail("Should have thrown");
+		} catch(ExecutionException e) {
+			assertTrue(e.getCause() instanceof IOException);
+		}
+		assertFalse(cache.isCachedInMemory(path));
+		assertEquals("retried", cache.getString(path, () -> "retried"));
+	}
+
+	@Test
+	public void testConcurrentAccess() throws Exception {
+		final int numPaths = 20;
+		final int numCalls = 2000;
+		final List<String> keys = new ArrayList<>();
+		for(int i=0;i<numPaths;i++) {
+			keys.add(tmp("key"+i));
+		}
+		// small enough to force evictions and reads from disk
+		cache.setCapacity(5);
+
+		final Random random = new Random(1);
+		List<Future<Boolean>> results = new ArrayList<>();
+		for(int c=0;c<numCalls;c++) {
+			final int i = random.nextInt(numPaths);
+			results.add(pool.submit(() -> {
+				String expected = "value"+i;
+				return expected.equals(cache.getString(keys.get(i), () -> expected));
+			}));
+		}
+		for(Future<Boolean> result : results) {
+			assertTrue("Wrong value", result.get(30, TimeUnit.SECONDS));
+		}
+		assertEquals(numCalls, cache.getHits() + cache.getDiskHits() + cache.getMisses());
+		assertEquals(numPaths, cache.getMisses());
+	}
+
+	@Test
+	public void testLeastRecentlyUsed() throws Exception {
+		String a = tmp("a");
+		String b = tmp("b");
+		String c = tmp("c");
+		cache.setCapacity(2);
+
+		cache.getString(a, () -> "a");
+		cache.getString(b, () -> "b");
+		// makes b the least recently used
+		cache.getString(a);
+		// expired entries are only evicted once written
+		cache.flush();
+		cache.getString(c, () -> "c");
+
+		assertTrue(cache.isCachedInMemory(a));
+		assertFalse(cache.isCachedInMemory(b));
+		assertTrue(cache.isCachedInMemory(c));
+		assertEquals(1, cache.getEvictions());
+	}
+
+	@Test
+	public void testMaxBytes() throws Exception {
+		String a = tmp("a");
+		String b = tmp("b");
+		// chars are counted as 2 bytes
+		cache.setMaxBytes(150);
+
+		cache.getString(a, () -> new String(new char[50]));
+		cache.flush();
+		assertEquals(100, cache.getBytes());
+		cache.getString(b, () -> new String(new char[50]));
+
+		assertFalse(cache.isCachedInMemory(a));
+		assertTrue(cache.isCachedInMemory(b));
+		assertEquals(100, cache.getBytes());
+	}
+
+	private String tmp(String s) throws IOException {
+		File tmp = File.createTempFile("TestFileCacheStress-"+s, ".txt");
+		tmp.deleteOnExit();
+		paths.add(tmp.toString());
+		return tmp.toString();
+	}
+}
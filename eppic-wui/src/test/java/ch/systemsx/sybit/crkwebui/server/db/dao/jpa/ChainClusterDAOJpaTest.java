@@ -2,6 +2,7 @@ package ch.systemsx.sybit.crkwebui.server.db.dao.jpa;
 
 import static org.junit.Assert.*;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import org.junit.Test;
@@ -9,6 +10,7 @@ import org.junit.Test;
 import ch.systemsx.sybit.crkwebui.shared.exceptions.DaoException;
 import ch.systemsx.sybit.crkwebui.shared.helpers.PDBSearchResult;
 import ch.systemsx.sybit.crkwebui.shared.model.SequenceClusterType;
+import eppic.model.PdbInfoDB;
 
 
 public class ChainClusterDAOJpaTest {
@@ -61,4 +63,59 @@ public class ChainClusterDAOJpaTest {
     		assertTrue("size of c60 must be <= than c50",resultsc60.size()<=resultsc50.size());
     	}
     }
+
+    @Test
+    public void testCreatePdbSearchItems() {
+	// query chain in clusters 1 (C100) to 9 (C30), no C40 cluster
+	int[] clusterIds = {1, 2, 3, 4, 5, 6, 7, 0, 9};
+	List<Object[]> rows = new ArrayList<Object[]>();
+	// same chain as the query: all levels
+	rows.add(row(1, new int[] {1, 2, 3, 4, 5, 6, 7, 0, 9}));
+	// in C90 and looser, two chains of the same pdb
+	rows.add(row(2, new int[] {10, 20, 3, 4, 5, 6, 7, 0, 9}));
+	rows.add(row(2, new int[] {11, 21, 3, 40, 50, 60, 70, 0, 90}));
+	// in C95 but missing from C50
+	rows.add(row(3, new int[] {12, 2, 3, 4, 5, 6, 71, 0, 9}));
+	// only in C30: not suspicious
+	rows.add(row(4, new int[] {13, 22, 30, 41, 51, 61, 72, 0, 9}));
+
+	List<PDBSearchResult> results = ChainClusterDAOJpa.createPdbSearchItems(clusterIds, rows);
+
+	assertEquals(4, results.size());
+	assertEquals(1, results.get(0).getUid());
+	assertEquals(SequenceClusterType.C100, results.get(0).getSequenceClusterType());
+	assertFalse(results.get(0).isSuspicious());
+	assertEquals(3, results.get(1).getUid());
+	assertEquals(SequenceClusterType.C95, results.get(1).getSequenceClusterType());
+	assertTrue(results.get(1).isSuspicious());
+	assertEquals(2, results.get(2).getUid());
+	assertEquals(SequenceClusterType.C90, results.get(2).getSequenceClusterType());
+	assertFalse(results.get(2).isSuspicious());
+	assertEquals(4, results.get(3).getUid());
+	assertEquals(SequenceClusterType.C30, results.get(3).getSequenceClusterType());
+	assertFalse(results.get(3).isSuspicious());
+    }
+
+    @Test
+    public void testGetPdbSearchItemsAllLevels() throws DaoException {
+	ChainClusterDAOJpa dao = new ChainClusterDAOJpa();
+	List<PDBSearchResult> results = dao.getPdbSearchItems("1smt", "A");
+	List<PDBSearchResult> resultsc30 = dao.getPdbSearchItems("1smt", "A", SequenceClusterType.C30);
+
+	assertTrue("all levels must contain at least the loosest level", results.size() >= resultsc30.size());
+	for(int i = 1; i < results.size(); i++)
+	    assertTrue("Results must be ordered by level",
+		    results.get(i-1).getSequenceClusterType().compareTo(results.get(i).getSequenceClusterType()) <= 0);
+    }
+
+    private static Object[] row(int uid, int[] clusterIds) {
+	PdbInfoDB pdbInfo = new PdbInfoDB();
+	pdbInfo.setUid(uid);
+	pdbInfo.setPdbCode("pdb" + uid);
+	Object[] row = new Object[clusterIds.length + 1];
+	for(int i = 0; i < clusterIds.length; i++)
+	    row[i] = clusterIds[i];
+	row[clusterIds.length] = pdbInfo;
+	return row;
+    }
 }
@@ -0,0 +1,56 @@
+package ch.systemsx.sybit.crkwebui.server.db.dao.jpa;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import ch.systemsx.sybit.crkwebui.shared.model.Residue;
+import eppic.model.ResidueBurialDB;
+import eppic.model.ResidueInfoDB;
+
+
+public class ResidueDAOJpaTest {
+
+    @Test
+    public void testCreateResidueAsEntityConversion() {
+	ResidueInfoDB residueInfo = new ResidueInfoDB();
+	residueInfo.setResidueNumber(42);
+	residueInfo.setPdbResidueNumber("40A");
+	residueInfo.setResidueType("LEU");
+	residueInfo.setEntropyScore(1.5);
+
+	ResidueBurialDB residueBurial = new ResidueBurialDB();
+	residueBurial.setUid(7);
+	residueBurial.setSide(true);
+	residueBurial.setAsa(100);
+	residueBurial.setBsa(25);
+	residueBurial.setRegion(ResidueBurialDB.CORE_GEOMETRY);
+	residueBurial.setResidueInfo(residueInfo);
+
+	Residue expected = Residue.create(residueBurial);
+	Residue residue = ResidueDAOJpa.createResidue(new Object[] {3, 7, true, 100.0, 25.0, ResidueBurialDB.CORE_GEOMETRY,
+		42, "40A", "LEU", 1.5});
+
+	assertEquals(expected.getUid(), residue.getUid());
+	assertEquals(expected.getSide(), residue.getSide());
+	assertEquals(expected.getAsa(), residue.getAsa(), 0.0);
+	assertEquals(expected.getBsa(), residue.getBsa(), 0.0);
+	assertEquals(expected.getBsaPercentage(), residue.getBsaPercentage(), 0.0);
+	assertEquals(expected.getRegion(), residue.getRegion());
+	assertEquals(expected.getResidueNumber(), residue.getResidueNumber());
+	assertEquals(expected.getPdbResidueNumber(), residue.getPdbResidueNumber());
+	assertEquals(expected.getResidueType(), residue.getResidueType());
+	assertEquals(expected.getEntropyScore(), residue.getEntropyScore(), 0.0);
+    }
+
+    @Test
+    public void testCreateResidueWithoutResidueInfo() {
+	Residue residue = ResidueDAOJpa.createResidue(new Object[] {3, 8, false, 50.0, 0.0, ResidueBurialDB.SURFACE,
+		null, null, null, null});
+
+	assertEquals(8, residue.getUid());
+	assertEquals(0, residue.getResidueNumber());
+	assertNull(residue.getResidueType());
+    }
+}
@@ -0,0 +1,120 @@
+package ch.systemsx.sybit.crkwebui.server.ip.limiters;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class TestSlidingWindowCounter {
+
+	private static final long WINDOW = 1000;
+
+	@Test
+	public void testCountInWindow() {
+		SlidingWindowCounter counter = new SlidingWindowCounter(WINDOW, 100);
+
+		counter.add("a", 100);
+		counter.add("a", 600);
+		counter.add("a", 900);
+		counter.add("b", 500);
+
+		assertEquals(3, counter.getCount("a", 1000));
+		assertEquals(100, counter.getOldest("a", 1000));
+		// the first event is out of the window
+		assertEquals(2, counter.getCount("a", 1100));
+		assertEquals(600, counter.getOldest("a", 1100));
+		assertEquals(1, counter.getCount("b", 1100));
+		assertEquals(0, counter.getCount("c", 1100));
+		// no events: start of the window
+		assertEquals(100, counter.getOldest("c", 1100));
+	}
+
+	@Test
+	public void testRemoveExpired() {
+		SlidingWindowCounter counter = new SlidingWindowCounter(WINDOW, 100);
+
+		counter.add("a", 100);
+		counter.add("a", 900);
+		counter.add("b", 500);
+
+		counter.removeExpired(1600);
+		assertEquals(1, counter.size());
+		assertEquals(1, counter.getCount("a", 1600));
+
+		counter.removeExpired(2000);
+		assertEquals(0, counter.size());
+	}
+
+	@Test
+	public void testMaxEventsPerKey() {
+		SlidingWindowCounter counter = new SlidingWindowCounter(WINDOW, 3);
+
+		for (int i = 1; i <= 5; i++) {
+			counter.add("a", i);
+		}
+
+		assertEquals(3, counter.getCount("a", 10));
+		assertEquals(3, counter.getOldest("a", 10));
+	}
+
+	@Test
+	public void testEnsureMaxEventsPerKey() {
+		SlidingWindowCounter counter = new SlidingWindowCounter(WINDOW, 3);
+
+		counter.ensureMaxEventsPerKey(5);
+		// never lowered
+		counter.ensureMaxEventsPerKey(2);
+		assertEquals(5, counter.getMaxEventsPerKey());
+
+		for (int i = 1; i <= 7; i++) {
+			counter.add("a", i);
+		}
+
+		assertEquals(5, counter.getCount("a", 10));
+		assertEquals(3, counter.getOldest("a", 10));
+	}
+
+	@Test
+	public void testAddAll() {
+		SlidingWindowCounter counter = new SlidingWindowCounter(WINDOW, 100);
+
+		Map<String, List<Date>> dates = Collections.singletonMap("a", Arrays.asList(new Date(200), new Date(300)));
+		counter.addAll(dates);
+		counter.add("a", 400);
+
+		assertEquals(3, counter.getCount("a", 500));
+		assertEquals(200, counter.getOldest("a", 500));
+	}
+
+	@Test
+	public void testConcurrentAdd() throws InterruptedException {
+		SlidingWindowCounter counter = new SlidingWindowCounter(WINDOW, 100000);
+
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		for (int t = 0; t < 8; t++) {
+			executor.submit(() -> {
+				for (int i = 0; i < 1000; i++) {
+					counter.add("ip" + (i % 4), 500);
+					// concurrent cleanups must not lose events still in the window
+					counter.removeExpired(1000);
+				}
+			});
+		}
+		executor.shutdown();
+		executor.awaitTermination(1, TimeUnit.MINUTES);
+
+		int total = 0;
+		for (int i = 0; i < 4; i++) {
+			total += counter.getCount("ip" + i, 1000);
+		}
+		assertEquals(8000, total);
+	}
+}
@@ -0,0 +1,93 @@
+package ch.systemsx.sybit.crkwebui.server.jmol.generators;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import org.biojava.nbio.structure.Structure;
+import org.biojava.nbio.structure.StructureTools;
+import org.biojava.nbio.structure.io.mmcif.ChemCompGroupFactory;
+import org.biojava.nbio.structure.io.mmcif.ReducedChemCompProvider;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class TestStructureCache {
+
+	private static final String CRYST1 = "CRYST1   50.000   60.000   70.000  90.00  90.00  90.00 P 21 21 21    4          ";
+	private static final String ATOM = "ATOM  %5d  CA  ALA A%4d      %6.3f  10.000  10.000  1.00  0.00           C  ";
+
+	@BeforeClass
+	public static void setUpBeforeClass() {
+		// no need to download chemical components for these tests
+		ChemCompGroupFactory.setChemCompProvider(new ReducedChemCompProvider());
+	}
+
+	@Test
+	public void testCaching() throws Exception {
+		File file = writePdb(3);
+		StructureCache cache = new StructureCache();
+
+		Structure first = cache.getStructure(file);
+		assertEquals(3, StructureTools.getNrAtoms(first));
+		assertEquals(1, cache.getMisses());
+
+		Structure second = cache.getStructure(file);
+		assertEquals(1, cache.getMisses());
+		assertEquals(1, cache.getHits());
+		// callers get their own copy
+		assertNotSame(first, second);
+		assertNotSame(first.getChain(0), second.getChain(0));
+		assertEquals(3, StructureTools.getNrAtoms(second));
+		assertNotNull(second.getCrystallographicInfo());
+
+		// modified files are parsed again
+		writePdb(file, 5);
+		file.setLastModified(file.lastModified() + 2000);
+		assertEquals(5, StructureTools.getNrAtoms(cache.getStructure(file)));
+		assertEquals(2, cache.getMisses());
+		assertEquals(5, cache.getAtoms());
+	}
+
+	@Test
+	public void testMaxAtoms() throws Exception {
+		File a = writePdb(3);
+		File b = writePdb(4);
+		StructureCache cache = new StructureCache();
+		cache.setMaxAtoms(5);
+
+		cache.getStructure(a);
+		assertEquals(3, cache.getAtoms());
+		cache.getStructure(b);
+		// only the most recent is strongly kept
+		assertEquals(4, cache.getAtoms());
+		// a is still softly reachable
+		cache.getStructure(a);
+		assertEquals(3, cache.getAtoms());
+	}
+
+	@Test(expected=IOException.class)
+	public void testMissingFile() throws Exception {
+		File file = writePdb(1);
+		file.delete();
+		new StructureCache().getStructure(file);
+	}
+
+	private static File writePdb(int numAtoms) throws IOException {
+		File file = File.createTempFile("TestStructureCache", ".pdb");
+		file.deleteOnExit();
+		writePdb(file, numAtoms);
+		return file;
+	}
+
+	private static void writePdb(File file, int numAtoms) throws IOException {
+		try (PrintWriter pw = new PrintWriter(file)) {
+			pw.println(CRYST1);
+			for (int i=1;i<=numAtoms;i++) {
+				pw.println(String.format(ATOM, i, i, 10.0+3.8*i));
+			}
+			pw.println("END");
+		}
+	}
+}
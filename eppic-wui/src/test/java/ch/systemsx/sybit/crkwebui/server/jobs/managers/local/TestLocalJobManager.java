@@ -0,0 +1,178 @@
+package ch.systemsx.sybit.crkwebui.server.jobs.managers.local;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ch.systemsx.sybit.crkwebui.server.CrkWebServiceImpl;
+import ch.systemsx.sybit.shared.model.StatusOfJob;
+import eppic.EppicWorker;
+
+public class TestLocalJobManager {
+
+	/**
+	 * A worker following the protocol of {@link EppicWorker}, that instead of running EPPIC
+	 * acts as told by the first argument, in the directory given by the second argument.
+	 */
+	public static class FakeWorker {
+		public static void main(String[] args) throws Exception {
+			BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+			String line;
+			while ((line = in.readLine())!=null) {
+				String[] fields = line.split(EppicWorker.FIELD_SEPARATOR);
+				File dir = new File(fields[3]);
+				Files.write(new File(fields[0]).toPath(), ("pid "+ProcessHandleHolder.pid()+"\n").getBytes());
+				switch (fields[2]) {
+				case "finish":
+					new File(dir, CrkWebServiceImpl.FINISHED_FILE_NAME).createNewFile();
+					break;
+				case "crash":
+					System.exit(1);
+					break;
+				case "sleep":
+					Thread.sleep(60000);
+					break;
+				default:
+					break;
+				}
+				System.out.println(EppicWorker.JOB_DONE);
+				System.out.flush();
+			}
+		}
+	}
+
+	/**
+	 * Identifies the worker JVM (java 8 has no ProcessHandle)
+	 */
+	private static class ProcessHandleHolder {
+		static String pid() {
+			return java.lang.management.ManagementFactory.getRuntimeMXBean().getName();
+		}
+	}
+
+	private File jobsDir;
+	private LocalJobManager jobManager;
+
+	@Before
+	public void setUp() throws IOException {
+		jobsDir = Files.createTempDirectory("TestLocalJobManager").toFile();
+		jobManager = new LocalJobManager(1, 10, jobsDir.toString()) {
+			@Override
+			protected List<String> createWorkerCommand(String javaVMExec, List<String> jvmOptions, String jar) {
+				List<String> command = new ArrayList<>();
+				command.add(new File(System.getProperty("java.home"), "bin/java").toString());
+				command.add("-cp");
+				command.add(System.getProperty("java.class.path"));
+				command.add(FakeWorker.class.getName());
+				return command;
+			}
+		};
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		jobManager.finalize();
+	}
+
+	@Test
+	public void testJobStatuses() throws Exception {
+		String finished = submit("finishedjob", "finish");
+		String crashed = submit("crashedjob", "crash");
+		String failed = submit("failedjob", "fail");
+		String afterCrash = submit("aftercrashjob", "finish");
+
+		assertEquals(StatusOfJob.FINISHED, waitForJob("finishedjob", finished));
+		assertEquals(StatusOfJob.ERROR, waitForJob("crashedjob", crashed));
+		assertEquals(StatusOfJob.ERROR, waitForJob("failedjob", failed));
+		// a new worker is started after a crash
+		assertEquals(StatusOfJob.FINISHED, waitForJob("aftercrashjob", afterCrash));
+
+		// the worker is reused for jobs that don't crash
+		assertEquals(readOutput("crashedjob", crashed), readOutput("finishedjob", finished));
+		assertEquals(readOutput("failedjob", failed), readOutput("aftercrashjob", afterCrash));
+		assertFalse(readOutput("crashedjob", crashed).equals(readOutput("failedjob", failed)));
+
+		assertEquals(0, jobManager.getNrOfActiveJobs());
+		// statuses of jobs not known anymore are found from the job directories
+		assertEquals(StatusOfJob.FINISHED, jobManager.getStatusOfJob("finishedjob", finished));
+		assertEquals(StatusOfJob.NONEXISTING, jobManager.getStatusOfJob("unknownjob", "local-1000"));
+	}
+
+	@Test
+	public void testStopJob() throws Exception {
+		String running = submit("runningjob", "sleep");
+		String queued = submit("queuedjob", "finish");
+
+		long start = System.currentTimeMillis();
+		while (jobManager.getStatusOfJob("runningjob", running)!=StatusOfJob.RUNNING) {
+			Thread.sleep(10);
+		}
+		assertEquals(StatusOfJob.QUEUING, jobManager.getStatusOfJob("queuedjob", queued));
+
+		// as done by the web service
+		new File(jobsDir, "queuedjob/"+CrkWebServiceImpl.KILLED_FILE_NAME).createNewFile();
+		jobManager.stopJob(queued);
+		new File(jobsDir, "runningjob/"+CrkWebServiceImpl.KILLED_FILE_NAME).createNewFile();
+		jobManager.stopJob(running);
+
+		assertEquals(StatusOfJob.STOPPED, waitForJob("runningjob", running));
+		assertEquals(StatusOfJob.STOPPED, waitForJob("queuedjob", queued));
+		assertTrue("Job should have been killed", System.currentTimeMillis()-start < 30000);
+		assertFalse("Stopped job should not have run", new File(jobsDir, "queuedjob/"+CrkWebServiceImpl.FINISHED_FILE_NAME).exists());
+	}
+
+	@Test
+	public void testStopFinishingJob() throws Exception {
+		// stops landing around the end of a job, with the next job queued for the same worker:
+		// only the stopped job may be affected, never the next one
+		for (int i = 0; i < 20; i++) {
+			String stopped = submit("stoppedjob"+i, "finish");
+			String next = submit("nextjob"+i, "finish");
+
+			while (jobManager.getStatusOfJob("stoppedjob"+i, stopped)==StatusOfJob.QUEUING) {
+				Thread.yield();
+			}
+			long delay = System.nanoTime() + i * 500000L;
+			while (System.nanoTime() < delay) {
+				Thread.yield();
+			}
+			jobManager.stopJob(stopped);
+
+			assertEquals("nextjob"+i, StatusOfJob.FINISHED, waitForJob("nextjob"+i, next));
+		}
+		assertEquals(0, jobManager.getNrOfActiveJobs());
+	}
+
+	private String submit(String jobId, String action) throws Exception {
+		File jobDir = new File(jobsDir, jobId);
+		jobDir.mkdir();
+		List<String> command = Arrays.asList("-Xmx64m", "-jar", "eppic.jar", action, jobDir.toString());
+		return jobManager.startJob("java", jobId, command, jobDir.toString(), 1);
+	}
+
+	private StatusOfJob waitForJob(String jobId, String submissionId) throws Exception {
+		StatusOfJob status;
+		long start = System.currentTimeMillis();
+		do {
+			Thread.sleep(20);
+			status = jobManager.getStatusOfJob(jobId, submissionId);
+		} while ((status==StatusOfJob.QUEUING || status==StatusOfJob.RUNNING) && System.currentTimeMillis()-start < 30000);
+		return status;
+	}
+
+	private String readOutput(String jobId, String submissionId) throws IOException {
+		File outFile = new File(new File(jobsDir, jobId), jobId+".o"+submissionId.substring("local-".length()));
+		return new String(Files.readAllBytes(outFile.toPath()));
+	}
+}
@@ -0,0 +1,97 @@
+package ch.systemsx.sybit.crkwebui.server.results;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import ch.systemsx.sybit.crkwebui.shared.model.Interface;
+import ch.systemsx.sybit.crkwebui.shared.model.InterfaceCluster;
+import ch.systemsx.sybit.crkwebui.shared.model.PdbInfo;
+
+public class TestResultBundleStore {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testWriteAndRead() throws IOException {
+		ResultBundleStore store = new ResultBundleStore(folder.getRoot(), "2016_01");
+
+		assertNull(store.read("1smt"));
+		assertTrue(store.write("1smt", createPdbInfo()));
+		assertTrue(store.getBundleFile("1smt").getPath().contains("divided" + File.separator + "sm"));
+
+		PdbInfo pdbInfo = store.read("1smt");
+		assertEquals("1smt", pdbInfo.getPdbCode());
+		assertEquals(1, pdbInfo.getInterfaceClusters().size());
+		assertEquals(2, pdbInfo.getInterfaceClusters().get(0).getInterfaces().size());
+		assertEquals(2, pdbInfo.getInterfaceClusters().get(0).getInterfaces().get(1).getInterfaceId());
+	}
+
+	@Test
+	public void testOtherRelease() throws IOException {
+		new ResultBundleStore(folder.getRoot(), "2016_01").write("1smt", createPdbInfo());
+
+		ResultBundleStore store = new ResultBundleStore(folder.getRoot(), "2016_02");
+		assertNull(store.read("1smt"));
+
+		// overwritten for the new release
+		assertTrue(store.write("1smt", createPdbInfo()));
+		assertEquals("1smt", store.read("1smt").getPdbCode());
+	}
+
+	@Test
+	public void testUserJobsNotBundled() throws IOException {
+		ResultBundleStore store = new ResultBundleStore(folder.getRoot(), "2016_01");
+
+		assertFalse(store.write("ab12cd34ef56", createPdbInfo()));
+		assertNull(store.read("ab12cd34ef56"));
+	}
+
+	@Test
+	public void testCorruptBundle() throws IOException {
+		ResultBundleStore store = new ResultBundleStore(folder.getRoot(), "2016_01");
+		File file = store.getBundleFile("1smt");
+		file.getParentFile().mkdirs();
+		try (FileOutputStream out = new FileOutputStream(file)) {
+			out.write(new byte[] {1, 2, 3});
+		}
+
+		assertNull(store.read("1smt"));
+		assertTrue(store.delete("1smt"));
+	}
+
+	private static PdbInfo createPdbInfo() {
+		PdbInfo pdbInfo = new PdbInfo();
+		pdbInfo.setJobId("1smt");
+		pdbInfo.setPdbCode("1smt");
+		pdbInfo.setTitle("SMTB REPRESSOR FROM SYNECHOCOCCUS PCC7942");
+
+		List<Interface> interfaces = new ArrayList<Interface>();
+		for (int i = 1; i <= 2; i++) {
+			Interface interf = new Interface();
+			interf.setInterfaceId(i);
+			interf.setClusterId(1);
+			interfaces.add(interf);
+		}
+		InterfaceCluster cluster = new InterfaceCluster();
+		cluster.setClusterId(1);
+		cluster.setInterfaces(interfaces);
+		pdbInfo.setInterfaceClusters(Arrays.asList(cluster));
+		pdbInfo.setChainClusters(new ArrayList<>());
+		pdbInfo.setAssemblies(new ArrayList<>());
+		return pdbInfo;
+	}
+}